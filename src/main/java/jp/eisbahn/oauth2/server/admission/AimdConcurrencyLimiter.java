@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.admission;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class adjusts the limit of requests processed at the same time with
+ * the additive-increase/multiplicative-decrease (AIMD) algorithm.
+ *
+ * <p>When a request takes longer than the latency threshold, the database is
+ * regarded as degraded and the limit is multiplied by the backoff ratio.
+ * Otherwise, when the limit was actually used, the limit grows by one per
+ * round trip of the requests in process. The limit is kept between the
+ * minimum and maximum limits.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class AimdConcurrencyLimiter extends ConcurrencyLimiter {
+
+	private final Object lock = new Object();
+	private volatile int limit;
+	private double exactLimit;
+	private int minLimit = 10;
+	private int maxLimit = 1000;
+	private double backoffRatio = 0.9;
+	private long latencyThreshold = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * Initialize this instance.
+	 * @param initialLimit The initial limit.
+	 */
+	public AimdConcurrencyLimiter(int initialLimit) {
+		super();
+		if (initialLimit <= 0) {
+			throw new IllegalArgumentException("initialLimit must be positive.");
+		}
+		this.limit = initialLimit;
+		this.exactLimit = initialLimit;
+	}
+
+	/**
+	 * Set the minimum limit. The default is 10.
+	 * @param minLimit The minimum number of requests.
+	 */
+	public void setMinLimit(int minLimit) {
+		this.minLimit = minLimit;
+	}
+
+	/**
+	 * Set the maximum limit. The default is 1000.
+	 * @param maxLimit The maximum number of requests.
+	 */
+	public void setMaxLimit(int maxLimit) {
+		this.maxLimit = maxLimit;
+	}
+
+	/**
+	 * Set the ratio to decrease the limit. The default is 0.9.
+	 * @param backoffRatio The ratio between 0.0 and 1.0.
+	 */
+	public void setBackoffRatio(double backoffRatio) {
+		this.backoffRatio = backoffRatio;
+	}
+
+	/**
+	 * Set the latency regarded as the degradation. The default is 1 second.
+	 * @param latencyThreshold The latency. The unit is millisecond.
+	 */
+	public void setLatencyThreshold(long latencyThreshold) {
+		this.latencyThreshold = TimeUnit.MILLISECONDS.toNanos(latencyThreshold);
+	}
+
+	@Override
+	public int getLimit() {
+		return limit;
+	}
+
+	@Override
+	protected void onRelease(long latency, int inFlight) {
+		synchronized (lock) {
+			if (latency > latencyThreshold) {
+				exactLimit = Math.max(minLimit, exactLimit * backoffRatio);
+			} else if (inFlight * 2 >= limit) {
+				exactLimit = Math.min(maxLimit, exactLimit + 1.0 / exactLimit);
+			} else {
+				return;
+			}
+			limit = Math.max(1, (int) exactLimit);
+		}
+	}
+
+}
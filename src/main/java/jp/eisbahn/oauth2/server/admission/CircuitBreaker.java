@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.admission;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * This class stops calling a failing backend for a while.
+ *
+ * <p>The circuit is closed at first, and all calls are allowed. When the
+ * calls fail consecutively as many times as the failure threshold, the
+ * circuit is opened and all calls are refused immediately for the open
+ * duration. After that, the circuit becomes half-open and one probe call is
+ * allowed for each open duration. If the probe succeeds, the circuit is
+ * closed. If it fails, the circuit is opened again. Therefore, a recovering
+ * backend receives only a few calls.</p>
+ *
+ * <p>Each caller must call the tryAcquire() method before the call, and must
+ * report the result with the onSuccess() or onFailure() method when the call
+ * is allowed.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class CircuitBreaker implements CircuitBreakerMXBean {
+
+	/**
+	 * This enum represents the state of the circuit.
+	 */
+	public enum State {
+		/** All calls are allowed. */
+		CLOSED,
+		/** All calls are refused. */
+		OPEN,
+		/** One probe call is allowed for each open duration. */
+		HALF_OPEN
+	}
+
+	private volatile State state = State.CLOSED;
+	private long openedAt;
+	private long lastProbeAt;
+	private int failureThreshold = 5;
+	private long openDuration = 10000L;
+
+	private final AtomicInteger consecutiveFailures = new AtomicInteger();
+	private final AtomicLong successCount = new AtomicLong();
+	private final AtomicLong failureCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong openedCount = new AtomicLong();
+
+	/**
+	 * Set the number of consecutive failures to open the circuit.
+	 * The default value is 5.
+	 * @param failureThreshold The number of failures.
+	 */
+	public void setFailureThreshold(int failureThreshold) {
+		if (failureThreshold <= 0) {
+			throw new IllegalArgumentException("failureThreshold must be positive.");
+		}
+		this.failureThreshold = failureThreshold;
+	}
+
+	/**
+	 * Set the duration to refuse calls after the circuit is opened. This is
+	 * also the interval of probe calls while the circuit is half-open.
+	 * The default value is 10 seconds.
+	 * @param openDuration The duration in milliseconds.
+	 */
+	public void setOpenDuration(long openDuration) {
+		if (openDuration <= 0) {
+			throw new IllegalArgumentException("openDuration must be positive.");
+		}
+		this.openDuration = openDuration;
+	}
+
+	/**
+	 * Try to start a call.
+	 * @return True if the call is allowed. If the circuit is open, return
+	 * false.
+	 */
+	public boolean tryAcquire() {
+		if (state == State.CLOSED) {
+			return true;
+		}
+		long now = currentTimeMillis();
+		synchronized (this) {
+			switch (state) {
+			case CLOSED:
+				return true;
+			case OPEN:
+				if (now - openedAt >= openDuration) {
+					state = State.HALF_OPEN;
+					lastProbeAt = now;
+					return true;
+				}
+				break;
+			case HALF_OPEN:
+				if (now - lastProbeAt >= openDuration) {
+					lastProbeAt = now;
+					return true;
+				}
+				break;
+			}
+		}
+		rejectedCount.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Report that the allowed call succeeded.
+	 */
+	public void onSuccess() {
+		successCount.incrementAndGet();
+		if (state == State.CLOSED) {
+			if (consecutiveFailures.get() != 0) {
+				consecutiveFailures.set(0);
+			}
+			return;
+		}
+		synchronized (this) {
+			if (state == State.HALF_OPEN) {
+				consecutiveFailures.set(0);
+				state = State.CLOSED;
+			}
+		}
+	}
+
+	/**
+	 * Report that the allowed call failed.
+	 */
+	public void onFailure() {
+		failureCount.incrementAndGet();
+		if (state == State.CLOSED
+				&& consecutiveFailures.incrementAndGet() < failureThreshold) {
+			return;
+		}
+		synchronized (this) {
+			if (state == State.HALF_OPEN
+					|| (state == State.CLOSED && consecutiveFailures.get() >= failureThreshold)) {
+				state = State.OPEN;
+				openedAt = currentTimeMillis();
+				consecutiveFailures.set(0);
+				openedCount.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Register this instance to the platform MBean server.
+	 * @param name The object name, for instance,
+	 * "jp.eisbahn.oauth2.server:type=CircuitBreaker,name=protectedResource".
+	 * @throws JMException If the registration failed.
+	 */
+	public void registerMBean(String name) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+	}
+
+	@Override
+	public State getState() {
+		return state;
+	}
+
+	@Override
+	public long getSuccessCount() {
+		return successCount.get();
+	}
+
+	@Override
+	public long getFailureCount() {
+		return failureCount.get();
+	}
+
+	@Override
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	@Override
+	public long getOpenedCount() {
+		return openedCount.get();
+	}
+
+	/**
+	 * Retrieve the current time. This method is provided for an unit test.
+	 * @return The current time in millisecond.
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.admission;
+
+/**
+ * This interface exports the state of a CircuitBreaker as a MXBean.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface CircuitBreakerMXBean {
+
+	/**
+	 * Retrieve the current state of the circuit.
+	 * @return The state.
+	 */
+	public CircuitBreaker.State getState();
+
+	/**
+	 * Retrieve the number of calls which succeeded.
+	 * @return The number of calls.
+	 */
+	public long getSuccessCount();
+
+	/**
+	 * Retrieve the number of calls which failed.
+	 * @return The number of calls.
+	 */
+	public long getFailureCount();
+
+	/**
+	 * Retrieve the number of calls refused because the circuit was open.
+	 * @return The number of calls.
+	 */
+	public long getRejectedCount();
+
+	/**
+	 * Retrieve the number of times the circuit was opened.
+	 * @return The number of times.
+	 */
+	public long getOpenedCount();
+
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.admission;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import jp.eisbahn.oauth2.server.async.HashedWheelTimer;
+
+/**
+ * This abstract class limits the number of requests processed at the same
+ * time.
+ *
+ * <p>Each request acquires a permit with the tryAcquire() method before
+ * calling your DataHandler, and releases it when the response is passed to
+ * the handler. If no permit is available, the request must be refused
+ * immediately instead of waiting, so that the requests waiting for a
+ * degraded database never pile up. The sub class determines the limit.</p>
+ *
+ * <p>If the response of a request is lost, for instance, your DataHandler
+ * never invokes the handler and no {@link jp.eisbahn.oauth2.server.data.Deadlines}
+ * is set, the permit would never be released. To keep such permits from
+ * reducing the limit forever, each permit is released by a
+ * {@link HashedWheelTimer} after the permit timeout. These permits are
+ * counted as the expired permits.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public abstract class ConcurrencyLimiter implements ConcurrencyLimiterMXBean {
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger peakInFlight = new AtomicInteger();
+	private final AtomicLong acceptedCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong expiredCount = new AtomicLong();
+	private HashedWheelTimer timer;
+	private long permitTimeout = 60000L;
+
+	/**
+	 * Set the timer which releases the permits held longer than the permit
+	 * timeout.
+	 * @param timer The timer. If null, the timer shared in this JVM is used.
+	 */
+	public void setTimer(HashedWheelTimer timer) {
+		this.timer = timer;
+	}
+
+	/**
+	 * Set the time after which a permit not released is released
+	 * automatically. This should be longer than the deadline of requests.
+	 * The default value is 60 seconds.
+	 * @param permitTimeout The timeout in milliseconds. If 0, permits are
+	 * released only by the release() method.
+	 */
+	public void setPermitTimeout(long permitTimeout) {
+		if (permitTimeout < 0) {
+			throw new IllegalArgumentException("permitTimeout must not be negative.");
+		}
+		this.permitTimeout = permitTimeout;
+	}
+
+	/**
+	 * Try to acquire a permit.
+	 * @return The permit. If the limit is reached, return null.
+	 */
+	public Permit tryAcquire() {
+		while (true) {
+			int current = inFlight.get();
+			if (current >= getLimit()) {
+				rejectedCount.incrementAndGet();
+				return null;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				acceptedCount.incrementAndGet();
+				updatePeak(current + 1);
+				final Permit permit = new Permit(nanoTime());
+				if (permitTimeout > 0) {
+					permit.timeout = (timer != null ? timer : HashedWheelTimer.getShared()).newTimeout(
+							new Runnable() {
+								@Override
+								public void run() {
+									if (permit.release()) {
+										expiredCount.incrementAndGet();
+									}
+								}
+							}, permitTimeout, TimeUnit.MILLISECONDS);
+				}
+				return permit;
+			}
+		}
+	}
+
+	/**
+	 * Register this instance to the platform MBean server.
+	 * @param name The object name, for instance,
+	 * "jp.eisbahn.oauth2.server:type=ConcurrencyLimiter,name=token".
+	 * @throws JMException If the registration failed.
+	 */
+	public void registerMBean(String name) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+	}
+
+	@Override
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	@Override
+	public int getPeakInFlight() {
+		return peakInFlight.get();
+	}
+
+	@Override
+	public long getAcceptedCount() {
+		return acceptedCount.get();
+	}
+
+	@Override
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	@Override
+	public long getExpiredCount() {
+		return expiredCount.get();
+	}
+
+	/**
+	 * This method is called when each permit is released. The sub class
+	 * can adjust the limit with the latency of the request.
+	 * @param latency The time from acquiring to releasing the permit.
+	 * The unit is nanosecond.
+	 * @param inFlight The number of requests in process when the permit was
+	 * acquired.
+	 */
+	protected void onRelease(long latency, int inFlight) {
+	}
+
+	/**
+	 * Retrieve the current time. This method is provided for an unit test.
+	 * @return The current time in nanosecond.
+	 */
+	protected long nanoTime() {
+		return System.nanoTime();
+	}
+
+	private void updatePeak(int value) {
+		while (true) {
+			int peak = peakInFlight.get();
+			if (value <= peak || peakInFlight.compareAndSet(peak, value)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * This class represents a permit acquired for a request.
+	 * The permit is returned only once, even if the release() method is
+	 * called twice.
+	 *
+	 * @author Yoichiro Tanaka
+	 *
+	 */
+	public final class Permit {
+
+		private final AtomicBoolean released = new AtomicBoolean();
+		private final long acquiredAt;
+		private final int acquiredInFlight;
+		private volatile HashedWheelTimer.Timeout timeout;
+
+		private Permit(long acquiredAt) {
+			this.acquiredAt = acquiredAt;
+			this.acquiredInFlight = inFlight.get();
+		}
+
+		/**
+		 * Release this permit.
+		 * @return True if this permit was released by this call.
+		 */
+		public boolean release() {
+			if (!released.compareAndSet(false, true)) {
+				return false;
+			}
+			HashedWheelTimer.Timeout current = timeout;
+			if (current != null) {
+				current.cancel();
+			}
+			inFlight.decrementAndGet();
+			onRelease(nanoTime() - acquiredAt, acquiredInFlight);
+			return true;
+		}
+
+	}
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.admission;
+
+/**
+ * This interface exports the state of a ConcurrencyLimiter as a MXBean.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface ConcurrencyLimiterMXBean {
+
+	/**
+	 * Retrieve the current limit of requests processed at the same time.
+	 * @return The number of requests.
+	 */
+	public int getLimit();
+
+	/**
+	 * Retrieve the number of requests in process.
+	 * @return The number of requests.
+	 */
+	public int getInFlight();
+
+	/**
+	 * Retrieve the maximum number of requests which were in process at the
+	 * same time.
+	 * @return The number of requests.
+	 */
+	public int getPeakInFlight();
+
+	/**
+	 * Retrieve the number of accepted requests.
+	 * @return The number of requests.
+	 */
+	public long getAcceptedCount();
+
+	/**
+	 * Retrieve the number of rejected requests.
+	 * @return The number of requests.
+	 */
+	public long getRejectedCount();
+
+	/**
+	 * Retrieve the number of permits released by the permit timeout because
+	 * the response of the request was never passed.
+	 * @return The number of permits.
+	 */
+	public long getExpiredCount();
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.admission;
+
+/**
+ * This class limits the number of requests processed at the same time to
+ * the fixed number.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class FixedConcurrencyLimiter extends ConcurrencyLimiter {
+
+	private volatile int limit;
+
+	/**
+	 * Initialize this instance.
+	 * @param limit The number of requests processed at the same time.
+	 */
+	public FixedConcurrencyLimiter(int limit) {
+		super();
+		setLimit(limit);
+	}
+
+	/**
+	 * Set the number of requests processed at the same time.
+	 * @param limit The number of requests.
+	 */
+	public void setLimit(int limit) {
+		if (limit <= 0) {
+			throw new IllegalArgumentException("limit must be positive.");
+		}
+		this.limit = limit;
+	}
+
+	@Override
+	public int getLimit() {
+		return limit;
+	}
+
+}
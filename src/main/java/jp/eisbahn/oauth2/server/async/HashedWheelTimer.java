@@ -0,0 +1,285 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.async;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class executes tasks after each delay with a single thread.
+ *
+ * <p>The time is divided into ticks, and each task is put into the bucket of
+ * the wheel corresponding to the tick on which it expires. Therefore,
+ * scheduling and cancelling a task costs O(1) regardless of the number of
+ * tasks, and the task is executed with the accuracy of the tick duration.
+ * This is suitable for the deadlines of many requests which are almost always
+ * cancelled before they expire.</p>
+ *
+ * <p>The thread is a daemon thread and it is started when the first task is
+ * scheduled. The tasks must finish quickly, because they are executed by
+ * the thread one by one.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class HashedWheelTimer {
+
+	private static final int STATE_INIT = 0;
+	private static final int STATE_STARTED = 1;
+	private static final int STATE_STOPPED = 2;
+
+	private final long tickNanos;
+	private final Timeout[] wheel;
+	private final int mask;
+	private final Queue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+	private final AtomicInteger state = new AtomicInteger(STATE_INIT);
+	private final Thread worker;
+	private volatile long startTime;
+
+	/**
+	 * Initialize this instance with the tick duration 10 milliseconds and
+	 * 512 buckets.
+	 */
+	public HashedWheelTimer() {
+		this(10, TimeUnit.MILLISECONDS, 512);
+	}
+
+	/**
+	 * Initialize this instance.
+	 * @param tickDuration The duration of one tick.
+	 * @param unit The time unit of the tickDuration.
+	 * @param ticksPerWheel The number of buckets. This is rounded up to
+	 * the power of two.
+	 */
+	public HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("tickDuration must be positive.");
+		}
+		if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+			throw new IllegalArgumentException("ticksPerWheel is out of range.");
+		}
+		int size = 1;
+		while (size < ticksPerWheel) {
+			size <<= 1;
+		}
+		this.tickNanos = unit.toNanos(tickDuration);
+		this.wheel = new Timeout[size];
+		this.mask = size - 1;
+		this.worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				work();
+			}
+		}, "oauth2-hashed-wheel-timer");
+		this.worker.setDaemon(true);
+	}
+
+	/**
+	 * Retrieve the timer shared in this JVM. The instance is created at
+	 * the first call.
+	 * @return The shared timer.
+	 */
+	public static HashedWheelTimer getShared() {
+		return SharedHolder.INSTANCE;
+	}
+
+	/**
+	 * Schedule the task executed after the delay.
+	 * @param task The task.
+	 * @param delay The delay.
+	 * @param unit The time unit of the delay.
+	 * @return The handle to cancel the task.
+	 * @throws IllegalStateException This timer was already stopped.
+	 */
+	public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+		if (task == null) {
+			throw new NullPointerException("task");
+		}
+		start();
+		long deadline = System.nanoTime() + unit.toNanos(Math.max(0L, delay)) - startTime;
+		Timeout timeout = new Timeout(task, deadline);
+		pending.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Stop the thread of this timer. The tasks not executed yet are never
+	 * executed.
+	 */
+	public void stop() {
+		if (state.getAndSet(STATE_STOPPED) == STATE_STARTED) {
+			worker.interrupt();
+		}
+	}
+
+	private void start() {
+		int current = state.get();
+		if (current == STATE_STARTED) {
+			return;
+		}
+		if (current == STATE_INIT) {
+			synchronized (this) {
+				if (state.get() == STATE_INIT) {
+					startTime = System.nanoTime();
+					state.set(STATE_STARTED);
+					worker.start();
+				}
+			}
+			if (state.get() == STATE_STARTED) {
+				return;
+			}
+		}
+		throw new IllegalStateException("This timer was already stopped.");
+	}
+
+	private void work() {
+		long tick = 0;
+		while (state.get() == STATE_STARTED) {
+			long wakeUp = startTime + tickNanos * (tick + 1);
+			long sleep = wakeUp - System.nanoTime();
+			while (sleep > 0 && state.get() == STATE_STARTED) {
+				LockSupport.parkNanos(this, sleep);
+				sleep = wakeUp - System.nanoTime();
+			}
+			transferPending(tick);
+			expire((int) (tick & mask));
+			tick++;
+		}
+		pending.clear();
+	}
+
+	private void transferPending(long tick) {
+		Timeout timeout;
+		while ((timeout = pending.poll()) != null) {
+			if (timeout.isCancelled()) {
+				continue;
+			}
+			long expireTick = Math.max(timeout.deadline / tickNanos, tick);
+			timeout.remainingRounds = (expireTick - tick) / wheel.length;
+			int index = (int) (expireTick & mask);
+			timeout.next = wheel[index];
+			wheel[index] = timeout;
+		}
+	}
+
+	private void expire(int index) {
+		Timeout prev = null;
+		Timeout timeout = wheel[index];
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			boolean remove;
+			if (timeout.isCancelled()) {
+				remove = true;
+			} else if (timeout.remainingRounds <= 0) {
+				remove = true;
+				timeout.expire();
+			} else {
+				remove = false;
+				timeout.remainingRounds--;
+			}
+			if (remove) {
+				timeout.next = null;
+				if (prev == null) {
+					wheel[index] = next;
+				} else {
+					prev.next = next;
+				}
+			} else {
+				prev = timeout;
+			}
+			timeout = next;
+		}
+	}
+
+	/**
+	 * This class is a handle of the scheduled task.
+	 *
+	 * @author Yoichiro Tanaka
+	 *
+	 */
+	public static final class Timeout {
+
+		private static final int ST_WAITING = 0;
+		private static final int ST_CANCELLED = 1;
+		private static final int ST_EXPIRED = 2;
+
+		private volatile Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(ST_WAITING);
+		private long remainingRounds;
+		private Timeout next;
+
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancel the task. The task is released immediately, so that the
+		 * objects referred by it can be collected before this handle is
+		 * removed from the wheel.
+		 * @return If the task is cancelled by this call, return true.
+		 * If the task was already executed or cancelled, return false.
+		 */
+		public boolean cancel() {
+			if (!state.compareAndSet(ST_WAITING, ST_CANCELLED)) {
+				return false;
+			}
+			task = null;
+			return true;
+		}
+
+		/**
+		 * Retrieve whether the task was cancelled or not.
+		 * @return True if cancelled.
+		 */
+		public boolean isCancelled() {
+			return state.get() == ST_CANCELLED;
+		}
+
+		/**
+		 * Retrieve whether the task was executed or not.
+		 * @return True if executed.
+		 */
+		public boolean isExpired() {
+			return state.get() == ST_EXPIRED;
+		}
+
+		private void expire() {
+			if (!state.compareAndSet(ST_WAITING, ST_EXPIRED)) {
+				return;
+			}
+			Runnable expired = task;
+			task = null;
+			try {
+				expired.run();
+			} catch (RuntimeException e) {
+				// The failure of a task must not stop the other tasks.
+			}
+		}
+
+	}
+
+	private static final class SharedHolder {
+		static final HashedWheelTimer INSTANCE = new HashedWheelTimer();
+	}
+
+}
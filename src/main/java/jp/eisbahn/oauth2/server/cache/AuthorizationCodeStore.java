@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.IssuedToken;
+
+/**
+ * This class stores authorization codes in memory and lets each code be
+ * consumed only once.
+ *
+ * <p>This is provided for a single-node deployment. Put the authorization
+ * information when the code is issued at your authorization endpoint, and
+ * override DataHandler#exchangeAuthorizationCode() to call the exchange()
+ * method of this instance. The code is removed atomically without any lock,
+ * therefore, only one of requests with the same code can issue an access
+ * token. Codes which are not exchanged are discarded after the
+ * time-to-live.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class AuthorizationCodeStore {
+
+	private final TtlCache<String, AuthInfo> cache;
+	private long ttl = 600000L;
+
+	/**
+	 * Initialize this instance with the default maximum size (100000 codes).
+	 */
+	public AuthorizationCodeStore() {
+		this(100000);
+	}
+
+	/**
+	 * Initialize this instance.
+	 * @param maxSize The maximum number of codes to store.
+	 */
+	public AuthorizationCodeStore(int maxSize) {
+		this(new TtlCache<String, AuthInfo>(maxSize));
+	}
+
+	AuthorizationCodeStore(TtlCache<String, AuthInfo> cache) {
+		super();
+		this.cache = cache;
+	}
+
+	/**
+	 * Set the time-to-live of each code.
+	 * @param ttl The time-to-live value. The unit is millisecond.
+	 */
+	public void setTtl(long ttl) {
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Store the authorization information with its code.
+	 * @param authInfo The authorization information which has the code.
+	 * @return True if stored, false if the same code is already stored.
+	 */
+	public boolean put(AuthInfo authInfo) {
+		return cache.putIfAbsent(authInfo.getCode(), authInfo, ttl);
+	}
+
+	/**
+	 * Remove the code and return its authorization information. For the same
+	 * code, the information is returned to only one caller.
+	 * @param code The authorization code value.
+	 * @return The authorization information. If not found, expired or already
+	 * consumed, return null.
+	 */
+	public AuthInfo consume(String code) {
+		return cache.remove(code);
+	}
+
+	/**
+	 * Consume the code and issue an access token with the data handler.
+	 * This method can be used as the implementation of
+	 * DataHandler#exchangeAuthorizationCode(). Note that the code is consumed
+	 * even if it was issued to another client or the redirect_uri does not
+	 * match.
+	 * @param dataHandler The data handler to issue the access token.
+	 * @param code The authorization code value.
+	 * @param clientId The client ID of the request.
+	 * @param redirectUri The redirect_uri parameter's value of the request.
+	 * @param handler The handler to receive the issued token.
+	 */
+	public void exchange(DataHandler dataHandler, String code, String clientId,
+			String redirectUri, final Handler<Try<OAuthError, IssuedToken>> handler) {
+		final AuthInfo authInfo = consume(code);
+		try {
+			DataHandler.checkAuthorizationCode(authInfo, clientId, redirectUri);
+		} catch (OAuthError e) {
+			handler.handle(new Try<OAuthError, IssuedToken>(e));
+			return;
+		}
+		dataHandler.createOrUpdateAccessToken(authInfo, new Handler<AccessToken>() {
+			@Override
+			public void handle(AccessToken accessToken) {
+				handler.handle(new Try<OAuthError, IssuedToken>(
+						new IssuedToken(authInfo, accessToken)));
+			}
+		});
+	}
+
+	/**
+	 * Discard all codes.
+	 */
+	public void clear() {
+		cache.clear();
+	}
+
+	/**
+	 * Retrieve the number of stored codes including expired ones which have
+	 * not been removed yet.
+	 * @return The number of codes.
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+}
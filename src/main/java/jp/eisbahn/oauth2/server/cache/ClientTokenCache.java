@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+import jp.eisbahn.oauth2.server.invalidation.InvalidationListener;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.IssuedToken;
+
+/**
+ * This class caches access tokens issued by the Client Credentials grant
+ * to reuse them for the same client and scope.
+ *
+ * <p>Machine clients tend to request a new token much more often than their
+ * tokens expire. When this cache is set to
+ * {@link jp.eisbahn.oauth2.server.granttype.impl.ClientCredentials}, the
+ * cached token is returned with the reduced expires_in while more than the
+ * minimum remaining ratio of its lifetime remains. After that, a new token
+ * is issued by your DataHandler. Tokens which don't have the expires_in
+ * value are not cached.</p>
+ *
+ * <p>When you revoke a token issued to a client, call the invalidateClient()
+ * or invalidateAuthId() method so that the token is not reused. To apply
+ * the revocation on all nodes, register this cache to
+ * {@link jp.eisbahn.oauth2.server.invalidation.InvalidationBus}.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class ClientTokenCache implements InvalidationListener {
+
+	private final TtlCache<String, IssuedToken> cache;
+	private final KeyIndex<String> authIdIndex = new KeyIndex<String>();
+	private final KeyIndex<String> clientIndex = new KeyIndex<String>();
+	private final KeyIndex<String> userIndex = new KeyIndex<String>();
+	private final KeyIndex<String> tokenIndex = new KeyIndex<String>();
+	private double minRemainingRatio = 0.5;
+
+	/**
+	 * Initialize this instance with the default maximum size (10000 tokens).
+	 */
+	public ClientTokenCache() {
+		this(10000);
+	}
+
+	/**
+	 * Initialize this instance.
+	 * @param maxSize The maximum number of tokens to cache.
+	 */
+	public ClientTokenCache(int maxSize) {
+		this(new TtlCache<String, IssuedToken>(maxSize));
+	}
+
+	ClientTokenCache(TtlCache<String, IssuedToken> cache) {
+		super();
+		this.cache = cache;
+		cache.setRemovalListener(new TtlCache.RemovalListener<String, IssuedToken>() {
+			@Override
+			public void removed(String key, IssuedToken issued) {
+				AuthInfo authInfo = issued.getAuthInfo();
+				authIdIndex.remove(authInfo.getId(), key);
+				authIdIndex.remove(issued.getAccessToken().getAuthId(), key);
+				clientIndex.remove(authInfo.getClientId(), key);
+				userIndex.remove(authInfo.getUserId(), key);
+				tokenIndex.remove(issued.getAccessToken().getToken(), key);
+			}
+		});
+	}
+
+	/**
+	 * Set the minimum ratio of the remaining lifetime to reuse a token.
+	 * For example, if this is 0.5 (default), a token which expires in 3600
+	 * seconds is reused for 1800 seconds after issuing it.
+	 * @param minRemainingRatio The ratio between 0.0 and 1.0.
+	 */
+	public void setMinRemainingRatio(double minRemainingRatio) {
+		if (minRemainingRatio < 0.0 || minRemainingRatio > 1.0) {
+			throw new IllegalArgumentException("minRemainingRatio must be between 0.0 and 1.0.");
+		}
+		this.minRemainingRatio = minRemainingRatio;
+	}
+
+	/**
+	 * Retrieve the token which can be reused for the client and scope.
+	 * The returned token has the expires_in value reduced by the elapsed time.
+	 * @param clientId The client ID.
+	 * @param scope The scope string of the request. This can be null.
+	 * @return The token. If not found or not reusable, return null.
+	 */
+	public IssuedToken get(String clientId, String scope) {
+		TtlCache.Entry<IssuedToken> entry = cache.getEntry(createKey(clientId, scope));
+		if (entry == null) {
+			return null;
+		}
+		IssuedToken issued = entry.getValue();
+		AccessToken cached = issued.getAccessToken();
+		long issuedAt = cached.getCreatedOn() != null ? cached.getCreatedOn().getTime() : entry.getCreatedAt();
+		long expiresAt = issuedAt + cached.getExpiresIn() * 1000L;
+		long expiresIn = (expiresAt - cache.currentTimeMillis()) / 1000L;
+		if (expiresIn <= 0) {
+			return null;
+		}
+		AccessToken accessToken = new AccessToken();
+		accessToken.setAuthId(cached.getAuthId());
+		accessToken.setToken(cached.getToken());
+		accessToken.setExpiresIn(expiresIn);
+		accessToken.setCreatedOn(cached.getCreatedOn());
+		accessToken.setIdToken(cached.getIdToken());
+		return new IssuedToken(issued.getAuthInfo(), accessToken);
+	}
+
+	/**
+	 * Cache the token issued for the client and scope. If the token has the
+	 * creation time, the lifetime is counted from it rather than from now,
+	 * so that a token created before caching is not reused for too long.
+	 * @param clientId The client ID.
+	 * @param scope The scope string of the request. This can be null.
+	 * @param issued The issued token.
+	 */
+	public void put(String clientId, String scope, IssuedToken issued) {
+		AccessToken accessToken = issued.getAccessToken();
+		if (accessToken == null || accessToken.getExpiresIn() <= 0) {
+			return;
+		}
+		long now = cache.currentTimeMillis();
+		long issuedAt = accessToken.getCreatedOn() != null ? accessToken.getCreatedOn().getTime() : now;
+		long ttl = issuedAt + Math.round(accessToken.getExpiresIn() * 1000L * (1.0 - minRemainingRatio)) - now;
+		if (ttl > 0) {
+			String key = createKey(clientId, scope);
+			cache.put(key, issued, ttl);
+			AuthInfo authInfo = issued.getAuthInfo();
+			authIdIndex.add(authInfo.getId(), key);
+			authIdIndex.add(accessToken.getAuthId(), key);
+			clientIndex.add(authInfo.getClientId(), key);
+			userIndex.add(authInfo.getUserId(), key);
+			tokenIndex.add(accessToken.getToken(), key);
+		}
+	}
+
+	/**
+	 * Discard all tokens issued to the client.
+	 * @param clientId The client ID.
+	 */
+	public void invalidateClient(String clientId) {
+		for (String key : clientIndex.take(clientId)) {
+			cache.remove(key);
+		}
+	}
+
+	/**
+	 * Discard all tokens issued for the authorization information.
+	 * @param authId The ID of the authorization information.
+	 */
+	public void invalidateAuthId(String authId) {
+		for (String key : authIdIndex.take(authId)) {
+			cache.remove(key);
+		}
+	}
+
+	/**
+	 * Discard all tokens.
+	 */
+	public void clear() {
+		cache.clear();
+	}
+
+	@Override
+	public void tokenInvalidated(String token) {
+		for (String key : tokenIndex.take(token)) {
+			cache.remove(key);
+		}
+	}
+
+	@Override
+	public void authInfoInvalidated(String authId) {
+		invalidateAuthId(authId);
+	}
+
+	@Override
+	public void clientInvalidated(String clientId) {
+		invalidateClient(clientId);
+	}
+
+	@Override
+	public void userInvalidated(String userId) {
+		for (String key : userIndex.take(userId)) {
+			cache.remove(key);
+		}
+	}
+
+	@Override
+	public void allInvalidated() {
+		clear();
+	}
+
+	private String createKey(String clientId, String scope) {
+		return scope != null ? clientId + '\n' + scope : clientId + '\n';
+	}
+
+}
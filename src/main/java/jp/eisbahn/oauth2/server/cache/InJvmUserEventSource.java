@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This class is an implementation of the UserEventSource interface which
+ * delivers events to listeners in the same JVM synchronously. This is useful
+ * for a single node deployment and for unit tests.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class InJvmUserEventSource implements UserEventSource {
+
+	private final List<UserEventListener> listeners =
+			new CopyOnWriteArrayList<UserEventListener>();
+
+	@Override
+	public void addListener(UserEventListener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeListener(UserEventListener listener) {
+		listeners.remove(listener);
+	}
+
+	@Override
+	public void publishUserDeactivated(String userId) {
+		for (UserEventListener listener : listeners) {
+			listener.userDeactivated(userId);
+		}
+	}
+
+	@Override
+	public void publishUserChanged(String userId) {
+		for (UserEventListener listener : listeners) {
+			listener.userChanged(userId);
+		}
+	}
+
+}
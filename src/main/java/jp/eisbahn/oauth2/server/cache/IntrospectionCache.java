@@ -0,0 +1,316 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.cache;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import jp.eisbahn.oauth2.server.invalidation.InvalidationListener;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.IssuedToken;
+
+/**
+ * This class caches the result of validating an access token at accessing
+ * a protected resource.
+ *
+ * <p>When this cache is set to
+ * {@link jp.eisbahn.oauth2.server.endpoint.ProtectedResource}, the access
+ * token and the authorization information which passed all checks are
+ * cached. The result is reused without calling your DataHandler until the
+ * time-to-live elapses. In addition, while your DataHandler cannot be
+ * called (for instance, the circuit breaker is open), the result is used
+ * as the fallback until the maximum staleness elapses. No result is used
+ * after the access token expires.</p>
+ *
+ * <p>When a result is older than the refresh threshold of the time-to-live,
+ * it is still reused, and the tryBeginRefresh() method returns true only
+ * once for the result so that just one caller revalidates it in the
+ * background. If the revalidation succeeds, the new result is put with the
+ * new time-to-live. If it fails, the result expires as usual.</p>
+ *
+ * <p>When you revoke a token, call the invalidate() or invalidateAuthId()
+ * method so that the result is not reused. To apply the revocation on all
+ * nodes, register this cache to
+ * {@link jp.eisbahn.oauth2.server.invalidation.InvalidationBus}. To drop
+ * the results of deactivated users on all nodes, set the
+ * {@link UserEventSource} shared with {@link UserValidityCache}.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class IntrospectionCache implements InvalidationListener, UserEventListener {
+
+	private final TtlCache<String, Cached> cache;
+	private final KeyIndex<String> authIdIndex = new KeyIndex<String>();
+	private final KeyIndex<String> clientIndex = new KeyIndex<String>();
+	private final KeyIndex<String> userIndex = new KeyIndex<String>();
+	private long ttl = 30000L;
+	private long maxStaleness = 300000L;
+	private double refreshThreshold = 0.8;
+	private UserEventSource eventSource;
+
+	/**
+	 * Initialize this instance with the default maximum size (100000 tokens).
+	 */
+	public IntrospectionCache() {
+		this(100000);
+	}
+
+	/**
+	 * Initialize this instance.
+	 * @param maxSize The maximum number of tokens to cache.
+	 */
+	public IntrospectionCache(int maxSize) {
+		this(new TtlCache<String, Cached>(maxSize));
+	}
+
+	IntrospectionCache(TtlCache<String, Cached> cache) {
+		super();
+		this.cache = cache;
+		cache.setRemovalListener(new TtlCache.RemovalListener<String, Cached>() {
+			@Override
+			public void removed(String token, Cached value) {
+				AuthInfo authInfo = value.issued.getAuthInfo();
+				authIdIndex.remove(authInfo.getId(), token);
+				authIdIndex.remove(value.issued.getAccessToken().getAuthId(), token);
+				clientIndex.remove(authInfo.getClientId(), token);
+				userIndex.remove(authInfo.getUserId(), token);
+			}
+		});
+	}
+
+	/**
+	 * Set the time-to-live to reuse the result without calling your
+	 * DataHandler. The default value is 30 seconds.
+	 * @param ttl The time-to-live value. The unit is millisecond. If 0,
+	 * the result is used only as the fallback.
+	 */
+	public void setTtl(long ttl) {
+		if (ttl < 0) {
+			throw new IllegalArgumentException("ttl must not be negative.");
+		}
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Set the maximum staleness of the result used as the fallback.
+	 * The default value is 5 minutes.
+	 * @param maxStaleness The staleness. The unit is millisecond.
+	 */
+	public void setMaxStaleness(long maxStaleness) {
+		if (maxStaleness < 0) {
+			throw new IllegalArgumentException("maxStaleness must not be negative.");
+		}
+		this.maxStaleness = maxStaleness;
+	}
+
+	/**
+	 * Set the ratio of the time-to-live after which the result is
+	 * revalidated in the background. For example, if this is 0.8 (default)
+	 * and the time-to-live is 30 seconds, the result older than 24 seconds
+	 * is revalidated.
+	 * @param refreshThreshold The ratio between 0.0 and 1.0. If 1.0, the
+	 * result is never revalidated before it expires.
+	 */
+	public void setRefreshThreshold(double refreshThreshold) {
+		if (refreshThreshold < 0.0 || refreshThreshold > 1.0) {
+			throw new IllegalArgumentException("refreshThreshold must be between 0.0 and 1.0.");
+		}
+		this.refreshThreshold = refreshThreshold;
+	}
+
+	/**
+	 * Set the event source to discard the results of users deactivated on
+	 * any node. This instance is registered to the source as a listener.
+	 * @param eventSource The UserEventSource instance.
+	 */
+	public void setEventSource(UserEventSource eventSource) {
+		if (this.eventSource != null) {
+			this.eventSource.removeListener(this);
+		}
+		this.eventSource = eventSource;
+		if (eventSource != null) {
+			eventSource.addListener(this);
+		}
+	}
+
+	/**
+	 * Retrieve the result which can be reused without calling your
+	 * DataHandler.
+	 * @param token The access token string.
+	 * @return The cached result. If not found or older than the
+	 * time-to-live, return null.
+	 */
+	public IssuedToken get(String token) {
+		return get(token, ttl);
+	}
+
+	/**
+	 * Retrieve the result which can be used as the fallback.
+	 * @param token The access token string.
+	 * @return The cached result. If not found or older than the maximum
+	 * staleness, return null.
+	 */
+	public IssuedToken getStale(String token) {
+		return get(token, Math.max(ttl, maxStaleness));
+	}
+
+	/**
+	 * Claim the revalidation of the result. This method returns true only
+	 * when the result is reusable, is older than the refresh threshold, and
+	 * has not been claimed yet.
+	 * @param token The access token string.
+	 * @return True if the caller should revalidate the result and put it.
+	 */
+	public boolean tryBeginRefresh(String token) {
+		TtlCache.Entry<Cached> entry = cache.getEntry(token);
+		if (entry == null) {
+			return false;
+		}
+		long age = cache.currentTimeMillis() - entry.getCreatedAt();
+		if (age >= ttl || age < ttl * refreshThreshold || refreshThreshold >= 1.0) {
+			return false;
+		}
+		return entry.getValue().refreshing.compareAndSet(false, true);
+	}
+
+	/**
+	 * Cache the result of validating the access token.
+	 * @param token The access token string.
+	 * @param accessToken The access token returned from your DataHandler.
+	 * @param authInfo The authorization information returned from your
+	 * DataHandler.
+	 */
+	public void put(String token, AccessToken accessToken, AuthInfo authInfo) {
+		if (token == null || accessToken.getCreatedOn() == null) {
+			return;
+		}
+		long now = cache.currentTimeMillis();
+		long remaining = accessToken.getCreatedOn().getTime()
+				+ accessToken.getExpiresIn() * 1000L - now;
+		long lifetime = Math.min(remaining, Math.max(ttl, maxStaleness));
+		if (lifetime > 0) {
+			cache.put(token, new Cached(new IssuedToken(authInfo, accessToken)), lifetime);
+			authIdIndex.add(authInfo.getId(), token);
+			authIdIndex.add(accessToken.getAuthId(), token);
+			clientIndex.add(authInfo.getClientId(), token);
+			userIndex.add(authInfo.getUserId(), token);
+		}
+	}
+
+	/**
+	 * Discard the result of the access token.
+	 * @param token The access token string.
+	 */
+	public void invalidate(String token) {
+		cache.remove(token);
+	}
+
+	/**
+	 * Discard all results of the tokens issued for the authorization
+	 * information.
+	 * @param authId The ID of the authorization information.
+	 */
+	public void invalidateAuthId(String authId) {
+		for (String token : authIdIndex.take(authId)) {
+			cache.remove(token);
+		}
+	}
+
+	/**
+	 * Discard all results of the tokens issued to the client.
+	 * @param clientId The client ID.
+	 */
+	public void invalidateClient(String clientId) {
+		for (String token : clientIndex.take(clientId)) {
+			cache.remove(token);
+		}
+	}
+
+	/**
+	 * Discard all results of the tokens issued for the user.
+	 * @param userId The user's ID.
+	 */
+	public void invalidateUser(String userId) {
+		for (String token : userIndex.take(userId)) {
+			cache.remove(token);
+		}
+	}
+
+	/**
+	 * Discard all results.
+	 */
+	public void clear() {
+		cache.clear();
+	}
+
+	@Override
+	public void tokenInvalidated(String token) {
+		invalidate(token);
+	}
+
+	@Override
+	public void authInfoInvalidated(String authId) {
+		invalidateAuthId(authId);
+	}
+
+	@Override
+	public void clientInvalidated(String clientId) {
+		invalidateClient(clientId);
+	}
+
+	@Override
+	public void userInvalidated(String userId) {
+		invalidateUser(userId);
+	}
+
+	@Override
+	public void allInvalidated() {
+		clear();
+	}
+
+	@Override
+	public void userDeactivated(String userId) {
+		invalidateUser(userId);
+	}
+
+	@Override
+	public void userChanged(String userId) {
+		invalidateUser(userId);
+	}
+
+	private IssuedToken get(String token, long maxAge) {
+		TtlCache.Entry<Cached> entry = cache.getEntry(token);
+		if (entry == null || entry.getCreatedAt() + maxAge <= cache.currentTimeMillis()) {
+			return null;
+		}
+		return entry.getValue().issued;
+	}
+
+	static final class Cached {
+
+		private final IssuedToken issued;
+		private final AtomicBoolean refreshing = new AtomicBoolean();
+
+		private Cached(IssuedToken issued) {
+			this.issued = issued;
+		}
+
+	}
+
+}
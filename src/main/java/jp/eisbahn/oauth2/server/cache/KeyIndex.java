@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class is a secondary index which maps an attribute of cached values
+ * (for instance, a client ID) to the keys of {@link TtlCache} entries, so
+ * that all entries having the attribute are found without scanning the
+ * cache. The owner adds the key after putting an entry, and removes it from
+ * {@link TtlCache.RemovalListener}.
+ *
+ * @author Yoichiro Tanaka
+ *
+ * @param <K> The type of keys of the cache.
+ */
+final class KeyIndex<K> {
+
+	private final ConcurrentHashMap<String, Set<K>> keys = new ConcurrentHashMap<String, Set<K>>();
+
+	/**
+	 * Add the key for the attribute.
+	 * @param attribute The attribute value. If null, nothing is added.
+	 * @param key The key of the cache entry.
+	 */
+	void add(String attribute, K key) {
+		if (attribute == null) {
+			return;
+		}
+		while (true) {
+			Set<K> set = keys.get(attribute);
+			if (set == null) {
+				Set<K> created = new HashSet<K>();
+				set = keys.putIfAbsent(attribute, created);
+				if (set == null) {
+					set = created;
+				}
+			}
+			synchronized (set) {
+				// The set is discarded once it becomes empty or is taken.
+				if (keys.get(attribute) == set) {
+					set.add(key);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove the key for the attribute.
+	 * @param attribute The attribute value.
+	 * @param key The key of the cache entry.
+	 */
+	void remove(String attribute, K key) {
+		if (attribute == null) {
+			return;
+		}
+		Set<K> set = keys.get(attribute);
+		if (set == null) {
+			return;
+		}
+		synchronized (set) {
+			if (set.remove(key) && set.isEmpty()) {
+				keys.remove(attribute, set);
+			}
+		}
+	}
+
+	/**
+	 * Remove and retrieve all keys for the attribute.
+	 * @param attribute The attribute value.
+	 * @return The keys. If not found, return an empty list.
+	 */
+	List<K> take(String attribute) {
+		if (attribute == null) {
+			return Collections.emptyList();
+		}
+		Set<K> set = keys.remove(attribute);
+		if (set == null) {
+			return Collections.emptyList();
+		}
+		synchronized (set) {
+			return new ArrayList<K>(set);
+		}
+	}
+
+	/**
+	 * Discard all keys.
+	 */
+	void clear() {
+		keys.clear();
+	}
+
+	/**
+	 * Retrieve the number of attributes which have any key.
+	 * @return The number of attributes.
+	 */
+	int size() {
+		return keys.size();
+	}
+
+}
@@ -0,0 +1,432 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class is a bounded in-memory cache whose entries expire after their
+ * own time-to-live.
+ *
+ * <p>Reading an entry never takes a lock. When the number of entries exceeds
+ * the maximum size, one thread removes the expired entries in a batch. If the
+ * size is still above the low-water mark (90% of the maximum size), the live
+ * entries which expire soonest are evicted down to the mark. Since the next
+ * eviction doesn't happen until the cache grows back to the maximum size, the
+ * cost of the scan is amortised over the inserts in between.</p>
+ *
+ * <p>A {@link RemovalListener} can be set to be notified of each entry which
+ * leaves the cache, for instance, to maintain secondary indexes of keys.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ * @param <K> The type of keys.
+ * @param <V> The type of values.
+ */
+public class TtlCache<K, V> {
+
+	private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<K, Entry<V>>();
+	private final int maxSize;
+	private final int lowWaterMark;
+	private final AtomicBoolean evicting = new AtomicBoolean();
+	private volatile long nextExpiryAt;
+	private volatile RemovalListener<K, V> removalListener;
+
+	/**
+	 * Initialize this instance.
+	 * @param maxSize The maximum number of entries.
+	 */
+	public TtlCache(int maxSize) {
+		super();
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize must be positive.");
+		}
+		this.maxSize = maxSize;
+		this.lowWaterMark = maxSize - maxSize / 10;
+	}
+
+	/**
+	 * Set the listener notified when an entry is removed, expires, is
+	 * evicted or is replaced by another entry.
+	 * @param removalListener The listener instance.
+	 */
+	public void setRemovalListener(RemovalListener<K, V> removalListener) {
+		this.removalListener = removalListener;
+	}
+
+	/**
+	 * Retrieve the value of the entry which has not expired yet.
+	 * @param key The key.
+	 * @return The value. If not found or expired, return null.
+	 */
+	public V get(K key) {
+		Entry<V> entry = getEntry(key);
+		return entry != null ? entry.value : null;
+	}
+
+	/**
+	 * Retrieve the entry which has not expired yet.
+	 * @param key The key.
+	 * @return The entry. If not found or expired, return null.
+	 */
+	public Entry<V> getEntry(K key) {
+		if (key == null) {
+			return null;
+		}
+		Entry<V> entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.expiresAt <= currentTimeMillis()) {
+			remove(key, entry);
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Put the value with the time-to-live.
+	 * @param key The key.
+	 * @param value The value.
+	 * @param ttl The time-to-live value. The unit is millisecond.
+	 * @return The put entry.
+	 */
+	public Entry<V> put(K key, V value, long ttl) {
+		long now = currentTimeMillis();
+		Entry<V> entry = new Entry<V>(value, now, now + ttl);
+		Entry<V> replaced = entries.put(key, entry);
+		if (replaced != null) {
+			notifyRemoved(key, replaced);
+		}
+		if (entry.expiresAt < nextExpiryAt) {
+			nextExpiryAt = entry.expiresAt;
+		}
+		if (entries.size() > maxSize) {
+			evict(now);
+		}
+		return entry;
+	}
+
+	/**
+	 * Put the value only when no live entry exists for the key.
+	 * @param key The key.
+	 * @param value The value.
+	 * @param ttl The time-to-live value. The unit is millisecond.
+	 * @return True if the value was put.
+	 */
+	public boolean putIfAbsent(K key, V value, long ttl) {
+		long now = currentTimeMillis();
+		Entry<V> entry = new Entry<V>(value, now, now + ttl);
+		while (true) {
+			Entry<V> existing = entries.putIfAbsent(key, entry);
+			if (existing == null) {
+				break;
+			}
+			if (existing.expiresAt > now) {
+				return false;
+			}
+			if (entries.replace(key, existing, entry)) {
+				notifyRemoved(key, existing);
+				break;
+			}
+		}
+		if (entries.size() > maxSize) {
+			evict(now);
+		}
+		return true;
+	}
+
+	/**
+	 * Put the value only when no live entry exists for the key and the cache
+	 * has room for it. Unlike {@link #putIfAbsent(Object, Object, long)}, this
+	 * never evicts live entries: when the cache is full of them, the value is
+	 * not put and {@link PutResult#FULL} is returned. This is for the callers
+	 * which must fail closed rather than forget an entry, for instance, a
+	 * replay cache. The expired entries are purged at most once per expiry of
+	 * the soonest-expiring entry, so that a full cache doesn't scan on every
+	 * call.
+	 * @param key The key.
+	 * @param value The value.
+	 * @param ttl The time-to-live value. The unit is millisecond.
+	 * @return The result of putting.
+	 */
+	public PutResult putIfAbsentWithinCapacity(K key, V value, long ttl) {
+		long now = currentTimeMillis();
+		Entry<V> entry = new Entry<V>(value, now, now + ttl);
+		while (true) {
+			Entry<V> existing = entries.get(key);
+			if (existing != null) {
+				if (existing.expiresAt > now) {
+					return PutResult.PRESENT;
+				}
+				if (entries.replace(key, existing, entry)) {
+					notifyRemoved(key, existing);
+					break;
+				}
+				continue;
+			}
+			if (entries.size() >= maxSize) {
+				purgeExpired(now);
+				if (entries.size() >= maxSize) {
+					return PutResult.FULL;
+				}
+			}
+			if (entries.putIfAbsent(key, entry) == null) {
+				break;
+			}
+		}
+		if (entry.expiresAt < nextExpiryAt) {
+			nextExpiryAt = entry.expiresAt;
+		}
+		return PutResult.PUT;
+	}
+
+	/**
+	 * Remove the expired entries. This is for the caches which are not
+	 * bounded, for instance, whose maximum size is Integer.MAX_VALUE so that
+	 * live entries are never evicted. The entries are scanned at most once
+	 * per expiry of the soonest-expiring entry.
+	 */
+	public void purgeExpired() {
+		purgeExpired(currentTimeMillis());
+	}
+
+	/**
+	 * Remove the entry.
+	 * @param key The key.
+	 * @return The removed value which has not expired yet. If not found,
+	 * return null.
+	 */
+	public V remove(K key) {
+		if (key == null) {
+			return null;
+		}
+		Entry<V> entry = entries.remove(key);
+		if (entry == null) {
+			return null;
+		}
+		notifyRemoved(key, entry);
+		return entry.expiresAt > currentTimeMillis() ? entry.value : null;
+	}
+
+	/**
+	 * Remove the entry only when it is the specified one.
+	 * @param key The key.
+	 * @param entry The entry expected to be mapped to the key.
+	 * @return True if the entry was removed.
+	 */
+	public boolean remove(K key, Entry<V> entry) {
+		if (!entries.remove(key, entry)) {
+			return false;
+		}
+		notifyRemoved(key, entry);
+		return true;
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	public void clear() {
+		if (removalListener == null) {
+			entries.clear();
+			return;
+		}
+		for (Map.Entry<K, Entry<V>> e : entries.entrySet()) {
+			remove(e.getKey(), e.getValue());
+		}
+	}
+
+	/**
+	 * Retrieve the number of entries including expired ones which have not
+	 * been removed yet.
+	 * @return The number of entries.
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Retrieve the map which has all entries. This is provided to scan
+	 * entries, for instance, to remove entries matching a condition. The
+	 * removal listener is not notified of entries removed through this map.
+	 * @return The live map of entries.
+	 */
+	protected Map<K, Entry<V>> entries() {
+		return entries;
+	}
+
+	/**
+	 * Retrieve the current time. This method is provided for an unit test.
+	 * @return The current time in millisecond.
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private void purgeExpired(long now) {
+		if (now < nextExpiryAt || !evicting.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			long next = Long.MAX_VALUE;
+			for (Map.Entry<K, Entry<V>> e : entries.entrySet()) {
+				long expiresAt = e.getValue().expiresAt;
+				if (expiresAt <= now) {
+					remove(e.getKey(), e.getValue());
+				} else if (expiresAt < next) {
+					next = expiresAt;
+				}
+			}
+			nextExpiryAt = next;
+		} finally {
+			evicting.set(false);
+		}
+	}
+
+	private void evict(long now) {
+		if (!evicting.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			List<Map.Entry<K, Entry<V>>> live = new ArrayList<Map.Entry<K, Entry<V>>>(entries.size());
+			for (Map.Entry<K, Entry<V>> e : entries.entrySet()) {
+				if (e.getValue().expiresAt <= now) {
+					remove(e.getKey(), e.getValue());
+				} else {
+					live.add(e);
+				}
+			}
+			int excess = entries.size() - lowWaterMark;
+			if (excess <= 0) {
+				return;
+			}
+			Collections.sort(live, new Comparator<Map.Entry<K, Entry<V>>>() {
+				@Override
+				public int compare(Map.Entry<K, Entry<V>> o1, Map.Entry<K, Entry<V>> o2) {
+					return Long.compare(o1.getValue().expiresAt, o2.getValue().expiresAt);
+				}
+			});
+			for (int i = 0; i < live.size() && excess > 0; i++) {
+				if (remove(live.get(i).getKey(), live.get(i).getValue())) {
+					excess--;
+				}
+			}
+		} finally {
+			evicting.set(false);
+		}
+	}
+
+	private void notifyRemoved(K key, Entry<V> entry) {
+		RemovalListener<K, V> listener = removalListener;
+		if (listener != null) {
+			listener.removed(key, entry.value);
+		}
+	}
+
+	/**
+	 * This interface defines a listener notified of entries which left
+	 * the cache. The listener is called by the thread which removed the entry,
+	 * therefore, it must return quickly.
+	 *
+	 * @author Yoichiro Tanaka
+	 *
+	 * @param <K> The type of keys.
+	 * @param <V> The type of values.
+	 */
+	public interface RemovalListener<K, V> {
+
+		/**
+		 * Called when the entry was removed.
+		 * @param key The key.
+		 * @param value The value of the removed entry.
+		 */
+		public void removed(K key, V value);
+
+	}
+
+	/**
+	 * The result of {@link TtlCache#putIfAbsentWithinCapacity(Object, Object, long)}.
+	 *
+	 * @author Yoichiro Tanaka
+	 */
+	public enum PutResult {
+
+		/** The value was put. */
+		PUT,
+
+		/** A live entry already exists for the key. */
+		PRESENT,
+
+		/** The cache is full of live entries. */
+		FULL
+
+	}
+
+	/**
+	 * This class is an entry of the cache.
+	 *
+	 * @author Yoichiro Tanaka
+	 *
+	 * @param <V> The type of the value.
+	 */
+	public static final class Entry<V> {
+
+		private final V value;
+		private final long createdAt;
+		private final long expiresAt;
+
+		private Entry(V value, long createdAt, long expiresAt) {
+			this.value = value;
+			this.createdAt = createdAt;
+			this.expiresAt = expiresAt;
+		}
+
+		/**
+		 * Retrieve the value.
+		 * @return The value.
+		 */
+		public V getValue() {
+			return value;
+		}
+
+		/**
+		 * Retrieve the time when this entry was put.
+		 * @return The time in millisecond.
+		 */
+		public long getCreatedAt() {
+			return createdAt;
+		}
+
+		/**
+		 * Retrieve the time when this entry expires.
+		 * @return The time in millisecond.
+		 */
+		public long getExpiresAt() {
+			return expiresAt;
+		}
+
+	}
+
+}
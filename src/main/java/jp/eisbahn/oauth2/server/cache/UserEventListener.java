@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+/**
+ * This interface defines a listener to receive events regarding users.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface UserEventListener {
+
+	/**
+	 * Called when the user was deactivated. Any access by the user must be
+	 * refused after this event.
+	 * @param userId The user's ID.
+	 */
+	public void userDeactivated(String userId);
+
+	/**
+	 * Called when the status of the user was changed. For instance, the user
+	 * was activated again. Any cached information about the user should be
+	 * discarded.
+	 * @param userId The user's ID.
+	 */
+	public void userChanged(String userId);
+
+}
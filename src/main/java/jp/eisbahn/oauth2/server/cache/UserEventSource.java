@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+/**
+ * This interface defines how events regarding users are propagated to
+ * all nodes. An implementation connects this framework to your message
+ * broker or such transports. Each published event must be delivered to
+ * the listeners on all nodes, including the publishing node.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface UserEventSource {
+
+	/**
+	 * Register the listener to receive events.
+	 * @param listener The listener instance.
+	 */
+	public void addListener(UserEventListener listener);
+
+	/**
+	 * Unregister the listener.
+	 * @param listener The listener instance.
+	 */
+	public void removeListener(UserEventListener listener);
+
+	/**
+	 * Publish the event that the user was deactivated.
+	 * @param userId The user's ID.
+	 */
+	public void publishUserDeactivated(String userId);
+
+	/**
+	 * Publish the event that the status of the user was changed.
+	 * @param userId The user's ID.
+	 */
+	public void publishUserChanged(String userId);
+
+}
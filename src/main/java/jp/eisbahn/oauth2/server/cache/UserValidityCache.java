@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+import java.util.Iterator;
+
+import jp.eisbahn.oauth2.server.invalidation.InvalidationListener;
+
+/**
+ * This class caches the result of DataHandler#validateUserById().
+ *
+ * <p>{@link jp.eisbahn.oauth2.server.endpoint.ProtectedResource} checks
+ * the user for each access to a protected resource, but users are rarely
+ * deactivated. When this cache is set to the ProtectedResource, the result
+ * is reused until it expires.</p>
+ *
+ * <p>To refuse the access of a deactivated user immediately, call the
+ * deactivateUser() method. If an event source is set, the event is published
+ * through it and applied to the caches on all nodes. Otherwise, it is
+ * applied to this cache only. The deactivated user is kept as invalid for
+ * the deactivatedTtl, even if the user is not evicted from your database
+ * cache or replica yet. The deactivated users are never evicted before the
+ * deactivatedTtl, even when more users than the maximum size are
+ * deactivated; the expired ones are purged instead.</p>
+ *
+ * <p>This cache can also be registered to
+ * {@link jp.eisbahn.oauth2.server.invalidation.InvalidationBus}. The user
+ * invalidated through the bus is checked with your DataHandler at the next
+ * time. Since the bus only asks to forget cached results, it drops the valid
+ * results only; the deactivated users and the invalid results stay until
+ * they expire or invalidate() is called.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class UserValidityCache implements UserEventListener, InvalidationListener {
+
+	private final TtlCache<String, Boolean> cache;
+	private final TtlCache<String, Boolean> deactivations;
+	private final int maxSize;
+	private long validTtl = 60000L;
+	private long invalidTtl = 10000L;
+	private long deactivatedTtl = 600000L;
+	private UserEventSource eventSource;
+
+	/**
+	 * Initialize this instance with the default maximum size (100000 users).
+	 */
+	public UserValidityCache() {
+		this(100000);
+	}
+
+	/**
+	 * Initialize this instance.
+	 * @param maxSize The maximum number of users to cache.
+	 */
+	public UserValidityCache(int maxSize) {
+		this(new TtlCache<String, Boolean>(maxSize),
+				new TtlCache<String, Boolean>(Integer.MAX_VALUE), maxSize);
+	}
+
+	UserValidityCache(TtlCache<String, Boolean> cache, TtlCache<String, Boolean> deactivations,
+			int maxSize) {
+		super();
+		this.cache = cache;
+		this.deactivations = deactivations;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Set the time-to-live of the valid result.
+	 * @param validTtl The time-to-live value. The unit is millisecond.
+	 */
+	public void setValidTtl(long validTtl) {
+		this.validTtl = validTtl;
+	}
+
+	/**
+	 * Set the time-to-live of the invalid result returned from your
+	 * DataHandler.
+	 * @param invalidTtl The time-to-live value. The unit is millisecond.
+	 */
+	public void setInvalidTtl(long invalidTtl) {
+		this.invalidTtl = invalidTtl;
+	}
+
+	/**
+	 * Set the time-to-live of the invalid result set by the deactivation.
+	 * @param deactivatedTtl The time-to-live value. The unit is millisecond.
+	 */
+	public void setDeactivatedTtl(long deactivatedTtl) {
+		this.deactivatedTtl = deactivatedTtl;
+	}
+
+	/**
+	 * Set the event source to propagate the deactivation to all nodes.
+	 * This instance is registered to the source as a listener.
+	 * @param eventSource The UserEventSource instance.
+	 */
+	public void setEventSource(UserEventSource eventSource) {
+		if (this.eventSource != null) {
+			this.eventSource.removeListener(this);
+		}
+		this.eventSource = eventSource;
+		if (eventSource != null) {
+			eventSource.addListener(this);
+		}
+	}
+
+	/**
+	 * Retrieve the cached validity of the user.
+	 * @param userId The user's ID.
+	 * @return True or false if cached, otherwise null.
+	 */
+	public Boolean get(String userId) {
+		if (deactivations.get(userId) != null) {
+			return Boolean.FALSE;
+		}
+		return cache.get(userId);
+	}
+
+	/**
+	 * Cache the validity of the user returned from your DataHandler. While
+	 * the user is deactivated by deactivateUser(), the user stays invalid even
+	 * if your DataHandler still returns true, for instance, from a lagging
+	 * replica.
+	 * @param userId The user's ID.
+	 * @param valid The validity of the user.
+	 */
+	public void put(String userId, boolean valid) {
+		if (userId == null || valid && deactivations.get(userId) != null) {
+			return;
+		}
+		cache.put(userId, valid, valid ? validTtl : invalidTtl);
+	}
+
+	/**
+	 * Deactivate the user. The access by the user is refused immediately.
+	 * @param userId The user's ID.
+	 */
+	public void deactivateUser(String userId) {
+		if (eventSource != null) {
+			eventSource.publishUserDeactivated(userId);
+		} else {
+			userDeactivated(userId);
+		}
+	}
+
+	/**
+	 * Discard the cached validity of the user. The user is checked with your
+	 * DataHandler at the next time.
+	 * @param userId The user's ID.
+	 */
+	public void invalidate(String userId) {
+		if (eventSource != null) {
+			eventSource.publishUserChanged(userId);
+		} else {
+			userChanged(userId);
+		}
+	}
+
+	/**
+	 * Discard all cached results.
+	 */
+	public void clear() {
+		deactivations.clear();
+		cache.clear();
+	}
+
+	@Override
+	public void userDeactivated(String userId) {
+		if (userId != null) {
+			if (deactivations.size() >= maxSize) {
+				deactivations.purgeExpired();
+			}
+			deactivations.put(userId, Boolean.TRUE, deactivatedTtl);
+			cache.remove(userId);
+		}
+	}
+
+	@Override
+	public void userChanged(String userId) {
+		deactivations.remove(userId);
+		cache.remove(userId);
+	}
+
+	@Override
+	public void tokenInvalidated(String token) {
+	}
+
+	@Override
+	public void authInfoInvalidated(String authId) {
+	}
+
+	@Override
+	public void clientInvalidated(String clientId) {
+	}
+
+	@Override
+	public void userInvalidated(String userId) {
+		TtlCache.Entry<Boolean> entry = cache.getEntry(userId);
+		if (entry != null && Boolean.TRUE.equals(entry.getValue())) {
+			cache.remove(userId, entry);
+		}
+	}
+
+	@Override
+	public void allInvalidated() {
+		for (Iterator<TtlCache.Entry<Boolean>> i = cache.entries().values().iterator(); i.hasNext();) {
+			if (Boolean.TRUE.equals(i.next().getValue())) {
+				i.remove();
+			}
+		}
+	}
+
+}
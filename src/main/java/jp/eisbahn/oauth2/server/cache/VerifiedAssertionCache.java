@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.cache;
+
+import jp.eisbahn.oauth2.server.invalidation.InvalidationListener;
+import jp.eisbahn.oauth2.server.models.UserData;
+import jp.eisbahn.oauth2.server.saml.SamlAssertion;
+
+/**
+ * This class caches the user resolved from the SAML 2.0 assertion which
+ * was verified by DataHandler#getUserIdByAssertion().
+ *
+ * <p>Clients often retry the token request with the same assertion when
+ * the response is lost or slow. When this cache is set to the
+ * {@link jp.eisbahn.oauth2.server.granttype.impl.Saml2}, the retried
+ * assertion is identified with the digest calculated by
+ * {@link jp.eisbahn.oauth2.server.saml.SamlAssertionValidator}, and the
+ * cached user is reused without verifying the signature again. The entry
+ * is kept until the assertion expires, but not longer than the maxTtl.
+ * The entry is bound to the client which sent the assertion.</p>
+ *
+ * <p>This cache can also be registered to
+ * {@link jp.eisbahn.oauth2.server.invalidation.InvalidationBus}.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class VerifiedAssertionCache implements InvalidationListener {
+
+	private final TtlCache<String, UserData> cache;
+	private final KeyIndex<String> clientIndex = new KeyIndex<String>();
+	private final KeyIndex<String> userIndex = new KeyIndex<String>();
+	private long maxTtl = 300000L;
+
+	/**
+	 * Initialize this instance with the default maximum size (10000
+	 * assertions).
+	 */
+	public VerifiedAssertionCache() {
+		this(10000);
+	}
+
+	/**
+	 * Initialize this instance.
+	 * @param maxSize The maximum number of assertions to cache.
+	 */
+	public VerifiedAssertionCache(int maxSize) {
+		this(new TtlCache<String, UserData>(maxSize));
+	}
+
+	VerifiedAssertionCache(TtlCache<String, UserData> cache) {
+		super();
+		this.cache = cache;
+		cache.setRemovalListener(new TtlCache.RemovalListener<String, UserData>() {
+			@Override
+			public void removed(String key, UserData userData) {
+				clientIndex.remove(key.substring(0, key.lastIndexOf('\n')), key);
+				userIndex.remove(userData.getId(), key);
+			}
+		});
+	}
+
+	/**
+	 * Set the maximum time-to-live of each entry. The default value is
+	 * 5 minutes.
+	 * @param maxTtl The time-to-live value. The unit is millisecond.
+	 */
+	public void setMaxTtl(long maxTtl) {
+		this.maxTtl = maxTtl;
+	}
+
+	/**
+	 * Retrieve the user resolved from the assertion.
+	 * @param clientId The client ID.
+	 * @param assertion The assertion which passed the pre-validation.
+	 * @return The cached user. If not cached, returns null.
+	 */
+	public UserData get(String clientId, SamlAssertion assertion) {
+		return cache.get(createKey(clientId, assertion));
+	}
+
+	/**
+	 * Cache the user resolved from the verified assertion.
+	 * @param clientId The client ID.
+	 * @param assertion The assertion which passed the pre-validation.
+	 * @param userData The user resolved by your DataHandler.
+	 */
+	public void put(String clientId, SamlAssertion assertion, UserData userData) {
+		long ttl = Math.min(assertion.getExpiresAt() - cache.currentTimeMillis(), maxTtl);
+		if (ttl > 0L && userData != null) {
+			String key = createKey(clientId, assertion);
+			cache.put(key, userData, ttl);
+			clientIndex.add(clientId, key);
+			userIndex.add(userData.getId(), key);
+		}
+	}
+
+	/**
+	 * Discard all cached assertions.
+	 */
+	public void clear() {
+		cache.clear();
+	}
+
+	@Override
+	public void tokenInvalidated(String token) {
+	}
+
+	@Override
+	public void authInfoInvalidated(String authId) {
+	}
+
+	@Override
+	public void clientInvalidated(String clientId) {
+		for (String key : clientIndex.take(clientId)) {
+			cache.remove(key);
+		}
+	}
+
+	@Override
+	public void userInvalidated(String userId) {
+		for (String key : userIndex.take(userId)) {
+			cache.remove(key);
+		}
+	}
+
+	@Override
+	public void allInvalidated() {
+		clear();
+	}
+
+	private static String createKey(String clientId, SamlAssertion assertion) {
+		return clientId + '\n' + assertion.getDigest();
+	}
+
+}
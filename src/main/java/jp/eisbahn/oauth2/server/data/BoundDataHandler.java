@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data;
+
+import java.util.List;
+import java.util.Map;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError.AccessDenied;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.IssuedToken;
+import jp.eisbahn.oauth2.server.models.JwtClaims;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.UserData;
+
+/**
+ * This DataHandler binds a request to a {@link SharedDataHandler} instance.
+ * This instance is created by {@link SharedDataHandlerFactory}.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+class BoundDataHandler extends DataHandler {
+
+	private final SharedDataHandler shared;
+
+	BoundDataHandler(Request request, SharedDataHandler shared) {
+		super(request);
+		this.shared = shared;
+	}
+
+	@Override
+	public void validateClient(String clientId, String clientSecret,
+			String grantType, Handler<Boolean> handler) {
+		shared.validateClient(getRequest(), clientId, clientSecret, grantType, handler);
+	}
+
+	@Override
+	public void getUserId(String username, String password,
+			Handler<Try<AccessDenied, String>> handler) {
+		shared.getUserId(getRequest(), username, password, handler);
+	}
+
+	@Override
+	public void getUserIdByAssertion(String assertion,
+			Handler<Try<OAuthError, UserData>> handler) {
+		shared.getUserIdByAssertion(getRequest(), assertion, handler);
+	}
+
+	@Override
+	public void getUserIdByCustomToken(String customToken,
+			Handler<Try<AccessDenied, UserData>> handler) {
+		shared.getUserIdByCustomToken(getRequest(), customToken, handler);
+	}
+
+	@Override
+	public void createOrUpdateAuthInfo(String clientId, String userId,
+			String scope, Handler<AuthInfo> handler) {
+		shared.createOrUpdateAuthInfo(getRequest(), clientId, userId, scope, handler);
+	}
+
+	@Override
+	public void createOrUpdateAccessToken(AuthInfo authInfo,
+			Handler<AccessToken> handler) {
+		shared.createOrUpdateAccessToken(getRequest(), authInfo, handler);
+	}
+
+	@Override
+	public void createOrUpdateAuthInfoAndAccessToken(String clientId, String userId,
+			String scope, Handler<IssuedToken> handler) {
+		shared.createOrUpdateAuthInfoAndAccessToken(getRequest(), clientId, userId, scope, handler);
+	}
+
+	@Override
+	public void getAuthInfoByCode(String code, Handler<AuthInfo> handler) {
+		shared.getAuthInfoByCode(getRequest(), code, handler);
+	}
+
+	@Override
+	public void exchangeAuthorizationCode(String code, String clientId,
+			String redirectUri, Handler<Try<OAuthError, IssuedToken>> handler) {
+		shared.exchangeAuthorizationCode(getRequest(), code, clientId, redirectUri, handler);
+	}
+
+	@Override
+	public void getAuthInfoByRefreshToken(String refreshToken,
+			Handler<AuthInfo> handler) {
+		shared.getAuthInfoByRefreshToken(getRequest(), refreshToken, handler);
+	}
+
+	@Override
+	public void getClientUserId(String clientId, String clientSecret,
+			Handler<String> handler) {
+		shared.getClientUserId(getRequest(), clientId, clientSecret, handler);
+	}
+
+	@Override
+	public void validateClientById(String clientId, Handler<Boolean> handler) {
+		shared.validateClientById(getRequest(), clientId, handler);
+	}
+
+	@Override
+	public void validateUserById(String userId, Handler<Boolean> handler) {
+		shared.validateUserById(getRequest(), userId, handler);
+	}
+
+	@Override
+	public void getAccessToken(String token, Handler<AccessToken> handler) {
+		shared.getAccessToken(getRequest(), token, handler);
+	}
+
+	@Override
+	public void getAuthInfoById(String id, Handler<AuthInfo> handler) {
+		shared.getAuthInfoById(getRequest(), id, handler);
+	}
+
+	@Override
+	public void getUserIdByAssertionJwt(String clientId, String assertion,
+			Handler<Try<OAuthError, UserData>> handler) {
+		shared.getUserIdByAssertionJwt(getRequest(), clientId, assertion, handler);
+	}
+
+	@Override
+	public void getUserIdByVerifiedJwt(String clientId, JwtClaims claims,
+			Handler<Try<OAuthError, UserData>> handler) {
+		shared.getUserIdByVerifiedJwt(getRequest(), clientId, claims, handler);
+	}
+
+	@Override
+	public void getIssuedTokens(List<String> tokens, Handler<Map<String, IssuedToken>> handler) {
+		shared.getIssuedTokens(getRequest(), tokens, handler);
+	}
+
+	@Override
+	public void getAuthorizationsBySessionId(String sessionId,
+			Handler<List<AuthInfo>> handler) {
+		shared.getAuthorizationsBySessionId(getRequest(), sessionId, handler);
+	}
+
+	@Override
+	public void getTokensByAuthId(String authId, Handler<List<AccessToken>> handler) {
+		shared.getTokensByAuthId(getRequest(), authId, handler);
+	}
+
+	@Override
+	public void deleteTokensByAuthId(String authId) {
+		shared.deleteTokensByAuthId(getRequest(), authId);
+	}
+
+}
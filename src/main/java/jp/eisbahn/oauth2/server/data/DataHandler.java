@@ -19,6 +19,11 @@
 package jp.eisbahn.oauth2.server.data;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
 
 import jp.eisbahn.oauth2.server.async.Handler;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
@@ -26,6 +31,8 @@ import jp.eisbahn.oauth2.server.exceptions.Try;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError.AccessDenied;
 import jp.eisbahn.oauth2.server.models.AccessToken;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.IssuedToken;
+import jp.eisbahn.oauth2.server.models.JwtClaims;
 import jp.eisbahn.oauth2.server.models.Request;
 import jp.eisbahn.oauth2.server.models.UserData;
 
@@ -45,8 +52,9 @@ import jp.eisbahn.oauth2.server.models.UserData;
  * Authorization Code Grant:<br />
  *   <ul>
  *   <li>validateClient(clientId, clientSecret, grantType)</li>
- *   <li>getAuthInfoByCode(code)</li>
- *   <li>createOrUpdateAccessToken(authInfo)</li>
+ *   <li>exchangeAuthorizationCode(code, clientId, redirectUri)<br />
+ *   By default, this calls getAuthInfoByCode(code) and
+ *   createOrUpdateAccessToken(authInfo)</li>
  *   </ul>
  * </p>
  * 
@@ -64,8 +72,9 @@ import jp.eisbahn.oauth2.server.models.UserData;
  *   <ul>
  *   <li>validateClient(clientId, clientSecret, grantType)</li>
  *   <li>getUserId(username, password)</li>
- *   <li>createOrUpdateAuthInfo(clientId, userId, scope)</li>
- *   <li>createOrUpdateAccessToken(authInfo)</li>
+ *   <li>createOrUpdateAuthInfoAndAccessToken(clientId, userId, scope)<br />
+ *   By default, this calls createOrUpdateAuthInfo(clientId, userId, scope)
+ *   and createOrUpdateAccessToken(authInfo)</li>
  *   </ul>
  * </p>
  * 
@@ -74,8 +83,9 @@ import jp.eisbahn.oauth2.server.models.UserData;
  *   <ul>
  *   <li>validateClient(clientId, clientSecret, grantType)</li>
  *   <li>getClientUserId(clientId, clientSecret)</li>
- *   <li>createOrUpdateAuthInfo(clientId, userId, scope)</li>
- *   <li>createOrUpdateAccessToken(authInfo)</li>
+ *   <li>createOrUpdateAuthInfoAndAccessToken(clientId, userId, scope)<br />
+ *   By default, this calls createOrUpdateAuthInfo(clientId, userId, scope)
+ *   and createOrUpdateAccessToken(authInfo)</li>
  *   </ul>
  * </p>
  *   
@@ -203,6 +213,47 @@ public abstract class DataHandler {
 	 */
 	public abstract void createOrUpdateAccessToken(AuthInfo authInfo, Handler<AccessToken> handler);
 
+	/**
+	 * Create or update an Authorization information and an Access token for it.
+	 * This method is used for the grant types which authorize the user
+	 * directly against the request: Resource Owner Password Credential,
+	 * Client Credential, SAML2 bearer, JWT bearer and custom token grants.
+	 * The default implementation calls createOrUpdateAuthInfo() and then
+	 * createOrUpdateAccessToken(). Override this method if your database can
+	 * do both in one transaction or round trip.
+	 * If the authorization information could not be created, the result must
+	 * have the null value as the authorization information. If it was created
+	 * for another client, the access token must not be issued.
+	 * @param clientId The client ID.
+	 * @param userId The user's ID.
+	 * @param scope The scope string.
+	 * @param handler The handler to receive the issued token.
+	 */
+	public void createOrUpdateAuthInfoAndAccessToken(String clientId, String userId,
+			String scope, Handler<IssuedToken> handler) {
+		createOrUpdateAuthInfoAndAccessToken(this, clientId, userId, scope, handler);
+	}
+
+	static void createOrUpdateAuthInfoAndAccessToken(final DataHandler dataHandler,
+			final String clientId, String userId, String scope,
+			final Handler<IssuedToken> handler) {
+		dataHandler.createOrUpdateAuthInfo(clientId, userId, scope, new Handler<AuthInfo>() {
+			@Override
+			public void handle(final AuthInfo authInfo) {
+				if (authInfo == null || !authInfo.getClientId().equals(clientId)) {
+					handler.handle(new IssuedToken(authInfo, null));
+					return;
+				}
+				dataHandler.createOrUpdateAccessToken(authInfo, new Handler<AccessToken>() {
+					@Override
+					public void handle(AccessToken accessToken) {
+						handler.handle(new IssuedToken(authInfo, accessToken));
+					}
+				});
+			}
+		});
+	}
+
 	/**
 	 * Retrieve the authorization information by the authorization code value.
 	 * This method is used for an Authorization Code grant. The authorization
@@ -215,6 +266,79 @@ public abstract class DataHandler {
 	 */
 	public abstract void getAuthInfoByCode(String code, Handler<AuthInfo> handler);
 
+	/**
+	 * Consume the authorization code and issue an access token for it.
+	 * This method is used for an Authorization Code grant. The default
+	 * implementation calls getAuthInfoByCode(), checks the result with the
+	 * checkAuthorizationCode() method and calls createOrUpdateAccessToken().
+	 * Therefore, the same code can be exchanged twice if two requests arrive
+	 * at the same time. If you want to guarantee that each code is exchanged
+	 * only once, override this method to consume the code and issue the token
+	 * atomically, for instance, in one transaction of your database or with
+	 * {@link jp.eisbahn.oauth2.server.cache.AuthorizationCodeStore}.
+	 * If the code is not found or has already been used, the OAuthError
+	 * with the error type "invalid_grant" must be passed to the handler.
+	 * If the access token could not be issued, the result must have
+	 * the null value as the access token.
+	 * @param code The authorization code value.
+	 * @param clientId The client ID of the request.
+	 * @param redirectUri The redirect_uri parameter's value of the request.
+	 * @param handler The handler to receive the issued token.
+	 */
+	public void exchangeAuthorizationCode(String code, String clientId,
+			String redirectUri, Handler<Try<OAuthError, IssuedToken>> handler) {
+		exchangeAuthorizationCode(this, code, clientId, redirectUri, handler);
+	}
+
+	static void exchangeAuthorizationCode(final DataHandler dataHandler, String code,
+			final String clientId, final String redirectUri,
+			final Handler<Try<OAuthError, IssuedToken>> handler) {
+		dataHandler.getAuthInfoByCode(code, new Handler<AuthInfo>() {
+			@Override
+			public void handle(final AuthInfo authInfo) {
+				try {
+					checkAuthorizationCode(authInfo, clientId, redirectUri);
+				} catch (OAuthError e) {
+					handler.handle(new Try<OAuthError, IssuedToken>(e));
+					return;
+				}
+				dataHandler.createOrUpdateAccessToken(authInfo, new Handler<AccessToken>() {
+					@Override
+					public void handle(AccessToken accessToken) {
+						handler.handle(new Try<OAuthError, IssuedToken>(
+								new IssuedToken(authInfo, accessToken)));
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Check whether the authorization information retrieved by an authorization
+	 * code can be exchanged by the request. If you override the
+	 * exchangeAuthorizationCode() method, call this method before issuing
+	 * the access token.
+	 * @param authInfo The authorization information retrieved by the code.
+	 * @param clientId The client ID of the request.
+	 * @param redirectUri The redirect_uri parameter's value of the request.
+	 * @throws OAuthError If the code is not found (invalid_grant), it was
+	 * issued to another client (invalid_client) or the redirect_uri does not
+	 * match (redirect_uri_mismatch).
+	 */
+	public static void checkAuthorizationCode(AuthInfo authInfo,
+			String clientId, String redirectUri) throws OAuthError {
+		if (authInfo == null) {
+			throw new OAuthError.InvalidGrant("");
+		}
+		if (!authInfo.getClientId().equals(clientId)) {
+			throw new OAuthError.InvalidClient("");
+		}
+		if (!(StringUtils.isNotEmpty(authInfo.getRedirectUri())
+				&& authInfo.getRedirectUri().equals(redirectUri))) {
+			throw new OAuthError.RedirectUriMismatch("");
+		}
+	}
+
 	/**
 	 * Retrieve the authorization information by the refresh token string.
 	 * This method is used to re-issue an access token with the refresh token.
@@ -294,7 +418,86 @@ public abstract class DataHandler {
 
 	public abstract void getUserIdByAssertionJwt(String clientId, String assertion,
 			final Handler<Try<OAuthError, UserData>> handler);
-	
+
+	/**
+	 * Retrieve the user's ID by the claims of a JWT assertion which was
+	 * already verified by
+	 * {@link jp.eisbahn.oauth2.server.jwt.JwtBearerVerifier}. This method is
+	 * used for a JWT bearer grant instead of getUserIdByAssertionJwt() when
+	 * the verifier is set.
+	 *
+	 * The verifier only proves that the assertion was signed with the key of
+	 * the client. Therefore, the implementation must bind the "iss" and "sub"
+	 * claims to a user whom the client is allowed to assert, otherwise any
+	 * client can impersonate any user. The default implementation fails with
+	 * the error "invalid_grant", so that the grant is refused until this
+	 * method is overridden.
+	 * @param clientId The client ID.
+	 * @param claims The verified claims.
+	 * @param handler The handler to receive the user's data.
+	 */
+	public void getUserIdByVerifiedJwt(String clientId, JwtClaims claims,
+			Handler<Try<OAuthError, UserData>> handler) {
+		getUserIdByVerifiedJwt(handler);
+	}
+
+	static void getUserIdByVerifiedJwt(Handler<Try<OAuthError, UserData>> handler) {
+		handler.handle(new Try<OAuthError, UserData>(
+				new OAuthError.InvalidGrant("Verified JWT assertions are not supported.")));
+	}
+
+	/**
+	 * Retrieve the access tokens and their authorization information of
+	 * many token strings at once. This method is used by the batch mode of
+	 * the introspection endpoint. The default implementation calls
+	 * getAccessToken() and getAuthInfoById() for each token without waiting
+	 * for the others. Override this method to look up all tokens with a few
+	 * queries to your database.
+	 * @param tokens The access token strings.
+	 * @param handler The handler to receive the map whose keys are the
+	 * token strings. The token which is not found, has been revoked or has
+	 * no authorization information must not be contained.
+	 */
+	public void getIssuedTokens(List<String> tokens, Handler<Map<String, IssuedToken>> handler) {
+		getIssuedTokens(this, tokens, handler);
+	}
+
+	static void getIssuedTokens(final DataHandler dataHandler, List<String> tokens,
+			final Handler<Map<String, IssuedToken>> handler) {
+		final Map<String, IssuedToken> result = new ConcurrentHashMap<String, IssuedToken>();
+		if (tokens.isEmpty()) {
+			handler.handle(result);
+			return;
+		}
+		final AtomicInteger remaining = new AtomicInteger(tokens.size());
+		for (final String token : tokens) {
+			dataHandler.getAccessToken(token, new Handler<AccessToken>() {
+				@Override
+				public void handle(final AccessToken accessToken) {
+					if (accessToken == null) {
+						complete();
+						return;
+					}
+					dataHandler.getAuthInfoById(accessToken.getAuthId(), new Handler<AuthInfo>() {
+						@Override
+						public void handle(AuthInfo authInfo) {
+							if (authInfo != null) {
+								result.put(token, new IssuedToken(authInfo, accessToken));
+							}
+							complete();
+						}
+					});
+				}
+
+				private void complete() {
+					if (remaining.decrementAndGet() == 0) {
+						handler.handle(result);
+					}
+				}
+			});
+		}
+	}
+
 	public abstract void getAuthorizationsBySessionId(String sessionId, Handler<List<AuthInfo>> handler); 
 
 	public abstract void getTokensByAuthId(String authId, Handler<List<AccessToken>> handler);
@@ -29,6 +29,8 @@ import jp.eisbahn.oauth2.server.models.Request;
  * DataHandler instance should be create per request. Therefore, the request
  * instance is passed to this create() method. Or, you might be able to keep
  * the DataHandler instance(s) in this factory instance to cache for performance.
+ * If your DataHandler can be shared by all requests, implement the
+ * {@link SharedDataHandler} instead and use the {@link SharedDataHandlerFactory}.
  * 
  * @author Yoichiro Tanaka
  *
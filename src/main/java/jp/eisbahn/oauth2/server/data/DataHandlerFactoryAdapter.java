@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data;
+
+import java.util.List;
+import java.util.Map;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError.AccessDenied;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.IssuedToken;
+import jp.eisbahn.oauth2.server.models.JwtClaims;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.UserData;
+
+/**
+ * This class adapts an existing DataHandlerFactory to the
+ * {@link SharedDataHandler} abstract class.
+ *
+ * <p>This adapter is a compatibility shim for a component which expects a
+ * SharedDataHandler while your implementation is still a per-request
+ * DataHandler. When this adapter is set to {@link SharedDataHandlerFactory},
+ * the factory creates your DataHandler once per request, and all calls of
+ * the request are delegated to it. When a method of this adapter is called
+ * directly, the DataHandler is created for each call, therefore, your
+ * DataHandler must not rely on the state kept between calls in that case.
+ * Endpoints accept the DataHandlerFactory directly, so you don't need this
+ * adapter to keep using your per-request DataHandler with them.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class DataHandlerFactoryAdapter extends SharedDataHandler {
+
+	private final DataHandlerFactory factory;
+
+	/**
+	 * Initialize this instance with the factory to adapt.
+	 * @param factory The DataHandlerFactory instance.
+	 */
+	public DataHandlerFactoryAdapter(DataHandlerFactory factory) {
+		super();
+		this.factory = factory;
+	}
+
+	@Override
+	DataHandler bind(Request request) {
+		return factory.create(request);
+	}
+
+	@Override
+	public void validateClient(Request request, String clientId,
+			String clientSecret, String grantType, Handler<Boolean> handler) {
+		factory.create(request).validateClient(clientId, clientSecret, grantType, handler);
+	}
+
+	@Override
+	public void getUserId(Request request, String username, String password,
+			Handler<Try<AccessDenied, String>> handler) {
+		factory.create(request).getUserId(username, password, handler);
+	}
+
+	@Override
+	public void getUserIdByAssertion(Request request, String assertion,
+			Handler<Try<OAuthError, UserData>> handler) {
+		factory.create(request).getUserIdByAssertion(assertion, handler);
+	}
+
+	@Override
+	public void getUserIdByCustomToken(Request request, String customToken,
+			Handler<Try<AccessDenied, UserData>> handler) {
+		factory.create(request).getUserIdByCustomToken(customToken, handler);
+	}
+
+	@Override
+	public void createOrUpdateAuthInfo(Request request, String clientId,
+			String userId, String scope, Handler<AuthInfo> handler) {
+		factory.create(request).createOrUpdateAuthInfo(clientId, userId, scope, handler);
+	}
+
+	@Override
+	public void createOrUpdateAccessToken(Request request, AuthInfo authInfo,
+			Handler<AccessToken> handler) {
+		factory.create(request).createOrUpdateAccessToken(authInfo, handler);
+	}
+
+	@Override
+	public void createOrUpdateAuthInfoAndAccessToken(Request request, String clientId,
+			String userId, String scope, Handler<IssuedToken> handler) {
+		factory.create(request).createOrUpdateAuthInfoAndAccessToken(clientId, userId, scope, handler);
+	}
+
+	@Override
+	public void getAuthInfoByCode(Request request, String code,
+			Handler<AuthInfo> handler) {
+		factory.create(request).getAuthInfoByCode(code, handler);
+	}
+
+	@Override
+	public void exchangeAuthorizationCode(Request request, String code,
+			String clientId, String redirectUri,
+			Handler<Try<OAuthError, IssuedToken>> handler) {
+		factory.create(request).exchangeAuthorizationCode(code, clientId, redirectUri, handler);
+	}
+
+	@Override
+	public void getAuthInfoByRefreshToken(Request request, String refreshToken,
+			Handler<AuthInfo> handler) {
+		factory.create(request).getAuthInfoByRefreshToken(refreshToken, handler);
+	}
+
+	@Override
+	public void getClientUserId(Request request, String clientId,
+			String clientSecret, Handler<String> handler) {
+		factory.create(request).getClientUserId(clientId, clientSecret, handler);
+	}
+
+	@Override
+	public void validateClientById(Request request, String clientId,
+			Handler<Boolean> handler) {
+		factory.create(request).validateClientById(clientId, handler);
+	}
+
+	@Override
+	public void validateUserById(Request request, String userId,
+			Handler<Boolean> handler) {
+		factory.create(request).validateUserById(userId, handler);
+	}
+
+	@Override
+	public void getAccessToken(Request request, String token,
+			Handler<AccessToken> handler) {
+		factory.create(request).getAccessToken(token, handler);
+	}
+
+	@Override
+	public void getAuthInfoById(Request request, String id,
+			Handler<AuthInfo> handler) {
+		factory.create(request).getAuthInfoById(id, handler);
+	}
+
+	@Override
+	public void getUserIdByAssertionJwt(Request request, String clientId,
+			String assertion, Handler<Try<OAuthError, UserData>> handler) {
+		factory.create(request).getUserIdByAssertionJwt(clientId, assertion, handler);
+	}
+
+	@Override
+	public void getUserIdByVerifiedJwt(Request request, String clientId,
+			JwtClaims claims, Handler<Try<OAuthError, UserData>> handler) {
+		factory.create(request).getUserIdByVerifiedJwt(clientId, claims, handler);
+	}
+
+	@Override
+	public void getIssuedTokens(Request request, List<String> tokens,
+			Handler<Map<String, IssuedToken>> handler) {
+		factory.create(request).getIssuedTokens(tokens, handler);
+	}
+
+	@Override
+	public void getAuthorizationsBySessionId(Request request, String sessionId,
+			Handler<List<AuthInfo>> handler) {
+		factory.create(request).getAuthorizationsBySessionId(sessionId, handler);
+	}
+
+	@Override
+	public void getTokensByAuthId(Request request, String authId,
+			Handler<List<AccessToken>> handler) {
+		factory.create(request).getTokensByAuthId(authId, handler);
+	}
+
+	@Override
+	public void deleteTokensByAuthId(Request request, String authId) {
+		factory.create(request).deleteTokensByAuthId(authId);
+	}
+
+}
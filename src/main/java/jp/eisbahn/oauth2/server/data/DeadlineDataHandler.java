@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.data;
+
+import java.util.List;
+import java.util.Map;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError.AccessDenied;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.IssuedToken;
+import jp.eisbahn.oauth2.server.models.JwtClaims;
+import jp.eisbahn.oauth2.server.models.UserData;
+
+/**
+ * This DataHandler enforces the deadlines of {@link Deadlines.Scope} to each
+ * call. The handler passed to each method is invoked only when the request
+ * is not completed yet. This instance is created by
+ * {@link Deadlines.Scope#wrap(DataHandler)}.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+class DeadlineDataHandler extends ForwardingDataHandler {
+
+	private final Deadlines.Scope<?> requestScope;
+
+	DeadlineDataHandler(DataHandler delegate, Deadlines.Scope<?> scope) {
+		super(delegate);
+		this.requestScope = scope;
+	}
+
+	@Override
+	public void validateClient(String clientId, String clientSecret,
+			String grantType, Handler<Boolean> handler) {
+		getDelegate().validateClient(clientId, clientSecret, grantType,
+				requestScope.guard("validateClient", handler));
+	}
+
+	@Override
+	public void getUserId(String username, String password,
+			Handler<Try<AccessDenied, String>> handler) {
+		getDelegate().getUserId(username, password, requestScope.guard("getUserId", handler));
+	}
+
+	@Override
+	public void getUserIdByAssertion(String assertion,
+			Handler<Try<OAuthError, UserData>> handler) {
+		getDelegate().getUserIdByAssertion(assertion,
+				requestScope.guard("getUserIdByAssertion", handler));
+	}
+
+	@Override
+	public void getUserIdByCustomToken(String customToken,
+			Handler<Try<AccessDenied, UserData>> handler) {
+		getDelegate().getUserIdByCustomToken(customToken,
+				requestScope.guard("getUserIdByCustomToken", handler));
+	}
+
+	@Override
+	public void createOrUpdateAuthInfo(String clientId, String userId,
+			String scope, Handler<AuthInfo> handler) {
+		getDelegate().createOrUpdateAuthInfo(clientId, userId, scope,
+				requestScope.guard("createOrUpdateAuthInfo", handler));
+	}
+
+	@Override
+	public void createOrUpdateAccessToken(AuthInfo authInfo,
+			Handler<AccessToken> handler) {
+		getDelegate().createOrUpdateAccessToken(authInfo,
+				requestScope.guard("createOrUpdateAccessToken", handler));
+	}
+
+	@Override
+	public void createOrUpdateAuthInfoAndAccessToken(String clientId, String userId,
+			String scope, Handler<IssuedToken> handler) {
+		getDelegate().createOrUpdateAuthInfoAndAccessToken(clientId, userId, scope,
+				requestScope.guard("createOrUpdateAuthInfoAndAccessToken", handler));
+	}
+
+	@Override
+	public void getAuthInfoByCode(String code, Handler<AuthInfo> handler) {
+		getDelegate().getAuthInfoByCode(code, requestScope.guard("getAuthInfoByCode", handler));
+	}
+
+	@Override
+	public void exchangeAuthorizationCode(String code, String clientId,
+			String redirectUri, Handler<Try<OAuthError, IssuedToken>> handler) {
+		getDelegate().exchangeAuthorizationCode(code, clientId, redirectUri,
+				requestScope.guard("exchangeAuthorizationCode", handler));
+	}
+
+	@Override
+	public void getAuthInfoByRefreshToken(String refreshToken,
+			Handler<AuthInfo> handler) {
+		getDelegate().getAuthInfoByRefreshToken(refreshToken,
+				requestScope.guard("getAuthInfoByRefreshToken", handler));
+	}
+
+	@Override
+	public void getClientUserId(String clientId, String clientSecret,
+			Handler<String> handler) {
+		getDelegate().getClientUserId(clientId, clientSecret,
+				requestScope.guard("getClientUserId", handler));
+	}
+
+	@Override
+	public void validateClientById(String clientId, Handler<Boolean> handler) {
+		getDelegate().validateClientById(clientId,
+				requestScope.guard("validateClientById", handler));
+	}
+
+	@Override
+	public void validateUserById(String userId, Handler<Boolean> handler) {
+		getDelegate().validateUserById(userId, requestScope.guard("validateUserById", handler));
+	}
+
+	@Override
+	public void getAccessToken(String token, Handler<AccessToken> handler) {
+		getDelegate().getAccessToken(token, requestScope.guard("getAccessToken", handler));
+	}
+
+	@Override
+	public void getAuthInfoById(String id, Handler<AuthInfo> handler) {
+		getDelegate().getAuthInfoById(id, requestScope.guard("getAuthInfoById", handler));
+	}
+
+	@Override
+	public void getUserIdByAssertionJwt(String clientId, String assertion,
+			Handler<Try<OAuthError, UserData>> handler) {
+		getDelegate().getUserIdByAssertionJwt(clientId, assertion,
+				requestScope.guard("getUserIdByAssertionJwt", handler));
+	}
+
+	@Override
+	public void getUserIdByVerifiedJwt(String clientId, JwtClaims claims,
+			Handler<Try<OAuthError, UserData>> handler) {
+		getDelegate().getUserIdByVerifiedJwt(clientId, claims,
+				requestScope.guard("getUserIdByVerifiedJwt", handler));
+	}
+
+	@Override
+	public void getIssuedTokens(List<String> tokens, Handler<Map<String, IssuedToken>> handler) {
+		getDelegate().getIssuedTokens(tokens, requestScope.guard("getIssuedTokens", handler));
+	}
+
+	@Override
+	public void getAuthorizationsBySessionId(String sessionId,
+			Handler<List<AuthInfo>> handler) {
+		getDelegate().getAuthorizationsBySessionId(sessionId,
+				requestScope.guard("getAuthorizationsBySessionId", handler));
+	}
+
+	@Override
+	public void getTokensByAuthId(String authId, Handler<List<AccessToken>> handler) {
+		getDelegate().getTokensByAuthId(authId, requestScope.guard("getTokensByAuthId", handler));
+	}
+
+	@Override
+	public void deleteTokensByAuthId(String authId) {
+		getDelegate().deleteTokensByAuthId(authId);
+	}
+
+}
@@ -0,0 +1,327 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.data;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jp.eisbahn.oauth2.server.async.HashedWheelTimer;
+import jp.eisbahn.oauth2.server.async.Handler;
+
+/**
+ * This class enforces the deadlines to the DataHandler calls.
+ *
+ * <p>If your DataHandler never invokes the handler passed, the request never
+ * completes and the resources for the request are never released. Each
+ * request processed with this instance has two deadlines: One is for the
+ * whole request, and another is for each DataHandler call. When either
+ * deadline expires, the request completes with the result for the timeout
+ * exactly once, and the callbacks invoked after that are ignored.</p>
+ *
+ * <p>The deadlines are enforced by a {@link HashedWheelTimer}. By default,
+ * the timer shared in this JVM is used. When a deadline expires, the result
+ * for the timeout is passed by the executor, not by the thread of the timer,
+ * so that a slow handler doesn't delay the other deadlines. The number of
+ * the timeouts is counted for each DataHandler method.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class Deadlines {
+
+	private HashedWheelTimer timer;
+	private Executor executor;
+	private long requestTimeout = 30000L;
+	private long callTimeout = 10000L;
+
+	private final AtomicLong requestTimeoutCount = new AtomicLong();
+	private final ConcurrentMap<String, AtomicLong> timeoutCounts =
+			new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * Set the timer which enforces the deadlines.
+	 * @param timer The timer. If null, the timer shared in this JVM is used.
+	 */
+	public void setTimer(HashedWheelTimer timer) {
+		this.timer = timer;
+	}
+
+	/**
+	 * Set the executor which passes the result for the timeout to the
+	 * handler.
+	 * @param executor The executor. If null, the daemon threads shared in
+	 * this JVM are used.
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Set the deadline of the whole request. The default value is 30 seconds.
+	 * @param requestTimeout The timeout in milliseconds. If 0, the request
+	 * has no deadline.
+	 */
+	public void setRequestTimeout(long requestTimeout) {
+		if (requestTimeout < 0) {
+			throw new IllegalArgumentException("requestTimeout must not be negative.");
+		}
+		this.requestTimeout = requestTimeout;
+	}
+
+	/**
+	 * Set the deadline of each DataHandler call. The default value is
+	 * 10 seconds.
+	 * @param callTimeout The timeout in milliseconds. If 0, each call has no
+	 * deadline.
+	 */
+	public void setCallTimeout(long callTimeout) {
+		if (callTimeout < 0) {
+			throw new IllegalArgumentException("callTimeout must not be negative.");
+		}
+		this.callTimeout = callTimeout;
+	}
+
+	/**
+	 * Retrieve the number of the requests completed by the timeout.
+	 * @return The number of the requests.
+	 */
+	public long getRequestTimeoutCount() {
+		return requestTimeoutCount.get();
+	}
+
+	/**
+	 * Retrieve the number of the timeouts while waiting for the method of
+	 * DataHandler. This includes the deadlines of the requests which expired
+	 * while waiting for the method. When a request expires while waiting for
+	 * several concurrent calls, each of the methods is counted.
+	 * @param method The method name, for instance, "getAccessToken".
+	 * @return The number of the timeouts.
+	 */
+	public long getTimeoutCount(String method) {
+		AtomicLong count = timeoutCounts.get(method);
+		return count != null ? count.get() : 0L;
+	}
+
+	/**
+	 * Retrieve the numbers of the timeouts for each method of DataHandler.
+	 * @return The map object which has method names and the numbers. This
+	 * is a snapshot.
+	 */
+	public Map<String, Long> getTimeoutCounts() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : timeoutCounts.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().get());
+		}
+		return result;
+	}
+
+	/**
+	 * Begin the request. The deadline of the request starts at this call.
+	 * @param handler The handler which receives the result of the request.
+	 * @param timeoutResult The result passed to the handler when the deadline
+	 * expires.
+	 * @return The scope of the request. The result of the request must be
+	 * passed to this scope instead of the handler.
+	 */
+	public <T> Scope<T> begin(Handler<T> handler, T timeoutResult) {
+		Scope<T> scope = new Scope<T>(handler, timeoutResult);
+		if (requestTimeout > 0) {
+			scope.requestTimeout = schedule(scope, null, requestTimeout);
+		}
+		return scope;
+	}
+
+	/**
+	 * Retrieve the DataHandler wrapped by {@link Scope#wrap(DataHandler)}.
+	 * This is used to run a call shared by many requests, which must not be
+	 * bound to the deadlines of one of them.
+	 * @param dataHandler The DataHandler instance.
+	 * @return The original DataHandler instance if it was wrapped,
+	 * otherwise the instance passed.
+	 */
+	public static DataHandler unwrap(DataHandler dataHandler) {
+		if (dataHandler instanceof DeadlineDataHandler) {
+			return ((DeadlineDataHandler) dataHandler).getDelegate();
+		}
+		return dataHandler;
+	}
+
+	private HashedWheelTimer getTimer() {
+		return timer != null ? timer : HashedWheelTimer.getShared();
+	}
+
+	private HashedWheelTimer.Timeout schedule(final Scope<?> scope,
+			final String method, long timeout) {
+		return getTimer().newTimeout(new Runnable() {
+			@Override
+			public void run() {
+				Runnable task = new Runnable() {
+					@Override
+					public void run() {
+						scope.expire(method);
+					}
+				};
+				try {
+					(executor != null ? executor : ExecutorHolder.INSTANCE).execute(task);
+				} catch (RejectedExecutionException e) {
+					task.run();
+				}
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+	}
+
+	private void countTimeout(String method) {
+		AtomicLong count = timeoutCounts.get(method);
+		if (count == null) {
+			AtomicLong created = new AtomicLong();
+			count = timeoutCounts.putIfAbsent(method, created);
+			if (count == null) {
+				count = created;
+			}
+		}
+		count.incrementAndGet();
+	}
+
+	/**
+	 * This class represents one request processed with the deadlines.
+	 * The result is passed to the original handler exactly once.
+	 *
+	 * @author Yoichiro Tanaka
+	 *
+	 */
+	public final class Scope<T> implements Handler<T> {
+
+		private final Handler<T> handler;
+		private final T timeoutResult;
+		private final AtomicBoolean done = new AtomicBoolean();
+		private volatile HashedWheelTimer.Timeout requestTimeout;
+		private final Queue<String> pendingMethods = new ConcurrentLinkedQueue<String>();
+
+		private Scope(Handler<T> handler, T timeoutResult) {
+			this.handler = handler;
+			this.timeoutResult = timeoutResult;
+		}
+
+		/**
+		 * Pass the result of the request to the original handler. If the
+		 * request was already completed, the result is ignored.
+		 * @param event The result of the request.
+		 */
+		@Override
+		public void handle(T event) {
+			if (done.compareAndSet(false, true)) {
+				cancelRequestTimeout();
+				handler.handle(event);
+			}
+		}
+
+		/**
+		 * Complete the request without passing any result, for instance,
+		 * when an exception is thrown.
+		 */
+		public void cancel() {
+			if (done.compareAndSet(false, true)) {
+				cancelRequestTimeout();
+			}
+		}
+
+		/**
+		 * Retrieve whether this request was already completed or not.
+		 * @return True if completed.
+		 */
+		public boolean isDone() {
+			return done.get();
+		}
+
+		/**
+		 * Wrap the DataHandler so that each call is under the deadlines of
+		 * this request.
+		 * @param dataHandler The DataHandler instance.
+		 * @return The wrapped DataHandler instance.
+		 */
+		public DataHandler wrap(DataHandler dataHandler) {
+			return new DeadlineDataHandler(dataHandler, this);
+		}
+
+		<R> Handler<R> guard(final String method, final Handler<R> callback) {
+			pendingMethods.add(method);
+			final HashedWheelTimer.Timeout timeout =
+					callTimeout > 0 ? schedule(this, method, callTimeout) : null;
+			return new Handler<R>() {
+				@Override
+				public void handle(R event) {
+					if (timeout != null) {
+						timeout.cancel();
+					}
+					pendingMethods.remove(method);
+					if (done.get()) {
+						return;
+					}
+					callback.handle(event);
+				}
+			};
+		}
+
+		private void expire(String method) {
+			if (!done.compareAndSet(false, true)) {
+				return;
+			}
+			if (method == null) {
+				requestTimeoutCount.incrementAndGet();
+				for (String pending : new HashSet<String>(pendingMethods)) {
+					countTimeout(pending);
+				}
+			} else {
+				cancelRequestTimeout();
+				countTimeout(method);
+			}
+			handler.handle(timeoutResult);
+		}
+
+		private void cancelRequestTimeout() {
+			if (requestTimeout != null) {
+				requestTimeout.cancel();
+			}
+		}
+
+	}
+
+	private static final class ExecutorHolder {
+		static final Executor INSTANCE = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "oauth2-deadlines");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.data;
+
+import java.util.List;
+import java.util.Map;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError.AccessDenied;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.IssuedToken;
+import jp.eisbahn.oauth2.server.models.JwtClaims;
+import jp.eisbahn.oauth2.server.models.UserData;
+
+/**
+ * This DataHandler forwards all method calls to other DataHandler instance.
+ * You can override some methods to decorate the calls, for instance,
+ * to measure the latency or to enforce the deadline.
+ * The request of this instance is same as the request of the delegate.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class ForwardingDataHandler extends DataHandler {
+
+	private final DataHandler delegate;
+
+	/**
+	 * Initialize this instance.
+	 * @param delegate The DataHandler instance which actually handles
+	 * the calls.
+	 */
+	public ForwardingDataHandler(DataHandler delegate) {
+		super(delegate.getRequest());
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Retrieve the DataHandler instance which actually handles the calls.
+	 * @return The delegate.
+	 */
+	protected DataHandler getDelegate() {
+		return delegate;
+	}
+
+	@Override
+	public void validateClient(String clientId, String clientSecret,
+			String grantType, Handler<Boolean> handler) {
+		delegate.validateClient(clientId, clientSecret, grantType, handler);
+	}
+
+	@Override
+	public void getUserId(String username, String password,
+			Handler<Try<AccessDenied, String>> handler) {
+		delegate.getUserId(username, password, handler);
+	}
+
+	@Override
+	public void getUserIdByAssertion(String assertion,
+			Handler<Try<OAuthError, UserData>> handler) {
+		delegate.getUserIdByAssertion(assertion, handler);
+	}
+
+	@Override
+	public void getUserIdByCustomToken(String customToken,
+			Handler<Try<AccessDenied, UserData>> handler) {
+		delegate.getUserIdByCustomToken(customToken, handler);
+	}
+
+	@Override
+	public void createOrUpdateAuthInfo(String clientId, String userId,
+			String scope, Handler<AuthInfo> handler) {
+		delegate.createOrUpdateAuthInfo(clientId, userId, scope, handler);
+	}
+
+	@Override
+	public void createOrUpdateAccessToken(AuthInfo authInfo,
+			Handler<AccessToken> handler) {
+		delegate.createOrUpdateAccessToken(authInfo, handler);
+	}
+
+	@Override
+	public void createOrUpdateAuthInfoAndAccessToken(String clientId, String userId,
+			String scope, Handler<IssuedToken> handler) {
+		delegate.createOrUpdateAuthInfoAndAccessToken(clientId, userId, scope, handler);
+	}
+
+	@Override
+	public void getAuthInfoByCode(String code, Handler<AuthInfo> handler) {
+		delegate.getAuthInfoByCode(code, handler);
+	}
+
+	@Override
+	public void exchangeAuthorizationCode(String code, String clientId,
+			String redirectUri, Handler<Try<OAuthError, IssuedToken>> handler) {
+		delegate.exchangeAuthorizationCode(code, clientId, redirectUri, handler);
+	}
+
+	@Override
+	public void getAuthInfoByRefreshToken(String refreshToken,
+			Handler<AuthInfo> handler) {
+		delegate.getAuthInfoByRefreshToken(refreshToken, handler);
+	}
+
+	@Override
+	public void getClientUserId(String clientId, String clientSecret,
+			Handler<String> handler) {
+		delegate.getClientUserId(clientId, clientSecret, handler);
+	}
+
+	@Override
+	public void validateClientById(String clientId, Handler<Boolean> handler) {
+		delegate.validateClientById(clientId, handler);
+	}
+
+	@Override
+	public void validateUserById(String userId, Handler<Boolean> handler) {
+		delegate.validateUserById(userId, handler);
+	}
+
+	@Override
+	public void getAccessToken(String token, Handler<AccessToken> handler) {
+		delegate.getAccessToken(token, handler);
+	}
+
+	@Override
+	public void getAuthInfoById(String id, Handler<AuthInfo> handler) {
+		delegate.getAuthInfoById(id, handler);
+	}
+
+	@Override
+	public void getUserIdByAssertionJwt(String clientId, String assertion,
+			Handler<Try<OAuthError, UserData>> handler) {
+		delegate.getUserIdByAssertionJwt(clientId, assertion, handler);
+	}
+
+	@Override
+	public void getUserIdByVerifiedJwt(String clientId, JwtClaims claims,
+			Handler<Try<OAuthError, UserData>> handler) {
+		delegate.getUserIdByVerifiedJwt(clientId, claims, handler);
+	}
+
+	@Override
+	public void getIssuedTokens(List<String> tokens, Handler<Map<String, IssuedToken>> handler) {
+		delegate.getIssuedTokens(tokens, handler);
+	}
+
+	@Override
+	public void getAuthorizationsBySessionId(String sessionId,
+			Handler<List<AuthInfo>> handler) {
+		delegate.getAuthorizationsBySessionId(sessionId, handler);
+	}
+
+	@Override
+	public void getTokensByAuthId(String authId, Handler<List<AccessToken>> handler) {
+		delegate.getTokensByAuthId(authId, handler);
+	}
+
+	@Override
+	public void deleteTokensByAuthId(String authId) {
+		delegate.deleteTokensByAuthId(authId);
+	}
+
+}
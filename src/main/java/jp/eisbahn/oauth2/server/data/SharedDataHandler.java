@@ -0,0 +1,283 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data;
+
+import java.util.List;
+import java.util.Map;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError.AccessDenied;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.IssuedToken;
+import jp.eisbahn.oauth2.server.models.JwtClaims;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.UserData;
+
+/**
+ * This abstract class defines the same functions as {@link DataHandler}, but
+ * one instance is shared by all requests.
+ *
+ * <p>A DataHandler is created per request only to keep the request instance.
+ * If creating your DataHandler is expensive (for instance, it takes resources
+ * from some pools in the init() method), implement this class instead. The
+ * request is passed to each method as the first argument, therefore, the
+ * implementation must be thread-safe and must not keep any state regarding
+ * a request.</p>
+ *
+ * <p>To use this instance with {@link jp.eisbahn.oauth2.server.endpoint.Token}
+ * and {@link jp.eisbahn.oauth2.server.endpoint.ProtectedResource}, set it to
+ * a {@link SharedDataHandlerFactory} instance. The factory creates a
+ * lightweight DataHandler per request which only binds the request to this
+ * shared instance.</p>
+ *
+ * <p>The meaning of each method is same as the method which has the same name
+ * in {@link DataHandler}.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public abstract class SharedDataHandler {
+
+	/**
+	 * Validate the client and return the result.
+	 * @param request The request object.
+	 * @param clientId The client ID.
+	 * @param clientSecret The client secret string.
+	 * @param grantType The grant type string which the client required.
+	 * @param handler The handler to receive true if the client is valid.
+	 * @see DataHandler#validateClient(String, String, String, Handler)
+	 */
+	public abstract void validateClient(Request request,
+			String clientId, String clientSecret, String grantType, Handler<Boolean> handler);
+
+	/**
+	 * Retrieve the user's ID from the user's credential.
+	 * @param request The request object.
+	 * @param username The user name inputed by the user his/herself.
+	 * @param password The password string inputed by the user.
+	 * @param handler The handler to receive the user's ID.
+	 * @see DataHandler#getUserId(String, String, Handler)
+	 */
+	public abstract void getUserId(Request request,
+			String username, String password, Handler<Try<AccessDenied, String>> handler);
+
+	/**
+	 * Retrieve the user's ID from saml2 assertion.
+	 * @param request The request object.
+	 * @param assertion saml2 assertion
+	 * @param handler The handler to receive the user's data.
+	 * @see DataHandler#getUserIdByAssertion(String, Handler)
+	 */
+	public abstract void getUserIdByAssertion(Request request,
+			String assertion, Handler<Try<OAuthError, UserData>> handler);
+
+	/**
+	 * Retrieve the user's ID from custom token.
+	 * @param request The request object.
+	 * @param customToken custom token authentication
+	 * @param handler The handler to receive the user's data.
+	 * @see DataHandler#getUserIdByCustomToken(String, Handler)
+	 */
+	public abstract void getUserIdByCustomToken(Request request,
+			String customToken, Handler<Try<AccessDenied, UserData>> handler);
+
+	/**
+	 * Create or update an Authorization information.
+	 * @param request The request object.
+	 * @param clientId The client ID.
+	 * @param userId The user's ID.
+	 * @param scope The scope string.
+	 * @param handler The handler to receive the created or updated information.
+	 * @see DataHandler#createOrUpdateAuthInfo(String, String, String, Handler)
+	 */
+	public abstract void createOrUpdateAuthInfo(Request request,
+			String clientId, String userId, String scope, Handler<AuthInfo> handler);
+
+	/**
+	 * Create or update an Access token.
+	 * @param request The request object.
+	 * @param authInfo The instance which has the information about authorization.
+	 * @param handler The handler to receive the created or updated access token.
+	 * @see DataHandler#createOrUpdateAccessToken(AuthInfo, Handler)
+	 */
+	public abstract void createOrUpdateAccessToken(Request request,
+			AuthInfo authInfo, Handler<AccessToken> handler);
+
+	/**
+	 * Create or update an Authorization information and an Access token for it.
+	 * The default implementation calls createOrUpdateAuthInfo() and
+	 * createOrUpdateAccessToken() in sequence. Override this method to do both
+	 * in one transaction or round trip.
+	 * @param request The request object.
+	 * @param clientId The client ID.
+	 * @param userId The user's ID.
+	 * @param scope The scope string.
+	 * @param handler The handler to receive the issued token.
+	 * @see DataHandler#createOrUpdateAuthInfoAndAccessToken(String, String, String, Handler)
+	 */
+	public void createOrUpdateAuthInfoAndAccessToken(Request request, String clientId,
+			String userId, String scope, Handler<IssuedToken> handler) {
+		DataHandler.createOrUpdateAuthInfoAndAccessToken(new BoundDataHandler(request, this),
+				clientId, userId, scope, handler);
+	}
+
+	/**
+	 * Retrieve the authorization information by the authorization code value.
+	 * @param request The request object.
+	 * @param code The authorization code value.
+	 * @param handler The handler to receive the authorization information.
+	 * @see DataHandler#getAuthInfoByCode(String, Handler)
+	 */
+	public abstract void getAuthInfoByCode(Request request,
+			String code, Handler<AuthInfo> handler);
+
+	/**
+	 * Consume the authorization code and issue an access token for it.
+	 * The default implementation calls getAuthInfoByCode() and
+	 * createOrUpdateAccessToken() in sequence. Override this method to
+	 * guarantee that each code is exchanged only once.
+	 * @param request The request object.
+	 * @param code The authorization code value.
+	 * @param clientId The client ID of the request.
+	 * @param redirectUri The redirect_uri parameter's value of the request.
+	 * @param handler The handler to receive the issued token.
+	 * @see DataHandler#exchangeAuthorizationCode(String, String, String, Handler)
+	 */
+	public void exchangeAuthorizationCode(Request request, String code,
+			String clientId, String redirectUri,
+			Handler<Try<OAuthError, IssuedToken>> handler) {
+		DataHandler.exchangeAuthorizationCode(new BoundDataHandler(request, this),
+				code, clientId, redirectUri, handler);
+	}
+
+	/**
+	 * Retrieve the authorization information by the refresh token string.
+	 * @param request The request object.
+	 * @param refreshToken The refresh token string.
+	 * @param handler The handler to receive the authorization information.
+	 * @see DataHandler#getAuthInfoByRefreshToken(String, Handler)
+	 */
+	public abstract void getAuthInfoByRefreshToken(Request request,
+			String refreshToken, Handler<AuthInfo> handler);
+
+	/**
+	 * Determine an user ID representing the client itself and return it.
+	 * @param request The request object.
+	 * @param clientId The client ID.
+	 * @param clientSecret The client secret string.
+	 * @param handler The handler to receive the ID representing the client.
+	 * @see DataHandler#getClientUserId(String, String, Handler)
+	 */
+	public abstract void getClientUserId(Request request,
+			String clientId, String clientSecret, Handler<String> handler);
+
+	/**
+	 * Validate the client specified by the client ID.
+	 * @param request The request object.
+	 * @param clientId The client ID.
+	 * @param handler The handler to receive false if the client is invalid.
+	 * @see DataHandler#validateClientById(String, Handler)
+	 */
+	public abstract void validateClientById(Request request,
+			String clientId, Handler<Boolean> handler);
+
+	/**
+	 * Validate the user specified by the user ID.
+	 * @param request The request object.
+	 * @param userId The user's ID.
+	 * @param handler The handler to receive false if the user is invalid.
+	 * @see DataHandler#validateUserById(String, Handler)
+	 */
+	public abstract void validateUserById(Request request,
+			String userId, Handler<Boolean> handler);
+
+	/**
+	 * Retrieve the access token from the token string.
+	 * @param request The request object.
+	 * @param token The access token string.
+	 * @param handler The handler to receive the access token.
+	 * @see DataHandler#getAccessToken(String, Handler)
+	 */
+	public abstract void getAccessToken(Request request,
+			String token, Handler<AccessToken> handler);
+
+	/**
+	 * Retrieve the authorization information by the ID.
+	 * @param request The request object.
+	 * @param id The ID to specify the authorization information.
+	 * @param handler The handler to receive the authorization information.
+	 * @see DataHandler#getAuthInfoById(String, Handler)
+	 */
+	public abstract void getAuthInfoById(Request request,
+			String id, Handler<AuthInfo> handler);
+
+	public abstract void getUserIdByAssertionJwt(Request request, String clientId,
+			String assertion, Handler<Try<OAuthError, UserData>> handler);
+
+	/**
+	 * Retrieve the user's ID by the claims of a verified JWT assertion.
+	 * The implementation must bind the "iss" and "sub" claims to a user whom
+	 * the client is allowed to assert. The default implementation fails with
+	 * the error "invalid_grant".
+	 * @param request The request object.
+	 * @param clientId The client ID.
+	 * @param claims The verified claims.
+	 * @param handler The handler to receive the user's data.
+	 * @see DataHandler#getUserIdByVerifiedJwt(String, JwtClaims, Handler)
+	 */
+	public void getUserIdByVerifiedJwt(Request request, String clientId,
+			JwtClaims claims, Handler<Try<OAuthError, UserData>> handler) {
+		DataHandler.getUserIdByVerifiedJwt(handler);
+	}
+
+	/**
+	 * Retrieve the access tokens and their authorization information of
+	 * many token strings at once.
+	 * @param request The request object.
+	 * @param tokens The access token strings.
+	 * @param handler The handler to receive the map of the tokens.
+	 * @see DataHandler#getIssuedTokens(List, Handler)
+	 */
+	public void getIssuedTokens(Request request, List<String> tokens,
+			Handler<Map<String, IssuedToken>> handler) {
+		DataHandler.getIssuedTokens(new BoundDataHandler(request, this), tokens, handler);
+	}
+
+	public abstract void getAuthorizationsBySessionId(Request request,
+			String sessionId, Handler<List<AuthInfo>> handler);
+
+	public abstract void getTokensByAuthId(Request request,
+			String authId, Handler<List<AccessToken>> handler);
+
+	public abstract void deleteTokensByAuthId(Request request, String authId);
+
+	/**
+	 * Create the DataHandler which binds the request to this instance. This
+	 * is called by {@link SharedDataHandlerFactory} once per request.
+	 * @param request The request object.
+	 * @return The DataHandler instance.
+	 */
+	DataHandler bind(Request request) {
+		return new BoundDataHandler(request, this);
+	}
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data;
+
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This factory provides a DataHandler backed by one {@link SharedDataHandler}
+ * instance.
+ *
+ * <p>The DataHandler created by this factory only keeps the request and the
+ * shared instance, and its init() method does nothing. Each call is delegated
+ * to the shared instance with the request. Therefore, creating it per request
+ * costs almost nothing.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class SharedDataHandlerFactory implements DataHandlerFactory {
+
+	private SharedDataHandler sharedDataHandler;
+
+	/**
+	 * Initialize this instance. The shared instance must be set with the
+	 * setSharedDataHandler() method before the create() method is called.
+	 */
+	public SharedDataHandlerFactory() {
+		this(null);
+	}
+
+	/**
+	 * Initialize this instance with the shared instance.
+	 * @param sharedDataHandler The SharedDataHandler instance.
+	 */
+	public SharedDataHandlerFactory(SharedDataHandler sharedDataHandler) {
+		super();
+		this.sharedDataHandler = sharedDataHandler;
+	}
+
+	/**
+	 * Create a DataHandler which binds the request to the shared instance.
+	 * @param request The request object.
+	 * @return The DataHandler instance.
+	 */
+	@Override
+	public DataHandler create(Request request) {
+		return sharedDataHandler.bind(request);
+	}
+
+	/**
+	 * Set the SharedDataHandler instance used by all requests.
+	 * @param sharedDataHandler The SharedDataHandler instance.
+	 */
+	public void setSharedDataHandler(SharedDataHandler sharedDataHandler) {
+		this.sharedDataHandler = sharedDataHandler;
+	}
+
+	/**
+	 * Retrieve the SharedDataHandler instance used by all requests.
+	 * @return The SharedDataHandler instance.
+	 */
+	public SharedDataHandler getSharedDataHandler() {
+		return sharedDataHandler;
+	}
+
+}
@@ -0,0 +1,303 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError.AccessDenied;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.IssuedToken;
+import jp.eisbahn.oauth2.server.models.JwtClaims;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.UserData;
+
+/**
+ * This DataHandler routes each call to the primary or to a replica.
+ * This instance is created by {@link ReadWriteSplittingDataHandlerFactory}.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+class ReadWriteSplittingDataHandler extends DataHandler {
+
+	private final ReadWriteSplittingDataHandlerFactory factory;
+	private DataHandler primary;
+	private DataHandler replica;
+	private boolean replicaCreated;
+
+	ReadWriteSplittingDataHandler(Request request, ReadWriteSplittingDataHandlerFactory factory) {
+		super(request);
+		this.factory = factory;
+	}
+
+	private DataHandler primary() {
+		if (primary == null) {
+			primary = factory.createPrimary(getRequest());
+		}
+		return primary;
+	}
+
+	private DataHandler replica() {
+		if (!replicaCreated) {
+			replica = factory.createReplica(getRequest());
+			replicaCreated = true;
+		}
+		return replica != null ? replica : primary();
+	}
+
+	@Override
+	public void validateClient(String clientId, String clientSecret,
+			String grantType, Handler<Boolean> handler) {
+		primary().validateClient(clientId, clientSecret, grantType, handler);
+	}
+
+	@Override
+	public void getUserId(String username, String password,
+			Handler<Try<AccessDenied, String>> handler) {
+		primary().getUserId(username, password, handler);
+	}
+
+	@Override
+	public void getUserIdByAssertion(String assertion,
+			Handler<Try<OAuthError, UserData>> handler) {
+		primary().getUserIdByAssertion(assertion, handler);
+	}
+
+	@Override
+	public void getUserIdByCustomToken(String customToken,
+			Handler<Try<AccessDenied, UserData>> handler) {
+		primary().getUserIdByCustomToken(customToken, handler);
+	}
+
+	@Override
+	public void createOrUpdateAuthInfo(String clientId, String userId,
+			String scope, final Handler<AuthInfo> handler) {
+		primary().createOrUpdateAuthInfo(clientId, userId, scope, new Handler<AuthInfo>() {
+			@Override
+			public void handle(AuthInfo authInfo) {
+				if (authInfo != null) {
+					factory.authIdWritten(authInfo.getId());
+				}
+				handler.handle(authInfo);
+			}
+		});
+	}
+
+	@Override
+	public void createOrUpdateAccessToken(AuthInfo authInfo,
+			final Handler<AccessToken> handler) {
+		primary().createOrUpdateAccessToken(authInfo, new Handler<AccessToken>() {
+			@Override
+			public void handle(AccessToken accessToken) {
+				if (accessToken != null) {
+					factory.tokenWritten(accessToken.getToken());
+					factory.authIdWritten(accessToken.getAuthId());
+				}
+				handler.handle(accessToken);
+			}
+		});
+	}
+
+	@Override
+	public void createOrUpdateAuthInfoAndAccessToken(String clientId, String userId,
+			String scope, final Handler<IssuedToken> handler) {
+		primary().createOrUpdateAuthInfoAndAccessToken(clientId, userId, scope,
+				new Handler<IssuedToken>() {
+			@Override
+			public void handle(IssuedToken issued) {
+				if (issued.getAuthInfo() != null) {
+					factory.authIdWritten(issued.getAuthInfo().getId());
+				}
+				if (issued.getAccessToken() != null) {
+					factory.tokenWritten(issued.getAccessToken().getToken());
+				}
+				handler.handle(issued);
+			}
+		});
+	}
+
+	@Override
+	public void getAuthInfoByCode(String code, Handler<AuthInfo> handler) {
+		primary().getAuthInfoByCode(code, handler);
+	}
+
+	@Override
+	public void exchangeAuthorizationCode(String code, String clientId,
+			String redirectUri, final Handler<Try<OAuthError, IssuedToken>> handler) {
+		primary().exchangeAuthorizationCode(code, clientId, redirectUri,
+				new Handler<Try<OAuthError, IssuedToken>>() {
+			@Override
+			public void handle(Try<OAuthError, IssuedToken> event) {
+				try {
+					AccessToken accessToken = event.get().getAccessToken();
+					if (accessToken != null) {
+						factory.tokenWritten(accessToken.getToken());
+						factory.authIdWritten(accessToken.getAuthId());
+					}
+				} catch (OAuthError e) {
+					// Nothing was written.
+				}
+				handler.handle(event);
+			}
+		});
+	}
+
+	@Override
+	public void getAuthInfoByRefreshToken(String refreshToken,
+			Handler<AuthInfo> handler) {
+		primary().getAuthInfoByRefreshToken(refreshToken, handler);
+	}
+
+	@Override
+	public void getClientUserId(String clientId, String clientSecret,
+			Handler<String> handler) {
+		primary().getClientUserId(clientId, clientSecret, handler);
+	}
+
+	@Override
+	public void validateClientById(String clientId, Handler<Boolean> handler) {
+		replica().validateClientById(clientId, handler);
+	}
+
+	@Override
+	public void validateUserById(String userId, Handler<Boolean> handler) {
+		replica().validateUserById(userId, handler);
+	}
+
+	@Override
+	public void getAccessToken(final String token, final Handler<AccessToken> handler) {
+		if (factory.isRecentToken(token)) {
+			primary().getAccessToken(token, handler);
+			return;
+		}
+		replica().getAccessToken(token, new Handler<AccessToken>() {
+			@Override
+			public void handle(AccessToken accessToken) {
+				if (accessToken == null ? shouldFallback()
+						: replica != null && factory.isRecentAuthId(accessToken.getAuthId())) {
+					primary().getAccessToken(token, handler);
+				} else {
+					handler.handle(accessToken);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void getAuthInfoById(final String id, final Handler<AuthInfo> handler) {
+		if (factory.isRecentAuthId(id)) {
+			primary().getAuthInfoById(id, handler);
+			return;
+		}
+		replica().getAuthInfoById(id, new Handler<AuthInfo>() {
+			@Override
+			public void handle(AuthInfo authInfo) {
+				if (authInfo == null && shouldFallback()) {
+					primary().getAuthInfoById(id, handler);
+				} else {
+					handler.handle(authInfo);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void getUserIdByAssertionJwt(String clientId, String assertion,
+			Handler<Try<OAuthError, UserData>> handler) {
+		primary().getUserIdByAssertionJwt(clientId, assertion, handler);
+	}
+
+	@Override
+	public void getUserIdByVerifiedJwt(String clientId, JwtClaims claims,
+			Handler<Try<OAuthError, UserData>> handler) {
+		primary().getUserIdByVerifiedJwt(clientId, claims, handler);
+	}
+
+	@Override
+	public void getIssuedTokens(List<String> tokens, final Handler<Map<String, IssuedToken>> handler) {
+		final List<String> recent = new ArrayList<String>();
+		final List<String> others = new ArrayList<String>(tokens.size());
+		for (String token : tokens) {
+			(factory.isRecentToken(token) ? recent : others).add(token);
+		}
+		if (others.isEmpty()) {
+			primary().getIssuedTokens(recent, handler);
+			return;
+		}
+		replica().getIssuedTokens(others, new Handler<Map<String, IssuedToken>>() {
+			@Override
+			public void handle(final Map<String, IssuedToken> found) {
+				for (String token : others) {
+					IssuedToken issued = found.get(token);
+					if (issued == null ? shouldFallback() : replica != null && isPinned(issued)) {
+						recent.add(token);
+					}
+				}
+				if (recent.isEmpty()) {
+					handler.handle(found);
+					return;
+				}
+				primary().getIssuedTokens(recent, new Handler<Map<String, IssuedToken>>() {
+					@Override
+					public void handle(Map<String, IssuedToken> fromPrimary) {
+						Map<String, IssuedToken> result = new HashMap<String, IssuedToken>(found);
+						result.keySet().removeAll(recent);
+						result.putAll(fromPrimary);
+						handler.handle(result);
+					}
+				});
+			}
+		});
+	}
+
+	@Override
+	public void getAuthorizationsBySessionId(String sessionId,
+			Handler<List<AuthInfo>> handler) {
+		primary().getAuthorizationsBySessionId(sessionId, handler);
+	}
+
+	@Override
+	public void getTokensByAuthId(String authId, Handler<List<AccessToken>> handler) {
+		primary().getTokensByAuthId(authId, handler);
+	}
+
+	@Override
+	public void deleteTokensByAuthId(String authId) {
+		factory.authIdWritten(authId);
+		primary().deleteTokensByAuthId(authId);
+	}
+
+	private boolean isPinned(IssuedToken issued) {
+		AccessToken accessToken = issued.getAccessToken();
+		return accessToken != null && factory.isRecentAuthId(accessToken.getAuthId());
+	}
+
+	private boolean shouldFallback() {
+		return factory.isFallbackToPrimary() && replica != null;
+	}
+
+}
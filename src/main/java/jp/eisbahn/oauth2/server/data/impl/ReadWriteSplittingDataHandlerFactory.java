@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.impl;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This factory creates DataHandler instances which route each call either to
+ * a primary database or to one of its read replicas.
+ *
+ * <p>The read methods used at accessing a protected resource (getAccessToken(),
+ * getAuthInfoById(), validateClientById() and validateUserById()) are sent to
+ * a replica chosen in a round-robin manner. All other methods, including
+ * createOrUpdateAuthInfo(), createOrUpdateAccessToken() and
+ * deleteTokensByAuthId(), are sent to the primary.</p>
+ *
+ * <p>A replica may lag behind the primary. To avoid rejecting a token which
+ * has just been issued, the tokens and authorization IDs written through
+ * this factory are remembered for the read-your-writes window, and reads for
+ * them are sent to the primary during that time. The authorization IDs
+ * passed to deleteTokensByAuthId() are remembered in the same way, and a
+ * token found on the replica whose authorization ID is remembered is read
+ * again from the primary, so that a revoked token is not accepted through a
+ * lagging replica.</p>
+ *
+ * <p>In addition, when the fallback is enabled (by default), a token or an
+ * authorization information not found on the replica is looked up again on
+ * the primary. This covers tokens issued by another node of your cluster,
+ * but also means that every unknown token, including a garbage or forged
+ * one, costs a read on the primary. If the read-your-writes window covers
+ * the tokens issued by all nodes, or the load on the primary matters more,
+ * disable it with setFallbackToPrimary(false).</p>
+ *
+ * <p>Each DataHandler instance is created lazily. Therefore, a request which
+ * only reads data never creates the DataHandler of the primary.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class ReadWriteSplittingDataHandlerFactory implements DataHandlerFactory {
+
+	private static final int PURGE_THRESHOLD = 10000;
+
+	private DataHandlerFactory primary;
+	private List<DataHandlerFactory> replicas;
+	private long readYourWritesWindow = 5000L;
+	private boolean fallbackToPrimary = true;
+
+	private final AtomicInteger next = new AtomicInteger();
+	private final RecentWrites recentTokens = new RecentWrites();
+	private final RecentWrites recentAuthIds = new RecentWrites();
+
+	/**
+	 * Create a DataHandler instance routing each call to the primary or
+	 * to a replica.
+	 * @param request The request object.
+	 * @return The DataHandler instance.
+	 */
+	@Override
+	public DataHandler create(Request request) {
+		return new ReadWriteSplittingDataHandler(request, this);
+	}
+
+	/**
+	 * Set the factory of DataHandler connected to the primary database.
+	 * @param primary The factory instance.
+	 */
+	public void setPrimary(DataHandlerFactory primary) {
+		this.primary = primary;
+	}
+
+	/**
+	 * Retrieve the factory of DataHandler connected to the primary database.
+	 * @return The factory instance.
+	 */
+	public DataHandlerFactory getPrimary() {
+		return primary;
+	}
+
+	/**
+	 * Set the factories of DataHandler connected to each replica.
+	 * If no replica is set, all calls are sent to the primary.
+	 * @param replicas The factory instances.
+	 */
+	public void setReplicas(List<DataHandlerFactory> replicas) {
+		this.replicas = replicas;
+	}
+
+	/**
+	 * Retrieve the factories of DataHandler connected to each replica.
+	 * @return The factory instances.
+	 */
+	public List<DataHandlerFactory> getReplicas() {
+		return replicas;
+	}
+
+	/**
+	 * Set the read-your-writes window. Reads for a token or an authorization
+	 * information written or revoked within this time are sent to the
+	 * primary. This value should be longer than the maximum lag of your
+	 * replicas, otherwise a revoked token may be accepted by a replica.
+	 * @param readYourWritesWindow The window value. The unit is millisecond.
+	 */
+	public void setReadYourWritesWindow(long readYourWritesWindow) {
+		this.readYourWritesWindow = readYourWritesWindow;
+	}
+
+	/**
+	 * Set whether a token or an authorization information not found on the
+	 * replica is looked up again on the primary. The default value is true.
+	 * Note that the fallback sends the lookup of any unknown token, for
+	 * instance, a forged one, to the primary.
+	 * @param fallbackToPrimary True if the fallback is enabled.
+	 */
+	public void setFallbackToPrimary(boolean fallbackToPrimary) {
+		this.fallbackToPrimary = fallbackToPrimary;
+	}
+
+	/**
+	 * Retrieve whether the fallback to the primary is enabled.
+	 * @return True if the fallback is enabled.
+	 */
+	public boolean isFallbackToPrimary() {
+		return fallbackToPrimary;
+	}
+
+	DataHandler createPrimary(Request request) {
+		return primary.create(request);
+	}
+
+	DataHandler createReplica(Request request) {
+		if (replicas == null || replicas.isEmpty()) {
+			return null;
+		}
+		int index = (next.getAndIncrement() & Integer.MAX_VALUE) % replicas.size();
+		return replicas.get(index).create(request);
+	}
+
+	void tokenWritten(String token) {
+		remember(recentTokens, token);
+	}
+
+	void authIdWritten(String authId) {
+		remember(recentAuthIds, authId);
+	}
+
+	boolean isRecentToken(String token) {
+		return isRecent(recentTokens, token);
+	}
+
+	boolean isRecentAuthId(String authId) {
+		return isRecent(recentAuthIds, authId);
+	}
+
+	int getRecentWriteCount() {
+		return recentTokens.writes.size() + recentAuthIds.writes.size();
+	}
+
+	/**
+	 * Retrieve the current time. This method is provided for an unit test.
+	 * @return The current time in millisecond.
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private void remember(RecentWrites recent, String key) {
+		if (key == null || readYourWritesWindow <= 0) {
+			return;
+		}
+		long now = currentTimeMillis();
+		recent.writes.put(key, now + readYourWritesWindow);
+		if (recent.writes.size() > PURGE_THRESHOLD && now >= recent.nextPurgeAt
+				&& recent.purging.compareAndSet(false, true)) {
+			try {
+				purge(recent.writes, now);
+				// The entries put until then expire within the window.
+				recent.nextPurgeAt = now + readYourWritesWindow;
+			} finally {
+				recent.purging.set(false);
+			}
+		}
+	}
+
+	private boolean isRecent(RecentWrites recent, String key) {
+		if (key == null) {
+			return false;
+		}
+		Long expiresAt = recent.writes.get(key);
+		if (expiresAt == null) {
+			return false;
+		}
+		if (expiresAt <= currentTimeMillis()) {
+			recent.writes.remove(key, expiresAt);
+			return false;
+		}
+		return true;
+	}
+
+	private void purge(Map<String, Long> writes, long now) {
+		for (Iterator<Long> i = writes.values().iterator(); i.hasNext();) {
+			if (i.next() <= now) {
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * The keys written recently with the time when they are forgotten. Once
+	 * the number of keys exceeds the threshold, the expired keys are purged
+	 * by one thread at most once per read-your-writes window, so that the
+	 * scan is amortised over the writes in between.
+	 */
+	private static final class RecentWrites {
+
+		private final Map<String, Long> writes = new ConcurrentHashMap<String, Long>();
+		private final AtomicBoolean purging = new AtomicBoolean();
+		private volatile long nextPurgeAt;
+
+	}
+
+}
@@ -0,0 +1,317 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.endpoint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcher;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.ClientCredential;
+import jp.eisbahn.oauth2.server.models.IssuedToken;
+import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.utils.Util;
+
+/**
+ * This class provides the token introspection endpoint (RFC 7662). The
+ * caller, for instance, an API gateway, is authenticated with its client
+ * credential, and the token passed as the "token" parameter is described
+ * by the JSON object which has the "active", "scope", "client_id", "sub",
+ * "token_type", "iat" and "exp" members. If the token is not active, only
+ * {"active":false} is returned.
+ *
+ * As an extension, many tokens can be introspected in one request. Pass the
+ * space-delimited tokens as the "tokens" parameter instead of the "token"
+ * parameter, then the JSON array of the results in the same order is
+ * returned. All tokens are looked up together by
+ * {@link DataHandler#getIssuedTokens(List, Handler)}.
+ *
+ * The client credential is validated by DataHandler#validateClient() with
+ * the grant type {@link #GRANT_TYPE}, so that your DataHandler can allow
+ * only the trusted resource servers to call this endpoint.
+ *
+ * Like {@link ProtectedResource}, a token is active only if
+ * DataHandler#validateClientById() and DataHandler#validateUserById() accept
+ * its client and user. In the batch mode, each distinct client and user is
+ * validated once for the whole request. Tokens without a user (for instance,
+ * issued by the client credentials grant) are checked for the client only.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class Introspection {
+
+	/** The value passed to DataHandler#validateClient() as the grant type. */
+	public static final String GRANT_TYPE = "introspection";
+
+	private static final Map<String, Object> INACTIVE =
+			Collections.<String, Object>singletonMap("active", false);
+
+	private DataHandlerFactory dataHandlerFactory;
+	private ClientCredentialFetcher clientCredentialFetcher;
+	private int maxBatchSize = 100;
+
+	/**
+	 * Set a factory of DataHandler.
+	 * @param dataHandlerFactory The instance of the factory.
+	 */
+	public void setDataHandlerFactory(DataHandlerFactory dataHandlerFactory) {
+		this.dataHandlerFactory = dataHandlerFactory;
+	}
+
+	/**
+	 * Set a fetcher to fetch the client credential of the caller.
+	 * @param clientCredentialFetcher The instance of the fetcher.
+	 */
+	public void setClientCredentialFetcher(ClientCredentialFetcher clientCredentialFetcher) {
+		this.clientCredentialFetcher = clientCredentialFetcher;
+	}
+
+	/**
+	 * Set the maximum number of the tokens in one batch request. If more
+	 * tokens are passed, the error "invalid_request" is returned. The
+	 * default value is 100.
+	 * @param maxBatchSize The maximum number of the tokens.
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * This method handles the introspection request. The result is composed
+	 * of the status code and the JSON string. The status code will be 200
+	 * even if the token is not active.
+	 * @param request The request instance.
+	 * @param handler The handler to receive the response.
+	 */
+	public void handleRequest(Request request, final Handler<Response> handler) {
+		try {
+			String token = request.getParameter("token");
+			String tokens = request.getParameter("tokens");
+			if (StringUtils.isEmpty(token) == StringUtils.isEmpty(tokens)) {
+				throw new OAuthError.InvalidRequest("Either 'token' or 'tokens' is required.");
+			}
+			final boolean batch = StringUtils.isEmpty(token);
+			final String[] targets = batch ? StringUtils.split(tokens) : new String[] {token};
+			if (targets.length > maxBatchSize) {
+				throw new OAuthError.InvalidRequest("Too many tokens.");
+			}
+			ClientCredential clientCredential = clientCredentialFetcher.fetch(request);
+			String clientId = clientCredential.getClientId();
+			if (StringUtils.isEmpty(clientId)) {
+				throw new OAuthError.InvalidRequest("'client_id' not found");
+			}
+			String clientSecret = clientCredential.getClientSecret();
+			if (StringUtils.isEmpty(clientSecret)) {
+				throw new OAuthError.InvalidRequest("'client_secret' not found");
+			}
+			final DataHandler dataHandler = dataHandlerFactory.create(request);
+			dataHandler.validateClient(clientId, clientSecret, GRANT_TYPE, new Handler<Boolean>() {
+				@Override
+				public void handle(Boolean valid) {
+					if (Boolean.TRUE.equals(valid)) {
+						introspect(dataHandler, targets, batch, handler);
+					} else {
+						OAuthError e = new OAuthError.InvalidClient("");
+						handler.handle(new Response(e.getCode(), Util.toJson(e)));
+					}
+				}
+			});
+		} catch (OAuthError e) {
+			handler.handle(new Response(e.getCode(), Util.toJson(e)));
+		}
+	}
+
+	private void introspect(final DataHandler dataHandler, final String[] targets, final boolean batch,
+			final Handler<Response> handler) {
+		LinkedHashSet<String> distinct = new LinkedHashSet<String>();
+		Collections.addAll(distinct, targets);
+		dataHandler.getIssuedTokens(new ArrayList<String>(distinct), new Handler<Map<String, IssuedToken>>() {
+			@Override
+			public void handle(final Map<String, IssuedToken> issuedTokens) {
+				final long now = System.currentTimeMillis();
+				validate(dataHandler, issuedTokens, now, new Handler<Validity>() {
+					@Override
+					public void handle(Validity validity) {
+						if (!batch) {
+							handler.handle(new Response(200,
+									Util.toJson(describe(issuedTokens.get(targets[0]), validity, now))));
+							return;
+						}
+						List<Map<String, Object>> results = new ArrayList<Map<String, Object>>(targets.length);
+						for (String target : targets) {
+							results.add(describe(issuedTokens.get(target), validity, now));
+						}
+						handler.handle(new Response(200, Util.toJson(results)));
+					}
+				});
+			}
+		});
+	}
+
+	private static void validate(DataHandler dataHandler, Map<String, IssuedToken> issuedTokens, long now,
+			final Handler<Validity> handler) {
+		Set<String> clientIds = new HashSet<String>();
+		Set<String> userIds = new HashSet<String>();
+		for (IssuedToken issuedToken : issuedTokens.values()) {
+			if (isLive(issuedToken, now)) {
+				AuthInfo authInfo = issuedToken.getAuthInfo();
+				clientIds.add(authInfo.getClientId());
+				if (authInfo.getUserId() != null) {
+					userIds.add(authInfo.getUserId());
+				}
+			}
+		}
+		final Validity validity = new Validity();
+		if (clientIds.isEmpty()) {
+			handler.handle(validity);
+			return;
+		}
+		final AtomicInteger remaining = new AtomicInteger(clientIds.size() + userIds.size());
+		for (final String clientId : clientIds) {
+			dataHandler.validateClientById(clientId, new Handler<Boolean>() {
+				@Override
+				public void handle(Boolean valid) {
+					validity.clients.put(clientId, Boolean.TRUE.equals(valid));
+					if (remaining.decrementAndGet() == 0) {
+						handler.handle(validity);
+					}
+				}
+			});
+		}
+		for (final String userId : userIds) {
+			dataHandler.validateUserById(userId, new Handler<Boolean>() {
+				@Override
+				public void handle(Boolean valid) {
+					validity.users.put(userId, Boolean.TRUE.equals(valid));
+					if (remaining.decrementAndGet() == 0) {
+						handler.handle(validity);
+					}
+				}
+			});
+		}
+	}
+
+	private static boolean isLive(IssuedToken issuedToken, long now) {
+		if (issuedToken == null) {
+			return false;
+		}
+		AccessToken accessToken = issuedToken.getAccessToken();
+		if (accessToken == null || accessToken.getCreatedOn() == null
+				|| issuedToken.getAuthInfo() == null || issuedToken.getAuthInfo().getClientId() == null) {
+			return false;
+		}
+		return accessToken.getCreatedOn().getTime() + accessToken.getExpiresIn() * 1000L > now;
+	}
+
+	private static Map<String, Object> describe(IssuedToken issuedToken, Validity validity, long now) {
+		if (!isLive(issuedToken, now)) {
+			return INACTIVE;
+		}
+		AccessToken accessToken = issuedToken.getAccessToken();
+		AuthInfo authInfo = issuedToken.getAuthInfo();
+		if (!Boolean.TRUE.equals(validity.clients.get(authInfo.getClientId()))) {
+			return INACTIVE;
+		}
+		if (authInfo.getUserId() != null && !Boolean.TRUE.equals(validity.users.get(authInfo.getUserId()))) {
+			return INACTIVE;
+		}
+		long createdOn = accessToken.getCreatedOn().getTime();
+		long expiresOn = createdOn + accessToken.getExpiresIn() * 1000L;
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("active", true);
+		if (StringUtils.isNotEmpty(authInfo.getScope())) {
+			result.put("scope", authInfo.getScope());
+		}
+		result.put("client_id", authInfo.getClientId());
+		if (authInfo.getUserId() != null) {
+			result.put("sub", authInfo.getUserId());
+		}
+		result.put("token_type", "Bearer");
+		result.put("iat", createdOn / 1000L);
+		result.put("exp", expiresOn / 1000L);
+		return result;
+	}
+
+	private static class Validity {
+
+		private final Map<String, Boolean> clients = new ConcurrentHashMap<String, Boolean>();
+		private final Map<String, Boolean> users = new ConcurrentHashMap<String, Boolean>();
+
+	}
+
+	/**
+	 * This class has two properties: A status code and JSON string as the
+	 * result of the introspection.
+	 *
+	 * @author Yoichiro Tanaka
+	 *
+	 */
+	public static class Response {
+
+		private final int code;
+		private final String body;
+
+		/**
+		 * Initialize this instance with arguments passed.
+		 * @param code The status code.
+		 * @param body The JSON string.
+		 */
+		public Response(int code, String body) {
+			super();
+			this.code = code;
+			this.body = body;
+		}
+
+		/**
+		 * Retrieve the status code value. This will be 200 when the request
+		 * is valid, even if the tokens are not active.
+		 * @return The HTTP status code value.
+		 */
+		public int getCode() {
+			return code;
+		}
+
+		/**
+		 * Retrieve the JSON string. This is an object for the "token"
+		 * parameter and an array for the "tokens" parameter. If the request
+		 * is invalid, this has the error type and description.
+		 * @return The JSON string value.
+		 */
+		public String getBody() {
+			return body;
+		}
+
+	}
+
+}
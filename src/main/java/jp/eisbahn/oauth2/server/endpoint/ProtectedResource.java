@@ -18,9 +18,18 @@
 
 package jp.eisbahn.oauth2.server.endpoint;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import jp.eisbahn.oauth2.server.admission.CircuitBreaker;
+import jp.eisbahn.oauth2.server.admission.ConcurrencyLimiter;
 import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.cache.IntrospectionCache;
+import jp.eisbahn.oauth2.server.cache.UserValidityCache;
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.Deadlines;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.exceptions.Try;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcher;
@@ -28,7 +37,10 @@ import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcher.FetchResu
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcherProvider;
 import jp.eisbahn.oauth2.server.models.AccessToken;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.IssuedToken;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.scope.ScopeRegistry;
+import jp.eisbahn.oauth2.server.scope.ScopeSet;
 
 /**
  * This class provides the function to judge whether an access to protected
@@ -45,8 +57,27 @@ import jp.eisbahn.oauth2.server.models.Request;
  */
 public class ProtectedResource {
 
+	private static final OAuthError OVERLOADED =
+			new OAuthError.TemporarilyUnavailable(503, "Server is busy.");
+	private static final Try<OAuthError, Response> CIRCUIT_OPEN =
+			new Try<OAuthError, Response>(new OAuthError.TemporarilyUnavailable(
+					503, "Token validation is unavailable."));
+	private static final Try<OAuthError, Response> TIMED_OUT =
+			new Try<OAuthError, Response>(new OAuthError.ServerError("Request timed out."));
+	private static final Try<OAuthError, Response> DATA_HANDLER_FAILED =
+			new Try<OAuthError, Response>(new OAuthError.ServerError("Token validation failed."));
+	private static final Try<OAuthError, Response> INSUFFICIENT_SCOPE =
+			new Try<OAuthError, Response>(new OAuthError.InsufficientScope("Insufficient scope."));
+
 	private AccessTokenFetcherProvider accessTokenFetcherProvider;
 	private DataHandlerFactory dataHandlerFactory;
+	private UserValidityCache userValidityCache;
+	private ConcurrencyLimiter concurrencyLimiter;
+	private Deadlines deadlines;
+	private IntrospectionCache introspectionCache;
+	private CircuitBreaker circuitBreaker;
+	private Executor refreshExecutor;
+	private ScopeRegistry scopeRegistry;
 
 	/**
 	 * This method handles a request and judges whether the request can be
@@ -59,18 +90,224 @@ public class ProtectedResource {
 	 * why this request was judged as invalid.
 	 */
 	public void handleRequest(Request request, final Handler<Try<OAuthError, Response>> handler) {
+		handleRequest(request, null, handler);
+	}
+
+	/**
+	 * This method handles a request and judges whether the request can be
+	 * applied or not, and whether the access token has the required scopes.
+	 * If any required scope is not authorized, the error
+	 * "insufficient_scope" is passed.
+	 *
+	 * @param request This argument value has the information of the request.
+	 * @param requiredScopes The required scopes created by the scope registry
+	 * set to this instance. If null or empty, the scope is not checked.
+	 * @param handler The handler to receive the result.
+	 */
+	public void handleRequest(Request request, final ScopeSet requiredScopes,
+			final Handler<Try<OAuthError, Response>> handler) {
+		if (requiredScopes != null && !requiredScopes.isEmpty()) {
+			if (scopeRegistry == null) {
+				throw new IllegalStateException("scopeRegistry is not set.");
+			}
+			admit(request, new Handler<Try<OAuthError, Response>>() {
+				@Override
+				public void handle(Try<OAuthError, Response> event) {
+					try {
+						if (!event.get().getScopeSet().containsAll(requiredScopes)) {
+							event = INSUFFICIENT_SCOPE;
+						}
+					} catch (OAuthError e) {
+						// The error is passed as is.
+					}
+					handler.handle(event);
+				}
+			});
+		} else {
+			admit(request, handler);
+		}
+	}
+
+	private void admit(Request request, final Handler<Try<OAuthError, Response>> handler) {
+		if (concurrencyLimiter == null) {
+			validate(request, handler);
+			return;
+		}
+		final ConcurrencyLimiter.Permit permit = concurrencyLimiter.tryAcquire();
+		if (permit == null) {
+			handler.handle(new Try<OAuthError, Response>(OVERLOADED));
+			return;
+		}
+		try {
+			validate(request, new Handler<Try<OAuthError, Response>>() {
+				@Override
+				public void handle(Try<OAuthError, Response> event) {
+					permit.release();
+					handler.handle(event);
+				}
+			});
+		} catch (RuntimeException e) {
+			permit.release();
+			throw e;
+		}
+	}
+
+	private void validate(final Request request, final Handler<Try<OAuthError, Response>> handler) {
 		try {
 			AccessTokenFetcher accessTokenFetcher = accessTokenFetcherProvider.getFetcher(request);
 			if (accessTokenFetcher == null) {
 				throw new OAuthError.InvalidRequest("Access token was not specified.");
 			}
 			FetchResult fetchResult = accessTokenFetcher.fetch(request);
-			String token = fetchResult.getToken();
-			final DataHandler dataHandler = dataHandlerFactory.create(request);
+			final String token = fetchResult.getToken();
+			if (introspectionCache != null) {
+				IssuedToken cached = introspectionCache.get(token);
+				if (cached != null) {
+					handler.handle(createCachedResult(token, cached));
+					if ((circuitBreaker == null || circuitBreaker.getState() == CircuitBreaker.State.CLOSED)
+							&& introspectionCache.tryBeginRefresh(token)) {
+						refresh(request, token);
+					}
+					return;
+				}
+			}
+			if (circuitBreaker == null) {
+				introspect(request, token, handler);
+				return;
+			}
+			if (!circuitBreaker.tryAcquire()) {
+				handleFallback(token, CIRCUIT_OPEN, handler);
+				return;
+			}
+			try {
+				introspect(request, token, new Handler<Try<OAuthError, Response>>() {
+					@Override
+					public void handle(Try<OAuthError, Response> event) {
+						if (event == TIMED_OUT || event == DATA_HANDLER_FAILED) {
+							circuitBreaker.onFailure();
+							handleFallback(token, event, handler);
+						} else {
+							circuitBreaker.onSuccess();
+							handler.handle(event);
+						}
+					}
+				});
+			} catch (RuntimeException e) {
+				circuitBreaker.onFailure();
+				throw e;
+			}
+		} catch (OAuthError e) {
+			handler.handle(new Try<OAuthError, ProtectedResource.Response>(e));
+		}
+	}
+
+	private void refresh(final Request request, final String token) {
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					final DataHandler dataHandler = dataHandlerFactory.create(request);
+					dataHandler.getAccessToken(token, new Handler<AccessToken>() {
+						@Override
+						public void handle(final AccessToken accessToken) {
+							if (accessToken == null || accessToken.getCreatedOn() == null
+									|| accessToken.getCreatedOn().getTime() + accessToken.getExpiresIn() * 1000
+											<= System.currentTimeMillis()) {
+								introspectionCache.invalidate(token);
+								return;
+							}
+							dataHandler.getAuthInfoById(accessToken.getAuthId(), new Handler<AuthInfo>() {
+								@Override
+								public void handle(final AuthInfo authInfo) {
+									if (authInfo == null) {
+										introspectionCache.invalidate(token);
+										return;
+									}
+									dataHandler.validateClientById(authInfo.getClientId(), new Handler<Boolean>() {
+										@Override
+										public void handle(Boolean valid) {
+											if (!Boolean.TRUE.equals(valid)) {
+												introspectionCache.invalidate(token);
+												return;
+											}
+											validateUser(dataHandler, authInfo.getUserId(), new Handler<Boolean>() {
+												@Override
+												public void handle(Boolean userValid) {
+													if (Boolean.TRUE.equals(userValid)) {
+														introspectionCache.put(token, accessToken, authInfo);
+													} else {
+														introspectionCache.invalidate(token);
+													}
+												}
+											});
+										}
+									});
+								}
+							});
+						}
+					});
+				} catch (RuntimeException e) {
+					// The cached result expires as usual.
+				}
+			}
+		};
+		if (refreshExecutor != null) {
+			try {
+				refreshExecutor.execute(task);
+			} catch (RejectedExecutionException e) {
+				// The cached result expires as usual.
+			}
+		} else {
+			task.run();
+		}
+	}
+
+	private void handleFallback(String token, Try<OAuthError, Response> error,
+			Handler<Try<OAuthError, Response>> handler) {
+		IssuedToken stale = introspectionCache != null ? introspectionCache.getStale(token) : null;
+		handler.handle(stale != null ? createCachedResult(token, stale) : error);
+	}
+
+	private Try<OAuthError, Response> createCachedResult(String token, IssuedToken cached) {
+		if (userValidityCache != null
+				&& Boolean.FALSE.equals(userValidityCache.get(cached.getAuthInfo().getUserId()))) {
+			introspectionCache.invalidate(token);
+			return new Try<OAuthError, ProtectedResource.Response>(
+					new OAuthError.InvalidToken("Invalid user."));
+		}
+		return createResult(cached.getAuthInfo());
+	}
+
+	private Try<OAuthError, Response> createResult(AuthInfo authInfo) {
+		return new Try<OAuthError, ProtectedResource.Response>(new Response(
+				authInfo.getUserId(),
+				authInfo.getClientId(),
+				authInfo.getScope(),
+				scopeRegistry != null ? scopeRegistry.parse(authInfo.getScope()) : null));
+	}
+
+	private void introspect(Request request, final String token,
+			Handler<Try<OAuthError, Response>> resultHandler) {
+		final Deadlines.Scope<Try<OAuthError, Response>> scope =
+				deadlines != null ? deadlines.begin(resultHandler, TIMED_OUT) : null;
+		final Handler<Try<OAuthError, Response>> target = scope != null ? scope : resultHandler;
+		final AtomicBoolean completed = new AtomicBoolean();
+		final Handler<Try<OAuthError, Response>> handler = new Handler<Try<OAuthError, Response>>() {
+			@Override
+			public void handle(Try<OAuthError, Response> event) {
+				if (completed.compareAndSet(false, true)) {
+					target.handle(event);
+				}
+			}
+		};
+		try {
+			final DataHandler dataHandler = scope != null
+					? scope.wrap(dataHandlerFactory.create(request))
+					: dataHandlerFactory.create(request);
 			dataHandler.getAccessToken(token, new Handler<AccessToken>() {
 				
 				@Override
-				public void handle(AccessToken accessToken) {
+				public void handle(final AccessToken accessToken) {
 					try {
 						if (accessToken == null) {
 							throw new OAuthError.InvalidToken("Invalid access token.");
@@ -83,50 +320,102 @@ public class ProtectedResource {
 		
 							@Override
 							public void handle(final AuthInfo authInfo) {
-								if (authInfo == null) {
-									handler.handle(new Try<OAuthError, ProtectedResource.Response>(
-											new OAuthError.InvalidToken("Invalid access token.")));
-								} else {
-									dataHandler.validateClientById(authInfo.getClientId(), new Handler<Boolean>() {
-
-										@Override
-										public void handle(Boolean valid) {
-											if (Boolean.TRUE.equals(valid)) {
-												dataHandler.validateUserById(authInfo.getUserId(), new Handler<Boolean>() {
-
-													@Override
-													public void handle(Boolean userValid) {
-														if (Boolean.TRUE.equals(userValid)) {
-															handler.handle(
-					new Try<OAuthError, ProtectedResource.Response>(new Response(
-									authInfo.getUserId(),
-									authInfo.getClientId(),
-									authInfo.getScope())));
-														} else {
-															handler.handle(new Try<OAuthError, ProtectedResource.Response>(
-																	new OAuthError.InvalidToken("Invalid user.")));
-														}
-													}
-												});
-											} else {
-												handler.handle(new Try<OAuthError, ProtectedResource.Response>(
-														new OAuthError.InvalidToken("Invalid client.")));
-											}
-										}
-									});
+								try {
+									if (authInfo == null) {
+										handler.handle(new Try<OAuthError, ProtectedResource.Response>(
+												new OAuthError.InvalidToken("Invalid access token.")));
+									} else {
+										validateClientAndUser(dataHandler, token, accessToken, authInfo,
+												completed, handler);
+									}
+								} catch (RuntimeException e) {
+									handleFailure(e, completed, handler);
 								}
 							}
 						});
 					} catch (OAuthError e) {
 						handler.handle(new Try<OAuthError, ProtectedResource.Response>(e));
+					} catch (RuntimeException e) {
+						handleFailure(e, completed, handler);
 					}
 				}
 			});
-		} catch (OAuthError e) {
-			handler.handle(new Try<OAuthError, ProtectedResource.Response>(e));
+		} catch (RuntimeException e) {
+			if (scope != null) {
+				scope.cancel();
+			}
+			throw e;
 		}
 	}
 
+	private void validateClientAndUser(final DataHandler dataHandler, final String token,
+			final AccessToken accessToken, final AuthInfo authInfo,
+			final AtomicBoolean completed, final Handler<Try<OAuthError, Response>> handler) {
+		dataHandler.validateClientById(authInfo.getClientId(), new Handler<Boolean>() {
+
+			@Override
+			public void handle(Boolean valid) {
+				try {
+					if (Boolean.TRUE.equals(valid)) {
+						validateUser(dataHandler, authInfo.getUserId(), new Handler<Boolean>() {
+
+							@Override
+							public void handle(Boolean userValid) {
+								try {
+									if (Boolean.TRUE.equals(userValid)) {
+										if (introspectionCache != null) {
+											introspectionCache.put(token, accessToken, authInfo);
+										}
+										handler.handle(createResult(authInfo));
+									} else {
+										handler.handle(new Try<OAuthError, ProtectedResource.Response>(
+												new OAuthError.InvalidToken("Invalid user.")));
+									}
+								} catch (RuntimeException e) {
+									handleFailure(e, completed, handler);
+								}
+							}
+						});
+					} else {
+						handler.handle(new Try<OAuthError, ProtectedResource.Response>(
+								new OAuthError.InvalidToken("Invalid client.")));
+					}
+				} catch (RuntimeException e) {
+					handleFailure(e, completed, handler);
+				}
+			}
+		});
+	}
+
+	private void handleFailure(RuntimeException e, AtomicBoolean completed,
+			Handler<Try<OAuthError, Response>> handler) {
+		if (completed.get()) {
+			// The exception was thrown by the handler of the result.
+			throw e;
+		}
+		handler.handle(DATA_HANDLER_FAILED);
+	}
+
+	private void validateUser(DataHandler dataHandler, final String userId,
+			final Handler<Boolean> handler) {
+		if (userValidityCache == null) {
+			dataHandler.validateUserById(userId, handler);
+			return;
+		}
+		Boolean cached = userValidityCache.get(userId);
+		if (cached != null) {
+			handler.handle(cached);
+			return;
+		}
+		dataHandler.validateUserById(userId, new Handler<Boolean>() {
+			@Override
+			public void handle(Boolean valid) {
+				userValidityCache.put(userId, Boolean.TRUE.equals(valid));
+				handler.handle(valid);
+			}
+		});
+	}
+
 	/**
 	 * Set a provider of fetchers to fetch an access token from a request.
 	 * @param accessTokenFetcherProvider The instance of the provider.
@@ -143,6 +432,82 @@ public class ProtectedResource {
 		this.dataHandlerFactory = dataHandlerFactory;
 	}
 
+	/**
+	 * Set a cache of the user's validity. If this cache is set, the result of
+	 * validateUserById() is reused until it expires.
+	 * @param userValidityCache The instance of the cache.
+	 */
+	public void setUserValidityCache(UserValidityCache userValidityCache) {
+		this.userValidityCache = userValidityCache;
+	}
+
+	/**
+	 * Set a limiter of requests processed at the same time. If this limiter
+	 * is set and the limit is reached, the error "temporarily_unavailable"
+	 * with the status code 503 is passed immediately.
+	 * @param concurrencyLimiter The instance of the limiter.
+	 */
+	public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+		this.concurrencyLimiter = concurrencyLimiter;
+	}
+
+	/**
+	 * Set the deadlines of the request and each DataHandler call. If this is
+	 * set and a deadline expires, the error "server_error" with the status
+	 * code 500 is passed, and the result passed from your DataHandler after
+	 * that is ignored.
+	 * @param deadlines The instance of the deadlines.
+	 */
+	public void setDeadlines(Deadlines deadlines) {
+		this.deadlines = deadlines;
+	}
+
+	/**
+	 * Set a cache of the result of validating access tokens. If this cache is
+	 * set, the result is reused until it expires, and is used as the fallback
+	 * when the circuit breaker is open or the deadline expires.
+	 * @param introspectionCache The instance of the cache.
+	 */
+	public void setIntrospectionCache(IntrospectionCache introspectionCache) {
+		this.introspectionCache = introspectionCache;
+	}
+
+	/**
+	 * Set an executor to revalidate the results in the introspection cache.
+	 * When a cached result passes the refresh threshold, the result is
+	 * passed immediately, and then getAccessToken() and getAuthInfoById() of
+	 * a new DataHandler are called with this executor. If this is not set,
+	 * they are called on the calling thread after passing the result.
+	 * @param refreshExecutor The instance of the executor.
+	 */
+	public void setRefreshExecutor(Executor refreshExecutor) {
+		this.refreshExecutor = refreshExecutor;
+	}
+
+	/**
+	 * Set a circuit breaker around the calls of DataHandler. A call fails when
+	 * it throws an exception, even from inside the handler of the previous
+	 * call, or its deadline expires. A call which never invokes its handler is counted only when
+	 * {@link #setDeadlines(Deadlines)} is set. While the circuit is
+	 * open, the cached result within the maximum staleness is passed if
+	 * exists, otherwise the error "temporarily_unavailable" with the status
+	 * code 503 is passed immediately.
+	 * @param circuitBreaker The instance of the circuit breaker.
+	 */
+	public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	/**
+	 * Set a registry of scopes. If this registry is set, the scope of each
+	 * result is parsed into the set of scopes, and the required scopes can
+	 * be checked.
+	 * @param scopeRegistry The instance of the registry.
+	 */
+	public void setScopeRegistry(ScopeRegistry scopeRegistry) {
+		this.scopeRegistry = scopeRegistry;
+	}
+
 	/**
 	 * This class has the information about an OAuth2.0 request.
 	 * 
@@ -159,6 +524,7 @@ public class ProtectedResource {
 		private String remoteUser;
 		private String clientId;
 		private String scope;
+		private ScopeSet scopeSet;
 
 		/**
 		 * This constructor initializes this instance.
@@ -167,9 +533,21 @@ public class ProtectedResource {
 		 * @param scope The scope string authorized by the remote user.
 		 */
 		public Response(String remoteUser, String clientId, String scope) {
+			this(remoteUser, clientId, scope, null);
+		}
+
+		/**
+		 * This constructor initializes this instance.
+		 * @param remoteUser The remote user's ID.
+		 * @param clientId The client ID.
+		 * @param scope The scope string authorized by the remote user.
+		 * @param scopeSet The parsed set of the scope string.
+		 */
+		public Response(String remoteUser, String clientId, String scope, ScopeSet scopeSet) {
 			this.remoteUser = remoteUser;
 			this.clientId = clientId;
 			this.scope = scope;
+			this.scopeSet = scopeSet;
 		}
 
 		/**
@@ -196,6 +574,15 @@ public class ProtectedResource {
 			return scope;
 		}
 
+		/**
+		 * Retrieve the parsed set of the scope string.
+		 * @return The set of the scopes. If the scope registry is not set to
+		 * the ProtectedResource, returns null.
+		 */
+		public ScopeSet getScopeSet() {
+			return scopeSet;
+		}
+
 	}
 
 }
@@ -18,18 +18,25 @@
 
 package jp.eisbahn.oauth2.server.endpoint;
 
+import java.util.Collections;
+import java.util.Map;
+
+import jp.eisbahn.oauth2.server.admission.ConcurrencyLimiter;
 import jp.eisbahn.oauth2.server.async.Handler;
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.Deadlines;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.exceptions.Try;
 import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcher;
 import jp.eisbahn.oauth2.server.granttype.GrantHandler;
 import jp.eisbahn.oauth2.server.granttype.GrantHandlerProvider;
+import jp.eisbahn.oauth2.server.granttype.GrantRequestCoalescer;
 import jp.eisbahn.oauth2.server.granttype.GrantHandler.GrantHandlerResult;
 import jp.eisbahn.oauth2.server.models.ClientCredential;
 import jp.eisbahn.oauth2.server.models.Request;
 import jp.eisbahn.oauth2.server.models.UserData;
+import jp.eisbahn.oauth2.server.ratelimit.RateLimiter;
 import jp.eisbahn.oauth2.server.utils.Util;
 
 import org.apache.commons.lang3.StringUtils;
@@ -48,9 +55,18 @@ import org.apache.commons.lang3.StringUtils;
  */
 public class Token {
 
+	private static final int MAX_RETRY_AFTER = 60;
+
 	private DataHandlerFactory dataHandlerFactory;
 	private GrantHandlerProvider grantHandlerProvider;
 	private ClientCredentialFetcher clientCredentialFetcher;
+	private GrantRequestCoalescer grantRequestCoalescer;
+	private RateLimiter rateLimiter;
+	private Response[] rateLimitedResponses;
+	private ConcurrencyLimiter concurrencyLimiter;
+	private Response overloadedResponse;
+	private Deadlines deadlines;
+	private Response timedOutResponse;
 
 	/**
 	 * Set the DataHandlerFactory instance.
@@ -87,6 +103,70 @@ public class Token {
 		this.clientCredentialFetcher = clientCredentialFetcher;
 	}
 
+	/**
+	 * Set the GrantRequestCoalescer instance.
+	 * If this is set, identical grant requests which arrive at the same time
+	 * share one execution of the grant handler. By default, each request is
+	 * processed independently.
+	 * @param grantRequestCoalescer The GrantRequestCoalescer instance.
+	 */
+	public void setGrantRequestCoalescer(GrantRequestCoalescer grantRequestCoalescer) {
+		this.grantRequestCoalescer = grantRequestCoalescer;
+	}
+
+	/**
+	 * Set the RateLimiter instance.
+	 * If this is set, the requests of each client are limited after the
+	 * client is authenticated, so that requests with a wrong secret cannot
+	 * consume the limit of the client. The rejected request receives the
+	 * status code 429 with the Retry-After header. By default, requests are
+	 * not limited.
+	 * @param rateLimiter The RateLimiter instance.
+	 */
+	public void setRateLimiter(RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+		if (rateLimiter != null && rateLimitedResponses == null) {
+			String body = Util.toJson(
+					new OAuthError.TemporarilyUnavailable(429, "Too many requests."));
+			Response[] responses = new Response[MAX_RETRY_AFTER];
+			for (int i = 0; i < responses.length; i++) {
+				responses[i] = new Response(429, body, null,
+						Collections.singletonMap("Retry-After", String.valueOf(i + 1)));
+			}
+			rateLimitedResponses = responses;
+		}
+	}
+
+	/**
+	 * Set the ConcurrencyLimiter instance.
+	 * If this is set, the number of requests processed at the same time is
+	 * limited. When the limit is reached, the request receives the status
+	 * code 503 immediately. By default, the number is not limited.
+	 * @param concurrencyLimiter The ConcurrencyLimiter instance.
+	 */
+	public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+		this.concurrencyLimiter = concurrencyLimiter;
+		if (concurrencyLimiter != null && overloadedResponse == null) {
+			overloadedResponse = new Response(503, Util.toJson(
+					new OAuthError.TemporarilyUnavailable(503, "Server is busy.")));
+		}
+	}
+
+	/**
+	 * Set the deadlines of the request and each DataHandler call.
+	 * If this is set and a deadline expires, the error "server_error" with
+	 * the status code 500 is passed, and the result passed from your
+	 * DataHandler after that is ignored.
+	 * @param deadlines The Deadlines instance.
+	 */
+	public void setDeadlines(Deadlines deadlines) {
+		this.deadlines = deadlines;
+		if (deadlines != null && timedOutResponse == null) {
+			timedOutResponse = new Response(500, Util.toJson(
+					new OAuthError.ServerError("Request timed out.")));
+		}
+	}
+
 	/**
 	 * Handle the request and issue a token.
 	 * This class is an entry point to issue the token. When this method receives
@@ -101,8 +181,35 @@ public class Token {
 	 * @return The response object which has the status code and JSON string.
 	 */
 	public void handleRequest(Request request, final Handler<Response> respHandler) {
+		if (concurrencyLimiter == null) {
+			process(request, respHandler);
+			return;
+		}
+		final ConcurrencyLimiter.Permit permit = concurrencyLimiter.tryAcquire();
+		if (permit == null) {
+			respHandler.handle(overloadedResponse);
+			return;
+		}
 		try {
-			String type = request.getParameter("grant_type");
+			process(request, new Handler<Response>() {
+				@Override
+				public void handle(Response response) {
+					permit.release();
+					respHandler.handle(response);
+				}
+			});
+		} catch (RuntimeException e) {
+			permit.release();
+			throw e;
+		}
+	}
+
+	private void process(Request request, Handler<Response> resultHandler) {
+		final Deadlines.Scope<Response> scope =
+				deadlines != null ? deadlines.begin(resultHandler, timedOutResponse) : null;
+		final Handler<Response> respHandler = scope != null ? scope : resultHandler;
+		try {
+			final String type = request.getParameter("grant_type");
 			if (StringUtils.isEmpty(type)) {
 				throw new OAuthError.InvalidRequest("'grant_type' not found");
 			}
@@ -110,10 +217,9 @@ public class Token {
 			if (handler == null) {
 				throw new OAuthError.UnsupportedGrantType("");
 			}
-			final DataHandler dataHandler = dataHandlerFactory.create(request);
 			ClientCredential clientCredential =
 					clientCredentialFetcher.fetch(request);
-			String clientId = clientCredential.getClientId();
+			final String clientId = clientCredential.getClientId();
 			if (StringUtils.isEmpty(clientId)) {
 				throw new OAuthError.InvalidRequest("'client_id' not found");
 			}
@@ -121,12 +227,24 @@ public class Token {
 			if (StringUtils.isEmpty(clientSecret)) {
 				throw new OAuthError.InvalidRequest("'client_secret' not found");
 			}
+			final DataHandler dataHandler = scope != null
+					? scope.wrap(dataHandlerFactory.create(request))
+					: dataHandlerFactory.create(request);
 			dataHandler.validateClient(clientId, clientSecret, type, new Handler<Boolean>() {
 
 				@Override
 				public void handle(Boolean valid) {
 					if (Boolean.TRUE.equals(valid)) {
-						handler.handleRequest(dataHandler, new Handler<Try<OAuthError, GrantHandlerResult>>() {
+						if (rateLimiter != null) {
+							long wait = rateLimiter.tryAcquire(clientId, type);
+							if (wait > 0) {
+								int seconds = (int) Math.min(MAX_RETRY_AFTER, (wait + 999L) / 1000L);
+								respHandler.handle(rateLimitedResponses[seconds - 1]);
+								return;
+							}
+						}
+						Handler<Try<OAuthError, GrantHandlerResult>> resultHandler =
+								new Handler<Try<OAuthError, GrantHandlerResult>>() {
 
 							@Override
 							public void handle(Try<OAuthError, GrantHandlerResult> handlerResult) {
@@ -137,7 +255,12 @@ public class Token {
 									respHandler.handle(new Response(e.getCode(), Util.toJson(e)));
 								}
 							}
-						});
+						};
+						if (grantRequestCoalescer != null) {
+							grantRequestCoalescer.handleRequest(type, clientId, handler, dataHandler, resultHandler);
+						} else {
+							handler.handleRequest(dataHandler, resultHandler);
+						}
 					} else {
 						OAuthError ex = new OAuthError.InvalidClient("");
 						respHandler.handle(new Response(ex.getCode(), Util.toJson(ex)));
@@ -146,6 +269,11 @@ public class Token {
 			});
 		} catch (OAuthError e) {
 			respHandler.handle(new Response(e.getCode(), Util.toJson(e)));
+		} catch (RuntimeException e) {
+			if (scope != null) {
+				scope.cancel();
+			}
+			throw e;
 		}
 	}
 
@@ -161,6 +289,7 @@ public class Token {
 		private int code;
 		private String body;
 		private final UserData userData;
+		private final Map<String, String> headers;
 
 		/**
 		 * Initialize this instance with arguments passed.
@@ -172,10 +301,22 @@ public class Token {
 		}
 
 		public Response(int code, String body, UserData userData) {
+			this(code, body, userData, Collections.<String, String>emptyMap());
+		}
+
+		/**
+		 * Initialize this instance with arguments passed.
+		 * @param code The status code as the result of issuing a token.
+		 * @param body The JSON string which has a token information.
+		 * @param userData The user's data. This can be null.
+		 * @param headers The HTTP headers which should be sent to the client.
+		 */
+		public Response(int code, String body, UserData userData, Map<String, String> headers) {
 			super();
 			this.code = code;
 			this.body = body;
 			this.userData = userData;
+			this.headers = headers;
 		}
 
 		/**
@@ -203,6 +344,16 @@ public class Token {
 			return userData;
 		}
 
+		/**
+		 * Retrieve the HTTP headers which should be sent to the client,
+		 * for instance, the Retry-After header.
+		 * @return The map object which has header names and values.
+		 * This never be null.
+		 */
+		public Map<String, String> getHeaders() {
+			return headers;
+		}
+
 	}
 
 }
@@ -57,6 +57,22 @@ public abstract class OAuthError extends Exception {
 		this.description = description;
 	}
 
+	/**
+	 * Initialize this instance without the stack trace.
+	 * This constructor should be used for the error which is created
+	 * frequently and whose stack trace is never needed, for instance,
+	 * the rejection by the rate limiter.
+	 * @param code The HTTP status code which should be returned to the client.
+	 * @param description The human-readable string which describes the detail
+	 * information regarding the error.
+	 * @param writableStackTrace False to disable the stack trace.
+	 */
+	protected OAuthError(int code, String description, boolean writableStackTrace) {
+		super(null, null, false, writableStackTrace);
+		this.code = code;
+		this.description = description;
+	}
+
 	/**
 	 * Initialize this instance.
 	 * This constructor should be used to represent the error of when basically
@@ -471,4 +487,64 @@ public abstract class OAuthError extends Exception {
 
 	}
 
+	/**
+	 * This means that the server cannot handle the request temporarily, for
+	 * instance, because of the rate limit or the overload.
+	 * For instance, this error type is "temporarily_unavailable".
+	 * This exception doesn't have the stack trace.
+	 * 
+	 * @author Yoichiro Tanaka
+	 *
+	 */
+	public static class TemporarilyUnavailable extends OAuthError {
+
+		/**
+		 * Initialize this instance.
+		 * @param code The HTTP status code. For instance, 429 or 503.
+		 * @param description The error description string.
+		 */
+		public TemporarilyUnavailable(int code, String description) {
+			super(code, description, false);
+		}
+
+		/**
+		 * Retrieve the error type string.
+		 * This method returns the fixed string "temporarily_unavailable".
+		 */
+		@Override
+		public String getType() {
+			return "temporarily_unavailable";
+		}
+
+	}
+
+	/**
+	 * This means that the server encountered an unexpected condition, for
+	 * instance, the data store didn't respond within the deadline.
+	 * For instance, this error type is "server_error".
+	 * 
+	 * @author Yoichiro Tanaka
+	 *
+	 */
+	public static class ServerError extends OAuthError {
+
+		/**
+		 * Initialize this instance. The HTTP status code is set as 500.
+		 * @param description The error description string.
+		 */
+		public ServerError(String description) {
+			super(500, description);
+		}
+
+		/**
+		 * Retrieve the error type string.
+		 * This method returns the fixed string "server_error".
+		 */
+		@Override
+		public String getType() {
+			return "server_error";
+		}
+
+	}
+
 }
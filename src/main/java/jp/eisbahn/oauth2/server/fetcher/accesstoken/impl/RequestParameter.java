@@ -18,13 +18,13 @@
 
 package jp.eisbahn.oauth2.server.fetcher.accesstoken.impl;
 
-import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcher;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.utils.ParameterView;
 
 /**
  * This class fetches an access token from request parameters.
@@ -55,23 +55,22 @@ public class RequestParameter implements AccessTokenFetcher {
 	/**
 	 * Fetch an access token from a request parameter and return it.
 	 * This method must be called when a result of the match() method is true
-	 * only.
+	 * only. Other parameters are returned as a read-only view of the
+	 * request parameters, which excludes the parameters of the token.
 	 * 
 	 * @param request The request object.
 	 * @return the fetched access token.
 	 */
 	@Override
 	public FetchResult fetch(Request request) {
-		Map<String, String> params = new HashMap<String, String>();
 		Map<String, String> parameterMap = request.getParameterMap();
-		params.putAll(parameterMap);
-		String token = params.get("access_token");
-		params.remove("access_token");
-		if (StringUtils.isNotEmpty(params.get("oauth_token"))) {
-			token = params.get("oauth_token");
-			params.remove("oauth_token");
+		String oauthToken = parameterMap.get("oauth_token");
+		if (StringUtils.isNotEmpty(oauthToken)) {
+			return new FetchResult(oauthToken,
+					new ParameterView(parameterMap, "access_token", "oauth_token"));
 		}
-		return new FetchResult(token, params);
+		return new FetchResult(parameterMap.get("access_token"),
+				new ParameterView(parameterMap, "access_token"));
 	}
 
 }
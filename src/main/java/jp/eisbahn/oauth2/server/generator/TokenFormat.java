@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.generator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * This class describes the format of tokens generated by
+ * {@link TokenGenerator}. A token consists of the following parts:
+ *
+ * <ul>
+ * <li>The prefix. This can be empty. For instance, "at_" for access tokens
+ * lets you identify leaked tokens by scanning.</li>
+ * <li>The random bytes encoded with the URL-safe base64 without padding.</li>
+ * <li>Optionally, the CRC32 checksum of the preceding characters encoded
+ * with the URL-safe base64 in 6 characters. The checksum lets you reject
+ * mistyped or forged tokens without any look up.</li>
+ * </ul>
+ *
+ * The instance is immutable.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class TokenFormat {
+
+	/** The minimum number of the random bytes (128 bits). */
+	public static final int MIN_BYTE_LENGTH = 16;
+
+	static final int CHECKSUM_LENGTH = 6;
+
+	private final String prefix;
+	private final int byteLength;
+	private final boolean checksum;
+	private final int length;
+
+	/**
+	 * Initialize this instance.
+	 * @param prefix The prefix. This can be null or empty. The characters
+	 * must be alphanumeric, "-" or "_".
+	 * @param byteLength The number of the random bytes. This must be
+	 * {@link #MIN_BYTE_LENGTH} or more.
+	 * @param checksum True if the checksum is appended.
+	 */
+	public TokenFormat(String prefix, int byteLength, boolean checksum) {
+		super();
+		this.prefix = prefix != null ? prefix : "";
+		if (!isUrlSafe(this.prefix)) {
+			throw new IllegalArgumentException("The prefix must be URL-safe: " + prefix);
+		}
+		if (byteLength < MIN_BYTE_LENGTH) {
+			throw new IllegalArgumentException("byteLength must be " + MIN_BYTE_LENGTH + " or more.");
+		}
+		this.byteLength = byteLength;
+		this.checksum = checksum;
+		this.length = this.prefix.length() + getEncodedLength(byteLength) + (checksum ? CHECKSUM_LENGTH : 0);
+	}
+
+	/**
+	 * Retrieve the prefix.
+	 * @return The prefix. If no prefix, returns the empty string.
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * Retrieve the number of the random bytes.
+	 * @return The number of the bytes.
+	 */
+	public int getByteLength() {
+		return byteLength;
+	}
+
+	/**
+	 * Retrieve whether the checksum is appended.
+	 * @return True if the checksum is appended.
+	 */
+	public boolean hasChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * Retrieve the length of the tokens.
+	 * @return The number of the characters.
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Check whether the token has this format. If the checksum is appended,
+	 * the checksum is verified too. This method is cheap enough to call
+	 * before looking up the token from your data store.
+	 * @param token The token.
+	 * @return True if the token has this format.
+	 */
+	public boolean matches(String token) {
+		if (token == null || token.length() != length || !token.startsWith(prefix)) {
+			return false;
+		}
+		for (int i = prefix.length(); i < length; i++) {
+			if (!isUrlSafe(token.charAt(i))) {
+				return false;
+			}
+		}
+		if (!checksum) {
+			return true;
+		}
+		byte[] bytes = token.getBytes(StandardCharsets.US_ASCII);
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, length - CHECKSUM_LENGTH);
+		byte[] expected = new byte[CHECKSUM_LENGTH];
+		encodeChecksum(crc.getValue(), expected, 0);
+		for (int i = 0; i < CHECKSUM_LENGTH; i++) {
+			if (bytes[length - CHECKSUM_LENGTH + i] != expected[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static int getEncodedLength(int byteLength) {
+		return (byteLength * 4 + 2) / 3;
+	}
+
+	static void encodeChecksum(long value, byte[] dest, int offset) {
+		for (int i = CHECKSUM_LENGTH - 1; i >= 0; i--) {
+			dest[offset + i] = TokenGenerator.ALPHABET[(int) (value & 0x3f)];
+			value >>>= 6;
+		}
+	}
+
+	private static boolean isUrlSafe(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			if (!isUrlSafe(value.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isUrlSafe(char c) {
+		return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+				|| c == '-' || c == '_';
+	}
+
+}
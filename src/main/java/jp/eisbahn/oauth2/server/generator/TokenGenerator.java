@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.generator;
+
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * This class generates random tokens in the {@link TokenFormat}.
+ *
+ * A SecureRandom instance shared by many threads is a point of contention
+ * when a lot of tokens are issued. Instead, this instance has a DRBG
+ * (deterministic random bit generator) for each thread. Each DRBG is seeded
+ * from the seed source when it is created, and is reseeded from the seed
+ * source after generating the bytes of the reseed interval. The random
+ * bytes are generated in bulk into a buffer of each thread, and are encoded
+ * to the URL-safe base64 characters directly from the buffer.
+ *
+ * This instance is thread-safe. Share one instance for each format, for
+ * instance, in your DataHandlerFactory:
+ *
+ * <pre>
+ * TokenGenerator accessTokens = new TokenGenerator(new TokenFormat("at_", 32, true));
+ * String token = accessTokens.generate();
+ * </pre>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class TokenGenerator {
+
+	static final byte[] ALPHABET =
+			"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+			.getBytes(StandardCharsets.US_ASCII);
+
+	private static final String[] DRBG_ALGORITHMS = {"DRBG", "SHA1PRNG"};
+	private static final int SEED_LENGTH = 32;
+
+	private final TokenFormat format;
+	private final byte[] prefix;
+	private final ThreadLocal<State> states = new ThreadLocal<State>() {
+		@Override
+		protected State initialValue() {
+			return new State(createRandom());
+		}
+	};
+	private volatile SecureRandom seedSource = new SecureRandom();
+	private volatile String algorithm;
+	private volatile long reseedInterval = 1L << 20;
+	private volatile int bufferSize = 1024;
+
+	/**
+	 * Initialize this instance.
+	 * @param format The format of the tokens.
+	 */
+	public TokenGenerator(TokenFormat format) {
+		super();
+		this.format = format;
+		this.prefix = format.getPrefix().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Retrieve the format of the tokens.
+	 * @return The format.
+	 */
+	public TokenFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * Set the source of the seeds of the DRBGs. This source is used only
+	 * when a DRBG is created or reseeded. The default is a new SecureRandom
+	 * instance.
+	 * @param seedSource The source.
+	 */
+	public void setSeedSource(SecureRandom seedSource) {
+		this.seedSource = seedSource;
+	}
+
+	/**
+	 * Set the algorithm name of the DRBGs. If not set, "DRBG" is used if
+	 * available, otherwise "SHA1PRNG" is used. This must be called before
+	 * generating tokens.
+	 * @param algorithm The algorithm name of SecureRandom.
+	 * @throws IllegalArgumentException If the algorithm is not available.
+	 */
+	public void setAlgorithm(String algorithm) {
+		try {
+			SecureRandom.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException(e.getMessage(), e);
+		}
+		this.algorithm = algorithm;
+	}
+
+	/**
+	 * Set the number of the bytes which each DRBG generates before being
+	 * reseeded. The default is 1MiB.
+	 * @param reseedInterval The number of the bytes.
+	 */
+	public void setReseedInterval(long reseedInterval) {
+		if (reseedInterval <= 0) {
+			throw new IllegalArgumentException("reseedInterval must be positive.");
+		}
+		this.reseedInterval = reseedInterval;
+	}
+
+	/**
+	 * Set the size of the buffer of the random bytes for each thread. The
+	 * default is 1024. This must be called before generating tokens.
+	 * @param bufferSize The size in bytes.
+	 */
+	public void setBufferSize(int bufferSize) {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("bufferSize must be positive.");
+		}
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Generate a new token.
+	 * @return The token.
+	 */
+	public String generate() {
+		State state = states.get();
+		byte[] out = state.out;
+		int pos = prefix.length;
+		int remaining = format.getByteLength();
+		int pending = 0;
+		int bits = 0;
+		while (remaining > 0) {
+			if (state.position == state.buffer.length) {
+				state.fill();
+			}
+			int n = Math.min(remaining, state.buffer.length - state.position);
+			for (int i = state.position, end = state.position + n; i < end; i++) {
+				pending = (pending << 8) | (state.buffer[i] & 0xff);
+				bits += 8;
+				while (bits >= 6) {
+					bits -= 6;
+					out[pos++] = ALPHABET[(pending >>> bits) & 0x3f];
+				}
+			}
+			Arrays.fill(state.buffer, state.position, state.position + n, (byte) 0);
+			state.position += n;
+			remaining -= n;
+		}
+		if (bits > 0) {
+			out[pos++] = ALPHABET[(pending << (6 - bits)) & 0x3f];
+		}
+		if (format.hasChecksum()) {
+			state.crc.reset();
+			state.crc.update(out, 0, pos);
+			TokenFormat.encodeChecksum(state.crc.getValue(), out, pos);
+			pos += TokenFormat.CHECKSUM_LENGTH;
+		}
+		return new String(out, 0, pos, StandardCharsets.ISO_8859_1);
+	}
+
+	private SecureRandom createRandom() {
+		SecureRandom random = null;
+		if (algorithm != null) {
+			try {
+				random = SecureRandom.getInstance(algorithm);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		} else {
+			for (String name : DRBG_ALGORITHMS) {
+				try {
+					random = SecureRandom.getInstance(name);
+					break;
+				} catch (NoSuchAlgorithmException e) {
+					// Try the next algorithm.
+				}
+			}
+			if (random == null) {
+				random = new SecureRandom();
+			}
+		}
+		random.setSeed(createSeed());
+		return random;
+	}
+
+	private byte[] createSeed() {
+		byte[] seed = new byte[SEED_LENGTH];
+		seedSource.nextBytes(seed);
+		return seed;
+	}
+
+	private final class State {
+
+		private final SecureRandom random;
+		private final byte[] buffer = new byte[bufferSize];
+		private final byte[] out = new byte[format.getLength()];
+		private final CRC32 crc = new CRC32();
+		private int position = buffer.length;
+		private long generated;
+
+		private State(SecureRandom random) {
+			this.random = random;
+			System.arraycopy(prefix, 0, out, 0, prefix.length);
+		}
+
+		private void fill() {
+			if (generated >= reseedInterval) {
+				random.setSeed(createSeed());
+				generated = 0;
+			}
+			random.nextBytes(buffer);
+			generated += buffer.length;
+			position = 0;
+		}
+
+	}
+
+}
@@ -0,0 +1,306 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.granttype;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jp.eisbahn.oauth2.server.async.HashedWheelTimer;
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.Deadlines;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.granttype.GrantHandler.GrantHandlerResult;
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This class lets identical grant requests which arrive at the same time
+ * share one execution of the grant handler.
+ *
+ * <p>Requests are identical when they have the same grant type, client ID and
+ * values of the key parameters of the grant type. While the first request
+ * is processed by the grant handler, the identical requests wait for it and
+ * receive the same GrantHandlerResult or error. Only the requests already
+ * validated by DataHandler#validateClient() must be passed to this
+ * class.</p>
+ *
+ * <p>By default, the "client_credentials" and "refresh_token" grant types are
+ * coalesced. Other grant types such as "password" and "custom_token" are not
+ * coalesced unless they are set with the setGrantTypes() method.</p>
+ *
+ * <p>The shared execution is not bound to the deadlines of the first request,
+ * because the other requests depend on it. Instead, each execution has its
+ * own deadline (the flight timeout). When it expires, the execution is
+ * abandoned, all waiting requests receive the error "server_error", and the
+ * next identical request starts a new execution.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class GrantRequestCoalescer {
+
+	private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+	private final Map<String, List<String>> keyParameters = new HashMap<String, List<String>>();
+	private Set<String> grantTypes = new HashSet<String>(
+			Arrays.asList("client_credentials", "refresh_token"));
+	private final AtomicLong coalescedCount = new AtomicLong();
+	private HashedWheelTimer timer;
+	private long flightTimeout = 10000L;
+
+	/**
+	 * Initialize this instance.
+	 */
+	public GrantRequestCoalescer() {
+		super();
+		keyParameters.put("client_credentials", Arrays.asList("scope"));
+		keyParameters.put("refresh_token", Arrays.asList("refresh_token", "scope"));
+		keyParameters.put("password", Arrays.asList("username", "password", "scope"));
+		keyParameters.put("custom_token", Arrays.asList("custom_token", "scope"));
+		keyParameters.put("saml2", Arrays.asList("assertion", "scope"));
+		keyParameters.put("urn:ietf:params:oauth:grant-type:jwt-bearer",
+				Arrays.asList("assertion", "scope"));
+	}
+
+	/**
+	 * Set the grant types to be coalesced.
+	 * @param grantTypes The collection of grant type strings.
+	 */
+	public void setGrantTypes(Collection<String> grantTypes) {
+		this.grantTypes = new HashSet<String>(grantTypes);
+	}
+
+	/**
+	 * Set the names of parameters which identify the request for each grant
+	 * type. The key means a grant type. The grant type which doesn't have
+	 * the parameter names is not coalesced.
+	 * @param keyParameters The map object which has parameter names.
+	 */
+	public void setKeyParameters(Map<String, List<String>> keyParameters) {
+		this.keyParameters.putAll(keyParameters);
+	}
+
+	/**
+	 * Set the timer which enforces the flight timeout.
+	 * @param timer The timer. If null, the timer shared in this JVM is used.
+	 */
+	public void setTimer(HashedWheelTimer timer) {
+		this.timer = timer;
+	}
+
+	/**
+	 * Set the deadline of each shared execution. The default value is
+	 * 10 seconds.
+	 * @param flightTimeout The timeout in milliseconds. If 0, the execution
+	 * has no deadline.
+	 */
+	public void setFlightTimeout(long flightTimeout) {
+		if (flightTimeout < 0) {
+			throw new IllegalArgumentException("flightTimeout must not be negative.");
+		}
+		this.flightTimeout = flightTimeout;
+	}
+
+	/**
+	 * Retrieve the number of requests which received the result of another
+	 * request.
+	 * @return The number of coalesced requests.
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	/**
+	 * Retrieve the number of grant handler executions in progress.
+	 * @return The number of executions.
+	 */
+	public int getInFlightCount() {
+		return flights.size();
+	}
+
+	/**
+	 * Handle the request with the grant handler, or wait for the identical
+	 * request in progress and receive its result.
+	 * @param grantType The grant type string.
+	 * @param clientId The client ID which has been validated.
+	 * @param grantHandler The grant handler for the grant type.
+	 * @param dataHandler The data handler which has the request.
+	 * @param handler The handler to receive the result.
+	 */
+	public void handleRequest(String grantType, String clientId,
+			GrantHandler grantHandler, DataHandler dataHandler,
+			Handler<Try<OAuthError, GrantHandlerResult>> handler) {
+		List<String> names = keyParameters.get(grantType);
+		if (!grantTypes.contains(grantType) || names == null) {
+			grantHandler.handleRequest(dataHandler, handler);
+			return;
+		}
+		String key = createKey(grantType, clientId, names, dataHandler.getRequest());
+		Waiter waiter = new Waiter(dataHandler, handler);
+		while (true) {
+			Flight flight = new Flight();
+			Flight current = flights.putIfAbsent(key, flight);
+			if (current == null) {
+				lead(key, flight, grantHandler, waiter);
+				return;
+			}
+			if (current.join(waiter)) {
+				coalescedCount.incrementAndGet();
+				return;
+			}
+			flights.remove(key, current);
+		}
+	}
+
+	private void lead(final String key, final Flight flight,
+			GrantHandler grantHandler, final Waiter leader) {
+		final HashedWheelTimer.Timeout deadline = flightTimeout > 0
+				? getTimer().newTimeout(new Runnable() {
+					@Override
+					public void run() {
+						expire(key, flight, leader);
+					}
+				}, flightTimeout, TimeUnit.MILLISECONDS)
+				: null;
+		try {
+			grantHandler.handleRequest(Deadlines.unwrap(leader.dataHandler),
+					new Handler<Try<OAuthError, GrantHandlerResult>>() {
+				@Override
+				public void handle(Try<OAuthError, GrantHandlerResult> result) {
+					if (deadline != null) {
+						deadline.cancel();
+					}
+					flights.remove(key, flight);
+					List<Waiter> waiters = flight.complete();
+					if (waiters == null) {
+						return;
+					}
+					try {
+						for (Waiter waiter : waiters) {
+							waiter.handler.handle(result);
+						}
+					} finally {
+						leader.handler.handle(result);
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			// The waiters are processed independently, because the result
+			// will never be passed.
+			if (deadline != null) {
+				deadline.cancel();
+			}
+			flights.remove(key, flight);
+			List<Waiter> waiters = flight.complete();
+			if (waiters != null) {
+				for (Waiter waiter : waiters) {
+					grantHandler.handleRequest(waiter.dataHandler, waiter.handler);
+				}
+			}
+			throw e;
+		}
+	}
+
+	private void expire(String key, Flight flight, Waiter leader) {
+		flights.remove(key, flight);
+		List<Waiter> waiters = flight.complete();
+		if (waiters == null) {
+			return;
+		}
+		Try<OAuthError, GrantHandlerResult> result = new Try<OAuthError, GrantHandlerResult>(
+				new OAuthError.ServerError("Request timed out."));
+		try {
+			for (Waiter waiter : waiters) {
+				waiter.handler.handle(result);
+			}
+		} finally {
+			leader.handler.handle(result);
+		}
+	}
+
+	private HashedWheelTimer getTimer() {
+		return timer != null ? timer : HashedWheelTimer.getShared();
+	}
+
+	private String createKey(String grantType, String clientId,
+			List<String> names, Request request) {
+		StringBuilder sb = new StringBuilder(grantType);
+		append(sb, clientId);
+		for (String name : names) {
+			append(sb, request.getParameter(name));
+		}
+		return sb.toString();
+	}
+
+	private void append(StringBuilder sb, String value) {
+		if (value == null) {
+			sb.append('-');
+		} else {
+			sb.append(value.length()).append(':').append(value);
+		}
+	}
+
+	private static class Waiter {
+
+		private final DataHandler dataHandler;
+		private final Handler<Try<OAuthError, GrantHandlerResult>> handler;
+
+		private Waiter(DataHandler dataHandler,
+				Handler<Try<OAuthError, GrantHandlerResult>> handler) {
+			this.dataHandler = dataHandler;
+			this.handler = handler;
+		}
+
+	}
+
+	private static class Flight {
+
+		private List<Waiter> waiters = new ArrayList<Waiter>();
+		private boolean completed;
+
+		private synchronized boolean join(Waiter waiter) {
+			if (completed) {
+				return false;
+			}
+			waiters.add(waiter);
+			return true;
+		}
+
+		private synchronized List<Waiter> complete() {
+			if (completed) {
+				return null;
+			}
+			completed = true;
+			List<Waiter> result = waiters;
+			waiters = null;
+			return result;
+		}
+
+	}
+
+}
@@ -23,11 +23,14 @@ import org.apache.commons.lang3.StringUtils;
 import jp.eisbahn.oauth2.server.async.Handler;
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
 import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcher;
 import jp.eisbahn.oauth2.server.granttype.GrantHandler;
 import jp.eisbahn.oauth2.server.models.AccessToken;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.IssuedToken;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.models.UserData;
 
 /**
  * This abstract class provides some common functions for this sub classes.
@@ -72,29 +75,102 @@ public abstract class AbstractGrantHandler implements GrantHandler {
 
 			@Override
 			public void handle(AccessToken accessToken) {
-				if (accessToken == null) {
-					handler.handle(null);
-					return;
-				}
-				GrantHandlerResult result =
-						new GrantHandlerResult("Bearer", accessToken.getToken());
-				if (accessToken.getExpiresIn() > 0) {
-					result.setExpiresIn(accessToken.getExpiresIn());
-				}
-				if (StringUtils.isNotEmpty(authInfo.getRefreshToken())) {
-					result.setRefreshToken(authInfo.getRefreshToken());
-				}
-				if (StringUtils.isNotEmpty(authInfo.getScope())) {
-					result.setScope(authInfo.getScope());
-				}
-				if (StringUtils.isNotEmpty(accessToken.getIdToken())) {
-					result.setIdToken(accessToken.getIdToken());
-				}
-				handler.handle(result);
+				handler.handle(createResult(authInfo, accessToken));
 			}
 		});
 	}
 
+	/**
+	 * Create or update the authorization information for the user and issue
+	 * an access token for it, and pass the result to the handler.
+	 * Actually, both are delegated to the
+	 * createOrUpdateAuthInfoAndAccessToken() method of the specified data
+	 * handler. If the authorization information could not be created, the
+	 * error "invalid_grant" is passed. If it was created for another client,
+	 * the error "invalid_client" is passed. If the access token could not be
+	 * issued, the error "invalid_grant" with the specified description
+	 * is passed.
+	 * @param dataHandler The data handler instance to access to your database
+	 * and issue an access token.
+	 * @param clientId The client ID.
+	 * @param userId The user's ID.
+	 * @param scope The scope string.
+	 * @param userData The user's data set to the result. This can be null.
+	 * @param description The error description used when the access token
+	 * could not be issued.
+	 * @param handler The handler to receive the result object.
+	 */
+	protected void issueAccessToken(DataHandler dataHandler, final String clientId,
+			String userId, String scope, final UserData userData, final String description,
+			final Handler<Try<OAuthError, GrantHandlerResult>> handler) {
+		dataHandler.createOrUpdateAuthInfoAndAccessToken(clientId, userId, scope,
+				new Handler<IssuedToken>() {
+
+			@Override
+			public void handle(IssuedToken issued) {
+				handler.handle(createResult(issued, clientId, userData, description));
+			}
+		});
+	}
+
+	/**
+	 * Create the result from the token issued by the
+	 * createOrUpdateAuthInfoAndAccessToken() method of the data handler.
+	 * @param issued The issued token.
+	 * @param clientId The client ID.
+	 * @param userData The user's data set to the result. This can be null.
+	 * @param description The error description used when the access token
+	 * could not be issued.
+	 * @return The result object, or the error "invalid_grant" or
+	 * "invalid_client".
+	 */
+	protected Try<OAuthError, GrantHandlerResult> createResult(IssuedToken issued,
+			String clientId, UserData userData, String description) {
+		AuthInfo authInfo = issued.getAuthInfo();
+		if (authInfo == null) {
+			return new Try<OAuthError, GrantHandlerResult>(new OAuthError.InvalidGrant(""));
+		}
+		if (!authInfo.getClientId().equals(clientId)) {
+			return new Try<OAuthError, GrantHandlerResult>(new OAuthError.InvalidClient(""));
+		}
+		GrantHandlerResult result = createResult(authInfo, issued.getAccessToken());
+		if (result == null) {
+			return new Try<OAuthError, GrantHandlerResult>(new OAuthError.InvalidGrant(description));
+		}
+		if (userData != null) {
+			result.setUserData(userData);
+		}
+		return new Try<OAuthError, GrantHandlerResult>(result);
+	}
+
+	/**
+	 * Create the result which has the issued access token and relating
+	 * information.
+	 * @param authInfo The authorization information of the access token.
+	 * @param accessToken The issued access token.
+	 * @return The result object. If the access token is null, return null.
+	 */
+	protected GrantHandlerResult createResult(AuthInfo authInfo, AccessToken accessToken) {
+		if (accessToken == null) {
+			return null;
+		}
+		GrantHandlerResult result =
+				new GrantHandlerResult("Bearer", accessToken.getToken());
+		if (accessToken.getExpiresIn() > 0) {
+			result.setExpiresIn(accessToken.getExpiresIn());
+		}
+		if (StringUtils.isNotEmpty(authInfo.getRefreshToken())) {
+			result.setRefreshToken(authInfo.getRefreshToken());
+		}
+		if (StringUtils.isNotEmpty(authInfo.getScope())) {
+			result.setScope(authInfo.getScope());
+		}
+		if (StringUtils.isNotEmpty(accessToken.getIdToken())) {
+			result.setIdToken(accessToken.getIdToken());
+		}
+		return result;
+	}
+
 	/**
 	 * Retrieve the parameter value against the parameter name.
 	 * 
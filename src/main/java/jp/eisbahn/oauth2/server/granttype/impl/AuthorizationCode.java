@@ -18,14 +18,12 @@
 
 package jp.eisbahn.oauth2.server.granttype.impl;
 
-import org.apache.commons.lang3.StringUtils;
-
 import jp.eisbahn.oauth2.server.async.Handler;
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.exceptions.Try;
-import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.ClientCredential;
+import jp.eisbahn.oauth2.server.models.IssuedToken;
 import jp.eisbahn.oauth2.server.models.Request;
 
 /**
@@ -52,33 +50,21 @@ public class AuthorizationCode extends AbstractGrantHandler {
 			final String code = getParameter(request, "code");
 			final String redirectUri = getParameter(request, "redirect_uri");
 
-			dataHandler.getAuthInfoByCode(code, new Handler<AuthInfo>() {
+			dataHandler.exchangeAuthorizationCode(code, clientId, redirectUri,
+					new Handler<Try<OAuthError, IssuedToken>>() {
 
 				@Override
-				public void handle(AuthInfo authInfo) {
+				public void handle(Try<OAuthError, IssuedToken> event) {
 					try {
-						if (authInfo == null) {
-							throw new OAuthError.InvalidGrant("");
-						}
-						if (!authInfo.getClientId().equals(clientId)) {
-							throw new OAuthError.InvalidClient("");
-						}
-						if (!(StringUtils.isNotEmpty(authInfo.getRedirectUri())
-						&& authInfo.getRedirectUri().equals(redirectUri))) {
-							throw new OAuthError.RedirectUriMismatch("");
+						IssuedToken issued = event.get();
+						GrantHandlerResult result =
+								createResult(issued.getAuthInfo(), issued.getAccessToken());
+						if (result != null) {
+							handler.handle(new Try<OAuthError, GrantHandlerResult>(result));
+						} else {
+							handler.handle(new Try<OAuthError, GrantHandlerResult>(
+									new OAuthError.InvalidGrant("Code is invalid or already used.")));
 						}
-						issueAccessToken(dataHandler, authInfo, new Handler<GrantHandlerResult>() {
-		
-							@Override
-							public void handle(GrantHandlerResult result) {
-								if (result != null) {
-									handler.handle(new Try<OAuthError, GrantHandlerResult>(result));
-								} else {
-									handler.handle(new Try<OAuthError, GrantHandlerResult>(
-											new OAuthError.InvalidGrant("Code is invalid or already used.")));
-								}
-							}
-						});
 					} catch (OAuthError e) {
 						handler.handle(new Try<OAuthError, GrantHandlerResult>(e));
 					}
@@ -22,10 +22,11 @@ import jp.eisbahn.oauth2.server.async.Handler;
 import jp.eisbahn.oauth2.server.exceptions.Try;
 import org.apache.commons.lang3.StringUtils;
 
+import jp.eisbahn.oauth2.server.cache.ClientTokenCache;
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
-import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.ClientCredential;
+import jp.eisbahn.oauth2.server.models.IssuedToken;
 import jp.eisbahn.oauth2.server.models.Request;
 
 /**
@@ -37,6 +38,17 @@ import jp.eisbahn.oauth2.server.models.Request;
  */
 public class ClientCredentials extends AbstractGrantHandler {
 
+	private ClientTokenCache tokenCache;
+
+	/**
+	 * Set the cache to reuse the tokens issued for the same client and scope.
+	 * If this is not set, a new token is issued for each request.
+	 * @param tokenCache The ClientTokenCache instance.
+	 */
+	public void setTokenCache(ClientTokenCache tokenCache) {
+		this.tokenCache = tokenCache;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see jp.eisbahn.oauth2.server.granttype.GrantHandler#handleRequest(jp.eisbahn.oauth2.server.data.DataHandler)
@@ -48,45 +60,38 @@ public class ClientCredentials extends AbstractGrantHandler {
 		ClientCredential clientCredential = getClientCredentialFetcher().fetch(request);
 		final String clientId = clientCredential.getClientId();
 		String clientSecret = clientCredential.getClientSecret();
+		final String cacheScope;
+		if (tokenCache != null) {
+			cacheScope = request.getParameter("scope");
+			IssuedToken cached = tokenCache.get(clientId, cacheScope);
+			if (cached != null) {
+				handler.handle(createResult(cached, clientId, null, "ClientCredential is invalid."));
+				return;
+			}
+		} else {
+			cacheScope = null;
+		}
 
 		dataHandler.getClientUserId(clientId, clientSecret, new Handler<String>() {
 			@Override
 			public void handle(String userId) {
-				try {
-					if (StringUtils.isEmpty(userId)) {
-						throw new OAuthError.InvalidClient("");
-					}
-
-					String scope = request.getParameter("scope");
-
-					dataHandler.createOrUpdateAuthInfo(clientId, userId, scope, new Handler<AuthInfo>() {
-						@Override
-						public void handle(AuthInfo authInfo) {
-							try {
-								if (authInfo == null) {
-									throw new OAuthError.InvalidGrant("");
-								}
-
-								issueAccessToken(dataHandler, authInfo, new Handler<GrantHandlerResult>() {
-
-									@Override
-									public void handle(GrantHandlerResult result) {
-										if (result != null) {
-											handler.handle(new Try<OAuthError, GrantHandlerResult>(result));
-										} else {
-											handler.handle(new Try<OAuthError, GrantHandlerResult>(
-													new OAuthError.InvalidGrant("ClientCredential is invalid.")));
-										}
-									}
-								});
-							} catch (OAuthError e) {
-								handler.handle(new Try<OAuthError, GrantHandlerResult>(e));
-							}
-						}
-					});
-				} catch (OAuthError e) {
-					handler.handle(new Try<OAuthError, GrantHandlerResult>(e));
+				if (StringUtils.isEmpty(userId)) {
+					handler.handle(new Try<OAuthError, GrantHandlerResult>(
+							new OAuthError.InvalidClient("")));
+					return;
 				}
+				final String scope = tokenCache != null ? cacheScope : request.getParameter("scope");
+				dataHandler.createOrUpdateAuthInfoAndAccessToken(clientId, userId, scope,
+						new Handler<IssuedToken>() {
+					@Override
+					public void handle(IssuedToken issued) {
+						if (tokenCache != null && issued.getAccessToken() != null
+								&& clientId.equals(issued.getAuthInfo().getClientId())) {
+							tokenCache.put(clientId, scope, issued);
+						}
+						handler.handle(createResult(issued, clientId, null, "ClientCredential is invalid."));
+					}
+				});
 			}
 		});
 	}
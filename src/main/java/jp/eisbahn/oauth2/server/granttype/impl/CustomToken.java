@@ -26,7 +26,6 @@ import org.apache.commons.lang3.StringUtils;
 
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
-import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.ClientCredential;
 import jp.eisbahn.oauth2.server.models.Request;
 import jp.eisbahn.oauth2.server.models.UserData;
@@ -64,35 +63,8 @@ public class CustomToken extends AbstractGrantHandler {
 						}
 						String scope = request.getParameter("scope");
 
-						dataHandler.createOrUpdateAuthInfo(clientId, userData.getId(), scope, new Handler<AuthInfo>() {
-							@Override
-							public void handle(AuthInfo authInfo) {
-								try {
-									if (authInfo == null) {
-										throw new OAuthError.InvalidGrant("");
-									}
-									if (!authInfo.getClientId().equals(clientId)) {
-										throw new OAuthError.InvalidClient("");
-									}
-
-									issueAccessToken(dataHandler, authInfo, new Handler<GrantHandlerResult>() {
-
-										@Override
-										public void handle(GrantHandlerResult result) {
-											if (result != null) {
-												result.setUserData(userData);
-												handler.handle(new Try<OAuthError, GrantHandlerResult>(result));
-											} else {
-												handler.handle(new Try<OAuthError, GrantHandlerResult>(
-														new OAuthError.InvalidGrant("Credential is invalid.")));
-											}
-										}
-									});
-								} catch (OAuthError ex) {
-									handler.handle(new Try<OAuthError, GrantHandlerResult>(ex));
-								}
-							}
-						});
+						issueAccessToken(dataHandler, clientId, userData.getId(), scope, userData,
+								"Credential is invalid.", handler);
 					} catch (OAuthError ex) {
 						handler.handle(new Try<OAuthError, GrantHandlerResult>(ex));
 					}
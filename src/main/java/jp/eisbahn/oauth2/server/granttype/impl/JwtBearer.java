@@ -6,13 +6,31 @@ import jp.eisbahn.oauth2.server.async.Handler;
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.exceptions.Try;
-import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.jwt.JwtBearerVerifier;
 import jp.eisbahn.oauth2.server.models.ClientCredential;
+import jp.eisbahn.oauth2.server.models.JwtClaims;
 import jp.eisbahn.oauth2.server.models.Request;
 import jp.eisbahn.oauth2.server.models.UserData;
 
 public class JwtBearer extends AbstractGrantHandler {
 
+    private JwtBearerVerifier assertionVerifier;
+
+    /**
+     * Set the verifier of the assertion. If set, the assertion is verified
+     * by the verifier and the subject is resolved with
+     * {@link DataHandler#getUserIdByVerifiedJwt(String, JwtClaims, Handler)}.
+     * Otherwise, the assertion is passed to
+     * {@link DataHandler#getUserIdByAssertionJwt(String, String, Handler)}.
+     * Your DataHandler must override getUserIdByVerifiedJwt() to bind the
+     * issuer and the subject to the users the client may assert; the default
+     * implementation refuses the grant.
+     * @param assertionVerifier The verifier.
+     */
+    public void setAssertionVerifier(JwtBearerVerifier assertionVerifier) {
+        this.assertionVerifier = assertionVerifier;
+    }
+
     @Override
     public void handleRequest(DataHandler dataHandler, Handler<Try<OAuthError, GrantHandlerResult>> handler) {
         final Request request = dataHandler.getRequest();
@@ -24,7 +42,7 @@ public class JwtBearer extends AbstractGrantHandler {
             final String assertion = getParameter(request, "assertion");
             final String scope = getParameter(request, "scope");
 
-            dataHandler.getUserIdByAssertionJwt(clientId, assertion, new Handler<Try<OAuthError, UserData>>() {
+            final Handler<Try<OAuthError, UserData>> userHandler = new Handler<Try<OAuthError, UserData>>() {
                 @Override
                 public void handle(Try<OAuthError, UserData> tryUserId) {
                     try {
@@ -33,35 +51,22 @@ public class JwtBearer extends AbstractGrantHandler {
                             throw new OAuthError.InvalidGrant("");
                         }
 
-                        dataHandler.createOrUpdateAuthInfo(clientId, userData.getId(), scope, new Handler<AuthInfo>() {
-                            @Override
-                            public void handle(AuthInfo authInfo) {
-                                try {
-                                    if (authInfo == null) {
-                                        throw new OAuthError.InvalidGrant("");
-                                    }
-                                    if (!authInfo.getClientId().equals(clientId)) {
-                                        throw new OAuthError.InvalidClient("");
-                                    }
-
-                                    issueAccessToken(dataHandler, authInfo, new Handler<GrantHandlerResult>() {
-
-                                        @Override
-                                        public void handle(GrantHandlerResult result) {
-                                            if (result != null) {
-                                                result.setUserData(userData);
-                                                handler.handle(new Try<OAuthError, GrantHandlerResult>(result));
-                                            } else {
-                                                handler.handle(new Try<OAuthError, GrantHandlerResult>(
-                                                        new OAuthError.InvalidGrant("JWT is invalid.")));
-                                            }
-                                        }
-                                    });
-                                } catch (OAuthError ex) {
-                                    handler.handle(new Try<OAuthError, GrantHandlerResult>(ex));
-                                }
-                            }
-                        });
+                        issueAccessToken(dataHandler, clientId, userData.getId(), scope, userData,
+                                "JWT is invalid.", handler);
+                    } catch (OAuthError ex) {
+                        handler.handle(new Try<OAuthError, GrantHandlerResult>(ex));
+                    }
+                }
+            };
+            if (assertionVerifier == null) {
+                dataHandler.getUserIdByAssertionJwt(clientId, assertion, userHandler);
+                return;
+            }
+            assertionVerifier.verify(clientId, assertion, new Handler<Try<OAuthError, JwtClaims>>() {
+                @Override
+                public void handle(Try<OAuthError, JwtClaims> tryClaims) {
+                    try {
+                        dataHandler.getUserIdByVerifiedJwt(clientId, tryClaims.get(), userHandler);
                     } catch (OAuthError ex) {
                         handler.handle(new Try<OAuthError, GrantHandlerResult>(ex));
                     }
@@ -26,9 +26,9 @@ import org.apache.commons.lang3.StringUtils;
 
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
-import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.ClientCredential;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.ratelimit.LoginAttemptTracker;
 
 /**
  * This class is an implementation for processing the Resource Owner Password
@@ -39,6 +39,19 @@ import jp.eisbahn.oauth2.server.models.Request;
  */
 public class Password extends AbstractGrantHandler {
 
+	private LoginAttemptTracker loginAttemptTracker;
+
+	/**
+	 * Set the tracker of failed login attempts.
+	 * If this is set, the blocked user or client is refused before the
+	 * password is checked by DataHandler#getUserId(). By default, attempts
+	 * are not tracked.
+	 * @param loginAttemptTracker The LoginAttemptTracker instance.
+	 */
+	public void setLoginAttemptTracker(LoginAttemptTracker loginAttemptTracker) {
+		this.loginAttemptTracker = loginAttemptTracker;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see jp.eisbahn.oauth2.server.granttype.GrantHandler#handleRequest(jp.eisbahn.oauth2.server.data.DataHandler)
@@ -51,55 +64,60 @@ public class Password extends AbstractGrantHandler {
 		final String clientId = clientCredential.getClientId();
 
 		try {
-			String username = getParameter(request, "username");
-			String password = getParameter(request, "password");
+			final String username = getParameter(request, "username");
+			final String password = getParameter(request, "password");
 
-			dataHandler.getUserId(username, password, new Handler<Try<AccessDenied, String>>() {
+			if (loginAttemptTracker == null) {
+				authenticate(dataHandler, clientId, username, password, handler);
+				return;
+			}
+			loginAttemptTracker.check(clientId, username, new Handler<Long>() {
 				@Override
-				public void handle(Try<AccessDenied, String> tryUserId) {
+				public void handle(Long wait) {
+					if (wait != null && wait > 0) {
+						handler.handle(new Try<OAuthError, GrantHandlerResult>(
+								new OAuthError.InvalidGrant("Too many failed attempts.")));
+					} else {
+						authenticate(dataHandler, clientId, username, password, handler);
+					}
+				}
+			});
+		} catch (OAuthError ex) {
+			handler.handle(new Try<OAuthError, GrantHandlerResult>(ex));
+		}
+	}
+
+	private void authenticate(final DataHandler dataHandler, final String clientId,
+			final String username, String password,
+			final Handler<Try<OAuthError, GrantHandlerResult>> handler) {
+		dataHandler.getUserId(username, password, new Handler<Try<AccessDenied, String>>() {
+			@Override
+			public void handle(Try<AccessDenied, String> tryUserId) {
+				try {
+					final String userId;
 					try {
-						final String userId = tryUserId.get();
+						userId = tryUserId.get();
 						if (StringUtils.isEmpty(userId)) {
 							throw new OAuthError.InvalidGrant("");
 						}
-						String scope = request.getParameter("scope");
-
-						dataHandler.createOrUpdateAuthInfo(clientId, userId, scope, new Handler<AuthInfo>() {
-							@Override
-							public void handle(AuthInfo authInfo) {
-								try {
-									if (authInfo == null) {
-										throw new OAuthError.InvalidGrant("");
-									}
-									if (!authInfo.getClientId().equals(clientId)) {
-										throw new OAuthError.InvalidClient("");
-									}
-
-									issueAccessToken(dataHandler, authInfo, new Handler<GrantHandlerResult>() {
-
-										@Override
-										public void handle(GrantHandlerResult result) {
-											if (result != null) {
-												handler.handle(new Try<OAuthError, GrantHandlerResult>(result));
-											} else {
-												handler.handle(new Try<OAuthError, GrantHandlerResult>(
-														new OAuthError.InvalidGrant("Credential is invalid.")));
-											}
-										}
-									});
-								} catch (OAuthError ex) {
-									handler.handle(new Try<OAuthError, GrantHandlerResult>(ex));
-								}
-							}
-						});
 					} catch (OAuthError ex) {
-						handler.handle(new Try<OAuthError, GrantHandlerResult>(ex));
+						if (loginAttemptTracker != null) {
+							loginAttemptTracker.recordFailure(clientId, username);
+						}
+						throw ex;
+					}
+					if (loginAttemptTracker != null) {
+						loginAttemptTracker.recordSuccess(clientId, username);
 					}
+					String scope = dataHandler.getRequest().getParameter("scope");
+
+					issueAccessToken(dataHandler, clientId, userId, scope, null,
+							"Credential is invalid.", handler);
+				} catch (OAuthError ex) {
+					handler.handle(new Try<OAuthError, GrantHandlerResult>(ex));
 				}
-			});
-		} catch (OAuthError ex) {
-			handler.handle(new Try<OAuthError, GrantHandlerResult>(ex));
-		}
+			}
+		});
 	}
 
 }
@@ -23,12 +23,14 @@ import jp.eisbahn.oauth2.server.exceptions.Try;
 
 import org.apache.commons.lang3.StringUtils;
 
+import jp.eisbahn.oauth2.server.cache.VerifiedAssertionCache;
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
-import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.ClientCredential;
 import jp.eisbahn.oauth2.server.models.Request;
 import jp.eisbahn.oauth2.server.models.UserData;
+import jp.eisbahn.oauth2.server.saml.SamlAssertion;
+import jp.eisbahn.oauth2.server.saml.SamlAssertionValidator;
 
 /**
  * This class is an implementation for processing the OAuth-Saml
@@ -39,6 +41,28 @@ import jp.eisbahn.oauth2.server.models.UserData;
  */
 public class Saml2 extends AbstractGrantHandler {
 
+	private SamlAssertionValidator assertionValidator;
+	private VerifiedAssertionCache verifiedAssertionCache;
+
+	/**
+	 * Set the validator to check the assertion before calling your
+	 * DataHandler. If not set, the assertion is passed to your DataHandler
+	 * as is.
+	 * @param assertionValidator The SamlAssertionValidator instance.
+	 */
+	public void setAssertionValidator(SamlAssertionValidator assertionValidator) {
+		this.assertionValidator = assertionValidator;
+	}
+
+	/**
+	 * Set the cache of the verified assertions. This is used only when the
+	 * assertion validator is set.
+	 * @param verifiedAssertionCache The VerifiedAssertionCache instance.
+	 */
+	public void setVerifiedAssertionCache(VerifiedAssertionCache verifiedAssertionCache) {
+		this.verifiedAssertionCache = verifiedAssertionCache;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see jp.eisbahn.oauth2.server.granttype.GrantHandler#handleRequest(jp.eisbahn.oauth2.server.data.DataHandler)
@@ -53,7 +77,7 @@ public class Saml2 extends AbstractGrantHandler {
 		try {
 			final String assertion = getParameter(request, "assertion");
 
-			dataHandler.getUserIdByAssertion(assertion, new Handler<Try<OAuthError, UserData>>() {
+			final Handler<Try<OAuthError, UserData>> userHandler = new Handler<Try<OAuthError, UserData>>() {
 				@Override
 				public void handle(Try<OAuthError, UserData> tryUserId) {
 					try {
@@ -63,39 +87,37 @@ public class Saml2 extends AbstractGrantHandler {
 						}
 						String scope = request.getParameter("scope");
 
-						dataHandler.createOrUpdateAuthInfo(clientId, userData.getId(), scope, new Handler<AuthInfo>() {
-							@Override
-							public void handle(AuthInfo authInfo) {
-								try {
-									if (authInfo == null) {
-										throw new OAuthError.InvalidGrant("");
-									}
-									if (!authInfo.getClientId().equals(clientId)) {
-										throw new OAuthError.InvalidClient("");
-									}
-
-									issueAccessToken(dataHandler, authInfo, new Handler<GrantHandlerResult>() {
-
-										@Override
-										public void handle(GrantHandlerResult result) {
-											if (result != null) {
-												result.setUserData(userData);
-												handler.handle(new Try<OAuthError, GrantHandlerResult>(result));
-											} else {
-												handler.handle(new Try<OAuthError, GrantHandlerResult>(
-														new OAuthError.InvalidGrant("Credential is invalid.")));
-											}
-										}
-									});
-								} catch (OAuthError ex) {
-									handler.handle(new Try<OAuthError, GrantHandlerResult>(ex));
-								}
-							}
-						});
+						issueAccessToken(dataHandler, clientId, userData.getId(), scope, userData,
+								"Credential is invalid.", handler);
 					} catch (OAuthError ex) {
 						handler.handle(new Try<OAuthError, GrantHandlerResult>(ex));
 					}
 				}
+			};
+			final SamlAssertion validated = assertionValidator != null
+					? assertionValidator.validate(assertion) : null;
+			if (validated == null || verifiedAssertionCache == null) {
+				dataHandler.getUserIdByAssertion(assertion, userHandler);
+				return;
+			}
+			UserData cached = verifiedAssertionCache.get(clientId, validated);
+			if (cached != null) {
+				userHandler.handle(new Try<OAuthError, UserData>(cached));
+				return;
+			}
+			dataHandler.getUserIdByAssertion(assertion, new Handler<Try<OAuthError, UserData>>() {
+				@Override
+				public void handle(Try<OAuthError, UserData> tryUserId) {
+					try {
+						UserData userData = tryUserId.get();
+						if (userData != null && StringUtils.isNotEmpty(userData.getId())) {
+							verifiedAssertionCache.put(clientId, validated, userData);
+						}
+					} catch (OAuthError ex) {
+						// The error is handled by the userHandler.
+					}
+					userHandler.handle(tryUserId);
+				}
 			});
 		} catch (OAuthError ex) {
 			handler.handle(new Try<OAuthError, GrantHandlerResult>(ex));
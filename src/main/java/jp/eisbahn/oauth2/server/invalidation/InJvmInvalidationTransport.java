@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.invalidation;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+
+/**
+ * This class is an implementation of the InvalidationTransport interface
+ * which delivers messages to other transports of the same group in the same
+ * JVM synchronously. This is useful for unit tests and for running several
+ * nodes in one JVM.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class InJvmInvalidationTransport implements InvalidationTransport {
+
+	private final Group group;
+	private volatile Handler<byte[]> receiver;
+
+	/**
+	 * Initialize this instance as the only member of a new group.
+	 */
+	public InJvmInvalidationTransport() {
+		this(new Group());
+	}
+
+	/**
+	 * Initialize this instance as a member of the group.
+	 * @param group The group.
+	 */
+	public InJvmInvalidationTransport(Group group) {
+		super();
+		this.group = group;
+	}
+
+	@Override
+	public void open(Handler<byte[]> receiver) {
+		this.receiver = receiver;
+		group.members.addIfAbsent(this);
+	}
+
+	@Override
+	public void send(byte[] message) {
+		for (InJvmInvalidationTransport member : group.members) {
+			Handler<byte[]> target = member.receiver;
+			if (member != this && target != null) {
+				target.handle(message.clone());
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		group.members.remove(this);
+		receiver = null;
+	}
+
+	/**
+	 * This class is a group of transports which deliver messages to
+	 * each other.
+	 *
+	 * @author Yoichiro Tanaka
+	 *
+	 */
+	public static class Group {
+
+		private final CopyOnWriteArrayList<InJvmInvalidationTransport> members =
+				new CopyOnWriteArrayList<InJvmInvalidationTransport>();
+
+		/**
+		 * Retrieve the transports which are open in this group.
+		 * @return The list of the transports.
+		 */
+		public List<InJvmInvalidationTransport> getMembers() {
+			return members;
+		}
+
+	}
+
+}
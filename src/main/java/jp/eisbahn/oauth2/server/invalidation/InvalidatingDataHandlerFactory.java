@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.invalidation;
+
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.ForwardingDataHandler;
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This DataHandlerFactory publishes the invalidation of the authorization
+ * information to {@link InvalidationBus} after your
+ * DataHandler#deleteTokensByAuthId() is called, so that the revoked tokens
+ * are discarded from the caches on all nodes.
+ *
+ * <p>DataHandler has no method to deactivate clients or users, therefore,
+ * they are not published by this factory. When you deactivate a client or
+ * a user, call InvalidationBus#invalidateClient() or
+ * InvalidationBus#invalidateUser() after updating your database.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class InvalidatingDataHandlerFactory implements DataHandlerFactory {
+
+	private final DataHandlerFactory delegate;
+	private final InvalidationBus invalidationBus;
+
+	/**
+	 * Initialize this instance.
+	 * @param delegate The factory which creates your DataHandler.
+	 * @param invalidationBus The bus to publish invalidations.
+	 */
+	public InvalidatingDataHandlerFactory(DataHandlerFactory delegate,
+			InvalidationBus invalidationBus) {
+		super();
+		this.delegate = delegate;
+		this.invalidationBus = invalidationBus;
+	}
+
+	@Override
+	public DataHandler create(Request request) {
+		return new ForwardingDataHandler(delegate.create(request)) {
+			@Override
+			public void deleteTokensByAuthId(String authId) {
+				super.deleteTokensByAuthId(authId);
+				invalidationBus.invalidateAuthInfo(authId);
+			}
+		};
+	}
+
+}
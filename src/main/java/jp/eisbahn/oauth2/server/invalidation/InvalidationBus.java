@@ -0,0 +1,451 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.invalidation;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jp.eisbahn.oauth2.server.async.HashedWheelTimer;
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.invalidation.InvalidationCodec.Entry;
+import jp.eisbahn.oauth2.server.invalidation.InvalidationCodec.Message;
+
+/**
+ * This class broadcasts invalidations of cached tokens, clients and users
+ * to all nodes, and applies them to the listeners on each node.
+ *
+ * <p>Each invalidation is applied to the listeners on the publishing node
+ * immediately, and is sent to other nodes through the
+ * {@link InvalidationTransport}. Invalidations published within the maximum
+ * delay are batched into one compact message (see
+ * {@link InvalidationCodec}). Each message has the sequence number of the
+ * sender node. When a receiver finds a gap of the sequence numbers, some
+ * invalidations were lost, therefore, all listeners on the receiver discard
+ * all cached information. The sender also sends a heartbeat periodically so
+ * that the loss of the last message is detected.</p>
+ *
+ * <p>To use this bus, set the transport and register your caches as the
+ * listeners. To propagate revocations through
+ * DataHandler#deleteTokensByAuthId(), use {@link InvalidatingDataHandlerFactory}.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class InvalidationBus {
+
+	private static final int MAX_KEY_SIZE = 65535 + 3;
+
+	private final long nodeId;
+	private final List<InvalidationListener> listeners =
+			new CopyOnWriteArrayList<InvalidationListener>();
+	private final Queue<Entry> pending = new ConcurrentLinkedQueue<Entry>();
+	private final AtomicInteger pendingCount = new AtomicInteger();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+	private final Object sendLock = new Object();
+	private final Map<Long, Long> lastSequences = new HashMap<Long, Long>();
+
+	private volatile InvalidationTransport transport;
+	private HashedWheelTimer timer;
+	private long maxDelay = 1L;
+	private int maxBatchSize = 64;
+	private int maxMessageSize = 1400;
+	private long heartbeatInterval = 1000L;
+	private long sequence;
+	private volatile HashedWheelTimer.Timeout heartbeat;
+
+	private final AtomicLong sentCount = new AtomicLong();
+	private final AtomicLong sendFailureCount = new AtomicLong();
+	private final AtomicLong receivedCount = new AtomicLong();
+	private final AtomicLong gapCount = new AtomicLong();
+	private final AtomicLong malformedCount = new AtomicLong();
+
+	/**
+	 * Initialize this instance with a random node ID.
+	 */
+	public InvalidationBus() {
+		this(new SecureRandom().nextLong());
+	}
+
+	/**
+	 * Initialize this instance.
+	 * @param nodeId The ID of this node. This must be unique in all nodes
+	 * and must be changed when the node restarts.
+	 */
+	public InvalidationBus(long nodeId) {
+		super();
+		this.nodeId = nodeId;
+	}
+
+	/**
+	 * Set the timer which flushes batches and sends heartbeats.
+	 * @param timer The timer. If null, the timer shared in this JVM is used.
+	 */
+	public void setTimer(HashedWheelTimer timer) {
+		this.timer = timer;
+	}
+
+	/**
+	 * Set the maximum delay to batch invalidations. The default value is
+	 * 1 millisecond.
+	 * @param maxDelay The delay in milliseconds. If 0, each invalidation is
+	 * sent immediately.
+	 */
+	public void setMaxDelay(long maxDelay) {
+		if (maxDelay < 0) {
+			throw new IllegalArgumentException("maxDelay must not be negative.");
+		}
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * Set the maximum number of invalidations in one message. The default
+	 * value is 64.
+	 * @param maxBatchSize The number of invalidations.
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		if (maxBatchSize <= 0 || maxBatchSize > 65535) {
+			throw new IllegalArgumentException("maxBatchSize is out of range.");
+		}
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Set the maximum size of one message. Invalidations are split into
+	 * several messages so that each message is not larger than this size,
+	 * unless one invalidation is larger. The default value is 1400 bytes so
+	 * that one message fits into one UDP packet.
+	 * @param maxMessageSize The size in bytes.
+	 */
+	public void setMaxMessageSize(int maxMessageSize) {
+		if (maxMessageSize <= InvalidationCodec.HEADER_SIZE) {
+			throw new IllegalArgumentException("maxMessageSize is too small.");
+		}
+		this.maxMessageSize = maxMessageSize;
+	}
+
+	/**
+	 * Set the interval of heartbeats. The default value is 1 second.
+	 * This must be set before the transport.
+	 * @param heartbeatInterval The interval in milliseconds. If 0, no
+	 * heartbeat is sent.
+	 */
+	public void setHeartbeatInterval(long heartbeatInterval) {
+		if (heartbeatInterval < 0) {
+			throw new IllegalArgumentException("heartbeatInterval must not be negative.");
+		}
+		this.heartbeatInterval = heartbeatInterval;
+	}
+
+	/**
+	 * Set the transport and start receiving messages. The previous transport
+	 * is closed.
+	 * @param transport The transport. If null, invalidations are applied to
+	 * this node only.
+	 * @throws IOException If the transport could not be opened.
+	 */
+	public void setTransport(InvalidationTransport transport) throws IOException {
+		close();
+		if (transport == null) {
+			return;
+		}
+		transport.open(new Handler<byte[]>() {
+			@Override
+			public void handle(byte[] message) {
+				receive(message);
+			}
+		});
+		this.transport = transport;
+		if (heartbeatInterval > 0) {
+			scheduleHeartbeat();
+		}
+	}
+
+	/**
+	 * Register the listener to receive invalidations.
+	 * @param listener The listener instance.
+	 */
+	public void addListener(InvalidationListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Unregister the listener.
+	 * @param listener The listener instance.
+	 */
+	public void removeListener(InvalidationListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Invalidate the access token on all nodes.
+	 * @param token The access token string.
+	 */
+	public void invalidateToken(String token) {
+		publish(InvalidationCodec.TOKEN, token);
+	}
+
+	/**
+	 * Invalidate the authorization information and all tokens issued for it
+	 * on all nodes.
+	 * @param authId The ID of the authorization information.
+	 */
+	public void invalidateAuthInfo(String authId) {
+		publish(InvalidationCodec.AUTH_INFO, authId);
+	}
+
+	/**
+	 * Invalidate the client on all nodes.
+	 * @param clientId The client ID.
+	 */
+	public void invalidateClient(String clientId) {
+		publish(InvalidationCodec.CLIENT, clientId);
+	}
+
+	/**
+	 * Invalidate the user on all nodes.
+	 * @param userId The user's ID.
+	 */
+	public void invalidateUser(String userId) {
+		publish(InvalidationCodec.USER, userId);
+	}
+
+	/**
+	 * Discard all cached information on all nodes.
+	 */
+	public void invalidateAll() {
+		publish(InvalidationCodec.ALL, "");
+	}
+
+	/**
+	 * Send the invalidations batched now.
+	 */
+	public void flush() {
+		InvalidationTransport current = transport;
+		synchronized (sendLock) {
+			List<Entry> batch = new ArrayList<Entry>();
+			int size = InvalidationCodec.HEADER_SIZE;
+			Entry entry;
+			while ((entry = pending.poll()) != null) {
+				pendingCount.decrementAndGet();
+				int entrySize = entry.getEncodedSize();
+				if (!batch.isEmpty()
+						&& (batch.size() >= maxBatchSize || size + entrySize > maxMessageSize)) {
+					send(current, batch);
+					batch = new ArrayList<Entry>();
+					size = InvalidationCodec.HEADER_SIZE;
+				}
+				batch.add(entry);
+				size += entrySize;
+			}
+			if (!batch.isEmpty()) {
+				send(current, batch);
+			}
+		}
+	}
+
+	/**
+	 * Send the invalidations batched now and close the transport.
+	 */
+	public void close() {
+		InvalidationTransport current = transport;
+		if (current == null) {
+			return;
+		}
+		flush();
+		transport = null;
+		HashedWheelTimer.Timeout timeout = heartbeat;
+		if (timeout != null) {
+			timeout.cancel();
+		}
+		current.close();
+	}
+
+	/**
+	 * Retrieve the number of messages sent.
+	 * @return The number of messages.
+	 */
+	public long getSentCount() {
+		return sentCount.get();
+	}
+
+	/**
+	 * Retrieve the number of messages which could not be sent.
+	 * @return The number of messages.
+	 */
+	public long getSendFailureCount() {
+		return sendFailureCount.get();
+	}
+
+	/**
+	 * Retrieve the number of messages received from other nodes.
+	 * @return The number of messages.
+	 */
+	public long getReceivedCount() {
+		return receivedCount.get();
+	}
+
+	/**
+	 * Retrieve the number of gaps found. All cached information was
+	 * discarded for each gap.
+	 * @return The number of gaps.
+	 */
+	public long getGapCount() {
+		return gapCount.get();
+	}
+
+	/**
+	 * Retrieve the number of received messages which could not be decoded.
+	 * @return The number of messages.
+	 */
+	public long getMalformedCount() {
+		return malformedCount.get();
+	}
+
+	void receive(byte[] data) {
+		Message message;
+		try {
+			message = InvalidationCodec.decode(data);
+		} catch (IOException e) {
+			malformedCount.incrementAndGet();
+			return;
+		}
+		if (message.nodeId == nodeId) {
+			return;
+		}
+		boolean gap;
+		synchronized (lastSequences) {
+			Long last = lastSequences.get(message.nodeId);
+			long expected = last != null ? last : 0L;
+			if (!message.entries.isEmpty()) {
+				expected++;
+			}
+			if (message.sequence < expected) {
+				return;
+			}
+			gap = message.sequence > expected;
+			lastSequences.put(message.nodeId, message.sequence);
+		}
+		receivedCount.incrementAndGet();
+		if (gap) {
+			gapCount.incrementAndGet();
+			apply(InvalidationCodec.ALL, "");
+		}
+		for (Entry entry : message.entries) {
+			apply(entry.type, entry.key);
+		}
+	}
+
+	private void publish(byte type, String key) {
+		if (key == null) {
+			return;
+		}
+		apply(type, key);
+		if (transport == null) {
+			return;
+		}
+		Entry entry = new Entry(type, key);
+		if (entry.getEncodedSize() > MAX_KEY_SIZE) {
+			entry = new Entry(InvalidationCodec.ALL, "");
+		}
+		pending.add(entry);
+		int count = pendingCount.incrementAndGet();
+		if (maxDelay == 0 || count >= maxBatchSize) {
+			flush();
+		} else if (flushScheduled.compareAndSet(false, true)) {
+			getTimer().newTimeout(new Runnable() {
+				@Override
+				public void run() {
+					flushScheduled.set(false);
+					flush();
+				}
+			}, maxDelay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void send(InvalidationTransport current, List<Entry> entries) {
+		long next = ++sequence;
+		if (current == null) {
+			return;
+		}
+		try {
+			current.send(InvalidationCodec.encode(nodeId, next, entries));
+			sentCount.incrementAndGet();
+		} catch (IOException e) {
+			sendFailureCount.incrementAndGet();
+		}
+	}
+
+	private void scheduleHeartbeat() {
+		heartbeat = getTimer().newTimeout(new Runnable() {
+			@Override
+			public void run() {
+				InvalidationTransport current = transport;
+				if (current == null) {
+					return;
+				}
+				synchronized (sendLock) {
+					try {
+						current.send(InvalidationCodec.encode(
+								nodeId, sequence, new ArrayList<Entry>(0)));
+					} catch (IOException e) {
+						sendFailureCount.incrementAndGet();
+					}
+				}
+				scheduleHeartbeat();
+			}
+		}, heartbeatInterval, TimeUnit.MILLISECONDS);
+	}
+
+	private void apply(byte type, String key) {
+		for (InvalidationListener listener : listeners) {
+			switch (type) {
+			case InvalidationCodec.TOKEN:
+				listener.tokenInvalidated(key);
+				break;
+			case InvalidationCodec.AUTH_INFO:
+				listener.authInfoInvalidated(key);
+				break;
+			case InvalidationCodec.CLIENT:
+				listener.clientInvalidated(key);
+				break;
+			case InvalidationCodec.USER:
+				listener.userInvalidated(key);
+				break;
+			default:
+				listener.allInvalidated();
+				break;
+			}
+		}
+	}
+
+	private HashedWheelTimer getTimer() {
+		return timer != null ? timer : HashedWheelTimer.getShared();
+	}
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.invalidation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class encodes and decodes messages of {@link InvalidationBus}.
+ *
+ * <p>A message consists of the header and the entries. The header has the
+ * magic number (1 byte), the version (1 byte), the ID of the sender node
+ * (8 bytes), the sequence number (8 bytes) and the number of entries
+ * (2 bytes). Each entry has the type (1 byte) and the key encoded with
+ * the modified UTF-8 prefixed by its length (2 bytes). A message without
+ * entries is a heartbeat, and its sequence number is the last one sent.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+final class InvalidationCodec {
+
+	static final byte TOKEN = 1;
+	static final byte AUTH_INFO = 2;
+	static final byte CLIENT = 3;
+	static final byte USER = 4;
+	static final byte ALL = 5;
+
+	static final int HEADER_SIZE = 20;
+
+	private static final byte MAGIC = (byte) 0xB5;
+	private static final byte VERSION = 1;
+
+	private InvalidationCodec() {
+	}
+
+	static byte[] encode(long nodeId, long sequence, List<Entry> entries) {
+		int size = HEADER_SIZE;
+		for (Entry entry : entries) {
+			size += entry.getEncodedSize();
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(size);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(MAGIC);
+			out.writeByte(VERSION);
+			out.writeLong(nodeId);
+			out.writeLong(sequence);
+			out.writeShort(entries.size());
+			for (Entry entry : entries) {
+				out.writeByte(entry.type);
+				out.writeUTF(entry.key);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	static Message decode(byte[] data) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		if (in.readByte() != MAGIC) {
+			throw new IOException("Not an invalidation message.");
+		}
+		if (in.readByte() != VERSION) {
+			throw new IOException("Unsupported version.");
+		}
+		long nodeId = in.readLong();
+		long sequence = in.readLong();
+		int count = in.readUnsignedShort();
+		List<Entry> entries = count == 0
+				? Collections.<Entry>emptyList() : new ArrayList<Entry>(count);
+		for (int i = 0; i < count; i++) {
+			byte type = in.readByte();
+			if (type < TOKEN || type > ALL) {
+				throw new IOException("Unknown entry type: " + type);
+			}
+			entries.add(new Entry(type, in.readUTF()));
+		}
+		if (in.available() > 0) {
+			throw new IOException("Trailing bytes found.");
+		}
+		return new Message(nodeId, sequence, entries);
+	}
+
+	static final class Entry {
+
+		final byte type;
+		final String key;
+
+		Entry(byte type, String key) {
+			this.type = type;
+			this.key = key;
+		}
+
+		int getEncodedSize() {
+			int size = 3;
+			for (int i = 0; i < key.length(); i++) {
+				char c = key.charAt(i);
+				if (c >= 0x0001 && c <= 0x007F) {
+					size += 1;
+				} else if (c > 0x07FF) {
+					size += 3;
+				} else {
+					size += 2;
+				}
+			}
+			return size;
+		}
+
+	}
+
+	static final class Message {
+
+		final long nodeId;
+		final long sequence;
+		final List<Entry> entries;
+
+		Message(long nodeId, long sequence, List<Entry> entries) {
+			this.nodeId = nodeId;
+			this.sequence = sequence;
+			this.entries = entries;
+		}
+
+	}
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.invalidation;
+
+/**
+ * This interface defines a listener to receive invalidations from
+ * {@link InvalidationBus}. Each method is called when the information
+ * published on any node must not be reused any more. The listener should
+ * discard its cached entries regarding the information quickly, because
+ * the methods are called by the thread which receives the messages.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface InvalidationListener {
+
+	/**
+	 * Called when the access token was invalidated.
+	 * @param token The access token string.
+	 */
+	public void tokenInvalidated(String token);
+
+	/**
+	 * Called when the authorization information and all tokens issued for
+	 * it were invalidated.
+	 * @param authId The ID of the authorization information.
+	 */
+	public void authInfoInvalidated(String authId);
+
+	/**
+	 * Called when the client was invalidated, for instance, deactivated.
+	 * @param clientId The client ID.
+	 */
+	public void clientInvalidated(String clientId);
+
+	/**
+	 * Called when the user was invalidated, for instance, deactivated.
+	 * @param userId The user's ID.
+	 */
+	public void userInvalidated(String userId);
+
+	/**
+	 * Called when all cached information must be discarded. For instance,
+	 * some invalidations might have been lost.
+	 */
+	public void allInvalidated();
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.invalidation;
+
+import java.io.IOException;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+
+/**
+ * This interface defines how messages of {@link InvalidationBus} are
+ * delivered to other nodes. Each message sent must be delivered to the
+ * receivers on all other nodes as is. The delivery may fail or be
+ * duplicated, because the bus detects lost messages by their sequence
+ * numbers.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface InvalidationTransport {
+
+	/**
+	 * Start receiving messages.
+	 * @param receiver The handler which receives each message.
+	 * @throws IOException If the transport could not be opened.
+	 */
+	public void open(Handler<byte[]> receiver) throws IOException;
+
+	/**
+	 * Send the message to all other nodes.
+	 * @param message The message.
+	 * @throws IOException If the message could not be sent.
+	 */
+	public void send(byte[] message) throws IOException;
+
+	/**
+	 * Stop receiving messages and release the resources.
+	 */
+	public void close();
+
+}
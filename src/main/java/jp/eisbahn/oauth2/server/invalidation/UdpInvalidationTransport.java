@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.invalidation;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+
+/**
+ * This class is an implementation of the InvalidationTransport interface
+ * which sends each message to all peers as one UDP packet.
+ *
+ * <p>UDP packets may be lost, duplicated or reordered, but
+ * {@link InvalidationBus} detects the loss by the sequence numbers and
+ * discards all cached information instead. Messages are received by one
+ * daemon thread. The peers should be in the trusted network, because the
+ * received messages are not authenticated.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class UdpInvalidationTransport implements InvalidationTransport {
+
+	private static final int MAX_PACKET_SIZE = 65507;
+
+	private final InetSocketAddress bindAddress;
+	private volatile List<InetSocketAddress> peers = Collections.emptyList();
+	private volatile DatagramSocket socket;
+
+	/**
+	 * Initialize this instance.
+	 * @param bindAddress The local address to receive messages. If the port
+	 * is 0, an ephemeral port is used.
+	 */
+	public UdpInvalidationTransport(InetSocketAddress bindAddress) {
+		super();
+		this.bindAddress = bindAddress;
+	}
+
+	/**
+	 * Set the addresses of the other nodes.
+	 * @param peers The list of the addresses.
+	 */
+	public void setPeers(List<InetSocketAddress> peers) {
+		this.peers = Collections.unmodifiableList(new ArrayList<InetSocketAddress>(peers));
+	}
+
+	/**
+	 * Retrieve the local address bound.
+	 * @return The address. If not open, return null.
+	 */
+	public InetSocketAddress getLocalAddress() {
+		DatagramSocket current = socket;
+		return current != null ? (InetSocketAddress) current.getLocalSocketAddress() : null;
+	}
+
+	@Override
+	public synchronized void open(final Handler<byte[]> receiver) throws IOException {
+		if (socket != null) {
+			throw new IllegalStateException("This transport is already open.");
+		}
+		final DatagramSocket opened = new DatagramSocket(bindAddress);
+		socket = opened;
+		Thread receiverThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				byte[] buffer = new byte[MAX_PACKET_SIZE];
+				DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+				while (!opened.isClosed()) {
+					try {
+						packet.setLength(buffer.length);
+						opened.receive(packet);
+						receiver.handle(Arrays.copyOfRange(
+								buffer, packet.getOffset(), packet.getOffset() + packet.getLength()));
+					} catch (SocketException e) {
+						return;
+					} catch (IOException e) {
+						// Receive the next packet.
+					} catch (RuntimeException e) {
+						// The failure of a listener must not stop receiving.
+					}
+				}
+			}
+		}, "oauth2-invalidation-udp-receiver");
+		receiverThread.setDaemon(true);
+		receiverThread.start();
+	}
+
+	@Override
+	public void send(byte[] message) throws IOException {
+		DatagramSocket current = socket;
+		if (current == null) {
+			throw new IOException("This transport is not open.");
+		}
+		if (message.length > MAX_PACKET_SIZE) {
+			throw new IOException("The message is too large.");
+		}
+		IOException failure = null;
+		for (InetSocketAddress peer : peers) {
+			try {
+				current.send(new DatagramPacket(message, message.length, peer));
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (socket != null) {
+			socket.close();
+			socket = null;
+		}
+	}
+
+}
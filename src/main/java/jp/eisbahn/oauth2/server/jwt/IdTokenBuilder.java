@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.jwt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.MappingJsonFactory;
+
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+
+/**
+ * This class builds signed ID tokens of OpenID Connect. Your DataHandler
+ * can set the built token to the AccessToken by setIdToken() in
+ * createOrUpdateAccessToken(), for instance:
+ *
+ * <pre>
+ * accessToken.setIdToken(idTokenBuilder.build(authInfo));
+ * </pre>
+ *
+ * <p>The claims "iss", "sub", "aud", "iat", "exp" and "nonce" (if the
+ * AuthInfo has it) are written with the streaming generator into a buffer
+ * of each thread, and are signed with the active key of the
+ * {@link SigningKeySet}. The header segment is encoded in advance by each
+ * {@link SigningKey}, and the initialized Signature is reused on each
+ * thread.</p>
+ *
+ * <p>To rotate the keys, call {@link #setKeySet(SigningKeySet)} with a new
+ * set. The set is swapped atomically; the token being built at the time is
+ * signed entirely with the key of the set read at the beginning.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class IdTokenBuilder {
+
+	private static final JsonFactory JSON_FACTORY = new MappingJsonFactory();
+	private static final Set<String> RESERVED_CLAIMS = Collections.unmodifiableSet(
+			new HashSet<String>(Arrays.asList("iss", "sub", "aud", "iat", "exp", "nonce")));
+	private static final byte[] ALPHABET =
+			"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+			.getBytes(StandardCharsets.US_ASCII);
+
+	private final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+		@Override
+		protected Buffers initialValue() {
+			return new Buffers();
+		}
+	};
+	private volatile SigningKeySet keySet;
+	private String issuer;
+	private long expiresIn = 3600L;
+
+	/**
+	 * Set the keys to sign the tokens. This can be called at any time to
+	 * rotate the keys.
+	 * @param keySet The set of the keys.
+	 */
+	public void setKeySet(SigningKeySet keySet) {
+		this.keySet = keySet;
+	}
+
+	/**
+	 * Retrieve the current set of the keys.
+	 * @return The set of the keys. If not set, returns null.
+	 */
+	public SigningKeySet getKeySet() {
+		return keySet;
+	}
+
+	/**
+	 * Set the issuer identifier set as the "iss" claim.
+	 * @param issuer The issuer identifier.
+	 */
+	public void setIssuer(String issuer) {
+		this.issuer = issuer;
+	}
+
+	/**
+	 * Set the lifetime of the tokens in seconds. The default value is 3600.
+	 * @param expiresIn The lifetime in seconds.
+	 */
+	public void setExpiresIn(long expiresIn) {
+		this.expiresIn = expiresIn;
+	}
+
+	/**
+	 * Build a signed ID token.
+	 * @param authInfo The authorization information. The user ID is set as
+	 * the "sub" claim and the client ID is set as the "aud" claim.
+	 * @return The ID token in the JWS compact serialization.
+	 */
+	public String build(AuthInfo authInfo) {
+		return build(authInfo, null);
+	}
+
+	/**
+	 * Build a signed ID token with additional claims, for instance,
+	 * "auth_time" or "at_hash".
+	 * @param authInfo The authorization information. The user ID is set as
+	 * the "sub" claim and the client ID is set as the "aud" claim.
+	 * @param additionalClaims The additional claims. This can be null. The
+	 * values must be serializable by Jackson. The claims written by this
+	 * builder ("iss", "sub", "aud", "iat", "exp" and "nonce") can't be
+	 * included.
+	 * @return The ID token in the JWS compact serialization.
+	 * @throws IllegalArgumentException If the additional claims include a
+	 * reserved claim.
+	 */
+	public String build(AuthInfo authInfo, Map<String, ?> additionalClaims) {
+		if (additionalClaims != null) {
+			for (String name : additionalClaims.keySet()) {
+				if (RESERVED_CLAIMS.contains(name)) {
+					throw new IllegalArgumentException("The claim '" + name + "' is reserved.");
+				}
+			}
+		}
+		SigningKeySet current = keySet;
+		if (current == null) {
+			throw new IllegalStateException("keySet is not set.");
+		}
+		if (issuer == null) {
+			throw new IllegalStateException("issuer is not set.");
+		}
+		SigningKey key = current.getActiveKey();
+		Buffers buffers = this.buffers.get();
+		ClaimsBuffer claims = buffers.claims;
+		claims.reset();
+		try {
+			long now = System.currentTimeMillis() / 1000L;
+			JsonGenerator generator = JSON_FACTORY.createJsonGenerator(claims);
+			generator.writeStartObject();
+			generator.writeStringField("iss", issuer);
+			generator.writeStringField("sub", authInfo.getUserId());
+			generator.writeStringField("aud", authInfo.getClientId());
+			generator.writeNumberField("iat", now);
+			generator.writeNumberField("exp", now + expiresIn);
+			if (authInfo.getNonce() != null) {
+				generator.writeStringField("nonce", authInfo.getNonce());
+			}
+			if (additionalClaims != null) {
+				for (Map.Entry<String, ?> claim : additionalClaims.entrySet()) {
+					generator.writeFieldName(claim.getKey());
+					generator.writeObject(claim.getValue());
+				}
+			}
+			generator.writeEndObject();
+			generator.close();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+
+		byte[] header = key.getEncodedHeader();
+		int signingInputLength = header.length + 1 + getEncodedLength(claims.size());
+		byte[] out = buffers.ensureOut(signingInputLength + 1 + getEncodedLength(1024));
+		System.arraycopy(header, 0, out, 0, header.length);
+		out[header.length] = '.';
+		encode(claims.getBuffer(), claims.size(), out, header.length + 1);
+		byte[] signature = key.sign(out, signingInputLength);
+		out = buffers.ensureOut(signingInputLength + 1 + getEncodedLength(signature.length));
+		out[signingInputLength] = '.';
+		int length = encode(signature, signature.length, out, signingInputLength + 1);
+		return new String(out, 0, length, StandardCharsets.US_ASCII);
+	}
+
+	private static int getEncodedLength(int length) {
+		return (length * 4 + 2) / 3;
+	}
+
+	private static int encode(byte[] source, int length, byte[] dest, int offset) {
+		int i = 0;
+		int end = length - length % 3;
+		while (i < end) {
+			int bits = (source[i++] & 0xff) << 16 | (source[i++] & 0xff) << 8 | (source[i++] & 0xff);
+			dest[offset++] = ALPHABET[bits >>> 18];
+			dest[offset++] = ALPHABET[(bits >>> 12) & 0x3f];
+			dest[offset++] = ALPHABET[(bits >>> 6) & 0x3f];
+			dest[offset++] = ALPHABET[bits & 0x3f];
+		}
+		if (length - end == 1) {
+			int bits = source[i] & 0xff;
+			dest[offset++] = ALPHABET[bits >>> 2];
+			dest[offset++] = ALPHABET[(bits << 4) & 0x3f];
+		} else if (length - end == 2) {
+			int bits = (source[i] & 0xff) << 8 | (source[i + 1] & 0xff);
+			dest[offset++] = ALPHABET[bits >>> 10];
+			dest[offset++] = ALPHABET[(bits >>> 4) & 0x3f];
+			dest[offset++] = ALPHABET[(bits << 2) & 0x3f];
+		}
+		return offset;
+	}
+
+	private static final class ClaimsBuffer extends ByteArrayOutputStream {
+
+		private ClaimsBuffer() {
+			super(512);
+		}
+
+		private byte[] getBuffer() {
+			return buf;
+		}
+
+	}
+
+	private static final class Buffers {
+
+		private final ClaimsBuffer claims = new ClaimsBuffer();
+		private byte[] out = new byte[2048];
+
+		private byte[] ensureOut(int capacity) {
+			if (out.length < capacity) {
+				byte[] grown = new byte[Math.max(capacity, out.length * 2)];
+				System.arraycopy(out, 0, grown, 0, out.length);
+				out = grown;
+			}
+			return out;
+		}
+
+	}
+
+}
@@ -0,0 +1,511 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.jwt;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.cache.TtlCache;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.models.JwtClaims;
+
+/**
+ * This class verifies a JWT assertion of the JWT bearer grant
+ * (urn:ietf:params:oauth:grant-type:jwt-bearer, RFC 7523).
+ *
+ * <p>The header and the claims are read with the streaming parser without
+ * building any JSON tree. The signature is verified with the public key
+ * retrieved by {@link JwtKeyResolver}. The key is cached for each client,
+ * issuer and key ID, and each thread keeps the Signature instance already
+ * initialized with the key, therefore, no key parsing and no
+ * initialization of the Signature are needed for most assertions. The
+ * supported algorithms are RS256, RS384, RS512, ES256, ES384 and ES512.</p>
+ *
+ * <p>After the signature is verified, the "exp" claim is required and
+ * checked, the "nbf" claim is checked if exists, and the "aud" claim must
+ * contain one of the audiences of this verifier. If the "jti" claim exists,
+ * the assertion is accepted only once until it expires. The replay cache is
+ * kept in memory of each node. Since a "jti" must be remembered until the
+ * assertion expires, assertions living longer than the maximum lifetime are
+ * rejected, and when the replay cache is full of live "jti" values new
+ * assertions are rejected rather than forgetting any of them.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class JwtBearerVerifier {
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private final TtlCache<String, VerificationKey> keyCache;
+	private final TtlCache<String, Boolean> replayCache;
+	private JwtKeyResolver keyResolver;
+	private Set<String> audiences = Collections.emptySet();
+	private long keyTtl = 300000L;
+	private long clockSkew = 60L;
+	private long maxLifetime = 3600L;
+	private boolean jtiRequired;
+
+	/**
+	 * Initialize this instance with the default maximum sizes (10000 keys
+	 * and 100000 "jti" values).
+	 */
+	public JwtBearerVerifier() {
+		this(new TtlCache<String, VerificationKey>(10000), new TtlCache<String, Boolean>(100000));
+	}
+
+	JwtBearerVerifier(TtlCache<String, VerificationKey> keyCache,
+			TtlCache<String, Boolean> replayCache) {
+		super();
+		this.keyCache = keyCache;
+		this.replayCache = replayCache;
+	}
+
+	/**
+	 * Set the resolver of public keys. This must be set before verifying.
+	 * @param keyResolver The resolver.
+	 */
+	public void setKeyResolver(JwtKeyResolver keyResolver) {
+		this.keyResolver = keyResolver;
+	}
+
+	/**
+	 * Set the audiences which identify this authorization server, for
+	 * instance, the URL of the token endpoint. The "aud" claim must contain
+	 * one of them.
+	 * @param audiences The audiences.
+	 */
+	public void setAudiences(Collection<String> audiences) {
+		this.audiences = Collections.unmodifiableSet(new HashSet<String>(audiences));
+	}
+
+	/**
+	 * Set the time-to-live of the cached public keys. The default value is
+	 * 5 minutes.
+	 * @param keyTtl The time-to-live value. The unit is millisecond.
+	 */
+	public void setKeyTtl(long keyTtl) {
+		this.keyTtl = keyTtl;
+	}
+
+	/**
+	 * Set the allowed clock skew between the issuer and this server.
+	 * The default value is 60 seconds.
+	 * @param clockSkew The clock skew in seconds.
+	 */
+	public void setClockSkew(long clockSkew) {
+		if (clockSkew < 0) {
+			throw new IllegalArgumentException("clockSkew must not be negative.");
+		}
+		this.clockSkew = clockSkew;
+	}
+
+	/**
+	 * Set the maximum lifetime of assertions. An assertion whose "exp" claim
+	 * is later than this lifetime from now (plus the clock skew) is rejected.
+	 * The default value is 1 hour.
+	 * @param maxLifetime The maximum lifetime in seconds.
+	 */
+	public void setMaxLifetime(long maxLifetime) {
+		if (maxLifetime <= 0) {
+			throw new IllegalArgumentException("maxLifetime must be positive.");
+		}
+		this.maxLifetime = maxLifetime;
+	}
+
+	/**
+	 * Set whether the "jti" claim is required or not. The default value is
+	 * false.
+	 * @param jtiRequired True if required.
+	 */
+	public void setJtiRequired(boolean jtiRequired) {
+		this.jtiRequired = jtiRequired;
+	}
+
+	/**
+	 * Discard all cached public keys. Call this method when keys of
+	 * clients are rotated.
+	 */
+	public void invalidateKeys() {
+		keyCache.clear();
+	}
+
+	/**
+	 * Verify the JWT assertion.
+	 * @param clientId The client ID of the request.
+	 * @param assertion The assertion string.
+	 * @param handler The handler to receive the verified claims. If the
+	 * assertion is invalid, the result has the error "invalid_grant".
+	 */
+	public void verify(final String clientId, String assertion,
+			final Handler<Try<OAuthError, JwtClaims>> handler) {
+		final Jws jws;
+		try {
+			jws = parse(assertion);
+		} catch (OAuthError e) {
+			handler.handle(new Try<OAuthError, JwtClaims>(e));
+			return;
+		}
+		final String cacheKey = clientId + '\n' + jws.claims.getIssuer() + '\n'
+				+ (jws.keyId != null ? jws.keyId : "");
+		VerificationKey cached = keyCache.get(cacheKey);
+		if (cached != null) {
+			handler.handle(verify(clientId, jws, cached));
+			return;
+		}
+		keyResolver.resolveKey(clientId, jws.claims.getIssuer(), jws.keyId, new Handler<PublicKey>() {
+			@Override
+			public void handle(PublicKey publicKey) {
+				if (publicKey == null) {
+					handler.handle(new Try<OAuthError, JwtClaims>(
+							new OAuthError.InvalidGrant("Unknown signing key.")));
+					return;
+				}
+				VerificationKey key = new VerificationKey(publicKey);
+				keyCache.put(cacheKey, key, keyTtl);
+				handler.handle(verify(clientId, jws, key));
+			}
+		});
+	}
+
+	/**
+	 * Retrieve the current time. This method is provided for an unit test.
+	 * @return The current time in millisecond.
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private Try<OAuthError, JwtClaims> verify(String clientId, Jws jws, VerificationKey key) {
+		try {
+			if (!key.verify(jws.algorithm, jws.signingInput, jws.signature)) {
+				throw new OAuthError.InvalidGrant("Invalid signature.");
+			}
+			JwtClaims claims = jws.claims;
+			long now = currentTimeMillis() / 1000L;
+			if (claims.getExpirationTime() == 0L) {
+				throw new OAuthError.InvalidGrant("'exp' not found.");
+			}
+			if (claims.getExpirationTime() + clockSkew <= now) {
+				throw new OAuthError.InvalidGrant("JWT has expired.");
+			}
+			if (claims.getExpirationTime() - clockSkew - now > maxLifetime) {
+				throw new OAuthError.InvalidGrant("JWT lifetime is too long.");
+			}
+			if (claims.getNotBefore() - clockSkew > now) {
+				throw new OAuthError.InvalidGrant("JWT is not valid yet.");
+			}
+			if (!containsAudience(claims.getAudience())) {
+				throw new OAuthError.InvalidGrant("Invalid audience.");
+			}
+			if (claims.getJwtId() != null) {
+				long ttl = (claims.getExpirationTime() + clockSkew - now) * 1000L;
+				TtlCache.PutResult result = replayCache.putIfAbsentWithinCapacity(
+						clientId + '\n' + claims.getIssuer() + '\n' + claims.getJwtId(),
+						Boolean.TRUE, ttl);
+				if (result == TtlCache.PutResult.PRESENT) {
+					throw new OAuthError.InvalidGrant("JWT was already used.");
+				}
+				if (result == TtlCache.PutResult.FULL) {
+					throw new OAuthError.TemporarilyUnavailable(503, "Too many assertions.");
+				}
+			} else if (jtiRequired) {
+				throw new OAuthError.InvalidGrant("'jti' not found.");
+			}
+			return new Try<OAuthError, JwtClaims>(claims);
+		} catch (OAuthError e) {
+			return new Try<OAuthError, JwtClaims>(e);
+		}
+	}
+
+	private boolean containsAudience(List<String> audience) {
+		for (String value : audience) {
+			if (audiences.contains(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Jws parse(String assertion) throws OAuthError {
+		if (assertion == null) {
+			throw new OAuthError.InvalidRequest("'assertion' not found");
+		}
+		int first = assertion.indexOf('.');
+		int second = first < 0 ? -1 : assertion.indexOf('.', first + 1);
+		if (second < 0 || assertion.indexOf('.', second + 1) >= 0) {
+			throw new OAuthError.InvalidGrant("Malformed JWT.");
+		}
+		Jws jws = new Jws();
+		try {
+			Base64.Decoder decoder = Base64.getUrlDecoder();
+			parseHeader(jws, decoder.decode(assertion.substring(0, first)));
+			jws.claims = parseClaims(decoder.decode(assertion.substring(first + 1, second)));
+			jws.signature = decoder.decode(assertion.substring(second + 1));
+		} catch (IllegalArgumentException e) {
+			throw new OAuthError.InvalidGrant("Malformed JWT.");
+		} catch (IOException e) {
+			throw new OAuthError.InvalidGrant("Malformed JWT.");
+		}
+		jws.signingInput = assertion.substring(0, second).getBytes(StandardCharsets.US_ASCII);
+		if (jws.algorithm == null) {
+			throw new OAuthError.InvalidGrant("Unsupported algorithm.");
+		}
+		if (jws.claims.getIssuer() == null || jws.claims.getSubject() == null) {
+			throw new OAuthError.InvalidGrant("'iss' or 'sub' not found.");
+		}
+		return jws;
+	}
+
+	private void parseHeader(Jws jws, byte[] json) throws IOException, OAuthError {
+		JsonParser parser = JSON_FACTORY.createJsonParser(json);
+		try {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new OAuthError.InvalidGrant("Malformed JWT.");
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				JsonToken token = parser.nextToken();
+				if ("alg".equals(name)) {
+					jws.algorithm = Algorithm.of(readString(parser, token));
+				} else if ("kid".equals(name)) {
+					jws.keyId = readString(parser, token);
+				} else if ("crit".equals(name)) {
+					throw new OAuthError.InvalidGrant("Unsupported critical header.");
+				} else {
+					parser.skipChildren();
+				}
+			}
+		} finally {
+			parser.close();
+		}
+	}
+
+	private JwtClaims parseClaims(byte[] json) throws IOException, OAuthError {
+		JsonParser parser = JSON_FACTORY.createJsonParser(json);
+		try {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new OAuthError.InvalidGrant("Malformed JWT.");
+			}
+			String issuer = null;
+			String subject = null;
+			List<String> audience = null;
+			long expirationTime = 0L;
+			long notBefore = 0L;
+			long issuedAt = 0L;
+			String jwtId = null;
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				JsonToken token = parser.nextToken();
+				if ("iss".equals(name)) {
+					issuer = readString(parser, token);
+				} else if ("sub".equals(name)) {
+					subject = readString(parser, token);
+				} else if ("aud".equals(name)) {
+					audience = readStrings(parser, token);
+				} else if ("exp".equals(name)) {
+					expirationTime = readTime(parser, token);
+				} else if ("nbf".equals(name)) {
+					notBefore = readTime(parser, token);
+				} else if ("iat".equals(name)) {
+					issuedAt = readTime(parser, token);
+				} else if ("jti".equals(name)) {
+					jwtId = readString(parser, token);
+				} else {
+					parser.skipChildren();
+				}
+			}
+			return new JwtClaims(issuer, subject, audience, expirationTime,
+					notBefore, issuedAt, jwtId);
+		} finally {
+			parser.close();
+		}
+	}
+
+	private String readString(JsonParser parser, JsonToken token) throws IOException, OAuthError {
+		if (token != JsonToken.VALUE_STRING) {
+			throw new OAuthError.InvalidGrant("Malformed JWT.");
+		}
+		return parser.getText();
+	}
+
+	private List<String> readStrings(JsonParser parser, JsonToken token) throws IOException, OAuthError {
+		if (token != JsonToken.START_ARRAY) {
+			return Collections.singletonList(readString(parser, token));
+		}
+		List<String> values = new ArrayList<String>();
+		while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+			values.add(readString(parser, token));
+		}
+		return values;
+	}
+
+	private long readTime(JsonParser parser, JsonToken token) throws IOException, OAuthError {
+		if (token == JsonToken.VALUE_NUMBER_INT) {
+			return parser.getLongValue();
+		} else if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+			return (long) parser.getDoubleValue();
+		}
+		throw new OAuthError.InvalidGrant("Malformed JWT.");
+	}
+
+	private static final class Jws {
+		private Algorithm algorithm;
+		private String keyId;
+		private JwtClaims claims;
+		private byte[] signingInput;
+		private byte[] signature;
+	}
+
+	private enum Algorithm {
+
+		RS256("SHA256withRSA", 0), RS384("SHA384withRSA", 0), RS512("SHA512withRSA", 0),
+		ES256("SHA256withECDSA", 32), ES384("SHA384withECDSA", 48), ES512("SHA512withECDSA", 66);
+
+		private final String javaName;
+		private final int ecFieldSize;
+
+		private Algorithm(String javaName, int ecFieldSize) {
+			this.javaName = javaName;
+			this.ecFieldSize = ecFieldSize;
+		}
+
+		static Algorithm of(String name) {
+			for (Algorithm algorithm : values()) {
+				if (algorithm.name().equals(name)) {
+					return algorithm;
+				}
+			}
+			return null;
+		}
+
+	}
+
+	static final class VerificationKey {
+
+		private final PublicKey publicKey;
+		private final ConcurrentMap<Algorithm, ThreadLocal<Signature>> verifiers =
+				new ConcurrentHashMap<Algorithm, ThreadLocal<Signature>>();
+
+		private VerificationKey(PublicKey publicKey) {
+			this.publicKey = publicKey;
+		}
+
+		boolean verify(Algorithm algorithm, byte[] signingInput, byte[] signature) throws OAuthError {
+			if (algorithm.ecFieldSize > 0) {
+				if (!(publicKey instanceof ECPublicKey)
+						|| signature.length != algorithm.ecFieldSize * 2) {
+					return false;
+				}
+				signature = toDer(signature, algorithm.ecFieldSize);
+			} else if (!(publicKey instanceof RSAPublicKey)) {
+				return false;
+			}
+			Signature verifier = getVerifier(algorithm);
+			try {
+				verifier.update(signingInput);
+				return verifier.verify(signature);
+			} catch (GeneralSecurityException e) {
+				return false;
+			}
+		}
+
+		private Signature getVerifier(final Algorithm algorithm) throws OAuthError {
+			ThreadLocal<Signature> local = verifiers.get(algorithm);
+			if (local == null) {
+				ThreadLocal<Signature> created = new ThreadLocal<Signature>() {
+					@Override
+					protected Signature initialValue() {
+						try {
+							Signature signature = Signature.getInstance(algorithm.javaName);
+							signature.initVerify(publicKey);
+							return signature;
+						} catch (GeneralSecurityException e) {
+							return null;
+						}
+					}
+				};
+				local = verifiers.putIfAbsent(algorithm, created);
+				if (local == null) {
+					local = created;
+				}
+			}
+			Signature verifier = local.get();
+			if (verifier == null) {
+				local.remove();
+				throw new OAuthError.InvalidGrant("Unusable signing key.");
+			}
+			return verifier;
+		}
+
+		private static byte[] toDer(byte[] jose, int size) {
+			byte[] r = toUnsignedInteger(jose, 0, size);
+			byte[] s = toUnsignedInteger(jose, size, size);
+			int length = 2 + r.length + 2 + s.length;
+			byte[] der = new byte[length + (length > 127 ? 3 : 2)];
+			int i = 0;
+			der[i++] = 0x30;
+			if (length > 127) {
+				der[i++] = (byte) 0x81;
+			}
+			der[i++] = (byte) length;
+			der[i++] = 0x02;
+			der[i++] = (byte) r.length;
+			System.arraycopy(r, 0, der, i, r.length);
+			i += r.length;
+			der[i++] = 0x02;
+			der[i++] = (byte) s.length;
+			System.arraycopy(s, 0, der, i, s.length);
+			return der;
+		}
+
+		private static byte[] toUnsignedInteger(byte[] source, int offset, int size) {
+			int start = offset;
+			int end = offset + size;
+			while (start < end - 1 && source[start] == 0) {
+				start++;
+			}
+			boolean pad = (source[start] & 0x80) != 0;
+			byte[] result = new byte[end - start + (pad ? 1 : 0)];
+			System.arraycopy(source, start, result, pad ? 1 : 0, end - start);
+			return result;
+		}
+
+	}
+
+}
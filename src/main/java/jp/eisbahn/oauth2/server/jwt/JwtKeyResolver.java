@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.jwt;
+
+import java.security.PublicKey;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+
+/**
+ * This interface defines how to retrieve the public key to verify the
+ * signature of a JWT assertion. You should implement this interface to
+ * retrieve the key registered for the client from your database or the
+ * JWK set of the issuer. The key returned is cached by
+ * {@link JwtBearerVerifier}.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface JwtKeyResolver {
+
+	/**
+	 * Retrieve the public key.
+	 * @param clientId The client ID of the request.
+	 * @param issuer The "iss" claim of the JWT.
+	 * @param keyId The "kid" header of the JWT. This can be null.
+	 * @param handler The handler to receive the key. If the issuer is not
+	 * trusted for the client or the key is not found, pass null.
+	 */
+	public void resolveKey(String clientId, String issuer, String keyId,
+			Handler<PublicKey> handler);
+
+}
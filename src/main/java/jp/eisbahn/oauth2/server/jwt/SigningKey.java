@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.jwt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.Base64;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * This class is a private key to sign JWTs, for instance, ID tokens built
+ * by {@link IdTokenBuilder}. The supported algorithms are RS256, RS384,
+ * RS512, ES256, ES384 and ES512.
+ *
+ * <p>The JOSE header of this key never changes, therefore, it is encoded to
+ * the base64url segment only once when this instance is created. Each
+ * thread keeps the Signature instance already initialized with this key,
+ * so neither looking up the provider nor initializing the Signature is
+ * needed for each JWT.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public final class SigningKey {
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private final String keyId;
+	private final String algorithm;
+	private final String javaName;
+	private final int ecFieldSize;
+	private final PrivateKey privateKey;
+	private final byte[] encodedHeader;
+	private final ThreadLocal<Signature> signers = new ThreadLocal<Signature>() {
+		@Override
+		protected Signature initialValue() {
+			try {
+				Signature signature = Signature.getInstance(javaName);
+				signature.initSign(privateKey);
+				return signature;
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	/**
+	 * Initialize this instance.
+	 * @param keyId The key ID set as the "kid" header. This can be null.
+	 * @param algorithm The algorithm name of JWS, for instance, "RS256".
+	 * @param privateKey The private key. The type of the key must match
+	 * with the algorithm.
+	 * @throws IllegalArgumentException If the algorithm is not supported or
+	 * the key does not match with the algorithm.
+	 */
+	public SigningKey(String keyId, String algorithm, PrivateKey privateKey) {
+		super();
+		this.keyId = keyId;
+		this.algorithm = algorithm;
+		this.privateKey = privateKey;
+		if ("RS256".equals(algorithm) || "RS384".equals(algorithm) || "RS512".equals(algorithm)) {
+			javaName = "SHA" + algorithm.substring(2) + "withRSA";
+			ecFieldSize = 0;
+			if (!(privateKey instanceof RSAPrivateKey)) {
+				throw new IllegalArgumentException(algorithm + " requires an RSA private key.");
+			}
+		} else if ("ES256".equals(algorithm) || "ES384".equals(algorithm) || "ES512".equals(algorithm)) {
+			javaName = "SHA" + algorithm.substring(2) + "withECDSA";
+			ecFieldSize = "ES256".equals(algorithm) ? 32 : "ES384".equals(algorithm) ? 48 : 66;
+			if (!(privateKey instanceof ECPrivateKey)) {
+				throw new IllegalArgumentException(algorithm + " requires an EC private key.");
+			}
+		} else {
+			throw new IllegalArgumentException("Unsupported algorithm: " + algorithm);
+		}
+		encodedHeader = encodeHeader(algorithm, keyId);
+	}
+
+	/**
+	 * Retrieve the key ID.
+	 * @return The key ID. This may be null.
+	 */
+	public String getKeyId() {
+		return keyId;
+	}
+
+	/**
+	 * Retrieve the algorithm name of JWS.
+	 * @return The algorithm name.
+	 */
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	byte[] getEncodedHeader() {
+		return encodedHeader;
+	}
+
+	/**
+	 * Sign the signing input with the Signature of the current thread.
+	 * @param input The buffer which has the signing input.
+	 * @param length The length of the signing input.
+	 * @return The signature in the JWS format.
+	 */
+	byte[] sign(byte[] input, int length) {
+		Signature signer = signers.get();
+		try {
+			signer.update(input, 0, length);
+			byte[] signature = signer.sign();
+			return ecFieldSize > 0 ? toJose(signature, ecFieldSize) : signature;
+		} catch (GeneralSecurityException e) {
+			signers.remove();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] encodeHeader(String algorithm, String keyId) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+			JsonGenerator generator = JSON_FACTORY.createJsonGenerator(out);
+			generator.writeStartObject();
+			generator.writeStringField("alg", algorithm);
+			generator.writeStringField("typ", "JWT");
+			if (keyId != null) {
+				generator.writeStringField("kid", keyId);
+			}
+			generator.writeEndObject();
+			generator.close();
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(out.toByteArray())
+					.getBytes(StandardCharsets.US_ASCII);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] toJose(byte[] der, int size) throws GeneralSecurityException {
+		int i = 0;
+		if (der.length < 8 || der[i++] != 0x30) {
+			throw new GeneralSecurityException("Invalid ECDSA signature.");
+		}
+		if ((der[i] & 0x80) != 0) {
+			i += 1 + (der[i] & 0x7f);
+		} else {
+			i++;
+		}
+		byte[] jose = new byte[size * 2];
+		i = copyInteger(der, i, jose, 0, size);
+		copyInteger(der, i, jose, size, size);
+		return jose;
+	}
+
+	private static int copyInteger(byte[] der, int i, byte[] dest, int offset, int size)
+			throws GeneralSecurityException {
+		if (i + 2 > der.length || der[i] != 0x02) {
+			throw new GeneralSecurityException("Invalid ECDSA signature.");
+		}
+		int length = der[i + 1] & 0xff;
+		int start = i + 2;
+		int end = start + length;
+		if (end > der.length) {
+			throw new GeneralSecurityException("Invalid ECDSA signature.");
+		}
+		while (start < end && der[start] == 0) {
+			start++;
+		}
+		if (end - start > size) {
+			throw new GeneralSecurityException("Invalid ECDSA signature.");
+		}
+		System.arraycopy(der, start, dest, offset + size - (end - start), end - start);
+		return end;
+	}
+
+}
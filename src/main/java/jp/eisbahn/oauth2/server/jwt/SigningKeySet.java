@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.jwt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class is an immutable set of the signing keys. The active key is
+ * used to sign new JWTs, and the other keys are the retired or upcoming
+ * keys which you still publish to verifiers. To rotate the keys, create a
+ * new set and swap it atomically by {@link IdTokenBuilder#setKeySet}.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public final class SigningKeySet {
+
+	private final SigningKey activeKey;
+	private final List<SigningKey> keys;
+
+	/**
+	 * Initialize this instance.
+	 * @param activeKey The key to sign new JWTs.
+	 * @param otherKeys The other keys.
+	 */
+	public SigningKeySet(SigningKey activeKey, SigningKey... otherKeys) {
+		super();
+		if (activeKey == null) {
+			throw new IllegalArgumentException("activeKey is required.");
+		}
+		this.activeKey = activeKey;
+		List<SigningKey> keys = new ArrayList<SigningKey>(otherKeys.length + 1);
+		keys.add(activeKey);
+		for (SigningKey key : otherKeys) {
+			if (key != activeKey) {
+				keys.add(key);
+			}
+		}
+		this.keys = Collections.unmodifiableList(keys);
+	}
+
+	/**
+	 * Retrieve the key to sign new JWTs.
+	 * @return The active key.
+	 */
+	public SigningKey getActiveKey() {
+		return activeKey;
+	}
+
+	/**
+	 * Retrieve all keys in this set. The first one is the active key.
+	 * @return The unmodifiable list of the keys.
+	 */
+	public List<SigningKey> getKeys() {
+		return keys;
+	}
+
+	/**
+	 * Find the key by the key ID.
+	 * @param keyId The key ID.
+	 * @return The key. If not found, returns null.
+	 */
+	public SigningKey getKey(String keyId) {
+		for (SigningKey key : keys) {
+			if (keyId == null ? key.getKeyId() == null : keyId.equals(key.getKeyId())) {
+				return key;
+			}
+		}
+		return null;
+	}
+
+}
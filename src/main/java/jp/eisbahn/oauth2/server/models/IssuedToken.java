@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.models;
+
+/**
+ * This model class has an access token and the authorization information
+ * which the token was issued for. An instance is returned from the
+ * operations of DataHandler which issue an access token in one call.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class IssuedToken {
+
+	private final AuthInfo authInfo;
+	private final AccessToken accessToken;
+
+	/**
+	 * Initialize this instance.
+	 * @param authInfo The authorization information.
+	 * @param accessToken The issued access token. If the token could not be
+	 * issued, this must be null.
+	 */
+	public IssuedToken(AuthInfo authInfo, AccessToken accessToken) {
+		super();
+		this.authInfo = authInfo;
+		this.accessToken = accessToken;
+	}
+
+	/**
+	 * Retrieve the authorization information.
+	 * @return The authorization information.
+	 */
+	public AuthInfo getAuthInfo() {
+		return authInfo;
+	}
+
+	/**
+	 * Retrieve the issued access token.
+	 * @return The access token. If the token could not be issued, return null.
+	 */
+	public AccessToken getAccessToken() {
+		return accessToken;
+	}
+
+}
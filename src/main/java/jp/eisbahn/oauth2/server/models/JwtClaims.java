@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.models;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This model class has the claims of a JWT assertion whose signature and
+ * validity were verified. The time values are seconds since the epoch, and
+ * are 0 when the claim is absent.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class JwtClaims {
+
+	private final String issuer;
+	private final String subject;
+	private final List<String> audience;
+	private final long expirationTime;
+	private final long notBefore;
+	private final long issuedAt;
+	private final String jwtId;
+
+	/**
+	 * Initialize this instance.
+	 * @param issuer The "iss" claim.
+	 * @param subject The "sub" claim.
+	 * @param audience The "aud" claim.
+	 * @param expirationTime The "exp" claim.
+	 * @param notBefore The "nbf" claim.
+	 * @param issuedAt The "iat" claim.
+	 * @param jwtId The "jti" claim.
+	 */
+	public JwtClaims(String issuer, String subject, List<String> audience,
+			long expirationTime, long notBefore, long issuedAt, String jwtId) {
+		super();
+		this.issuer = issuer;
+		this.subject = subject;
+		this.audience = audience != null
+				? Collections.unmodifiableList(audience) : Collections.<String>emptyList();
+		this.expirationTime = expirationTime;
+		this.notBefore = notBefore;
+		this.issuedAt = issuedAt;
+		this.jwtId = jwtId;
+	}
+
+	/**
+	 * Retrieve the issuer. This identifies the entity which issued the JWT.
+	 * @return The issuer.
+	 */
+	public String getIssuer() {
+		return issuer;
+	}
+
+	/**
+	 * Retrieve the subject. For the JWT bearer grant, this identifies the user.
+	 * @return The subject.
+	 */
+	public String getSubject() {
+		return subject;
+	}
+
+	/**
+	 * Retrieve the audience.
+	 * @return The list of the audience values. This never be null.
+	 */
+	public List<String> getAudience() {
+		return audience;
+	}
+
+	/**
+	 * Retrieve the expiration time.
+	 * @return The seconds since the epoch.
+	 */
+	public long getExpirationTime() {
+		return expirationTime;
+	}
+
+	/**
+	 * Retrieve the time before which the JWT must not be accepted.
+	 * @return The seconds since the epoch, or 0.
+	 */
+	public long getNotBefore() {
+		return notBefore;
+	}
+
+	/**
+	 * Retrieve the time at which the JWT was issued.
+	 * @return The seconds since the epoch, or 0.
+	 */
+	public long getIssuedAt() {
+		return issuedAt;
+	}
+
+	/**
+	 * Retrieve the unique identifier of the JWT.
+	 * @return The "jti" value. This can be null.
+	 */
+	public String getJwtId() {
+		return jwtId;
+	}
+
+}
@@ -0,0 +1,336 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.ratelimit;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+
+/**
+ * This class is an in-memory implementation of LoginAttemptTracker.
+ *
+ * <p>Failed attempts are counted for each username and for each client with
+ * a sliding window counter, which is estimated from the counts of the
+ * current and previous fixed windows. When the count reaches the maximum,
+ * further attempts are blocked. The blocking time starts from the base
+ * backoff and is doubled for each further failure, up to the maximum
+ * backoff. A succeeded attempt clears the failures of the username, but not
+ * of the client.</p>
+ *
+ * <p>A permitted check reserves the attempt until its result is recorded.
+ * The reserved attempts are counted as failures which may happen, therefore,
+ * concurrent attempts cannot exceed the maximum failures even before any of
+ * them fails, while one attempt at a time is always permitted unless
+ * blocked. If the result of an attempt is never recorded, its reservation
+ * is released after the reservation timeout.</p>
+ *
+ * <p>Counters are stored to some stripes by the hash of the key, and each
+ * stripe has the maximum number of counters. When a stripe is full, only
+ * counters which are not blocked and have no recent failure are evicted. If
+ * no counter can be evicted, the stripe fails closed: attempts for the
+ * usernames and clients which have no counter in it are blocked for the base
+ * backoff until a counter becomes idle.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class InMemoryLoginAttemptTracker implements LoginAttemptTracker {
+
+	private final Stripe[] stripes;
+	private final int maxCountersPerStripe;
+	private long window = 900000L;
+	private int maxUserFailures = 5;
+	private int maxClientFailures = 100;
+	private long baseBackoff = 1000L;
+	private long maxBackoff = 900000L;
+	private long reservationTimeout = 30000L;
+
+	/**
+	 * Initialize this instance with the default maximum number of counters
+	 * (100000 counters).
+	 */
+	public InMemoryLoginAttemptTracker() {
+		this(100000);
+	}
+
+	/**
+	 * Initialize this instance.
+	 * @param maxCounters The maximum number of counters.
+	 */
+	public InMemoryLoginAttemptTracker(int maxCounters) {
+		super();
+		if (maxCounters <= 0) {
+			throw new IllegalArgumentException("maxCounters must be positive.");
+		}
+		int count = Integer.highestOneBit(Math.max(1, Math.min(64, maxCounters / 64)));
+		stripes = new Stripe[count];
+		for (int i = 0; i < count; i++) {
+			stripes[i] = new Stripe();
+		}
+		maxCountersPerStripe = Math.max(1, maxCounters / count);
+	}
+
+	/**
+	 * Set the length of the window to count failures.
+	 * @param window The length of the window. The unit is millisecond.
+	 */
+	public void setWindow(long window) {
+		this.window = window;
+	}
+
+	/**
+	 * Set the number of failures of each username in the window to start
+	 * blocking.
+	 * @param maxUserFailures The number of failures.
+	 */
+	public void setMaxUserFailures(int maxUserFailures) {
+		this.maxUserFailures = maxUserFailures;
+	}
+
+	/**
+	 * Set the number of failures of each client in the window to start
+	 * blocking.
+	 * @param maxClientFailures The number of failures.
+	 */
+	public void setMaxClientFailures(int maxClientFailures) {
+		this.maxClientFailures = maxClientFailures;
+	}
+
+	/**
+	 * Set the blocking time at the first time.
+	 * @param baseBackoff The blocking time. The unit is millisecond.
+	 */
+	public void setBaseBackoff(long baseBackoff) {
+		this.baseBackoff = baseBackoff;
+	}
+
+	/**
+	 * Set the maximum blocking time.
+	 * @param maxBackoff The blocking time. The unit is millisecond.
+	 */
+	public void setMaxBackoff(long maxBackoff) {
+		this.maxBackoff = maxBackoff;
+	}
+
+	/**
+	 * Set the time after which the reservation of an attempt whose result
+	 * was not recorded is released. The default value is 30 seconds.
+	 * @param reservationTimeout The timeout. The unit is millisecond.
+	 */
+	public void setReservationTimeout(long reservationTimeout) {
+		this.reservationTimeout = reservationTimeout;
+	}
+
+	@Override
+	public void check(String clientId, String username, Handler<Long> handler) {
+		long now = currentTimeMillis();
+		Counter user = getCounter(userKey(username), now);
+		long wait = user != null ? user.reserve(now, maxUserFailures) : baseBackoff;
+		if (wait > 0) {
+			handler.handle(wait);
+			return;
+		}
+		Counter client = getCounter(clientKey(clientId), now);
+		wait = client != null ? client.reserve(now, maxClientFailures) : baseBackoff;
+		if (wait > 0) {
+			user.release(now);
+		}
+		handler.handle(wait);
+	}
+
+	@Override
+	public void recordFailure(String clientId, String username) {
+		long now = currentTimeMillis();
+		Counter counter = getCounter(userKey(username), now);
+		if (counter != null) {
+			counter.fail(now, maxUserFailures);
+		}
+		counter = getCounter(clientKey(clientId), now);
+		if (counter != null) {
+			counter.fail(now, maxClientFailures);
+		}
+	}
+
+	@Override
+	public void recordSuccess(String clientId, String username) {
+		String key = userKey(username);
+		stripe(key).counters.remove(key);
+		key = clientKey(clientId);
+		Counter counter = stripe(key).counters.get(key);
+		if (counter != null) {
+			counter.release(currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Retrieve the number of counters.
+	 * @return The number of counters.
+	 */
+	public int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			size += stripe.counters.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Retrieve the current time. This method is provided for an unit test.
+	 * @return The current time in millisecond.
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private String userKey(String username) {
+		return "u:" + username;
+	}
+
+	private String clientKey(String clientId) {
+		return "c:" + clientId;
+	}
+
+	private Stripe stripe(String key) {
+		int h = key.hashCode();
+		return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+	}
+
+	private Counter getCounter(String key, long now) {
+		Stripe stripe = stripe(key);
+		Counter counter = stripe.counters.get(key);
+		if (counter != null) {
+			return counter;
+		}
+		if (!stripe.hasRoom(now, maxCountersPerStripe)) {
+			return null;
+		}
+		counter = new Counter(now);
+		Counter current = stripe.counters.putIfAbsent(key, counter);
+		return current != null ? current : counter;
+	}
+
+	private class Stripe {
+
+		private final ConcurrentHashMap<String, Counter> counters =
+				new ConcurrentHashMap<String, Counter>();
+		private final AtomicBoolean evicting = new AtomicBoolean();
+		private volatile long nextEvictAt;
+
+		private boolean hasRoom(long now, int maxSize) {
+			if (counters.size() < maxSize) {
+				return true;
+			}
+			if (now < nextEvictAt || !evicting.compareAndSet(false, true)) {
+				return false;
+			}
+			try {
+				long idleAt = Long.MAX_VALUE;
+				for (Iterator<Counter> i = counters.values().iterator(); i.hasNext();) {
+					long at = i.next().getIdleAt(now);
+					if (at <= now) {
+						i.remove();
+					} else {
+						idleAt = Math.min(idleAt, at);
+					}
+				}
+				nextEvictAt = idleAt;
+				return counters.size() < maxSize;
+			} finally {
+				evicting.set(false);
+			}
+		}
+
+	}
+
+	private class Counter {
+
+		private long windowStart;
+		private int current;
+		private int previous;
+		private long blockedUntil;
+		private int reserved;
+		private long reservedAt;
+
+		private Counter(long now) {
+			this.windowStart = now;
+		}
+
+		private synchronized long reserve(long now, int maxFailures) {
+			if (blockedUntil > now) {
+				return blockedUntil - now;
+			}
+			expireReservations(now);
+			if (reserved > 0 && estimate(now) + reserved >= maxFailures) {
+				return baseBackoff;
+			}
+			reserved++;
+			reservedAt = now;
+			return 0L;
+		}
+
+		private synchronized void release(long now) {
+			expireReservations(now);
+			if (reserved > 0) {
+				reserved--;
+			}
+		}
+
+		private synchronized long getIdleAt(long now) {
+			expireReservations(now);
+			long reservedUntil = reserved > 0 ? reservedAt + reservationTimeout : 0L;
+			if (estimate(now) == 0.0) {
+				return Math.max(blockedUntil, reservedUntil);
+			}
+			long windows = current > 0 ? 2 : 1;
+			return Math.max(Math.max(blockedUntil, reservedUntil), windowStart + windows * window);
+		}
+
+		private synchronized void fail(long now, int maxFailures) {
+			release(now);
+			double count = estimate(now) + 1;
+			current++;
+			int over = (int) count - maxFailures;
+			if (over >= 0) {
+				long backoff = over < 30 ? baseBackoff << over : maxBackoff;
+				blockedUntil = Math.max(blockedUntil, now + Math.min(maxBackoff, backoff));
+			}
+		}
+
+		private void expireReservations(long now) {
+			if (reserved > 0 && reservedAt + reservationTimeout <= now) {
+				reserved = 0;
+			}
+		}
+
+		private double estimate(long now) {
+			long elapsed = (now - windowStart) / window;
+			if (elapsed > 0) {
+				previous = elapsed == 1 ? current : 0;
+				current = 0;
+				windowStart += elapsed * window;
+			}
+			double weight = 1.0 - (double) (now - windowStart) / window;
+			return previous * weight + current;
+		}
+
+	}
+
+}
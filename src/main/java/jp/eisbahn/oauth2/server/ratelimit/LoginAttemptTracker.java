@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.ratelimit;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+
+/**
+ * This interface defines how to track failed login attempts of the Resource
+ * Owner Password Credentials grant.
+ *
+ * <p>{@link jp.eisbahn.oauth2.server.granttype.impl.Password} asks this
+ * tracker before checking the password with your DataHandler. If the user
+ * or the client is blocked, the request is refused without calling
+ * DataHandler#getUserId(). The result of each check is reported to this
+ * tracker. {@link InMemoryLoginAttemptTracker} is provided for a single
+ * node. To share the attempts among nodes, implement this interface with
+ * your shared store.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface LoginAttemptTracker {
+
+	/**
+	 * Check whether the login attempt is permitted. A permitted attempt is
+	 * reserved until its result is reported by recordFailure() or
+	 * recordSuccess(), so that concurrent attempts cannot exceed the limit
+	 * before any of them fails.
+	 * @param clientId The client ID.
+	 * @param username The username.
+	 * @param handler The handler to receive zero if permitted, otherwise
+	 * the time to wait until the next attempt is permitted in millisecond.
+	 */
+	public void check(String clientId, String username, Handler<Long> handler);
+
+	/**
+	 * Record the failed login attempt.
+	 * @param clientId The client ID.
+	 * @param username The username.
+	 */
+	public void recordFailure(String clientId, String username);
+
+	/**
+	 * Record the succeeded login attempt.
+	 * @param clientId The client ID.
+	 * @param username The username.
+	 */
+	public void recordSuccess(String clientId, String username);
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.ratelimit;
+
+/**
+ * This class represents a rate limit: the number of requests permitted per
+ * second and the number of requests permitted in a burst.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public final class RateLimit {
+
+	private final double permitsPerSecond;
+	private final int burst;
+	private final long interval;
+	private final long tolerance;
+
+	/**
+	 * Initialize this instance.
+	 * @param permitsPerSecond The number of requests permitted per second.
+	 * @param burst The number of requests permitted at the same moment.
+	 */
+	public RateLimit(double permitsPerSecond, int burst) {
+		super();
+		if (permitsPerSecond <= 0) {
+			throw new IllegalArgumentException("permitsPerSecond must be positive.");
+		}
+		if (burst <= 0) {
+			throw new IllegalArgumentException("burst must be positive.");
+		}
+		this.permitsPerSecond = permitsPerSecond;
+		this.burst = burst;
+		this.interval = Math.max(1L, (long) (1000000000L / permitsPerSecond));
+		this.tolerance = interval * burst;
+	}
+
+	/**
+	 * Retrieve the number of requests permitted per second.
+	 * @return The number of requests.
+	 */
+	public double getPermitsPerSecond() {
+		return permitsPerSecond;
+	}
+
+	/**
+	 * Retrieve the number of requests permitted at the same moment.
+	 * @return The number of requests.
+	 */
+	public int getBurst() {
+		return burst;
+	}
+
+	long getInterval() {
+		return interval;
+	}
+
+	long getTolerance() {
+		return tolerance;
+	}
+
+}
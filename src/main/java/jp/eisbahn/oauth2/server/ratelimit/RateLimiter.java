@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.ratelimit;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class limits the rate of requests for each client.
+ *
+ * <p>Each client has a bucket implemented by the Generic Cell Rate Algorithm.
+ * The bucket has only one AtomicLong value (the theoretical arrival time),
+ * and it is updated with compare-and-set, so that no lock is taken.
+ * Buckets are stored to some stripes by the hash of the key, and each
+ * stripe has the maximum number of buckets. When a stripe is full, only idle
+ * buckets are evicted. An idle bucket has the same state as a new bucket,
+ * therefore, evicting it doesn't loosen the limit. If no bucket is idle, the
+ * stripe fails closed: the new key is rejected with the time until the
+ * earliest bucket becomes idle, and the stripe is not scanned again until
+ * then. The active buckets are never dropped.</p>
+ *
+ * <p>The limit is determined in the following order: the limit for the
+ * client, the limit for the grant type and the default limit. If none of them
+ * is set, the request is not limited. The requests limited by the grant type
+ * limit are counted for each pair of the client and the grant type.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class RateLimiter {
+
+	private static final long EVICTED = Long.MIN_VALUE;
+
+	private final Stripe[] stripes;
+	private final int maxBucketsPerStripe;
+	private RateLimit defaultLimit;
+	private Map<String, RateLimit> clientLimits = new HashMap<String, RateLimit>();
+	private Map<String, RateLimit> grantTypeLimits = new HashMap<String, RateLimit>();
+
+	/**
+	 * Initialize this instance with the default maximum number of buckets
+	 * (100000 buckets).
+	 */
+	public RateLimiter() {
+		this(100000);
+	}
+
+	/**
+	 * Initialize this instance.
+	 * @param maxBuckets The maximum number of buckets.
+	 */
+	public RateLimiter(int maxBuckets) {
+		super();
+		if (maxBuckets <= 0) {
+			throw new IllegalArgumentException("maxBuckets must be positive.");
+		}
+		int count = Integer.highestOneBit(Math.max(1, Math.min(64, maxBuckets / 64)));
+		stripes = new Stripe[count];
+		for (int i = 0; i < count; i++) {
+			stripes[i] = new Stripe();
+		}
+		maxBucketsPerStripe = Math.max(1, maxBuckets / count);
+	}
+
+	/**
+	 * Set the limit applied to the clients which don't have other limits.
+	 * @param defaultLimit The RateLimit instance.
+	 */
+	public void setDefaultLimit(RateLimit defaultLimit) {
+		this.defaultLimit = defaultLimit;
+	}
+
+	/**
+	 * Set the limits for each client. The key means a client ID.
+	 * @param clientLimits The map object which has RateLimit instances.
+	 */
+	public void setClientLimits(Map<String, RateLimit> clientLimits) {
+		this.clientLimits = new HashMap<String, RateLimit>(clientLimits);
+	}
+
+	/**
+	 * Set the limits for each grant type. The key means a grant type.
+	 * @param grantTypeLimits The map object which has RateLimit instances.
+	 */
+	public void setGrantTypeLimits(Map<String, RateLimit> grantTypeLimits) {
+		this.grantTypeLimits = new HashMap<String, RateLimit>(grantTypeLimits);
+	}
+
+	/**
+	 * Try to acquire a permit for the request.
+	 * @param clientId The client ID.
+	 * @param grantType The grant type string.
+	 * @return Zero if the request is permitted. Otherwise, the time to wait
+	 * until the next request is permitted. The unit is millisecond.
+	 */
+	public long tryAcquire(String clientId, String grantType) {
+		String key = clientId;
+		RateLimit limit = clientLimits.get(clientId);
+		if (limit == null) {
+			limit = grantTypeLimits.get(grantType);
+			if (limit != null) {
+				key = clientId + '\n' + grantType;
+			} else {
+				limit = defaultLimit;
+			}
+		}
+		if (limit == null) {
+			return 0L;
+		}
+		long now = nanoTime();
+		int h = key.hashCode();
+		Stripe stripe = stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+		AtomicLong bucket = getBucket(stripe, key, now);
+		while (true) {
+			if (bucket == null) {
+				return Math.max(1L, TimeUnit.NANOSECONDS.toMillis(stripe.idleAt - now));
+			}
+			long tat = bucket.get();
+			if (tat == EVICTED) {
+				bucket = getBucket(stripe, key, now);
+				continue;
+			}
+			long newTat = Math.max(tat, now) + limit.getInterval();
+			long excess = newTat - now - limit.getTolerance();
+			if (excess > 0) {
+				return Math.max(1L, TimeUnit.NANOSECONDS.toMillis(excess));
+			}
+			if (bucket.compareAndSet(tat, newTat)) {
+				return 0L;
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the number of buckets.
+	 * @return The number of buckets.
+	 */
+	public int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			size += stripe.buckets.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Retrieve the current time. This method is provided for an unit test.
+	 * @return The current time in nanosecond.
+	 */
+	protected long nanoTime() {
+		return System.nanoTime();
+	}
+
+	private AtomicLong getBucket(Stripe stripe, String key, long now) {
+		AtomicLong bucket = stripe.buckets.get(key);
+		if (bucket != null) {
+			return bucket;
+		}
+		bucket = new AtomicLong(now);
+		if (stripe.buckets.size() >= maxBucketsPerStripe && !stripe.evict(now, maxBucketsPerStripe)) {
+			return null;
+		}
+		AtomicLong current = stripe.buckets.putIfAbsent(key, bucket);
+		return current != null ? current : bucket;
+	}
+
+	private static class Stripe {
+
+		private final ConcurrentHashMap<String, AtomicLong> buckets =
+				new ConcurrentHashMap<String, AtomicLong>();
+		private final AtomicBoolean evicting = new AtomicBoolean();
+		private volatile boolean full;
+		private volatile long idleAt;
+
+		private boolean evict(long now, int maxSize) {
+			if (full && now - idleAt < 0) {
+				return false;
+			}
+			if (!evicting.compareAndSet(false, true)) {
+				return buckets.size() < maxSize;
+			}
+			try {
+				long minWait = Long.MAX_VALUE;
+				for (Iterator<AtomicLong> i = buckets.values().iterator(); i.hasNext();) {
+					AtomicLong bucket = i.next();
+					long tat = bucket.get();
+					long wait = tat - now;
+					if (wait <= 0) {
+						if (bucket.compareAndSet(tat, EVICTED)) {
+							i.remove();
+						}
+					} else if (tat != EVICTED && wait < minWait) {
+						minWait = wait;
+					}
+				}
+				full = buckets.size() >= maxSize;
+				idleAt = now + minWait;
+				return !full;
+			} finally {
+				evicting.set(false);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.registry;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * This class has the changes of registered clients since a version.
+ * An instance is returned from {@link ClientSource}.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class ClientChanges {
+
+	private final long version;
+	private final boolean full;
+	private final Collection<RegisteredClient> updated;
+	private final Collection<String> removed;
+
+	/**
+	 * Initialize this instance.
+	 * @param version The version of the source after these changes are applied.
+	 * @param full True if the updated clients are all registered clients.
+	 * In this case, clients which are not included are removed.
+	 * @param updated The clients which were added or updated.
+	 * @param removed The IDs of clients which were removed.
+	 */
+	public ClientChanges(long version, boolean full,
+			Collection<RegisteredClient> updated, Collection<String> removed) {
+		super();
+		this.version = version;
+		this.full = full;
+		this.updated = updated != null ? updated : Collections.<RegisteredClient>emptyList();
+		this.removed = removed != null ? removed : Collections.<String>emptyList();
+	}
+
+	/**
+	 * Create the changes which have all registered clients.
+	 * @param version The version of the source.
+	 * @param clients All registered clients.
+	 * @return The changes instance.
+	 */
+	public static ClientChanges full(long version, Collection<RegisteredClient> clients) {
+		return new ClientChanges(version, true, clients, null);
+	}
+
+	/**
+	 * Create the changes which have no change.
+	 * @param version The version of the source.
+	 * @return The changes instance.
+	 */
+	public static ClientChanges none(long version) {
+		return new ClientChanges(version, false, null, null);
+	}
+
+	/**
+	 * Retrieve the version of the source after these changes are applied.
+	 * @return The version value.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Retrieve whether these changes have all registered clients.
+	 * @return True if these changes replace all clients.
+	 */
+	public boolean isFull() {
+		return full;
+	}
+
+	/**
+	 * Retrieve the clients which were added or updated.
+	 * @return The clients.
+	 */
+	public Collection<RegisteredClient> getUpdated() {
+		return updated;
+	}
+
+	/**
+	 * Retrieve the IDs of clients which were removed.
+	 * @return The client IDs.
+	 */
+	public Collection<String> getRemoved() {
+		return removed;
+	}
+
+}
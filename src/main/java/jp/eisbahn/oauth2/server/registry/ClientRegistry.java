@@ -0,0 +1,368 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.registry;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.invalidation.InvalidationListener;
+
+/**
+ * This class keeps an immutable in-memory snapshot of registered clients.
+ *
+ * <p>Registered clients change rarely, but validateClient() is called for each
+ * token request and validateClientById() is called for each access to
+ * a protected resource. Your DataHandler implementation can delegate these
+ * checks to this registry to avoid a round trip to your database:</p>
+ *
+ * <pre>
+ * public void validateClient(String clientId, String clientSecret, String grantType,
+ *         Handler&lt;Boolean&gt; handler) {
+ *     handler.handle(registry.validateClient(clientId, clientSecret, grantType));
+ * }
+ * </pre>
+ *
+ * <p>The snapshot is loaded from a {@link ClientSource} and replaced as a whole
+ * when the changes are applied. Readers never take a lock, they see either
+ * the previous snapshot or the new one. After the first load, only
+ * the changes since the version of the current snapshot are fetched.</p>
+ *
+ * <p>The refresh() method must be called before serving requests, otherwise
+ * all clients are judged as invalid. The start() method calls it periodically
+ * in a background thread. If the source doesn't call back within the refresh
+ * timeout, the refresh is abandoned, its late result is ignored and the next
+ * refresh fetches the changes again.</p>
+ *
+ * <p>This registry can be registered to
+ * {@link jp.eisbahn.oauth2.server.invalidation.InvalidationBus}. When a client
+ * is invalidated on any node, for instance, because it was deactivated, the
+ * client is dropped from the snapshot immediately and all clients are
+ * reloaded from the source. A refresh which was running at that time is not
+ * published, since its result might predate the invalidation.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class ClientRegistry implements InvalidationListener {
+
+	private static final Snapshot EMPTY = new Snapshot(-1L,
+			Collections.<String, RegisteredClient>emptyMap());
+
+	private ClientSource source;
+	private long refreshInterval = 60000L;
+	private long refreshTimeout = 30000L;
+
+	private volatile Snapshot snapshot = EMPTY;
+	private final AtomicReference<Refresh> refreshing = new AtomicReference<Refresh>();
+	private final AtomicBoolean reloadPending = new AtomicBoolean();
+	private long invalidations;
+	private ScheduledExecutorService executor;
+
+	/**
+	 * Set the source of registered clients.
+	 * @param source The ClientSource instance.
+	 */
+	public void setSource(ClientSource source) {
+		this.source = source;
+	}
+
+	/**
+	 * Set the interval of the periodic refresh started by the start() method.
+	 * @param refreshInterval The interval value. The unit is millisecond.
+	 */
+	public void setRefreshInterval(long refreshInterval) {
+		this.refreshInterval = refreshInterval;
+	}
+
+	/**
+	 * Set the time to wait for the source to call back. After this time,
+	 * another refresh can start. The default value is 30000.
+	 * @param refreshTimeout The timeout value. The unit is millisecond.
+	 */
+	public void setRefreshTimeout(long refreshTimeout) {
+		this.refreshTimeout = refreshTimeout;
+	}
+
+	/**
+	 * Validate the client as same as DataHandler#validateClient().
+	 * @param clientId The client ID.
+	 * @param clientSecret The client secret string.
+	 * @param grantType The grant type string which the client required.
+	 * @return True if the client exists, is active, the secret matches and
+	 * the grant type is allowed.
+	 */
+	public boolean validateClient(String clientId, String clientSecret, String grantType) {
+		RegisteredClient client = getClient(clientId);
+		return client != null
+				&& client.isActive()
+				&& client.supportsGrantType(grantType)
+				&& client.matchesSecret(clientSecret);
+	}
+
+	/**
+	 * Validate the client as same as DataHandler#validateClientById().
+	 * @param clientId The client ID.
+	 * @return True if the client exists and is active.
+	 */
+	public boolean validateClientById(String clientId) {
+		RegisteredClient client = getClient(clientId);
+		return client != null && client.isActive();
+	}
+
+	/**
+	 * Retrieve the registered client from the current snapshot.
+	 * @param clientId The client ID.
+	 * @return The client. If not found, return null.
+	 */
+	public RegisteredClient getClient(String clientId) {
+		if (clientId == null) {
+			return null;
+		}
+		return snapshot.clients.get(clientId);
+	}
+
+	/**
+	 * Retrieve the version of the current snapshot.
+	 * @return The version value. If the snapshot has never been loaded,
+	 * return a negative value.
+	 */
+	public long getVersion() {
+		return snapshot.version;
+	}
+
+	/**
+	 * Retrieve the number of clients in the current snapshot.
+	 * @return The number of clients.
+	 */
+	public int size() {
+		return snapshot.clients.size();
+	}
+
+	/**
+	 * Fetch the changes from the source and publish the new snapshot.
+	 * If another refresh is running and has not timed out, this call is
+	 * ignored.
+	 */
+	public void refresh() {
+		refresh(null);
+	}
+
+	/**
+	 * Fetch the changes from the source and publish the new snapshot.
+	 * @param handler The handler to receive true if a new snapshot was
+	 * published. This can be null.
+	 */
+	public void refresh(final Handler<Boolean> handler) {
+		long now = currentTimeMillis();
+		final Refresh refresh = new Refresh(now);
+		while (true) {
+			Refresh running = refreshing.get();
+			if (running != null && now - running.startedAt < refreshTimeout) {
+				if (handler != null) {
+					handler.handle(false);
+				}
+				return;
+			}
+			if (refreshing.compareAndSet(running, refresh)) {
+				break;
+			}
+		}
+		final boolean reload = reloadPending.getAndSet(false);
+		final Snapshot current;
+		final long startedInvalidations;
+		synchronized (this) {
+			current = snapshot;
+			startedInvalidations = invalidations;
+		}
+		try {
+			source.fetchChanges(reload ? -1L : current.version, new Handler<ClientChanges>() {
+				@Override
+				public void handle(ClientChanges changes) {
+					boolean published = false;
+					boolean invalidated;
+					try {
+						synchronized (ClientRegistry.this) {
+							invalidated = invalidations != startedInvalidations;
+							if (changes != null && !invalidated && refreshing.get() == refresh) {
+								snapshot = apply(current, changes);
+								published = true;
+							}
+						}
+						if (reload && !published) {
+							reloadPending.set(true);
+						}
+					} finally {
+						refreshing.compareAndSet(refresh, null);
+					}
+					if (handler != null) {
+						handler.handle(published);
+					}
+					if (invalidated) {
+						refreshQuietly();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			if (reload) {
+				reloadPending.set(true);
+			}
+			refreshing.compareAndSet(refresh, null);
+			throw e;
+		}
+	}
+
+	@Override
+	public void tokenInvalidated(String token) {
+	}
+
+	@Override
+	public void authInfoInvalidated(String authId) {
+	}
+
+	@Override
+	public void clientInvalidated(String clientId) {
+		synchronized (this) {
+			invalidations++;
+			reloadPending.set(true);
+			if (clientId != null && snapshot.clients.containsKey(clientId)) {
+				Map<String, RegisteredClient> clients =
+						new HashMap<String, RegisteredClient>(snapshot.clients);
+				clients.remove(clientId);
+				snapshot = new Snapshot(snapshot.version, Collections.unmodifiableMap(clients));
+			}
+		}
+		refreshQuietly();
+	}
+
+	@Override
+	public void userInvalidated(String userId) {
+	}
+
+	@Override
+	public void allInvalidated() {
+		synchronized (this) {
+			invalidations++;
+			reloadPending.set(true);
+		}
+		refreshQuietly();
+	}
+
+	/**
+	 * Start the periodic refresh in a background thread. The first refresh
+	 * is executed immediately.
+	 */
+	public synchronized void start() {
+		if (executor != null) {
+			return;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "oauth2-client-registry");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					refresh();
+				} catch (RuntimeException e) {
+					// Keep the current snapshot and retry at the next time.
+				}
+			}
+		}, 0L, refreshInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop the periodic refresh.
+	 */
+	public synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Retrieve the current time. This method is provided for an unit test.
+	 * @return The current time in millisecond.
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private void refreshQuietly() {
+		try {
+			refresh();
+		} catch (RuntimeException e) {
+			// Keep the current snapshot and retry at the next time.
+		}
+	}
+
+	private static Snapshot apply(Snapshot current, ClientChanges changes) {
+		Map<String, RegisteredClient> clients;
+		if (changes.isFull()) {
+			clients = new HashMap<String, RegisteredClient>();
+		} else if (changes.getUpdated().isEmpty() && changes.getRemoved().isEmpty()) {
+			return new Snapshot(changes.getVersion(), current.clients);
+		} else {
+			clients = new HashMap<String, RegisteredClient>(current.clients);
+		}
+		for (RegisteredClient client : changes.getUpdated()) {
+			clients.put(client.getClientId(), client);
+		}
+		for (String clientId : changes.getRemoved()) {
+			clients.remove(clientId);
+		}
+		return new Snapshot(changes.getVersion(), Collections.unmodifiableMap(clients));
+	}
+
+	private static final class Refresh {
+
+		private final long startedAt;
+
+		private Refresh(long startedAt) {
+			this.startedAt = startedAt;
+		}
+
+	}
+
+	private static final class Snapshot {
+
+		private final long version;
+		private final Map<String, RegisteredClient> clients;
+
+		private Snapshot(long version, Map<String, RegisteredClient> clients) {
+			this.version = version;
+			this.clients = clients;
+		}
+
+	}
+
+}
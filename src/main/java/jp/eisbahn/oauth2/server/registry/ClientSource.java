@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.registry;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+
+/**
+ * This interface defines how {@link ClientRegistry} loads registered clients
+ * from your database or such storages.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface ClientSource {
+
+	/**
+	 * Fetch the changes of registered clients since the specified version.
+	 * If the version is negative, or the source cannot compute the changes
+	 * since the version, the result must be full changes which have all
+	 * registered clients. If an error occurs, the null value must be passed
+	 * to the handler. Then the current snapshot is kept.
+	 * @param sinceVersion The version of the current snapshot.
+	 * @param handler The handler to receive the changes.
+	 */
+	public void fetchChanges(long sinceVersion, Handler<ClientChanges> handler);
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.registry;
+
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * This model class has the information of a registered client which is kept
+ * by {@link ClientRegistry}. The instance is immutable, therefore, it can be
+ * shared by any threads without locking.
+ *
+ * <p>The client secret is not kept as is, but as its SHA-256 hash value.
+ * The secret must be a random string with enough entropy, as recommended
+ * for client secrets. Don't use this hash for user passwords.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public final class RegisteredClient {
+
+	private final String clientId;
+	private final byte[] secretHash;
+	private final Set<String> grantTypes;
+	private final boolean active;
+
+	/**
+	 * Initialize this instance.
+	 * @param clientId The client ID.
+	 * @param secretHash The SHA-256 hash value of the client secret. Use the
+	 * hashSecret() method to compute it.
+	 * @param grantTypes The grant types which the client is allowed to use.
+	 * @param active True if the client is active.
+	 */
+	public RegisteredClient(String clientId, byte[] secretHash,
+			Collection<String> grantTypes, boolean active) {
+		super();
+		this.clientId = clientId;
+		this.secretHash = secretHash != null ? secretHash.clone() : null;
+		this.grantTypes = grantTypes != null
+				? Collections.unmodifiableSet(new HashSet<String>(grantTypes))
+				: Collections.<String>emptySet();
+		this.active = active;
+	}
+
+	/**
+	 * Compute the hash value of the client secret.
+	 * @param clientSecret The client secret string.
+	 * @return The SHA-256 hash value.
+	 */
+	public static byte[] hashSecret(String clientSecret) {
+		return DigestUtils.sha256(clientSecret);
+	}
+
+	/**
+	 * Retrieve the client ID.
+	 * @return The client ID.
+	 */
+	public String getClientId() {
+		return clientId;
+	}
+
+	/**
+	 * Retrieve the grant types which the client is allowed to use.
+	 * @return The unmodifiable set of the grant types.
+	 */
+	public Set<String> getGrantTypes() {
+		return grantTypes;
+	}
+
+	/**
+	 * Retrieve whether the client is active or not.
+	 * @return True if the client is active.
+	 */
+	public boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * Check whether the client secret matches the registered one.
+	 * The comparison takes a constant time.
+	 * @param clientSecret The client secret string sent from the client.
+	 * @return True if the secret matches.
+	 */
+	public boolean matchesSecret(String clientSecret) {
+		if (secretHash == null || clientSecret == null) {
+			return false;
+		}
+		return MessageDigest.isEqual(secretHash, hashSecret(clientSecret));
+	}
+
+	/**
+	 * Check whether the client is allowed to use the grant type.
+	 * @param grantType The grant type string.
+	 * @return True if the grant type is allowed.
+	 */
+	public boolean supportsGrantType(String grantType) {
+		return grantTypes.contains(grantType);
+	}
+
+}
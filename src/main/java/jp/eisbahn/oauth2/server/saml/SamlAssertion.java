@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.saml;
+
+import java.util.List;
+
+/**
+ * This class has the information read from a SAML 2.0 assertion by
+ * {@link SamlAssertionValidator}. The signature is not verified yet when
+ * this instance is created.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class SamlAssertion {
+
+	private final String id;
+	private final String issuer;
+	private final String subject;
+	private final List<String> audiences;
+	private final long notBefore;
+	private final long expiresAt;
+	private final boolean signed;
+	private final String digest;
+
+	/**
+	 * Initialize this instance.
+	 * @param id The value of the ID attribute.
+	 * @param issuer The issuer.
+	 * @param subject The NameID of the subject.
+	 * @param audiences The audiences of the AudienceRestriction conditions.
+	 * @param notBefore The time before which the assertion is invalid. 0 if not specified.
+	 * @param expiresAt The time at which the assertion expires.
+	 * @param signed True if the assertion has a Signature element.
+	 * @param digest The SHA-256 digest of the decoded assertion.
+	 */
+	public SamlAssertion(String id, String issuer, String subject, List<String> audiences,
+			long notBefore, long expiresAt, boolean signed, String digest) {
+		super();
+		this.id = id;
+		this.issuer = issuer;
+		this.subject = subject;
+		this.audiences = audiences;
+		this.notBefore = notBefore;
+		this.expiresAt = expiresAt;
+		this.signed = signed;
+		this.digest = digest;
+	}
+
+	/**
+	 * Retrieve the value of the ID attribute.
+	 * @return The ID.
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Retrieve the issuer.
+	 * @return The issuer.
+	 */
+	public String getIssuer() {
+		return issuer;
+	}
+
+	/**
+	 * Retrieve the NameID of the subject.
+	 * @return The subject.
+	 */
+	public String getSubject() {
+		return subject;
+	}
+
+	/**
+	 * Retrieve the audiences of the AudienceRestriction conditions.
+	 * @return The audiences.
+	 */
+	public List<String> getAudiences() {
+		return audiences;
+	}
+
+	/**
+	 * Retrieve the time before which the assertion is invalid.
+	 * @return The time in millisecond. 0 if not specified.
+	 */
+	public long getNotBefore() {
+		return notBefore;
+	}
+
+	/**
+	 * Retrieve the time at which the assertion expires. This is the earlier
+	 * one of the NotOnOrAfter of the Conditions and the NotOnOrAfter of the
+	 * SubjectConfirmationData.
+	 * @return The time in millisecond.
+	 */
+	public long getExpiresAt() {
+		return expiresAt;
+	}
+
+	/**
+	 * Determine whether the assertion has a Signature element or not.
+	 * @return True if signed.
+	 */
+	public boolean isSigned() {
+		return signed;
+	}
+
+	/**
+	 * Retrieve the SHA-256 digest of the decoded assertion. This is encoded
+	 * in base64url.
+	 * @return The digest string.
+	 */
+	public String getDigest() {
+		return digest;
+	}
+
+}
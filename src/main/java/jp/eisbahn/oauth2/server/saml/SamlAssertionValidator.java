@@ -0,0 +1,286 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.saml;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Base64InputStream;
+
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+
+/**
+ * This class reads and pre-validates a SAML 2.0 assertion sent with the
+ * SAML 2.0 bearer grant (RFC 7522).
+ *
+ * <p>The assertion is decoded from base64 and read with the StAX parser
+ * in a single pass, without building any DOM tree. DTDs and external
+ * entities are refused. While decoding, the SHA-256 digest of the
+ * assertion is calculated, which can be used as the key of
+ * {@link jp.eisbahn.oauth2.server.cache.VerifiedAssertionCache}.</p>
+ *
+ * <p>This class checks the issuer, the subject, the time bounds and the
+ * audience restriction, and whether the assertion has a Signature element.
+ * The signature itself is not verified. The assertion which passed this
+ * validation should be verified by your DataHandler as before, but the
+ * expired or misdirected assertions are refused without any signature
+ * work.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class SamlAssertionValidator {
+
+	private static final String SAML_NS = "urn:oasis:names:tc:SAML:2.0:assertion";
+	private static final String DSIG_NS = "http://www.w3.org/2000/09/xmldsig#";
+
+	private static final XMLInputFactory XML_INPUT_FACTORY = createXMLInputFactory();
+
+	private Set<String> audiences = Collections.emptySet();
+	private long clockSkew = 60L;
+	private int maxAssertionSize = 65536;
+	private boolean signatureRequired = true;
+
+	/**
+	 * Set the audiences which identify this authorization server, for
+	 * instance, the URL of the token endpoint. The AudienceRestriction
+	 * must contain one of them. This must be set; until then, all assertions
+	 * are refused, since an assertion issued for another service provider
+	 * could be replayed to this server.
+	 * @param audiences The audiences.
+	 */
+	public void setAudiences(Collection<String> audiences) {
+		this.audiences = Collections.unmodifiableSet(new HashSet<String>(audiences));
+	}
+
+	/**
+	 * Set the allowed clock skew between the issuer and this server.
+	 * The default value is 60 seconds.
+	 * @param clockSkew The clock skew in seconds.
+	 */
+	public void setClockSkew(long clockSkew) {
+		if (clockSkew < 0) {
+			throw new IllegalArgumentException("clockSkew must not be negative.");
+		}
+		this.clockSkew = clockSkew;
+	}
+
+	/**
+	 * Set the maximum size of the decoded assertion. The larger assertion
+	 * is refused without parsing. The default value is 64KB.
+	 * @param maxAssertionSize The maximum size in bytes.
+	 */
+	public void setMaxAssertionSize(int maxAssertionSize) {
+		this.maxAssertionSize = maxAssertionSize;
+	}
+
+	/**
+	 * Set whether the Signature element is required or not. The default
+	 * value is true.
+	 * @param signatureRequired True if required.
+	 */
+	public void setSignatureRequired(boolean signatureRequired) {
+		this.signatureRequired = signatureRequired;
+	}
+
+	/**
+	 * Read and validate the assertion.
+	 * @param assertion The assertion parameter encoded in base64url or base64.
+	 * @return The information read from the assertion.
+	 * @throws OAuthError If the assertion is invalid, the error
+	 * "invalid_grant" is thrown.
+	 */
+	public SamlAssertion validate(String assertion) throws OAuthError {
+		if (assertion == null) {
+			throw new OAuthError.InvalidRequest("'assertion' not found");
+		}
+		if ((long) assertion.length() * 3 / 4 > maxAssertionSize) {
+			throw new OAuthError.InvalidGrant("Assertion is too large.");
+		}
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		InputStream in = new DigestInputStream(new Base64InputStream(new ByteArrayInputStream(
+				assertion.getBytes(StandardCharsets.US_ASCII))), digest);
+		Parsed parsed;
+		try {
+			parsed = parse(in);
+			byte[] buffer = new byte[256];
+			while (in.read(buffer) >= 0) {
+				// Read the rest to complete the digest.
+			}
+		} catch (XMLStreamException e) {
+			throw new OAuthError.InvalidGrant("Malformed assertion.");
+		} catch (DateTimeException e) {
+			throw new OAuthError.InvalidGrant("Malformed assertion.");
+		} catch (IOException e) {
+			throw new OAuthError.InvalidGrant("Malformed assertion.");
+		}
+		return check(parsed, Base64.encodeBase64URLSafeString(digest.digest()));
+	}
+
+	/**
+	 * Retrieve the current time. This method is provided for an unit test.
+	 * @return The current time in millisecond.
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private SamlAssertion check(Parsed parsed, String digest) throws OAuthError {
+		if (parsed.issuer == null || parsed.issuer.isEmpty()) {
+			throw new OAuthError.InvalidGrant("Issuer not found.");
+		}
+		if (parsed.subject == null || parsed.subject.isEmpty()) {
+			throw new OAuthError.InvalidGrant("Subject not found.");
+		}
+		long expiresAt = earlier(parsed.conditionsNotOnOrAfter, parsed.confirmationNotOnOrAfter);
+		if (expiresAt == 0L) {
+			throw new OAuthError.InvalidGrant("NotOnOrAfter not found.");
+		}
+		long now = currentTimeMillis();
+		long skew = clockSkew * 1000L;
+		if (expiresAt + skew <= now) {
+			throw new OAuthError.InvalidGrant("Assertion has expired.");
+		}
+		if (parsed.notBefore - skew > now) {
+			throw new OAuthError.InvalidGrant("Assertion is not valid yet.");
+		}
+		if (Collections.disjoint(audiences, parsed.audiences)) {
+			throw new OAuthError.InvalidGrant("Invalid audience.");
+		}
+		if (signatureRequired && !parsed.signed) {
+			throw new OAuthError.InvalidGrant("Assertion is not signed.");
+		}
+		return new SamlAssertion(parsed.id, parsed.issuer, parsed.subject,
+				Collections.unmodifiableList(parsed.audiences), parsed.notBefore,
+				expiresAt, parsed.signed, digest);
+	}
+
+	private static long earlier(long time1, long time2) {
+		if (time1 == 0L) {
+			return time2;
+		} else if (time2 == 0L) {
+			return time1;
+		}
+		return Math.min(time1, time2);
+	}
+
+	private Parsed parse(InputStream in) throws XMLStreamException, OAuthError {
+		XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+		try {
+			Parsed parsed = new Parsed();
+			String[] path = new String[4];
+			int depth = 0;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.DTD || event == XMLStreamConstants.ENTITY_REFERENCE) {
+					throw new OAuthError.InvalidGrant("DTD is not allowed.");
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					depth--;
+				} else if (event == XMLStreamConstants.START_ELEMENT) {
+					String name = SAML_NS.equals(reader.getNamespaceURI()) ? reader.getLocalName() : null;
+					if (depth < path.length) {
+						path[depth] = name;
+					}
+					if (depth == 0) {
+						if (!"Assertion".equals(name)) {
+							throw new OAuthError.InvalidGrant("Assertion not found.");
+						}
+						parsed.id = reader.getAttributeValue(null, "ID");
+					} else if (depth == 1) {
+						if ("Issuer".equals(name)) {
+							parsed.issuer = reader.getElementText().trim();
+							continue;
+						} else if ("Signature".equals(reader.getLocalName())
+								&& DSIG_NS.equals(reader.getNamespaceURI())) {
+							parsed.signed = true;
+						} else if ("Conditions".equals(name)) {
+							parsed.notBefore = parseTime(reader.getAttributeValue(null, "NotBefore"));
+							parsed.conditionsNotOnOrAfter = parseTime(
+									reader.getAttributeValue(null, "NotOnOrAfter"));
+						}
+					} else if (depth == 2 && "Subject".equals(path[1]) && "NameID".equals(name)) {
+						parsed.subject = reader.getElementText().trim();
+						continue;
+					} else if (depth == 3 && "Subject".equals(path[1])
+							&& "SubjectConfirmation".equals(path[2])
+							&& "SubjectConfirmationData".equals(name)) {
+						parsed.confirmationNotOnOrAfter = earlier(parsed.confirmationNotOnOrAfter,
+								parseTime(reader.getAttributeValue(null, "NotOnOrAfter")));
+					} else if (depth == 3 && "Conditions".equals(path[1])
+							&& "AudienceRestriction".equals(path[2]) && "Audience".equals(name)) {
+						parsed.audiences.add(reader.getElementText().trim());
+						continue;
+					}
+					depth++;
+				}
+			}
+			return parsed;
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static long parseTime(String value) {
+		return value == null ? 0L : Instant.parse(value.trim()).toEpochMilli();
+	}
+
+	private static XMLInputFactory createXMLInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newFactory();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		return factory;
+	}
+
+	private static final class Parsed {
+		private String id;
+		private String issuer;
+		private String subject;
+		private final List<String> audiences = new ArrayList<String>();
+		private long notBefore;
+		private long conditionsNotOnOrAfter;
+		private long confirmationNotOnOrAfter;
+		private boolean signed;
+	}
+
+}
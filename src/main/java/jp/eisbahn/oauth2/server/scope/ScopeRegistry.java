@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.scope;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * This class interns scope names to bit positions and parses the scope
+ * strings into {@link ScopeSet} instances.
+ *
+ * <p>Only the scopes declared explicitly, with the constructor, the
+ * register() method or the declare() method, are given bit positions. The
+ * scopes of access tokens are not trusted input, so the unregistered scopes
+ * found in the parsed strings are only recorded as unknown in the set, and
+ * never take any bit position. A required scope which is not registered is
+ * also unknown, so it never satisfies any requirement. The index of a
+ * registered scope never changes.</p>
+ *
+ * <p>Most access tokens share a small number of distinct scope strings.
+ * The parsed sets are cached for each scope string, therefore, the scope
+ * string of a token is split only once, and the following requests are
+ * checked with a map lookup and a mask check.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class ScopeRegistry {
+
+	private final ConcurrentMap<String, Integer> indexes = new ConcurrentHashMap<String, Integer>();
+	private final ConcurrentMap<String, ScopeSet> parsed = new ConcurrentHashMap<String, ScopeSet>();
+	private volatile String[] names = new String[0];
+	private int maxScopes = 1024;
+	private int maxParsedStrings = 10000;
+
+	/**
+	 * Initialize this instance without any scope.
+	 */
+	public ScopeRegistry() {
+		super();
+	}
+
+	/**
+	 * Initialize this instance with the known scopes.
+	 * @param scopes The scope names.
+	 */
+	public ScopeRegistry(Collection<String> scopes) {
+		this();
+		for (String scope : scopes) {
+			register(scope);
+		}
+	}
+
+	/**
+	 * Set the maximum number of scopes. The default value is 1024.
+	 * @param maxScopes The maximum number.
+	 */
+	public void setMaxScopes(int maxScopes) {
+		this.maxScopes = maxScopes;
+	}
+
+	/**
+	 * Set the maximum number of the cached results of parsing. The default
+	 * value is 10000. When the number is exceeded, the cache is cleared.
+	 * @param maxParsedStrings The maximum number.
+	 */
+	public void setMaxParsedStrings(int maxParsedStrings) {
+		this.maxParsedStrings = maxParsedStrings;
+	}
+
+	/**
+	 * Register the scopes, and create the set of them. This is for the
+	 * scopes configured by you, for instance, the required scopes.
+	 * @param scopes The scope names.
+	 * @return The set of the scopes.
+	 * @throws IllegalArgumentException If the maximum number of scopes is
+	 * reached.
+	 */
+	public ScopeSet declare(String... scopes) {
+		for (String scope : scopes) {
+			if (register(scope) < 0) {
+				throw new IllegalArgumentException("Too many scopes: " + scope);
+			}
+		}
+		return of(scopes);
+	}
+
+	/**
+	 * Register the scope.
+	 * @param scope The scope name.
+	 * @return The index of the scope. If the maximum number of scopes is
+	 * reached, returns -1.
+	 */
+	public int register(String scope) {
+		Integer index = indexes.get(scope);
+		if (index != null) {
+			return index;
+		}
+		synchronized (this) {
+			index = indexes.get(scope);
+			if (index != null) {
+				return index;
+			}
+			String[] current = names;
+			if (current.length >= maxScopes) {
+				return -1;
+			}
+			String[] next = Arrays.copyOf(current, current.length + 1);
+			next[current.length] = scope;
+			names = next;
+			indexes.put(scope, current.length);
+			// The cached sets may have the scope as unknown.
+			parsed.clear();
+			return current.length;
+		}
+	}
+
+	/**
+	 * Retrieve the index of the scope.
+	 * @param scope The scope name.
+	 * @return The index. If not registered, returns -1.
+	 */
+	public int indexOf(String scope) {
+		Integer index = indexes.get(scope);
+		return index != null ? index : -1;
+	}
+
+	/**
+	 * Retrieve the name of the scope.
+	 * @param index The index of the scope.
+	 * @return The scope name.
+	 */
+	public String getName(int index) {
+		return names[index];
+	}
+
+	/**
+	 * Parse the space-delimited scope string. The scopes which are not
+	 * registered are recorded as unknown.
+	 * @param scope The scope string. This can be null.
+	 * @return The set of the scopes.
+	 */
+	public ScopeSet parse(String scope) {
+		if (StringUtils.isBlank(scope)) {
+			return ScopeSet.EMPTY;
+		}
+		ScopeSet result = parsed.get(scope);
+		if (result != null) {
+			return result;
+		}
+		result = of(StringUtils.split(scope, ' '));
+		if (parsed.size() >= maxParsedStrings) {
+			parsed.clear();
+		}
+		parsed.put(scope, result);
+		return result;
+	}
+
+	/**
+	 * Create the set of the scopes. The scopes which are not registered are
+	 * recorded as unknown.
+	 * @param scopes The scope names.
+	 * @return The set of the scopes.
+	 */
+	public ScopeSet of(String... scopes) {
+		long[] words = new long[0];
+		boolean unknown = false;
+		for (String scope : scopes) {
+			int index = indexOf(scope);
+			if (index < 0) {
+				unknown = true;
+				continue;
+			}
+			int i = index >>> 6;
+			if (i >= words.length) {
+				words = Arrays.copyOf(words, i + 1);
+			}
+			words[i] |= 1L << index;
+		}
+		return words.length == 0 && !unknown ? ScopeSet.EMPTY : new ScopeSet(words, unknown);
+	}
+
+	/**
+	 * Create the space-delimited scope string of the set.
+	 * @param scopeSet The set of the scopes.
+	 * @return The scope string.
+	 */
+	public String toString(ScopeSet scopeSet) {
+		StringBuilder sb = new StringBuilder();
+		String[] current = names;
+		for (int i = 0; i < current.length; i++) {
+			if (scopeSet.contains(i)) {
+				if (sb.length() > 0) {
+					sb.append(' ');
+				}
+				sb.append(current[i]);
+			}
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.scope;
+
+import java.util.Arrays;
+
+/**
+ * This class represents a set of scopes as a bitset. Each bit corresponds
+ * to the index of the scope interned by {@link ScopeRegistry}. An instance
+ * is immutable, and can be compared only with the instances created by the
+ * same registry.
+ *
+ * <p>If the registry could not intern some scopes because of its maximum
+ * number, the set is marked as having unknown scopes. Such a set is never
+ * contained by any other set, so the unknown required scope is never
+ * satisfied.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public final class ScopeSet {
+
+	/** The empty set. */
+	public static final ScopeSet EMPTY = new ScopeSet(new long[0], false);
+
+	private final long[] words;
+	private final boolean unknown;
+
+	ScopeSet(long[] words, boolean unknown) {
+		super();
+		this.words = words;
+		this.unknown = unknown;
+	}
+
+	/**
+	 * Determine whether this set contains all scopes of the other set.
+	 * @param other The other set, for instance, the required scopes.
+	 * @return True if all scopes are contained.
+	 */
+	public boolean containsAll(ScopeSet other) {
+		if (other.unknown) {
+			return false;
+		}
+		long[] otherWords = other.words;
+		for (int i = 0; i < otherWords.length; i++) {
+			long word = i < words.length ? words[i] : 0L;
+			if ((otherWords[i] & ~word) != 0L) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Determine whether this set contains the scope of the index.
+	 * @param index The index of the scope.
+	 * @return True if contained.
+	 */
+	public boolean contains(int index) {
+		int i = index >>> 6;
+		return i < words.length && (words[i] & (1L << index)) != 0L;
+	}
+
+	/**
+	 * Determine whether this set is empty.
+	 * @return True if empty and no unknown scope is contained.
+	 */
+	public boolean isEmpty() {
+		return words.length == 0 && !unknown;
+	}
+
+	/**
+	 * Determine whether this set has the scopes which could not be
+	 * interned by the registry.
+	 * @return True if has unknown scopes.
+	 */
+	public boolean hasUnknown() {
+		return unknown;
+	}
+
+	/**
+	 * Retrieve the number of scopes in this set.
+	 * @return The number of scopes.
+	 */
+	public int size() {
+		int size = 0;
+		for (long word : words) {
+			size += Long.bitCount(word);
+		}
+		return size;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof ScopeSet && unknown == ((ScopeSet) obj).unknown
+				&& Arrays.equals(words, ((ScopeSet) obj).words);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(words) + (unknown ? 1 : 0);
+	}
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class pools the direct buffers to write responses. A direct buffer
+ * is written to a channel without copying, but is expensive to allocate,
+ * therefore, the buffers are reused.
+ *
+ * <p>All pooled buffers have the same capacity. When a larger buffer is
+ * requested, a heap buffer is allocated and is not pooled.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class BufferPool {
+
+	private final int bufferSize;
+	private final int maxPooled;
+	private final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicInteger pooled = new AtomicInteger();
+
+	/**
+	 * Initialize this instance with the default values (16KB buffers, up to
+	 * 256 buffers).
+	 */
+	public BufferPool() {
+		this(16384, 256);
+	}
+
+	/**
+	 * Initialize this instance.
+	 * @param bufferSize The capacity of each pooled buffer.
+	 * @param maxPooled The maximum number of pooled buffers.
+	 */
+	public BufferPool(int bufferSize, int maxPooled) {
+		super();
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+
+	/**
+	 * Retrieve a cleared buffer which has the capacity at least.
+	 * @param capacity The required capacity.
+	 * @return The buffer.
+	 */
+	public ByteBuffer acquire(int capacity) {
+		if (capacity > bufferSize) {
+			return ByteBuffer.allocate(capacity);
+		}
+		ByteBuffer buffer = pool.poll();
+		if (buffer == null) {
+			return ByteBuffer.allocateDirect(bufferSize);
+		}
+		pooled.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Return the buffer to this pool. The buffer must not be used after
+	 * this call.
+	 * @param buffer The buffer retrieved from this pool.
+	 */
+	public void release(ByteBuffer buffer) {
+		if (!buffer.isDirect() || buffer.capacity() != bufferSize) {
+			return;
+		}
+		if (pooled.incrementAndGet() > maxPooled) {
+			pooled.decrementAndGet();
+			return;
+		}
+		pool.offer(buffer);
+	}
+
+	/**
+	 * Retrieve the number of the buffers in this pool.
+	 * @return The number of the buffers.
+	 */
+	public int getPooledCount() {
+		return pooled.get();
+	}
+
+}
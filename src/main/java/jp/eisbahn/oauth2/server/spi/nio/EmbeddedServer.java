@@ -0,0 +1,282 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource;
+import jp.eisbahn.oauth2.server.endpoint.Token;
+import jp.eisbahn.oauth2.server.fetcher.accesstoken.impl.DefaultAccessTokenFetcherProvider;
+import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcherImpl;
+import jp.eisbahn.oauth2.server.granttype.impl.DefaultGrantHandlerProvider;
+
+/**
+ * This class runs the Token issuing endpoint and the introspection endpoint
+ * on the {@link NioServer}, without any servlet container. The instance is
+ * created by the {@link Builder}, for instance:
+ *
+ * <pre>
+ * EmbeddedServer server = EmbeddedServer.builder(new YourDataHandlerFactory())
+ *     .port(8080)
+ *     .selectorCount(2)
+ *     .build();
+ * server.start();
+ * </pre>
+ *
+ * By default, the Token instance is set up with the DefaultGrantHandlerProvider
+ * and the ClientCredentialFetcherImpl, and the ProtectedResource instance is
+ * set up with the DefaultAccessTokenFetcherProvider. To use other helpers,
+ * pass the instances set up by yourself to the builder.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class EmbeddedServer {
+
+	private final NioServer server;
+
+	private EmbeddedServer(NioServer server) {
+		super();
+		this.server = server;
+	}
+
+	/**
+	 * Create a new builder.
+	 * @param dataHandlerFactory The factory of DataHandler used by the
+	 * endpoints.
+	 * @return The builder.
+	 */
+	public static Builder builder(DataHandlerFactory dataHandlerFactory) {
+		return new Builder(dataHandlerFactory);
+	}
+
+	/**
+	 * Start listening.
+	 * @throws IOException If the address could not be bound.
+	 */
+	public void start() throws IOException {
+		server.start();
+	}
+
+	/**
+	 * Stop listening and close all connections.
+	 * @throws InterruptedException If interrupted while waiting for the
+	 * event loop threads.
+	 */
+	public void stop() throws InterruptedException {
+		server.stop();
+	}
+
+	/**
+	 * Retrieve the address which this server is listening.
+	 * @return The address. If this server is not started, returns null.
+	 */
+	public InetSocketAddress getLocalAddress() {
+		return server.getLocalAddress();
+	}
+
+	/**
+	 * This class builds the EmbeddedServer instance.
+	 *
+	 * @author Yoichiro Tanaka
+	 *
+	 */
+	public static class Builder {
+
+		private final DataHandlerFactory dataHandlerFactory;
+		private String host = "0.0.0.0";
+		private int port = 8080;
+		private int selectorCount = 1;
+		private long idleTimeout = 60000L;
+		private int maxConnections = 10000;
+		private String tokenPath = "/token";
+		private String introspectionPath = "/introspect";
+		private Token token;
+		private ProtectedResource protectedResource;
+		private HttpRequestDecoder decoder;
+		private BufferPool bufferPool;
+
+		private Builder(DataHandlerFactory dataHandlerFactory) {
+			super();
+			if (dataHandlerFactory == null) {
+				throw new IllegalArgumentException("dataHandlerFactory is required.");
+			}
+			this.dataHandlerFactory = dataHandlerFactory;
+		}
+
+		/**
+		 * Set the host name or the address to listen. The default is
+		 * "0.0.0.0".
+		 * @param host The host name or the address.
+		 * @return This builder.
+		 */
+		public Builder host(String host) {
+			this.host = host;
+			return this;
+		}
+
+		/**
+		 * Set the port to listen. If 0, an ephemeral port is used. The
+		 * default is 8080.
+		 * @param port The port.
+		 * @return This builder.
+		 */
+		public Builder port(int port) {
+			this.port = port;
+			return this;
+		}
+
+		/**
+		 * Set the number of the event loop threads. The default is 1.
+		 * @param selectorCount The number of the threads.
+		 * @return This builder.
+		 */
+		public Builder selectorCount(int selectorCount) {
+			this.selectorCount = selectorCount;
+			return this;
+		}
+
+		/**
+		 * Set the time to close a connection which is idle. If 0, idle
+		 * connections are never closed. The default is 60000.
+		 * @param idleTimeout The timeout value. The unit is millisecond.
+		 * @return This builder.
+		 */
+		public Builder idleTimeout(long idleTimeout) {
+			this.idleTimeout = idleTimeout;
+			return this;
+		}
+
+		/**
+		 * Set the maximum number of the connections. The default is 10000.
+		 * @param maxConnections The maximum number.
+		 * @return This builder.
+		 */
+		public Builder maxConnections(int maxConnections) {
+			this.maxConnections = maxConnections;
+			return this;
+		}
+
+		/**
+		 * Set the path of the Token issuing endpoint. The default is
+		 * "/token".
+		 * @param tokenPath The path.
+		 * @return This builder.
+		 */
+		public Builder tokenPath(String tokenPath) {
+			this.tokenPath = tokenPath;
+			return this;
+		}
+
+		/**
+		 * Set the path of the introspection endpoint. The default is
+		 * "/introspect". If null, the endpoint is disabled.
+		 * @param introspectionPath The path.
+		 * @return This builder.
+		 */
+		public Builder introspectionPath(String introspectionPath) {
+			this.introspectionPath = introspectionPath;
+			return this;
+		}
+
+		/**
+		 * Set the Token instance set up by yourself. If this is set, the
+		 * DataHandlerFactory passed to the builder is not set to it.
+		 * @param token The Token instance.
+		 * @return This builder.
+		 */
+		public Builder token(Token token) {
+			this.token = token;
+			return this;
+		}
+
+		/**
+		 * Set the ProtectedResource instance set up by yourself. If this is
+		 * set, the DataHandlerFactory passed to the builder is not set to it.
+		 * @param protectedResource The ProtectedResource instance.
+		 * @return This builder.
+		 */
+		public Builder protectedResource(ProtectedResource protectedResource) {
+			this.protectedResource = protectedResource;
+			return this;
+		}
+
+		/**
+		 * Set the decoder of the requests.
+		 * @param decoder The decoder.
+		 * @return This builder.
+		 */
+		public Builder decoder(HttpRequestDecoder decoder) {
+			this.decoder = decoder;
+			return this;
+		}
+
+		/**
+		 * Set the pool of the direct buffers to write responses.
+		 * @param bufferPool The pool.
+		 * @return This builder.
+		 */
+		public Builder bufferPool(BufferPool bufferPool) {
+			this.bufferPool = bufferPool;
+			return this;
+		}
+
+		/**
+		 * Build the EmbeddedServer instance. The server is not started yet.
+		 * @return The server.
+		 */
+		public EmbeddedServer build() {
+			RoutingRequestHandler routes = new RoutingRequestHandler();
+			routes.addRoute(tokenPath, new TokenRequestHandler(token != null ? token : createToken()));
+			if (introspectionPath != null) {
+				routes.addRoute(introspectionPath, new IntrospectionRequestHandler(
+						protectedResource != null ? protectedResource : createProtectedResource()));
+			}
+			NioServer server = new NioServer(new InetSocketAddress(host, port), routes);
+			server.setSelectorCount(selectorCount);
+			server.setIdleTimeout(idleTimeout);
+			server.setMaxConnections(maxConnections);
+			if (decoder != null) {
+				server.setDecoder(decoder);
+			}
+			if (bufferPool != null) {
+				server.setBufferPool(bufferPool);
+			}
+			return new EmbeddedServer(server);
+		}
+
+		private Token createToken() {
+			Token token = new Token();
+			token.setDataHandlerFactory(dataHandlerFactory);
+			token.setGrantHandlerProvider(new DefaultGrantHandlerProvider());
+			token.setClientCredentialFetcher(new ClientCredentialFetcherImpl());
+			return token;
+		}
+
+		private ProtectedResource createProtectedResource() {
+			ProtectedResource protectedResource = new ProtectedResource();
+			protectedResource.setDataHandlerFactory(dataHandlerFactory);
+			protectedResource.setAccessTokenFetcherProvider(new DefaultAccessTokenFetcherProvider());
+			return protectedResource;
+		}
+
+	}
+
+}
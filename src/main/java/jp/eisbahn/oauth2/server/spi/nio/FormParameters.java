@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.nio;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class reads the parameters encoded as
+ * application/x-www-form-urlencoded from a byte array, for instance, the
+ * body or the query string of a request.
+ *
+ * <p>The bytes are not copied. The positions of the names and the values
+ * are indexed at the first access, and each value is percent-decoded only
+ * when it is read. The decoded value is kept for the following reads. When
+ * the same name appears more than once, the first value is used. This
+ * class is not thread-safe.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class FormParameters {
+
+	/** The parameters without any entry. */
+	public static final FormParameters EMPTY = new FormParameters(new byte[0], 0, 0);
+
+	private final byte[] bytes;
+	private final int offset;
+	private final int length;
+	private int[] positions;
+	private String[] values;
+	private int count = -1;
+	private Map<String, String> map;
+
+	/**
+	 * Initialize this instance.
+	 * @param bytes The byte array which has the encoded parameters.
+	 * @param offset The start position in the array.
+	 * @param length The length of the encoded parameters.
+	 */
+	public FormParameters(byte[] bytes, int offset, int length) {
+		super();
+		this.bytes = bytes;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * Retrieve the decoded value of the parameter.
+	 * @param name The parameter name.
+	 * @return The value. If not found, returns null.
+	 */
+	public String get(String name) {
+		index();
+		for (int i = 0; i < count; i++) {
+			if (nameEquals(i, name)) {
+				return getValue(i);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Retrieve the number of the parameters including duplicated names.
+	 * @return The number of the parameters.
+	 */
+	public int size() {
+		index();
+		return count;
+	}
+
+	/**
+	 * Retrieve all parameters as a read-only map. The map is created at the
+	 * first call of this method.
+	 * @return The map of the parameter names and the decoded values.
+	 */
+	public Map<String, String> asMap() {
+		if (map == null) {
+			index();
+			Map<String, String> result = new LinkedHashMap<String, String>();
+			for (int i = 0; i < count; i++) {
+				String name = decode(positions[i * 4], positions[i * 4 + 1]);
+				if (!result.containsKey(name)) {
+					result.put(name, getValue(i));
+				}
+			}
+			map = Collections.unmodifiableMap(result);
+		}
+		return map;
+	}
+
+	private String getValue(int i) {
+		String value = values[i];
+		if (value == null) {
+			value = decode(positions[i * 4 + 2], positions[i * 4 + 3]);
+			values[i] = value;
+		}
+		return value;
+	}
+
+	private void index() {
+		if (count >= 0) {
+			return;
+		}
+		int[] result = new int[16];
+		int n = 0;
+		int end = offset + length;
+		int start = offset;
+		while (start < end) {
+			int pairEnd = start;
+			int separator = -1;
+			while (pairEnd < end && bytes[pairEnd] != '&') {
+				if (separator < 0 && bytes[pairEnd] == '=') {
+					separator = pairEnd;
+				}
+				pairEnd++;
+			}
+			if (pairEnd > start) {
+				if ((n + 1) * 4 > result.length) {
+					int[] grown = new int[result.length * 2];
+					System.arraycopy(result, 0, grown, 0, result.length);
+					result = grown;
+				}
+				result[n * 4] = start;
+				result[n * 4 + 1] = separator < 0 ? pairEnd : separator;
+				result[n * 4 + 2] = separator < 0 ? pairEnd : separator + 1;
+				result[n * 4 + 3] = pairEnd;
+				n++;
+			}
+			start = pairEnd + 1;
+		}
+		positions = result;
+		values = new String[n];
+		count = n;
+	}
+
+	private boolean nameEquals(int i, String name) {
+		int start = positions[i * 4];
+		int end = positions[i * 4 + 1];
+		if (end - start != name.length()) {
+			for (int j = start; j < end; j++) {
+				if (bytes[j] == '%' || bytes[j] == '+') {
+					return name.equals(decode(start, end));
+				}
+			}
+			return false;
+		}
+		for (int j = start; j < end; j++) {
+			byte b = bytes[j];
+			if (b == '%' || b == '+' || b < 0) {
+				return name.equals(decode(start, end));
+			}
+			if (b != name.charAt(j - start)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String decode(int start, int end) {
+		boolean plain = true;
+		for (int j = start; j < end; j++) {
+			if (bytes[j] == '%' || bytes[j] == '+') {
+				plain = false;
+				break;
+			}
+		}
+		if (plain) {
+			return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+		}
+		byte[] decoded = new byte[end - start];
+		int n = 0;
+		for (int j = start; j < end; j++) {
+			byte b = bytes[j];
+			if (b == '+') {
+				decoded[n++] = ' ';
+			} else if (b == '%' && j + 2 < end && hex(bytes[j + 1]) >= 0 && hex(bytes[j + 2]) >= 0) {
+				decoded[n++] = (byte) ((hex(bytes[j + 1]) << 4) | hex(bytes[j + 2]));
+				j += 2;
+			} else {
+				decoded[n++] = b;
+			}
+		}
+		return new String(decoded, 0, n, StandardCharsets.UTF_8);
+	}
+
+	private static int hex(byte b) {
+		if (b >= '0' && b <= '9') {
+			return b - '0';
+		} else if (b >= 'a' && b <= 'f') {
+			return b - 'a' + 10;
+		} else if (b >= 'A' && b <= 'F') {
+			return b - 'A' + 10;
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,286 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This class decodes HTTP/1.1 requests from the bytes received on a
+ * connection.
+ *
+ * <p>The {@link #decode(ByteBuffer)} method can be called whenever bytes
+ * are received. If a whole request is in the buffer, the request is
+ * returned and the position of the buffer is moved to the next request,
+ * so pipelined requests are decoded one by one. Otherwise, the buffer is
+ * not changed and null is returned. The body must have the Content-Length
+ * header; the chunked transfer coding is not supported.</p>
+ *
+ * <p>The buffer must be a heap buffer. The body is copied out of the
+ * buffer once, because the buffer is reused to receive the following
+ * bytes. The parameters in the body are decoded lazily by
+ * {@link FormParameters}.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class HttpRequestDecoder {
+
+	private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+	private int maxHeaderSize = 8192;
+	private int maxHeaderCount = 64;
+	private int maxBodySize = 65536;
+
+	/**
+	 * Set the maximum size of the request line and the headers. The default
+	 * value is 8KB.
+	 * @param maxHeaderSize The maximum size in bytes.
+	 */
+	public void setMaxHeaderSize(int maxHeaderSize) {
+		this.maxHeaderSize = maxHeaderSize;
+	}
+
+	/**
+	 * Set the maximum number of the headers. The default value is 64.
+	 * @param maxHeaderCount The maximum number.
+	 */
+	public void setMaxHeaderCount(int maxHeaderCount) {
+		this.maxHeaderCount = maxHeaderCount;
+	}
+
+	/**
+	 * Set the maximum size of the body. The default value is 64KB.
+	 * @param maxBodySize The maximum size in bytes.
+	 */
+	public void setMaxBodySize(int maxBodySize) {
+		this.maxBodySize = maxBodySize;
+	}
+
+	/**
+	 * Retrieve the maximum size of a whole request.
+	 * @return The maximum size in bytes.
+	 */
+	public int getMaxRequestSize() {
+		return maxHeaderSize + maxBodySize;
+	}
+
+	/**
+	 * Decode a request from the buffer.
+	 * @param buffer The heap buffer ready to be read.
+	 * @return The decoded request. If the request is not received
+	 * completely, returns null.
+	 * @throws DecodeException If the request is invalid.
+	 */
+	public NioRequest decode(ByteBuffer buffer) throws DecodeException {
+		byte[] bytes = buffer.array();
+		int start = buffer.arrayOffset() + buffer.position();
+		int limit = buffer.arrayOffset() + buffer.limit();
+		while (start + 1 < limit && bytes[start] == '\r' && bytes[start + 1] == '\n') {
+			start += 2;
+		}
+		int headerEnd = indexOfHeaderEnd(bytes, start, limit);
+		if (headerEnd < 0) {
+			if (limit - start > maxHeaderSize) {
+				throw new DecodeException(431, "Request header is too large.");
+			}
+			return null;
+		}
+		if (headerEnd - start > maxHeaderSize) {
+			throw new DecodeException(431, "Request header is too large.");
+		}
+		int lineEnd = indexOfLineEnd(bytes, start, headerEnd);
+		String[] requestLine = parseRequestLine(bytes, start, lineEnd);
+		String[] headers = parseHeaders(bytes, lineEnd + 2, headerEnd);
+		if (getHeader(headers, "transfer-encoding") != null) {
+			throw new DecodeException(501, "Transfer-Encoding is not supported.");
+		}
+		int contentLength = parseContentLength(getContentLength(headers));
+		int bodyStart = headerEnd + 4;
+		if (limit - bodyStart < contentLength) {
+			return null;
+		}
+		buffer.position(bodyStart + contentLength - buffer.arrayOffset());
+
+		String target = requestLine[1];
+		int question = target.indexOf('?');
+		String path = question < 0 ? target : target.substring(0, question);
+		FormParameters query = FormParameters.EMPTY;
+		if (question >= 0 && question < target.length() - 1) {
+			byte[] queryBytes = target.substring(question + 1).getBytes(StandardCharsets.ISO_8859_1);
+			query = new FormParameters(queryBytes, 0, queryBytes.length);
+		}
+		FormParameters body = FormParameters.EMPTY;
+		String contentType = getHeader(headers, "content-type");
+		if (contentLength > 0 && contentType != null
+				&& contentType.toLowerCase().startsWith(FORM_CONTENT_TYPE)) {
+			body = new FormParameters(Arrays.copyOfRange(bytes, bodyStart, bodyStart + contentLength),
+					0, contentLength);
+		}
+		String connection = getHeader(headers, "connection");
+		boolean keepAlive;
+		if ("HTTP/1.1".equals(requestLine[2])) {
+			keepAlive = connection == null || !connection.toLowerCase().contains("close");
+		} else {
+			keepAlive = connection != null && connection.toLowerCase().contains("keep-alive");
+		}
+		return new NioRequest(requestLine[0], path, headers, query, body, keepAlive);
+	}
+
+	private String[] parseRequestLine(byte[] bytes, int start, int end) throws DecodeException {
+		String line = new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+		int first = line.indexOf(' ');
+		int second = first < 0 ? -1 : line.indexOf(' ', first + 1);
+		if (first <= 0 || second <= first + 1 || line.indexOf(' ', second + 1) >= 0) {
+			throw new DecodeException(400, "Invalid request line.");
+		}
+		String version = line.substring(second + 1);
+		if (!"HTTP/1.1".equals(version) && !"HTTP/1.0".equals(version)) {
+			throw new DecodeException(505, "HTTP version is not supported.");
+		}
+		return new String[] {line.substring(0, first), line.substring(first + 1, second), version};
+	}
+
+	private String[] parseHeaders(byte[] bytes, int start, int end) throws DecodeException {
+		String[] headers = new String[16];
+		int n = 0;
+		while (start < end) {
+			int lineEnd = indexOfLineEnd(bytes, start, end);
+			if (bytes[start] == ' ' || bytes[start] == '\t') {
+				throw new DecodeException(400, "Folded header is not allowed.");
+			}
+			int colon = start;
+			while (colon < lineEnd && bytes[colon] != ':') {
+				colon++;
+			}
+			if (colon == start || colon == lineEnd) {
+				throw new DecodeException(400, "Invalid header.");
+			}
+			if (n / 2 >= maxHeaderCount) {
+				throw new DecodeException(431, "Too many headers.");
+			}
+			if (n + 2 > headers.length) {
+				headers = Arrays.copyOf(headers, headers.length * 2);
+			}
+			headers[n++] = new String(bytes, start, colon - start, StandardCharsets.ISO_8859_1).toLowerCase();
+			headers[n++] = new String(bytes, colon + 1, lineEnd - colon - 1, StandardCharsets.ISO_8859_1).trim();
+			start = lineEnd + 2;
+		}
+		return Arrays.copyOf(headers, n);
+	}
+
+	private String getContentLength(String[] headers) throws DecodeException {
+		String value = null;
+		for (int i = 0; i < headers.length; i += 2) {
+			if (headers[i].equals("content-length")) {
+				if (value != null) {
+					// Another hop may use the other value to find the end of the body.
+					throw new DecodeException(400, "Multiple Content-Length headers.");
+				}
+				value = headers[i + 1];
+			}
+		}
+		return value;
+	}
+
+	private int parseContentLength(String value) throws DecodeException {
+		if (value == null) {
+			return 0;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+				throw new DecodeException(400, "Invalid Content-Length.");
+			}
+		}
+		long contentLength;
+		try {
+			contentLength = Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new DecodeException(400, "Invalid Content-Length.");
+		}
+		if (contentLength < 0) {
+			throw new DecodeException(400, "Invalid Content-Length.");
+		}
+		if (contentLength > maxBodySize) {
+			throw new DecodeException(413, "Request body is too large.");
+		}
+		return (int) contentLength;
+	}
+
+	private static String getHeader(String[] headers, String name) {
+		for (int i = 0; i < headers.length; i += 2) {
+			if (headers[i].equals(name)) {
+				return headers[i + 1];
+			}
+		}
+		return null;
+	}
+
+	private static int indexOfHeaderEnd(byte[] bytes, int start, int limit) {
+		for (int i = start; i + 3 < limit; i++) {
+			if (bytes[i] == '\r' && bytes[i + 1] == '\n' && bytes[i + 2] == '\r' && bytes[i + 3] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int indexOfLineEnd(byte[] bytes, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (bytes[i] == '\r' && bytes[i + 1] == '\n') {
+				return i;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * This exception is thrown when the request is invalid. The connection
+	 * should be closed after sending the status code.
+	 *
+	 * @author Yoichiro Tanaka
+	 *
+	 */
+	@SuppressWarnings("serial")
+	public static class DecodeException extends IOException {
+
+		private final int status;
+
+		/**
+		 * Initialize this instance.
+		 * @param status The HTTP status code to send.
+		 * @param message The message.
+		 */
+		public DecodeException(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+
+		/**
+		 * Retrieve the HTTP status code to send.
+		 * @return The status code.
+		 */
+		public int getStatus() {
+			return status;
+		}
+
+	}
+
+}
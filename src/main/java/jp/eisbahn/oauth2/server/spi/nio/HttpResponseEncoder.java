@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * This class encodes HTTP/1.1 responses into the buffers retrieved from
+ * {@link BufferPool}. The body is encoded in UTF-8 directly into the
+ * buffer without any intermediate byte array. The responses always have
+ * the headers "Cache-Control: no-store" and "Pragma: no-cache", which are
+ * required for the responses of the token endpoint.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class HttpResponseEncoder {
+
+	private static final String JSON_CONTENT_TYPE = "application/json; charset=UTF-8";
+
+	private final BufferPool bufferPool;
+
+	/**
+	 * Initialize this instance.
+	 * @param bufferPool The pool of the buffers.
+	 */
+	public HttpResponseEncoder(BufferPool bufferPool) {
+		super();
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Encode the response which has a JSON body.
+	 * @param status The status code.
+	 * @param headers The additional headers. This can be null.
+	 * @param body The JSON string. This can be null.
+	 * @param keepAlive True if the connection is kept alive.
+	 * @return The buffer ready to be written. The buffer should be released
+	 * to the pool after writing.
+	 */
+	public ByteBuffer encode(int status, Map<String, String> headers, String body, boolean keepAlive) {
+		int bodyLength = body != null ? utf8Length(body) : 0;
+		StringBuilder sb = new StringBuilder(192);
+		sb.append("HTTP/1.1 ").append(status).append(' ').append(getReasonPhrase(status)).append("\r\n");
+		if (body != null) {
+			sb.append("Content-Type: ").append(JSON_CONTENT_TYPE).append("\r\n");
+		}
+		sb.append("Content-Length: ").append(bodyLength).append("\r\n");
+		sb.append("Cache-Control: no-store\r\nPragma: no-cache\r\n");
+		if (headers != null) {
+			for (Map.Entry<String, String> header : headers.entrySet()) {
+				sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+			}
+		}
+		sb.append(keepAlive ? "Connection: keep-alive\r\n\r\n" : "Connection: close\r\n\r\n");
+		ByteBuffer buffer = bufferPool.acquire(sb.length() + bodyLength);
+		for (int i = 0; i < sb.length(); i++) {
+			buffer.put((byte) sb.charAt(i));
+		}
+		if (body != null) {
+			CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			encoder.encode(CharBuffer.wrap(body), buffer, true);
+			encoder.flush(buffer);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Release the buffer returned from the encode() method.
+	 * @param buffer The buffer.
+	 */
+	public void release(ByteBuffer buffer) {
+		bufferPool.release(buffer);
+	}
+
+	private static int utf8Length(String value) {
+		int length = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				length++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	private static String getReasonPhrase(int status) {
+		switch (status) {
+		case 200: return "OK";
+		case 400: return "Bad Request";
+		case 401: return "Unauthorized";
+		case 403: return "Forbidden";
+		case 404: return "Not Found";
+		case 405: return "Method Not Allowed";
+		case 413: return "Payload Too Large";
+		case 429: return "Too Many Requests";
+		case 431: return "Request Header Fields Too Large";
+		case 500: return "Internal Server Error";
+		case 501: return "Not Implemented";
+		case 503: return "Service Unavailable";
+		case 505: return "HTTP Version Not Supported";
+		default: return "Unknown";
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.nio;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource;
+import jp.eisbahn.oauth2.server.endpoint.ProtectedResource.Response;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.utils.Util;
+
+/**
+ * This class is a RequestHandler implementation which describes the access
+ * token sent with the request. The token is validated by
+ * {@link ProtectedResource}, and the client ID, the ID of the user and the
+ * scope are returned as the JSON string with the "active" member.
+ *
+ * If the token is invalid, the error is returned with the
+ * WWW-Authenticate header as same as the ProtectedResourceFilter.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class IntrospectionRequestHandler implements RequestHandler {
+
+	private final ProtectedResource protectedResource;
+
+	/**
+	 * Initialize this instance.
+	 * @param protectedResource The ProtectedResource instance which is set
+	 * up with your DataHandlerFactory and other helpers.
+	 */
+	public IntrospectionRequestHandler(ProtectedResource protectedResource) {
+		super();
+		this.protectedResource = protectedResource;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.spi.nio.RequestHandler#handle(jp.eisbahn.oauth2.server.spi.nio.NioRequest, jp.eisbahn.oauth2.server.spi.nio.ResponseChannel)
+	 */
+	@Override
+	public void handle(NioRequest request, final ResponseChannel channel) {
+		if (!"GET".equals(request.getMethod()) && !"POST".equals(request.getMethod())) {
+			channel.send(405, Collections.singletonMap("Allow", "GET, POST"), null);
+			return;
+		}
+		protectedResource.handleRequest(request, new Handler<Try<OAuthError, Response>>() {
+			@Override
+			public void handle(Try<OAuthError, Response> event) {
+				try {
+					Response response = event.get();
+					Map<String, Object> body = new LinkedHashMap<String, Object>();
+					body.put("active", true);
+					body.put("client_id", response.getClientId());
+					body.put("sub", response.getRemoteUser());
+					if (StringUtils.isNotEmpty(response.getScope())) {
+						body.put("scope", response.getScope());
+					}
+					channel.send(200, null, Util.toJson(body));
+				} catch (OAuthError e) {
+					channel.send(e.getCode(),
+							Collections.singletonMap("WWW-Authenticate", createChallenge(e)),
+							createErrorBody(e));
+				}
+			}
+		});
+	}
+
+	private static String createChallenge(OAuthError e) {
+		StringBuilder sb = new StringBuilder("Bearer error=\"").append(e.getType()).append('"');
+		if (StringUtils.isNotBlank(e.getDescription())) {
+			sb.append(", error_description=\"").append(e.getDescription()).append('"');
+		}
+		return sb.toString();
+	}
+
+	private static String createErrorBody(OAuthError e) {
+		Map<String, Object> error = new LinkedHashMap<String, Object>();
+		error.put("error", e.getType());
+		if (StringUtils.isNotBlank(e.getDescription())) {
+			error.put("error_description", e.getDescription());
+		}
+		return Util.toJson(error);
+	}
+
+}
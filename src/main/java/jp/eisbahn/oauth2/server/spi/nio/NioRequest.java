@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.nio;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jp.eisbahn.oauth2.server.models.Request;
+
+/**
+ * This class is a Request implementation for the HTTP request decoded by
+ * {@link HttpRequestDecoder}.
+ *
+ * <p>The parameters are read from the query string and the body encoded as
+ * application/x-www-form-urlencoded. When the same name exists in both,
+ * the value in the query string is used, the same as the Servlet API. Each
+ * value is decoded only when it is read.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class NioRequest implements Request {
+
+	private final String method;
+	private final String path;
+	private final String[] headers;
+	private final FormParameters query;
+	private final FormParameters body;
+	private final boolean keepAlive;
+	private Map<String, String> parameterMap;
+
+	/**
+	 * Initialize this instance.
+	 * @param method The request method.
+	 * @param path The path of the request target without the query string.
+	 * @param headers The header names in lower case and the values, in turn.
+	 * @param query The parameters in the query string.
+	 * @param body The parameters in the body.
+	 * @param keepAlive True if the connection can be reused after the response.
+	 */
+	public NioRequest(String method, String path, String[] headers,
+			FormParameters query, FormParameters body, boolean keepAlive) {
+		super();
+		this.method = method;
+		this.path = path;
+		this.headers = headers;
+		this.query = query;
+		this.body = body;
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * Retrieve the request method.
+	 * @return The method, for instance, "POST".
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * Retrieve the path of the request target without the query string.
+	 * @return The path.
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Determine whether the connection can be reused after the response.
+	 * @return True if the connection is kept alive.
+	 */
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.models.Request#getParameter(java.lang.String)
+	 */
+	@Override
+	public String getParameter(String name) {
+		String value = query.get(name);
+		return value != null ? value : body.get(name);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.models.Request#getParameterMap()
+	 */
+	@Override
+	public Map<String, String> getParameterMap() {
+		if (parameterMap == null) {
+			if (query.size() == 0) {
+				parameterMap = body.asMap();
+			} else if (body.size() == 0) {
+				parameterMap = query.asMap();
+			} else {
+				Map<String, String> merged = new LinkedHashMap<String, String>(body.asMap());
+				merged.putAll(query.asMap());
+				parameterMap = Collections.unmodifiableMap(merged);
+			}
+		}
+		return parameterMap;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.models.Request#getHeader(java.lang.String)
+	 */
+	@Override
+	public String getHeader(String name) {
+		for (int i = 0; i < headers.length; i += 2) {
+			if (headers[i].equalsIgnoreCase(name)) {
+				return headers[i + 1];
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,555 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.eisbahn.oauth2.server.utils.Util;
+
+/**
+ * This class is a small HTTP/1.1 server on an event loop with the
+ * non-blocking I/O. The received requests are passed to a
+ * {@link RequestHandler}, for instance, {@link TokenRequestHandler}.
+ *
+ * <p>The connections are kept alive unless the client asks to close them.
+ * Pipelined requests on a connection are handled one by one, and the
+ * responses are written in the same order. The responses are encoded into
+ * pooled direct buffers by {@link HttpResponseEncoder}.</p>
+ *
+ * <p>The event loops run on a small number of threads (one by default),
+ * and each connection is served by one of them. The handler must not block
+ * the thread; the DataHandler calls which may block should be completed on
+ * other threads, and the response can be sent from any thread.</p>
+ *
+ * <p>A connection which has no request in process and makes no progress
+ * for the idle timeout (60 seconds by default) is closed. This includes a
+ * client which sends a request very slowly or doesn't read the response.
+ * The idle connections are swept by each event loop periodically. When the
+ * number of the connections reaches the maximum (10000 by default), new
+ * connections are closed right after accepting them.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class NioServer {
+
+	private final InetSocketAddress address;
+	private final RequestHandler requestHandler;
+	private HttpRequestDecoder decoder = new HttpRequestDecoder();
+	private HttpResponseEncoder encoder = new HttpResponseEncoder(new BufferPool());
+	private int selectorCount = 1;
+	private long idleTimeout = 60000L;
+	private int maxConnections = 10000;
+	private final AtomicInteger connections = new AtomicInteger();
+	private EventLoop[] loops;
+	private ServerSocketChannel serverChannel;
+	private int nextLoop;
+	private volatile boolean running;
+
+	/**
+	 * Initialize this instance.
+	 * @param address The address to listen. If the port is 0, an ephemeral
+	 * port is used.
+	 * @param requestHandler The handler of the requests.
+	 */
+	public NioServer(InetSocketAddress address, RequestHandler requestHandler) {
+		super();
+		this.address = address;
+		this.requestHandler = requestHandler;
+	}
+
+	/**
+	 * Set the decoder of the requests. This must be called before starting.
+	 * @param decoder The decoder.
+	 */
+	public void setDecoder(HttpRequestDecoder decoder) {
+		this.decoder = decoder;
+	}
+
+	/**
+	 * Set the pool of the buffers to write responses. This must be called
+	 * before starting.
+	 * @param bufferPool The pool.
+	 */
+	public void setBufferPool(BufferPool bufferPool) {
+		this.encoder = new HttpResponseEncoder(bufferPool);
+	}
+
+	/**
+	 * Set the number of the event loop threads. The first thread also
+	 * accepts the connections, and the accepted connections are assigned to
+	 * the threads in rotation. This must be called before starting. The
+	 * default is 1.
+	 * @param selectorCount The number of the threads.
+	 */
+	public void setSelectorCount(int selectorCount) {
+		if (selectorCount < 1) {
+			throw new IllegalArgumentException("selectorCount must be positive.");
+		}
+		this.selectorCount = selectorCount;
+	}
+
+	/**
+	 * Set the time to close a connection which is idle. This must be called
+	 * before starting. The default is 60000.
+	 * @param idleTimeout The timeout value. The unit is millisecond. If 0,
+	 * idle connections are never closed.
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		if (idleTimeout < 0) {
+			throw new IllegalArgumentException("idleTimeout must not be negative.");
+		}
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Set the maximum number of the connections. The connections accepted
+	 * over this number are closed immediately. The default is 10000.
+	 * @param maxConnections The maximum number.
+	 */
+	public void setMaxConnections(int maxConnections) {
+		if (maxConnections < 1) {
+			throw new IllegalArgumentException("maxConnections must be positive.");
+		}
+		this.maxConnections = maxConnections;
+	}
+
+	/**
+	 * Retrieve the number of the open connections.
+	 * @return The number of the connections.
+	 */
+	public int getConnectionCount() {
+		return connections.get();
+	}
+
+	/**
+	 * Start listening and the event loop threads.
+	 * @throws IOException If the address could not be bound.
+	 */
+	public synchronized void start() throws IOException {
+		if (loops != null) {
+			return;
+		}
+		EventLoop[] loops = new EventLoop[selectorCount];
+		serverChannel = ServerSocketChannel.open();
+		try {
+			serverChannel.configureBlocking(false);
+			serverChannel.bind(address);
+			for (int i = 0; i < loops.length; i++) {
+				loops[i] = new EventLoop();
+			}
+			serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			for (EventLoop loop : loops) {
+				if (loop != null) {
+					loop.selector.close();
+				}
+			}
+			serverChannel.close();
+			throw e;
+		}
+		this.loops = loops;
+		running = true;
+		int port = getLocalAddress().getPort();
+		for (int i = 0; i < loops.length; i++) {
+			loops[i].start("oauth2-nio-" + port + "-" + i);
+		}
+	}
+
+	/**
+	 * Retrieve the address which this server is listening.
+	 * @return The address. If this server is not started, returns null.
+	 */
+	public InetSocketAddress getLocalAddress() {
+		try {
+			return serverChannel != null ? (InetSocketAddress) serverChannel.getLocalAddress() : null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stop the event loops and close all connections.
+	 * @throws InterruptedException If interrupted while waiting for the
+	 * event loop threads.
+	 */
+	public synchronized void stop() throws InterruptedException {
+		if (loops == null) {
+			return;
+		}
+		running = false;
+		for (EventLoop loop : loops) {
+			loop.selector.wakeup();
+		}
+		for (EventLoop loop : loops) {
+			loop.thread.join();
+		}
+		loops = null;
+		try {
+			serverChannel.close();
+		} catch (IOException e) {
+			// Nothing to do.
+		}
+	}
+
+	private void accept(EventLoop acceptor) throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			if (connections.incrementAndGet() > maxConnections) {
+				connections.decrementAndGet();
+				channel.close();
+				continue;
+			}
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			EventLoop loop = loops[nextLoop];
+			nextLoop = (nextLoop + 1) % loops.length;
+			if (loop == acceptor) {
+				loop.register(channel);
+			} else {
+				final EventLoop target = loop;
+				final SocketChannel accepted = channel;
+				loop.execute(new Runnable() {
+					@Override
+					public void run() {
+						target.register(accepted);
+					}
+				});
+			}
+		}
+	}
+
+	private final class EventLoop {
+
+		private final Selector selector;
+		private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+		private Thread thread;
+		private long nextSweep;
+
+		private EventLoop() throws IOException {
+			selector = Selector.open();
+		}
+
+		private void start(String name) {
+			thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					loop();
+				}
+			}, name);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		private void execute(Runnable task) {
+			tasks.add(task);
+			selector.wakeup();
+		}
+
+		private void register(SocketChannel channel) {
+			Connection connection = new Connection(this, channel);
+			try {
+				connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+			} catch (IOException e) {
+				connection.close();
+			}
+		}
+
+		private void loop() {
+			long sweepInterval = Math.max(1L, Math.min(1000L, idleTimeout / 4));
+			nextSweep = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sweepInterval);
+			try {
+				while (running) {
+					if (idleTimeout > 0) {
+						selector.select(sweepInterval);
+						sweep(sweepInterval);
+					} else {
+						selector.select();
+					}
+					runTasks();
+					Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+					while (i.hasNext()) {
+						SelectionKey key = i.next();
+						i.remove();
+						if (!key.isValid()) {
+							continue;
+						}
+						if (key.isAcceptable()) {
+							accept(this);
+						} else {
+							((Connection) key.attachment()).onReady(key);
+						}
+					}
+				}
+			} catch (IOException e) {
+				running = false;
+			} finally {
+				runTasks();
+				for (SelectionKey key : selector.keys()) {
+					if (key.attachment() instanceof Connection) {
+						((Connection) key.attachment()).close();
+					}
+				}
+				try {
+					selector.close();
+				} catch (IOException e) {
+					// Nothing to do.
+				}
+			}
+		}
+
+		private void sweep(long sweepInterval) {
+			long now = System.nanoTime();
+			if (now - nextSweep < 0) {
+				return;
+			}
+			nextSweep = now + TimeUnit.MILLISECONDS.toNanos(sweepInterval);
+			long idleNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+			for (SelectionKey key : selector.keys()) {
+				if (key.attachment() instanceof Connection) {
+					Connection connection = (Connection) key.attachment();
+					if (!connection.inFlight && now - connection.lastActivity >= idleNanos) {
+						connection.close();
+					}
+				}
+			}
+		}
+
+		private void runTasks() {
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				task.run();
+			}
+		}
+
+	}
+
+	private final class Connection {
+
+		private final EventLoop loop;
+		private final SocketChannel channel;
+		private SelectionKey key;
+		private ByteBuffer in = ByteBuffer.allocate(4096);
+		private final ArrayDeque<ByteBuffer> out = new ArrayDeque<ByteBuffer>();
+		private boolean inFlight;
+		private boolean processing;
+		private boolean closeAfterWrite;
+		private boolean closed;
+		private long lastActivity = System.nanoTime();
+
+		private Connection(EventLoop loop, SocketChannel channel) {
+			this.loop = loop;
+			this.channel = channel;
+		}
+
+		private void onReady(SelectionKey key) {
+			try {
+				if (key.isWritable()) {
+					flush();
+				}
+				if (!closed && key.isReadable()) {
+					read();
+				}
+			} catch (IOException e) {
+				close();
+			}
+		}
+
+		private void read() throws IOException {
+			if (!in.hasRemaining()) {
+				if (in.capacity() >= decoder.getMaxRequestSize()) {
+					updateInterest();
+					return;
+				}
+				ByteBuffer grown = ByteBuffer.allocate(Math.min(in.capacity() * 2, decoder.getMaxRequestSize()));
+				in.flip();
+				grown.put(in);
+				in = grown;
+			}
+			int read = channel.read(in);
+			if (read < 0) {
+				close();
+				return;
+			}
+			if (read > 0) {
+				lastActivity = System.nanoTime();
+			}
+			process();
+		}
+
+		private void process() {
+			processing = true;
+			try {
+				while (!inFlight && !closeAfterWrite && !closed) {
+					NioRequest request;
+					in.flip();
+					try {
+						request = decoder.decode(in);
+					} catch (HttpRequestDecoder.DecodeException e) {
+						inFlight = true;
+						complete(encoder.encode(e.getStatus(), null, createErrorBody(e), false), false);
+						return;
+					} finally {
+						in.compact();
+					}
+					if (request == null) {
+						break;
+					}
+					inFlight = true;
+					ResponseChannel responseChannel = new ConnectionResponseChannel(this, request.isKeepAlive());
+					try {
+						requestHandler.handle(request, responseChannel);
+					} catch (RuntimeException e) {
+						responseChannel.send(500, null, null);
+					}
+				}
+			} finally {
+				processing = false;
+			}
+			updateInterest();
+		}
+
+		private String createErrorBody(HttpRequestDecoder.DecodeException e) {
+			Map<String, Object> error = new LinkedHashMap<String, Object>();
+			error.put("error", "invalid_request");
+			error.put("error_description", e.getMessage());
+			return Util.toJson(error);
+		}
+
+		private void complete(ByteBuffer response, boolean keepAlive) {
+			if (closed) {
+				encoder.release(response);
+				return;
+			}
+			out.add(response);
+			inFlight = false;
+			lastActivity = System.nanoTime();
+			if (!keepAlive) {
+				closeAfterWrite = true;
+			}
+			try {
+				flush();
+			} catch (IOException e) {
+				close();
+				return;
+			}
+			if (!processing && !closed) {
+				process();
+			}
+		}
+
+		private void flush() throws IOException {
+			while (!out.isEmpty()) {
+				ByteBuffer buffer = out.peek();
+				if (channel.write(buffer) > 0) {
+					lastActivity = System.nanoTime();
+				}
+				if (buffer.hasRemaining()) {
+					break;
+				}
+				encoder.release(out.poll());
+			}
+			if (out.isEmpty() && closeAfterWrite) {
+				close();
+				return;
+			}
+			updateInterest();
+		}
+
+		private void updateInterest() {
+			if (closed || key == null || !key.isValid()) {
+				return;
+			}
+			int ops = 0;
+			if (!out.isEmpty()) {
+				ops |= SelectionKey.OP_WRITE;
+			}
+			if (!closeAfterWrite && (in.hasRemaining() || in.capacity() < decoder.getMaxRequestSize())) {
+				ops |= SelectionKey.OP_READ;
+			}
+			key.interestOps(ops);
+		}
+
+		private void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			connections.decrementAndGet();
+			if (key != null) {
+				key.cancel();
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// Nothing to do.
+			}
+			ByteBuffer buffer;
+			while ((buffer = out.poll()) != null) {
+				encoder.release(buffer);
+			}
+		}
+
+	}
+
+	private final class ConnectionResponseChannel implements ResponseChannel {
+
+		private final Connection connection;
+		private final boolean keepAlive;
+		private final AtomicBoolean sent = new AtomicBoolean();
+
+		private ConnectionResponseChannel(Connection connection, boolean keepAlive) {
+			this.connection = connection;
+			this.keepAlive = keepAlive;
+		}
+
+		@Override
+		public void send(int status, Map<String, String> headers, String body) {
+			if (!sent.compareAndSet(false, true)) {
+				return;
+			}
+			final ByteBuffer response = encoder.encode(status, headers, body, keepAlive && running);
+			if (Thread.currentThread() == connection.loop.thread) {
+				connection.complete(response, keepAlive);
+				return;
+			}
+			connection.loop.execute(new Runnable() {
+				@Override
+				public void run() {
+					connection.complete(response, keepAlive);
+				}
+			});
+		}
+
+	}
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.nio;
+
+/**
+ * This interface defines the handler of the requests received by
+ * {@link NioServer}. This is called on the event loop thread, therefore,
+ * the implementation must not block. The response can be sent from any
+ * thread later.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface RequestHandler {
+
+	/**
+	 * Handle the request.
+	 * @param request The decoded request.
+	 * @param channel The channel to send the response. The response must be
+	 * sent exactly once.
+	 */
+	public void handle(NioRequest request, ResponseChannel channel);
+
+}
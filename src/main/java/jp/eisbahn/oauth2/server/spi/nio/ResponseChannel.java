@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.nio;
+
+import java.util.Map;
+
+/**
+ * This interface defines the channel to send the response of a request
+ * handled by {@link RequestHandler}.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public interface ResponseChannel {
+
+	/**
+	 * Send the response. The second and later calls are ignored.
+	 * @param status The status code.
+	 * @param headers The additional headers. This can be null.
+	 * @param body The JSON string. This can be null.
+	 */
+	public void send(int status, Map<String, String> headers, String body);
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.nio;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class is a RequestHandler implementation which dispatches each
+ * request to the handler registered with the same path. If no handler is
+ * registered with the path, the status code 404 is returned.
+ *
+ * The routes must be added before the server is started.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class RoutingRequestHandler implements RequestHandler {
+
+	private final Map<String, RequestHandler> routes = new HashMap<String, RequestHandler>();
+
+	/**
+	 * Add the handler of the path.
+	 * @param path The path, for instance, "/token".
+	 * @param handler The handler.
+	 */
+	public void addRoute(String path, RequestHandler handler) {
+		if (path == null || !path.startsWith("/")) {
+			throw new IllegalArgumentException("The path must start with \"/\": " + path);
+		}
+		routes.put(path, handler);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.spi.nio.RequestHandler#handle(jp.eisbahn.oauth2.server.spi.nio.NioRequest, jp.eisbahn.oauth2.server.spi.nio.ResponseChannel)
+	 */
+	@Override
+	public void handle(NioRequest request, ResponseChannel channel) {
+		RequestHandler handler = routes.get(request.getPath());
+		if (handler != null) {
+			handler.handle(request, channel);
+		} else {
+			channel.send(404, null, null);
+		}
+	}
+
+}
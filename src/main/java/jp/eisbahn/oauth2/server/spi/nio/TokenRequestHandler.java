@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.nio;
+
+import java.util.Collections;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.endpoint.Token;
+import jp.eisbahn.oauth2.server.endpoint.Token.Response;
+
+/**
+ * This class is a RequestHandler implementation of the Token issuing
+ * endpoint. The request must be sent with the POST method.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class TokenRequestHandler implements RequestHandler {
+
+	private final Token token;
+
+	/**
+	 * Initialize this instance.
+	 * @param token The Token instance which is set up with your
+	 * DataHandlerFactory and other helpers.
+	 */
+	public TokenRequestHandler(Token token) {
+		super();
+		this.token = token;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see jp.eisbahn.oauth2.server.spi.nio.RequestHandler#handle(jp.eisbahn.oauth2.server.spi.nio.NioRequest, jp.eisbahn.oauth2.server.spi.nio.ResponseChannel)
+	 */
+	@Override
+	public void handle(NioRequest request, final ResponseChannel channel) {
+		if (!"POST".equals(request.getMethod())) {
+			channel.send(405, Collections.singletonMap("Allow", "POST"), null);
+			return;
+		}
+		token.handleRequest(request, new Handler<Response>() {
+			@Override
+			public void handle(Response response) {
+				channel.send(response.getCode(), response.getHeaders(), response.getBody());
+			}
+		});
+	}
+
+}
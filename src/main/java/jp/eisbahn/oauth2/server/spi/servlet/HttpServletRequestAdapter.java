@@ -23,6 +23,7 @@ import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
 
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.utils.ParameterView;
 
 /**
  * This class adapts a HttpServletRequest to a Request interface.
@@ -33,6 +34,7 @@ import jp.eisbahn.oauth2.server.models.Request;
 public class HttpServletRequestAdapter implements Request {
 
 	private HttpServletRequest request;
+	private Map<String, String> parameterMap;
 
 	/**
 	 * Initialize this instance with the HttpServletRequest.
@@ -61,14 +63,19 @@ public class HttpServletRequestAdapter implements Request {
 		return request.getHeader(name);
 	}
 
-	/*
-	 * (non-Javadoc)
+	/**
+	 * Retrieve all parameters as a read-only view. The view is backed by the
+	 * parameter map of the HttpServletRequest, and returns the first value
+	 * of each parameter.
 	 * @see jp.eisbahn.oauth2.server.models.Request#getParameterMap()
 	 */
 	@SuppressWarnings("unchecked")
 	@Override
 	public Map<String, String> getParameterMap() {
-		return request.getParameterMap();
+		if (parameterMap == null) {
+			parameterMap = new ParameterView((Map<String, ?>) request.getParameterMap());
+		}
+		return parameterMap;
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import org.apache.commons.io.IOUtils;
+
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.endpoint.Introspection;
+import jp.eisbahn.oauth2.server.endpoint.Introspection.Response;
+import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcher;
+import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcherImpl;
+
+/**
+ * This class is an HttpServlet implementation of the token introspection
+ * endpoint (RFC 7662).
+ *
+ * This instance needs two helper objects. One is a DataHandlerFactory
+ * instance. Other one is a ClientCredentialFetcher instance. These
+ * implementation class name are specified as the init-param values. The
+ * maximum number of the tokens in one batch request can be specified as
+ * the "maxBatchSize" init-param. For instance, specify the following in
+ * your web.xml file:<br />
+ * <br />
+ * <code>
+ * &lt;servlet&gt;<br />
+ * &nbsp;&nbsp;&lt;servlet-name&gt;introspect&lt;servlet-name&gt;<br />
+ * &nbsp;&nbsp;&lt;servlet-class&gt;jp.eisbahn.oauth2.server.spi.servlet.IntrospectionServlet&lt;servlet-name&gt;<br />
+ * &nbsp;&nbsp;&lt;init-param&gt;<br />
+ * &nbsp;&nbsp;&nbsp;&nbsp;&lt;param-name&gt;dataHandlerFactory&lt;/param-name&gt;<br />
+ * &nbsp;&nbsp;&nbsp;&nbsp;&lt;param-value&gt;your-class-name&lt;/param-value&gt;<br />
+ * &nbsp;&nbsp;&lt;/init-param&gt;<br />
+ * &nbsp;&nbsp;&lt;init-param&gt;<br />
+ * &nbsp;&nbsp;&nbsp;&nbsp;&lt;param-name&gt;clientCredentialFetcher&lt;/param-name&gt;<br />
+ * &nbsp;&nbsp;&nbsp;&nbsp;&lt;param-value&gt;your-class-name&lt;/param-value&gt;<br />
+ * &nbsp;&nbsp;&lt;/init-param&gt;<br />
+ * &lt;/servlet&gt;
+ * </code>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+@SuppressWarnings("serial")
+public class IntrospectionServlet extends HttpServlet {
+
+	private static final String DATA_HANDLER_FACTORY_CLASSNAME = "dataHandlerFactory";
+	private static final String CLIENT_CREDENTIAL_FETCHER_CLASSNAME = "clientCredentialFetcher";
+	private static final String MAX_BATCH_SIZE = "maxBatchSize";
+
+	private Introspection introspection;
+
+	/**
+	 * Initialize this servlet.
+	 * For instance, this method loads two implementation class name and
+	 * create these instances. Then, the Introspection instance to process
+	 * the request is created with their helper instances.
+	 *
+	 * @param config The ServletConfig object.
+	 * @exception ServletException Each helper instance could not be created.
+	 */
+	@Override
+	public void init(ServletConfig config) throws ServletException {
+		try {
+			introspection = new Introspection();
+			introspection.setDataHandlerFactory(
+					this.<DataHandlerFactory>createInstance(DATA_HANDLER_FACTORY_CLASSNAME, config));
+			introspection.setClientCredentialFetcher(getClientCredentialFetcher(config));
+			String maxBatchSize = config.getInitParameter(MAX_BATCH_SIZE);
+			if (maxBatchSize != null) {
+				introspection.setMaxBatchSize(Integer.parseInt(maxBatchSize.trim()));
+			}
+		} catch (NumberFormatException e) {
+			throw new ServletException(e.getMessage(), e);
+		} catch (ClassNotFoundException e) {
+			throw new ServletException(e.getMessage(), e);
+		} catch (InstantiationException e) {
+			throw new ServletException(e.getMessage(), e);
+		} catch (IllegalAccessException e) {
+			throw new ServletException(e.getMessage(), e);
+		}
+	}
+
+	private ClientCredentialFetcher getClientCredentialFetcher(ServletConfig config)
+			throws InstantiationException, IllegalAccessException, ClassNotFoundException {
+		ClientCredentialFetcher fetcher = createInstance(CLIENT_CREDENTIAL_FETCHER_CLASSNAME, config);
+		if (fetcher != null) {
+			return fetcher;
+		} else {
+			return new ClientCredentialFetcherImpl();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T createInstance(String name, ServletConfig config)
+			throws InstantiationException, IllegalAccessException, ClassNotFoundException {
+		String className = config.getInitParameter(name);
+		if (className != null) {
+			Class<?> clazz = Class.forName(className);
+			return (T)clazz.newInstance();
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Introspect the token against the request based on RFC 7662.
+	 *
+	 * @param req The request object.
+	 * @param resp The response object.
+	 */
+	@Override
+	protected void doPost(HttpServletRequest req, final HttpServletResponse resp) {
+		HttpServletRequestAdapter request = new HttpServletRequestAdapter(req);
+		introspection.handleRequest(request, new Handler<Response>() {
+			@Override
+			public void handle(Response response) {
+				try {
+					resp.setStatus(response.getCode());
+					resp.setHeader("Cache-Control", "no-store");
+					resp.setContentType("application/json; charset=UTF-8");
+					PrintWriter writer = resp.getWriter();
+					IOUtils.write(response.getBody(), writer);
+					writer.flush();
+				} catch (IOException e) {
+					try {
+						resp.sendError(500, e.getMessage());
+					} catch (IOException e1) {
+						resp.setStatus(500);
+						resp.resetBuffer();
+					}
+				}
+			}
+		});
+	}
+
+}
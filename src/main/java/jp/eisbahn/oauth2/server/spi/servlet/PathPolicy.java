@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import jp.eisbahn.oauth2.server.scope.ScopeSet;
+
+/**
+ * This class represents the policy of a route protected by
+ * {@link ProtectedResourceFilter}. The request to a public route is passed
+ * to the next filter without any token validation. The request to other
+ * routes must have an access token which has the required scopes.
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class PathPolicy {
+
+	/** The policy of the public routes. */
+	public static final PathPolicy PUBLIC = new PathPolicy(true, ScopeSet.EMPTY);
+
+	private final boolean publicAccess;
+	private final ScopeSet requiredScopes;
+
+	private PathPolicy(boolean publicAccess, ScopeSet requiredScopes) {
+		super();
+		this.publicAccess = publicAccess;
+		this.requiredScopes = requiredScopes;
+	}
+
+	/**
+	 * Create the policy of the routes which require an access token.
+	 * @param requiredScopes The required scopes. If empty, any valid access
+	 * token is accepted.
+	 * @return The policy.
+	 */
+	public static PathPolicy tokenRequired(ScopeSet requiredScopes) {
+		return new PathPolicy(false, requiredScopes);
+	}
+
+	/**
+	 * Determine whether the route is public or not.
+	 * @return True if the token validation is not needed.
+	 */
+	public boolean isPublic() {
+		return publicAccess;
+	}
+
+	/**
+	 * Retrieve the required scopes.
+	 * @return The required scopes.
+	 */
+	public ScopeSet getRequiredScopes() {
+		return requiredScopes;
+	}
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+import jp.eisbahn.oauth2.server.scope.ScopeRegistry;
+
+/**
+ * This class maps path prefixes to {@link PathPolicy} instances with a
+ * trie of path segments.
+ *
+ * <p>A prefix matches the path which has the same leading segments, for
+ * instance, "/api/public" matches "/api/public" and "/api/public/img", but
+ * does not match "/api/publicity". When several prefixes match, the longest
+ * one is used. The path is matched by walking the segments once, without
+ * any regular expression.</p>
+ *
+ * <p>A path which contains the "." or ".." segment, or a segment with path
+ * parameters (";"), never matches any prefix, so such a path can not reach
+ * a public route by traversal.</p>
+ *
+ * <p>The trie is built before use and is not modified after that, so it can
+ * be read by many threads.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public class PathPolicyTrie {
+
+	private final Node root = new Node();
+
+	/**
+	 * Parse the definition of the path policies. Each line has a path prefix
+	 * and a policy separated by spaces. The policy is "public", or "token"
+	 * followed by the required scopes. For instance:<br />
+	 * <br />
+	 * <code>
+	 * /api/health public<br />
+	 * /api/admin token admin<br />
+	 * /api token<br />
+	 * </code>
+	 * @param definition The definition string.
+	 * @param scopeRegistry The registry to parse the required scopes.
+	 * @return The trie.
+	 * @throws IllegalArgumentException If the definition is invalid.
+	 */
+	public static PathPolicyTrie parse(String definition, ScopeRegistry scopeRegistry) {
+		PathPolicyTrie trie = new PathPolicyTrie();
+		for (String line : StringUtils.split(definition, "\r\n")) {
+			String[] tokens = StringUtils.split(line);
+			if (tokens.length == 0) {
+				continue;
+			}
+			if (tokens.length < 2) {
+				throw new IllegalArgumentException("Policy not specified: " + line.trim());
+			}
+			if ("public".equals(tokens[1]) && tokens.length == 2) {
+				trie.put(tokens[0], PathPolicy.PUBLIC);
+			} else if ("token".equals(tokens[1])) {
+				trie.put(tokens[0], PathPolicy.tokenRequired(
+						scopeRegistry.declare(Arrays.copyOfRange(tokens, 2, tokens.length))));
+			} else {
+				throw new IllegalArgumentException("Invalid policy: " + line.trim());
+			}
+		}
+		return trie;
+	}
+
+	/**
+	 * Set the policy of the path prefix. The policy set before for the same
+	 * prefix is replaced.
+	 * @param prefix The path prefix, for instance, "/api/public".
+	 * @param policy The policy.
+	 */
+	public void put(String prefix, PathPolicy policy) {
+		Node node = root;
+		for (String segment : StringUtils.split(prefix, '/')) {
+			Node child = node.children.get(segment);
+			if (child == null) {
+				child = new Node();
+				node.children.put(segment, child);
+			}
+			node = child;
+		}
+		node.policy = policy;
+	}
+
+	/**
+	 * Find the policy of the longest prefix which matches the path.
+	 * @param path The path of the request.
+	 * @return The policy. If no prefix matches, returns null.
+	 */
+	public PathPolicy match(String path) {
+		if (path == null) {
+			return null;
+		}
+		Node node = root;
+		PathPolicy matched = root.policy;
+		int length = path.length();
+		int start = 0;
+		while (start < length) {
+			int end = path.indexOf('/', start);
+			if (end < 0) {
+				end = length;
+			}
+			if (end > start) {
+				String segment = path.substring(start, end);
+				if (segment.equals(".") || segment.equals("..") || segment.indexOf(';') >= 0) {
+					return null;
+				}
+				if (node != null) {
+					node = node.children.get(segment);
+					if (node != null && node.policy != null) {
+						matched = node.policy;
+					}
+				}
+			}
+			start = end + 1;
+		}
+		return matched;
+	}
+
+	private static final class Node {
+		private final Map<String, Node> children = new HashMap<String, Node>();
+		private PathPolicy policy;
+	}
+
+}
@@ -41,6 +41,8 @@ import jp.eisbahn.oauth2.server.endpoint.ProtectedResource.Response;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcherProvider;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.impl.DefaultAccessTokenFetcherProvider;
+import jp.eisbahn.oauth2.server.scope.ScopeRegistry;
+import jp.eisbahn.oauth2.server.scope.ScopeSet;
 
 /**
  * This servlet filter checks whether a request to access to each protected
@@ -66,6 +68,19 @@ import jp.eisbahn.oauth2.server.fetcher.accesstoken.impl.DefaultAccessTokenFetch
  * &lt;/filter&gt;
  * </code>
  *
+ * To require scopes for all requests through this filter, specify the
+ * space-delimited scopes as the "requiredScope" init-param. The request
+ * whose access token does not have all of them is refused with the error
+ * "insufficient_scope".
+ *
+ * To apply different policies to the routes under this filter, specify
+ * the definition of {@link PathPolicyTrie} as the "pathPolicy" init-param.
+ * The path in the web application (the servlet path and the path info) is
+ * matched with the prefixes. The request to a public route is passed to
+ * the next filter without any token validation. For other matched routes,
+ * the required scopes of the route are used instead of the "requiredScope"
+ * init-param.
+ *
  * @author Yoichiro Tanaka
  *
  */
@@ -73,8 +88,12 @@ public class ProtectedResourceFilter implements Filter {
 
 	private static final String DATA_HANDLER_FACTORY_CLASSNAME = "dataHandlerFactory";
 	private static final String ACCESS_TOKEN_FETCHER_PROVIDER_CLASSNAME = "accessTokenFetcherProvider";
+	private static final String REQUIRED_SCOPE = "requiredScope";
+	private static final String PATH_POLICY = "pathPolicy";
 
 	private ProtectedResource protectedResource;
+	private ScopeSet requiredScopes;
+	private PathPolicyTrie pathPolicies;
 
 	/**
 	 * Initialize this filter.
@@ -93,6 +112,16 @@ public class ProtectedResourceFilter implements Filter {
 			protectedResource = new ProtectedResource();
 			protectedResource.setDataHandlerFactory(dataHandlerFactory);
 			protectedResource.setAccessTokenFetcherProvider(accessTokenFetcherProvider);
+			ScopeRegistry scopeRegistry = new ScopeRegistry();
+			protectedResource.setScopeRegistry(scopeRegistry);
+			requiredScopes = scopeRegistry.declare(StringUtils.split(
+					StringUtils.defaultString(config.getInitParameter(REQUIRED_SCOPE)), ' '));
+			String pathPolicy = config.getInitParameter(PATH_POLICY);
+			if (pathPolicy != null) {
+				pathPolicies = PathPolicyTrie.parse(pathPolicy, scopeRegistry);
+			}
+		} catch (IllegalArgumentException e) {
+			throw new ServletException(e.getMessage(), e);
 		} catch (ClassNotFoundException e) {
 			throw new ServletException(e.getMessage(), e);
 		} catch (InstantiationException e) {
@@ -117,9 +146,23 @@ public class ProtectedResourceFilter implements Filter {
 						 final FilterChain chain) throws ServletException {
 		if (req instanceof HttpServletRequest && resp instanceof HttpServletResponse) {
 			HttpServletRequest httpRequest = (HttpServletRequest)req;
+			ScopeSet scopes = requiredScopes;
+			if (pathPolicies != null) {
+				PathPolicy policy = pathPolicies.match(getPath(httpRequest));
+				if (policy != null && policy.isPublic()) {
+					try {
+						chain.doFilter(req, resp);
+					} catch (IOException e) {
+						throw new ServletException(e.getMessage(), e);
+					}
+					return;
+				} else if (policy != null) {
+					scopes = policy.getRequiredScopes();
+				}
+			}
 			HttpServletRequestAdapter adapter = new HttpServletRequestAdapter(httpRequest);
 
-			protectedResource.handleRequest(adapter, new Handler<Try<OAuthError, Response>>() {
+			protectedResource.handleRequest(adapter, scopes, new Handler<Try<OAuthError, Response>>() {
 				@Override
 				public void handle(Try<OAuthError, Response> event) {
 					try {
@@ -159,6 +202,15 @@ public class ProtectedResourceFilter implements Filter {
 	public void destroy() {
 	}
 
+	private String getPath(HttpServletRequest request) {
+		String servletPath = request.getServletPath();
+		String pathInfo = request.getPathInfo();
+		if (servletPath == null) {
+			return pathInfo;
+		}
+		return pathInfo != null ? servletPath + pathInfo : servletPath;
+	}
+
 	private AccessTokenFetcherProvider getAccessTokenFetcherProvider(FilterConfig config)
 			throws InstantiationException, IllegalAccessException, ClassNotFoundException {
 		AccessTokenFetcherProvider provider = createInstance(ACCESS_TOKEN_FETCHER_PROVIDER_CLASSNAME, config);
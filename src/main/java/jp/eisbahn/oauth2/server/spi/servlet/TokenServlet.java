@@ -20,6 +20,7 @@ package jp.eisbahn.oauth2.server.spi.servlet;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Map;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -157,6 +158,9 @@ public class TokenServlet extends HttpServlet {
 			public void handle(Response response) {
 				try {
 					resp.setStatus(response.getCode());
+					for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+						resp.setHeader(header.getKey(), header.getValue());
+					}
 					resp.setContentType("application/json; charset=UTF-8");
 					PrintWriter writer = resp.getWriter();
 					IOUtils.write(response.getBody(), writer);
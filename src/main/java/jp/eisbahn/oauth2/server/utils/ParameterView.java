@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.utils;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * This class is a read-only view of request parameters. No entry is copied
+ * when this view is created. Each value is resolved when it is read: if the
+ * value of the underlying map is an array like the parameter map of the
+ * Servlet API, the first element is returned.
+ *
+ * <p>Some keys can be excluded from this view, for instance, the parameter
+ * which has an access token. The excluded keys are hidden from all
+ * operations of this view.</p>
+ *
+ * @author Yoichiro Tanaka
+ *
+ */
+public final class ParameterView extends AbstractMap<String, String> {
+
+	private final Map<String, ?> source;
+	private final String[] excludedKeys;
+	private Set<Map.Entry<String, String>> entrySet;
+
+	/**
+	 * Initialize this instance.
+	 * @param source The underlying map. The value must be a String or an
+	 * array of String.
+	 * @param excludedKeys The keys to hide from this view.
+	 */
+	public ParameterView(Map<String, ?> source, String... excludedKeys) {
+		super();
+		this.source = source;
+		this.excludedKeys = excludedKeys;
+	}
+
+	@Override
+	public String get(Object key) {
+		return isExcluded(key) ? null : toValue(source.get(key));
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return !isExcluded(key) && source.containsKey(key);
+	}
+
+	@Override
+	public int size() {
+		int size = source.size();
+		for (String key : excludedKeys) {
+			if (source.containsKey(key)) {
+				size--;
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new AbstractSet<Map.Entry<String, String>>() {
+				@Override
+				public Iterator<Map.Entry<String, String>> iterator() {
+					return new EntryIterator(source.entrySet().iterator());
+				}
+
+				@Override
+				public int size() {
+					return ParameterView.this.size();
+				}
+			};
+		}
+		return entrySet;
+	}
+
+	private boolean isExcluded(Object key) {
+		for (String excludedKey : excludedKeys) {
+			if (excludedKey.equals(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String toValue(Object value) {
+		if (value instanceof String[]) {
+			String[] values = (String[]) value;
+			return values.length > 0 ? values[0] : null;
+		}
+		return (String) value;
+	}
+
+	private final class EntryIterator implements Iterator<Map.Entry<String, String>> {
+
+		private final Iterator<? extends Map.Entry<String, ?>> iterator;
+		private Map.Entry<String, ?> next;
+
+		private EntryIterator(Iterator<? extends Map.Entry<String, ?>> iterator) {
+			this.iterator = iterator;
+			advance();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<String, String> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			Map.Entry<String, ?> entry = next;
+			advance();
+			return new SimpleImmutableEntry<String, String>(entry.getKey(), toValue(entry.getValue()));
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private void advance() {
+			next = null;
+			while (iterator.hasNext()) {
+				Map.Entry<String, ?> entry = iterator.next();
+				if (!isExcluded(entry.getKey())) {
+					next = entry;
+					return;
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.admission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.admission.CircuitBreaker.State;
+
+public class CircuitBreakerTest {
+
+	private long now;
+	private CircuitBreaker target;
+
+	@Before
+	public void setUp() {
+		now = 1000000L;
+		target = new CircuitBreaker() {
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		};
+		target.setFailureThreshold(3);
+		target.setOpenDuration(1000L);
+	}
+
+	@Test
+	public void testOpen() throws Exception {
+		assertEquals(State.CLOSED, target.getState());
+		fail(2);
+		target.onSuccess();
+		fail(2);
+		assertEquals(State.CLOSED, target.getState());
+		assertTrue(target.tryAcquire());
+		fail(1);
+		assertEquals(State.OPEN, target.getState());
+		assertFalse(target.tryAcquire());
+		assertFalse(target.tryAcquire());
+		assertEquals(1, target.getSuccessCount());
+		assertEquals(5, target.getFailureCount());
+		assertEquals(2, target.getRejectedCount());
+		assertEquals(1, target.getOpenedCount());
+	}
+
+	@Test
+	public void testHalfOpenSuccess() throws Exception {
+		fail(3);
+		now += 999L;
+		assertFalse(target.tryAcquire());
+		now += 1L;
+		assertTrue(target.tryAcquire());
+		assertEquals(State.HALF_OPEN, target.getState());
+		assertFalse(target.tryAcquire());
+		target.onSuccess();
+		assertEquals(State.CLOSED, target.getState());
+		assertTrue(target.tryAcquire());
+	}
+
+	@Test
+	public void testHalfOpenFailure() throws Exception {
+		fail(3);
+		now += 1000L;
+		assertTrue(target.tryAcquire());
+		target.onFailure();
+		assertEquals(State.OPEN, target.getState());
+		assertEquals(2, target.getOpenedCount());
+		now += 999L;
+		assertFalse(target.tryAcquire());
+		now += 1L;
+		assertTrue(target.tryAcquire());
+	}
+
+	@Test
+	public void testHalfOpenProbeNotCompleted() throws Exception {
+		fail(3);
+		now += 1000L;
+		assertTrue(target.tryAcquire());
+		now += 999L;
+		assertFalse(target.tryAcquire());
+		now += 1L;
+		assertTrue(target.tryAcquire());
+	}
+
+	@Test
+	public void testFailureWhileOpen() throws Exception {
+		fail(3);
+		fail(5);
+		assertEquals(1, target.getOpenedCount());
+		target.onSuccess();
+		assertEquals(State.OPEN, target.getState());
+	}
+
+	@Test
+	public void testRegisterMBean() throws Exception {
+		String name = "jp.eisbahn.oauth2.server:type=CircuitBreaker,name=test";
+		target.registerMBean(name);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			assertEquals("CLOSED", server.getAttribute(new ObjectName(name), "State"));
+		} finally {
+			server.unregisterMBean(new ObjectName(name));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidFailureThreshold() throws Exception {
+		target.setFailureThreshold(0);
+	}
+
+	private void fail(int count) {
+		for (int i = 0; i < count; i++) {
+			target.onFailure();
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.admission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.admission.ConcurrencyLimiter.Permit;
+import jp.eisbahn.oauth2.server.async.HashedWheelTimer;
+
+public class ConcurrencyLimiterTest {
+
+	private long now;
+
+	@Test
+	public void testFixed() throws Exception {
+		FixedConcurrencyLimiter target = new FixedConcurrencyLimiter(2);
+		Permit permit1 = target.tryAcquire();
+		Permit permit2 = target.tryAcquire();
+		assertNotNull(permit1);
+		assertNotNull(permit2);
+		assertNull(target.tryAcquire());
+		assertEquals(2, target.getInFlight());
+		assertTrue(permit1.release());
+		assertFalse(permit1.release());
+		assertEquals(1, target.getInFlight());
+		assertNotNull(target.tryAcquire());
+		assertEquals(3L, target.getAcceptedCount());
+		assertEquals(1L, target.getRejectedCount());
+		assertEquals(2, target.getPeakInFlight());
+	}
+
+	@Test
+	public void testPermitTimeout() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 64);
+		try {
+			FixedConcurrencyLimiter target = new FixedConcurrencyLimiter(1);
+			target.setTimer(timer);
+			target.setPermitTimeout(20);
+			Permit lost = target.tryAcquire();
+			assertNull(target.tryAcquire());
+			for (int i = 0; i < 500 && target.getInFlight() > 0; i++) {
+				Thread.sleep(10);
+			}
+			assertEquals(0, target.getInFlight());
+			assertEquals(1L, target.getExpiredCount());
+			assertFalse(lost.release());
+			Permit permit = target.tryAcquire();
+			assertTrue(permit.release());
+			Thread.sleep(50);
+			assertEquals(1L, target.getExpiredCount());
+		} finally {
+			timer.stop();
+		}
+	}
+
+	@Test
+	public void testAimd() throws Exception {
+		AimdConcurrencyLimiter target = new AimdConcurrencyLimiter(4) {
+			@Override
+			protected long nanoTime() {
+				return now;
+			}
+		};
+		target.setMinLimit(2);
+		target.setMaxLimit(5);
+		target.setLatencyThreshold(100L);
+		Permit[] permits = new Permit[4];
+		for (int round = 0; round < 2; round++) {
+			for (int i = 0; i < 4; i++) {
+				permits[i] = target.tryAcquire();
+			}
+			now += 50000000L;
+			for (int i = 0; i < 4; i++) {
+				permits[i].release();
+			}
+			// The limit grows by about one per round trip.
+			assertEquals(4 + round, target.getLimit());
+		}
+		for (int i = 0; i < 10; i++) {
+			permits[0] = target.tryAcquire();
+			now += 200000000L;
+			permits[0].release();
+		}
+		assertEquals(2, target.getLimit());
+	}
+
+	@Test
+	public void testRegisterMBean() throws Exception {
+		FixedConcurrencyLimiter target = new FixedConcurrencyLimiter(3);
+		String name = "jp.eisbahn.oauth2.server:type=ConcurrencyLimiter,name=test";
+		target.registerMBean(name);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			assertEquals(3, server.getAttribute(new ObjectName(name), "Limit"));
+		} finally {
+			server.unregisterMBean(new ObjectName(name));
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HashedWheelTimerTest {
+
+	private HashedWheelTimer target;
+
+	@Before
+	public void setUp() {
+		target = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 8);
+	}
+
+	@After
+	public void tearDown() {
+		target.stop();
+	}
+
+	@Test
+	public void testNewTimeout() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		long start = System.nanoTime();
+		HashedWheelTimer.Timeout timeout = target.newTimeout(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		}, 30, TimeUnit.MILLISECONDS);
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+		assertTrue(timeout.isExpired());
+		assertFalse(timeout.cancel());
+	}
+
+	@Test
+	public void testNewTimeoutMultipleRounds() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(3);
+		for (int delay : new int[] {5, 17, 40}) {
+			target.newTimeout(new Runnable() {
+				@Override
+				public void run() {
+					latch.countDown();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		final AtomicInteger count = new AtomicInteger();
+		HashedWheelTimer.Timeout timeout = target.newTimeout(new Runnable() {
+			@Override
+			public void run() {
+				count.incrementAndGet();
+			}
+		}, 20, TimeUnit.MILLISECONDS);
+		assertTrue(timeout.cancel());
+		assertFalse(timeout.cancel());
+		assertTrue(timeout.isCancelled());
+		final CountDownLatch latch = new CountDownLatch(1);
+		target.newTimeout(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		}, 40, TimeUnit.MILLISECONDS);
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(0, count.get());
+		assertFalse(timeout.isExpired());
+	}
+
+	@Test
+	public void testCancelReleasesTask() throws Exception {
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+			}
+		};
+		WeakReference<Runnable> reference = new WeakReference<Runnable>(task);
+		HashedWheelTimer.Timeout timeout = target.newTimeout(task, 1, TimeUnit.HOURS);
+		task = null;
+		assertTrue(timeout.cancel());
+		for (int i = 0; i < 20 && reference.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertNull(reference.get());
+		assertTrue(timeout.isCancelled());
+	}
+
+	@Test
+	public void testFailedTask() throws Exception {
+		target.newTimeout(new Runnable() {
+			@Override
+			public void run() {
+				throw new IllegalStateException();
+			}
+		}, 1, TimeUnit.MILLISECONDS);
+		final CountDownLatch latch = new CountDownLatch(1);
+		target.newTimeout(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		}, 10, TimeUnit.MILLISECONDS);
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testStop() {
+		target.stop();
+		try {
+			target.newTimeout(new Runnable() {
+				@Override
+				public void run() {
+				}
+			}, 1, TimeUnit.MILLISECONDS);
+			fail("IllegalStateException not occurred.");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+}
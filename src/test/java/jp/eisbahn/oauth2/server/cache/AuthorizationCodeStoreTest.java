@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+import static org.easymock.EasyMock.createMock;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.mock.MockDataHandler;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.IssuedToken;
+import jp.eisbahn.oauth2.server.models.Request;
+
+public class AuthorizationCodeStoreTest {
+
+	private long now;
+	private AuthorizationCodeStore target;
+
+	@Before
+	public void setUp() {
+		now = 1000L;
+		target = new AuthorizationCodeStore(new TtlCache<String, AuthInfo>(1000) {
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		});
+		target.setTtl(100L);
+	}
+
+	@Test
+	public void testConsume() throws Exception {
+		AuthInfo authInfo = createAuthInfo("code1");
+		assertTrue(target.put(authInfo));
+		assertFalse(target.put(createAuthInfo("code1")));
+		assertSame(authInfo, target.consume("code1"));
+		assertNull(target.consume("code1"));
+		assertNull(target.consume(null));
+	}
+
+	@Test
+	public void testConsumeExpired() throws Exception {
+		target.put(createAuthInfo("code1"));
+		now = 1100L;
+		assertNull(target.consume("code1"));
+		assertEquals(0, target.size());
+	}
+
+	@Test
+	public void testExchange() throws Exception {
+		target.put(createAuthInfo("code1"));
+		final AtomicInteger count = new AtomicInteger();
+		target.exchange(createDataHandler(count), "code1", "clientId1", "redirectUri1",
+				new Handler<Try<OAuthError, IssuedToken>>() {
+			@Override
+			public void handle(Try<OAuthError, IssuedToken> event) {
+				try {
+					IssuedToken issued = event.get();
+					assertEquals("code1", issued.getAuthInfo().getCode());
+					assertEquals("accessToken1", issued.getAccessToken().getToken());
+				} catch (OAuthError e) {
+					fail(e.getMessage());
+				}
+			}
+		});
+		assertEquals(1, count.get());
+		target.exchange(createDataHandler(count), "code1", "clientId1", "redirectUri1",
+				new Handler<Try<OAuthError, IssuedToken>>() {
+			@Override
+			public void handle(Try<OAuthError, IssuedToken> event) {
+				try {
+					event.get();
+					fail("Error.InvalidGrant not occurred.");
+				} catch (OAuthError e) {
+					assertEquals("invalid_grant", e.getType());
+				}
+			}
+		});
+		assertEquals(1, count.get());
+	}
+
+	@Test
+	public void testExchangeRedirectUriMismatch() throws Exception {
+		target.put(createAuthInfo("code1"));
+		AtomicInteger count = new AtomicInteger();
+		target.exchange(createDataHandler(count), "code1", "clientId1", "redirectUri2",
+				new Handler<Try<OAuthError, IssuedToken>>() {
+			@Override
+			public void handle(Try<OAuthError, IssuedToken> event) {
+				try {
+					event.get();
+					fail("Error.RedirectUriMismatch not occurred.");
+				} catch (OAuthError e) {
+					assertEquals("redirect_uri_mismatch", e.getType());
+				}
+			}
+		});
+		assertEquals(0, count.get());
+		assertNull(target.consume("code1"));
+	}
+
+	@Test
+	public void testExchangeConcurrently() throws Exception {
+		final int threads = 16;
+		final int codes = 200;
+		for (int i = 0; i < codes; i++) {
+			target.put(createAuthInfo("code" + i));
+		}
+		final AtomicInteger issued = new AtomicInteger();
+		final AtomicInteger refused = new AtomicInteger();
+		final AtomicInteger count = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < codes; i++) {
+							target.exchange(createDataHandler(count), "code" + i,
+									"clientId1", "redirectUri1",
+									new Handler<Try<OAuthError, IssuedToken>>() {
+								@Override
+								public void handle(Try<OAuthError, IssuedToken> event) {
+									try {
+										event.get();
+										issued.incrementAndGet();
+									} catch (OAuthError e) {
+										refused.incrementAndGet();
+									}
+								}
+							});
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		start.countDown();
+		done.await();
+		assertEquals(codes, issued.get());
+		assertEquals(codes, count.get());
+		assertEquals(codes * (threads - 1), refused.get());
+		assertEquals(0, target.size());
+	}
+
+	private AuthInfo createAuthInfo(String code) {
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setCode(code);
+		authInfo.setClientId("clientId1");
+		authInfo.setRedirectUri("redirectUri1");
+		return authInfo;
+	}
+
+	private MockDataHandler createDataHandler(final AtomicInteger count) {
+		return new MockDataHandler(createMock(Request.class)) {
+			@Override
+			public AccessToken createOrUpdateAccessToken(AuthInfo authInfo) {
+				count.incrementAndGet();
+				return super.createOrUpdateAccessToken(authInfo);
+			}
+		};
+	}
+
+}
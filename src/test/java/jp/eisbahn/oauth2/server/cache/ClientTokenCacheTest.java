@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.IssuedToken;
+
+public class ClientTokenCacheTest {
+
+	private long now;
+	private ClientTokenCache target;
+
+	@Before
+	public void setUp() {
+		now = 1000000L;
+		target = new ClientTokenCache(new TtlCache<String, IssuedToken>(100) {
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		});
+	}
+
+	@Test
+	public void testReducedExpiresIn() throws Exception {
+		target.put("clientId1", "scope1", createIssuedToken("clientId1", "authId1", 3600L));
+		IssuedToken issued = target.get("clientId1", "scope1");
+		assertEquals("accessToken1", issued.getAccessToken().getToken());
+		assertEquals(3600L, issued.getAccessToken().getExpiresIn());
+		now += 1000000L;
+		issued = target.get("clientId1", "scope1");
+		assertEquals(2600L, issued.getAccessToken().getExpiresIn());
+		assertEquals("authId1", issued.getAccessToken().getAuthId());
+		now += 799999L;
+		assertEquals(1800L, target.get("clientId1", "scope1").getAccessToken().getExpiresIn());
+		now += 1L;
+		assertNull(target.get("clientId1", "scope1"));
+	}
+
+	@Test
+	public void testMinRemainingRatio() throws Exception {
+		target.setMinRemainingRatio(0.9);
+		target.put("clientId1", null, createIssuedToken("clientId1", "authId1", 100L));
+		now += 9999L;
+		assertNotNull(target.get("clientId1", null));
+		now += 1L;
+		assertNull(target.get("clientId1", null));
+	}
+
+	@Test
+	public void testKey() throws Exception {
+		target.put("clientId1", "scope1", createIssuedToken("clientId1", "authId1", 3600L));
+		assertNull(target.get("clientId1", "scope2"));
+		assertNull(target.get("clientId1", null));
+		assertNull(target.get("clientId2", "scope1"));
+	}
+
+	@Test
+	public void testNoExpiresIn() throws Exception {
+		target.put("clientId1", "scope1", createIssuedToken("clientId1", "authId1", 0L));
+		assertNull(target.get("clientId1", "scope1"));
+		target.put("clientId1", "scope1", new IssuedToken(new AuthInfo(), null));
+		assertNull(target.get("clientId1", "scope1"));
+	}
+
+	@Test
+	public void testInvalidate() throws Exception {
+		target.put("clientId1", "scope1", createIssuedToken("clientId1", "authId1", 3600L));
+		target.put("clientId1", "scope2", createIssuedToken("clientId1", "authId2", 3600L));
+		target.put("clientId2", "scope1", createIssuedToken("clientId2", "authId3", 3600L));
+		target.invalidateAuthId("authId2");
+		assertNotNull(target.get("clientId1", "scope1"));
+		assertNull(target.get("clientId1", "scope2"));
+		target.invalidateClient("clientId1");
+		assertNull(target.get("clientId1", "scope1"));
+		assertNotNull(target.get("clientId2", "scope1"));
+		target.clear();
+		assertNull(target.get("clientId2", "scope1"));
+	}
+
+	@Test
+	public void testCreatedBeforeCached() throws Exception {
+		IssuedToken token = createIssuedToken("clientId1", "authId1", 3600L);
+		token.getAccessToken().setCreatedOn(new Date(now - 1000000L));
+		target.put("clientId1", "scope1", token);
+		assertEquals(2600L, target.get("clientId1", "scope1").getAccessToken().getExpiresIn());
+		now += 799999L;
+		assertEquals(1800L, target.get("clientId1", "scope1").getAccessToken().getExpiresIn());
+		now += 1L;
+		assertNull(target.get("clientId1", "scope1"));
+
+		token = createIssuedToken("clientId1", "authId1", 3600L);
+		token.getAccessToken().setCreatedOn(new Date(now - 1800000L));
+		target.put("clientId1", "scope1", token);
+		assertNull(target.get("clientId1", "scope1"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidMinRemainingRatio() throws Exception {
+		target.setMinRemainingRatio(1.5);
+	}
+
+	private IssuedToken createIssuedToken(String clientId, String authId, long expiresIn) {
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setId(authId);
+		authInfo.setClientId(clientId);
+		AccessToken accessToken = new AccessToken();
+		accessToken.setAuthId(authId);
+		accessToken.setToken("accessToken1");
+		accessToken.setExpiresIn(expiresIn);
+		return new IssuedToken(authInfo, accessToken);
+	}
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.IssuedToken;
+
+public class IntrospectionCacheTest {
+
+	private long now;
+	private IntrospectionCache target;
+
+	@Before
+	public void setUp() {
+		now = 1000000L;
+		target = new IntrospectionCache(new TtlCache<String, IntrospectionCache.Cached>(100) {
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		});
+		target.setTtl(1000L);
+		target.setMaxStaleness(10000L);
+	}
+
+	@Test
+	public void testGet() throws Exception {
+		target.put("token1", createAccessToken("authId1", now, 3600L), createAuthInfo("authId1"));
+		IssuedToken issued = target.get("token1");
+		assertEquals("userId1", issued.getAuthInfo().getUserId());
+		assertEquals("authId1", issued.getAccessToken().getAuthId());
+		now += 999L;
+		assertNotNull(target.get("token1"));
+		now += 1L;
+		assertNull(target.get("token1"));
+		assertNull(target.get("token2"));
+	}
+
+	@Test
+	public void testGetStale() throws Exception {
+		target.put("token1", createAccessToken("authId1", now, 3600L), createAuthInfo("authId1"));
+		now += 9999L;
+		assertNull(target.get("token1"));
+		assertNotNull(target.getStale("token1"));
+		now += 1L;
+		assertNull(target.getStale("token1"));
+	}
+
+	@Test
+	public void testTokenExpiry() throws Exception {
+		target.put("token1", createAccessToken("authId1", now - 3595000L, 3600L), createAuthInfo("authId1"));
+		now += 999L;
+		assertNotNull(target.get("token1"));
+		now += 4000L;
+		assertNotNull(target.getStale("token1"));
+		now += 1L;
+		assertNull(target.getStale("token1"));
+		target.put("token2", createAccessToken("authId1", now - 3600000L, 3600L), createAuthInfo("authId1"));
+		assertNull(target.getStale("token2"));
+		AccessToken noCreatedOn = createAccessToken("authId1", now, 3600L);
+		noCreatedOn.setCreatedOn(null);
+		target.put("token3", noCreatedOn, createAuthInfo("authId1"));
+		assertNull(target.getStale("token3"));
+	}
+
+	@Test
+	public void testFallbackOnly() throws Exception {
+		target.setTtl(0L);
+		target.put("token1", createAccessToken("authId1", now, 3600L), createAuthInfo("authId1"));
+		assertNull(target.get("token1"));
+		assertNotNull(target.getStale("token1"));
+	}
+
+	@Test
+	public void testTryBeginRefresh() throws Exception {
+		target.setRefreshThreshold(0.5);
+		target.put("token1", createAccessToken("authId1", now, 3600L), createAuthInfo("authId1"));
+		assertFalse(target.tryBeginRefresh("token2"));
+		now += 499L;
+		assertFalse(target.tryBeginRefresh("token1"));
+		now += 1L;
+		assertTrue(target.tryBeginRefresh("token1"));
+		assertFalse(target.tryBeginRefresh("token1"));
+		assertNotNull(target.get("token1"));
+		target.put("token1", createAccessToken("authId1", now, 3600L), createAuthInfo("authId1"));
+		assertFalse(target.tryBeginRefresh("token1"));
+		now += 500L;
+		assertTrue(target.tryBeginRefresh("token1"));
+		now += 500L;
+		assertNull(target.get("token1"));
+		assertFalse(target.tryBeginRefresh("token1"));
+	}
+
+	@Test
+	public void testRefreshDisabled() throws Exception {
+		target.setRefreshThreshold(1.0);
+		target.put("token1", createAccessToken("authId1", now, 3600L), createAuthInfo("authId1"));
+		now += 999L;
+		assertFalse(target.tryBeginRefresh("token1"));
+	}
+
+	@Test
+	public void testInvalidate() throws Exception {
+		target.put("token1", createAccessToken("authId1", now, 3600L), createAuthInfo("authId1"));
+		target.put("token2", createAccessToken("authId2", now, 3600L), createAuthInfo("authId2"));
+		target.put("token3", createAccessToken("authId3", now, 3600L), createAuthInfo("authId3"));
+		target.invalidate("token1");
+		assertNull(target.getStale("token1"));
+		target.invalidateAuthId("authId2");
+		assertNull(target.getStale("token2"));
+		assertNotNull(target.getStale("token3"));
+		target.clear();
+		assertNull(target.getStale("token3"));
+	}
+
+	@Test
+	public void testInvalidationListener() throws Exception {
+		target.put("token1", createAccessToken("authId1", now, 3600L), createAuthInfo("authId1"));
+		target.put("token2", createAccessToken("authId2", now, 3600L), createAuthInfo("authId2"));
+		target.tokenInvalidated("token1");
+		assertNull(target.getStale("token1"));
+		target.userInvalidated("userId2");
+		assertNotNull(target.getStale("token2"));
+		target.clientInvalidated("clientId1");
+		assertNull(target.getStale("token2"));
+		target.put("token3", createAccessToken("authId3", now, 3600L), createAuthInfo("authId3"));
+		target.userInvalidated("userId1");
+		assertNull(target.getStale("token3"));
+		target.put("token4", createAccessToken("authId4", now, 3600L), createAuthInfo("authId4"));
+		target.allInvalidated();
+		assertNull(target.getStale("token4"));
+	}
+
+	@Test
+	public void testInvalidateAfterReplaceAndExpiry() throws Exception {
+		target.put("token1", createAccessToken("authId1", now, 3600L), createAuthInfo("authId1"));
+		AuthInfo authInfo = createAuthInfo("authId1");
+		authInfo.setClientId("clientId2");
+		target.put("token1", createAccessToken("authId1", now, 3600L), authInfo);
+		target.invalidateClient("clientId1");
+		assertNotNull(target.getStale("token1"));
+		target.invalidateClient("clientId2");
+		assertNull(target.getStale("token1"));
+		target.put("token2", createAccessToken("authId2", now, 3600L), createAuthInfo("authId2"));
+		now += 10000L;
+		assertNull(target.getStale("token2"));
+		target.put("token2", createAccessToken("authId2", now, 3600L), createAuthInfo("authId2"));
+		target.invalidateAuthId("authId2");
+		assertNull(target.getStale("token2"));
+	}
+
+	@Test
+	public void testUserEventSource() throws Exception {
+		InJvmUserEventSource eventSource = new InJvmUserEventSource();
+		target.setEventSource(eventSource);
+		UserValidityCache userValidityCache = new UserValidityCache();
+		userValidityCache.setEventSource(eventSource);
+		target.put("token1", createAccessToken("authId1", now, 3600L), createAuthInfo("authId1"));
+		AuthInfo authInfo2 = createAuthInfo("authId2");
+		authInfo2.setUserId("userId2");
+		target.put("token2", createAccessToken("authId2", now, 3600L), authInfo2);
+		userValidityCache.deactivateUser("userId1");
+		assertNull(target.getStale("token1"));
+		assertNotNull(target.getStale("token2"));
+		target.setEventSource(null);
+		target.put("token1", createAccessToken("authId1", now, 3600L), createAuthInfo("authId1"));
+		userValidityCache.deactivateUser("userId1");
+		assertNotNull(target.getStale("token1"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidMaxStaleness() throws Exception {
+		target.setMaxStaleness(-1L);
+	}
+
+	private AccessToken createAccessToken(String authId, long createdOn, long expiresIn) {
+		AccessToken accessToken = new AccessToken();
+		accessToken.setAuthId(authId);
+		accessToken.setToken("accessToken1");
+		accessToken.setExpiresIn(expiresIn);
+		accessToken.setCreatedOn(new Date(createdOn));
+		return accessToken;
+	}
+
+	private AuthInfo createAuthInfo(String authId) {
+		AuthInfo authInfo = new AuthInfo();
+		authInfo.setId(authId);
+		authInfo.setClientId("clientId1");
+		authInfo.setUserId("userId1");
+		authInfo.setScope("scope1");
+		return authInfo;
+	}
+
+}
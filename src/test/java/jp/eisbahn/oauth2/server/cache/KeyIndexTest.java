@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+public class KeyIndexTest {
+
+	@Test
+	public void testAddAndTake() throws Exception {
+		KeyIndex<String> target = new KeyIndex<String>();
+		target.add("client1", "key1");
+		target.add("client1", "key2");
+		target.add("client2", "key3");
+		target.add(null, "key4");
+		assertEquals(2, target.size());
+		assertEquals(new HashSet<String>(Arrays.asList("key1", "key2")),
+				new HashSet<String>(target.take("client1")));
+		assertTrue(target.take("client1").isEmpty());
+		assertTrue(target.take(null).isEmpty());
+		assertEquals(1, target.size());
+	}
+
+	@Test
+	public void testRemoveDiscardsEmptyAttribute() throws Exception {
+		KeyIndex<String> target = new KeyIndex<String>();
+		target.add("client1", "key1");
+		target.add("client1", "key2");
+		target.remove("client1", "key1");
+		assertEquals(1, target.size());
+		target.remove("client1", "key2");
+		target.remove("client2", "key1");
+		assertEquals(0, target.size());
+		target.add("client1", "key1");
+		assertEquals(Arrays.asList("key1"), target.take("client1"));
+	}
+
+}
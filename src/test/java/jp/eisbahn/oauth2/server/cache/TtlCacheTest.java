@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TtlCacheTest {
+
+	private long now;
+	private TtlCache<String, String> target;
+
+	@Before
+	public void setUp() {
+		now = 1000L;
+		target = new TtlCache<String, String>(3) {
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		};
+	}
+
+	@Test
+	public void testExpiration() throws Exception {
+		target.put("key1", "value1", 100L);
+		assertEquals("value1", target.get("key1"));
+		assertEquals(1000L, target.getEntry("key1").getCreatedAt());
+		assertEquals(1100L, target.getEntry("key1").getExpiresAt());
+		now = 1099L;
+		assertEquals("value1", target.get("key1"));
+		now = 1100L;
+		assertNull(target.get("key1"));
+		assertEquals(0, target.size());
+		assertNull(target.get(null));
+	}
+
+	@Test
+	public void testPutIfAbsent() throws Exception {
+		assertTrue(target.putIfAbsent("key1", "value1", 100L));
+		assertFalse(target.putIfAbsent("key1", "value2", 100L));
+		assertEquals("value1", target.get("key1"));
+		now = 1100L;
+		assertTrue(target.putIfAbsent("key1", "value3", 100L));
+		assertEquals("value3", target.get("key1"));
+	}
+
+	@Test
+	public void testPutIfAbsentWithinCapacity() throws Exception {
+		assertEquals(TtlCache.PutResult.PUT, target.putIfAbsentWithinCapacity("key1", "value1", 100L));
+		assertEquals(TtlCache.PutResult.PRESENT, target.putIfAbsentWithinCapacity("key1", "value2", 100L));
+		assertEquals(TtlCache.PutResult.PUT, target.putIfAbsentWithinCapacity("key2", "value2", 500L));
+		assertEquals(TtlCache.PutResult.PUT, target.putIfAbsentWithinCapacity("key3", "value3", 500L));
+		assertEquals(TtlCache.PutResult.FULL, target.putIfAbsentWithinCapacity("key4", "value4", 500L));
+		assertEquals(3, target.size());
+		assertEquals("value1", target.get("key1"));
+		now = 1100L;
+		assertEquals(TtlCache.PutResult.PUT, target.putIfAbsentWithinCapacity("key4", "value4", 500L));
+		assertEquals(TtlCache.PutResult.FULL, target.putIfAbsentWithinCapacity("key5", "value5", 500L));
+		assertEquals("value2", target.get("key2"));
+		assertEquals("value4", target.get("key4"));
+	}
+
+	@Test
+	public void testRemovalListener() throws Exception {
+		final List<String> removed = new ArrayList<String>();
+		target.setRemovalListener(new TtlCache.RemovalListener<String, String>() {
+			@Override
+			public void removed(String key, String value) {
+				removed.add(key + "=" + value);
+			}
+		});
+		target.put("key1", "value1", 100L);
+		target.put("key1", "value2", 100L);
+		target.put("key2", "value3", 500L);
+		target.remove("key2");
+		now = 1100L;
+		assertNull(target.get("key1"));
+		target.put("key3", "value4", 500L);
+		target.put("key4", "value5", 600L);
+		target.put("key5", "value6", 700L);
+		target.put("key6", "value7", 800L);
+		assertEquals(Arrays.asList("key1=value1", "key2=value3", "key1=value2", "key3=value4"), removed);
+		target.clear();
+		assertEquals(7, removed.size());
+		assertTrue(removed.containsAll(Arrays.asList("key4=value5", "key5=value6", "key6=value7")));
+		assertEquals(0, target.size());
+	}
+
+	@Test
+	public void testRemove() throws Exception {
+		target.put("key1", "value1", 100L);
+		assertEquals("value1", target.remove("key1"));
+		assertNull(target.remove("key1"));
+		target.put("key2", "value2", 100L);
+		now = 1200L;
+		assertNull(target.remove("key2"));
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		target.put("key1", "value1", 100L);
+		target.put("key2", "value2", 500L);
+		target.put("key3", "value3", 500L);
+		now = 1200L;
+		target.put("key4", "value4", 500L);
+		assertEquals(3, target.size());
+		assertNull(target.get("key1"));
+		target.put("key5", "value5", 500L);
+		assertEquals(3, target.size());
+		assertEquals("value5", target.get("key5"));
+	}
+
+	@Test
+	public void testEvictionDownToLowWaterMark() throws Exception {
+		target = new TtlCache<String, String>(20) {
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		};
+		for (int i = 0; i < 20; i++) {
+			target.put("key" + i, "value" + i, 1000L + i);
+		}
+		assertEquals(20, target.size());
+		target.put("key20", "value20", 5000L);
+		assertEquals(18, target.size());
+		assertNull(target.get("key0"));
+		assertNull(target.get("key1"));
+		assertNull(target.get("key2"));
+		assertEquals("value3", target.get("key3"));
+		assertEquals("value20", target.get("key20"));
+		target.put("key21", "value21", 5000L);
+		target.put("key22", "value22", 5000L);
+		assertEquals(20, target.size());
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class UserValidityCacheTest {
+
+	private long now;
+
+	@Before
+	public void setUp() {
+		now = 1000L;
+	}
+
+	@Test
+	public void testPutAndExpire() throws Exception {
+		UserValidityCache target = createCache();
+		target.setValidTtl(100L);
+		target.setInvalidTtl(10L);
+		target.put("userId1", true);
+		target.put("userId2", false);
+		assertEquals(Boolean.TRUE, target.get("userId1"));
+		assertEquals(Boolean.FALSE, target.get("userId2"));
+		now = 1010L;
+		assertEquals(Boolean.TRUE, target.get("userId1"));
+		assertNull(target.get("userId2"));
+		now = 1100L;
+		assertNull(target.get("userId1"));
+	}
+
+	@Test
+	public void testDeactivateWithoutEventSource() throws Exception {
+		UserValidityCache target = createCache();
+		target.put("userId1", true);
+		target.deactivateUser("userId1");
+		assertEquals(Boolean.FALSE, target.get("userId1"));
+		target.invalidate("userId1");
+		assertNull(target.get("userId1"));
+	}
+
+	@Test
+	public void testBusInvalidationKeepsDeactivation() throws Exception {
+		UserValidityCache target = createCache();
+		target.put("userId1", true);
+		target.put("userId2", false);
+		target.put("userId3", true);
+		target.deactivateUser("userId3");
+		target.userInvalidated("userId1");
+		target.userInvalidated("userId2");
+		target.userInvalidated("userId3");
+		assertNull(target.get("userId1"));
+		assertEquals(Boolean.FALSE, target.get("userId2"));
+		assertEquals(Boolean.FALSE, target.get("userId3"));
+		target.put("userId1", true);
+		target.allInvalidated();
+		assertNull(target.get("userId1"));
+		assertEquals(Boolean.FALSE, target.get("userId2"));
+		assertEquals(Boolean.FALSE, target.get("userId3"));
+	}
+
+	@Test
+	public void testDeactivatePropagation() throws Exception {
+		InJvmUserEventSource eventSource = new InJvmUserEventSource();
+		UserValidityCache node1 = createCache();
+		UserValidityCache node2 = createCache();
+		node1.setEventSource(eventSource);
+		node2.setEventSource(eventSource);
+		node1.put("userId1", true);
+		node2.put("userId1", true);
+
+		node1.deactivateUser("userId1");
+		assertEquals(Boolean.FALSE, node1.get("userId1"));
+		assertEquals(Boolean.FALSE, node2.get("userId1"));
+
+		node2.invalidate("userId1");
+		assertNull(node1.get("userId1"));
+		assertNull(node2.get("userId1"));
+
+		node2.setEventSource(null);
+		node1.deactivateUser("userId1");
+		assertNull(node2.get("userId1"));
+	}
+
+	@Test
+	public void testPutDoesNotOverrideDeactivation() throws Exception {
+		UserValidityCache target = createCache();
+		target.setValidTtl(100L);
+		target.setDeactivatedTtl(1000L);
+		target.deactivateUser("userId1");
+		target.put("userId1", true);
+		assertEquals(Boolean.FALSE, target.get("userId1"));
+		now = 1999L;
+		target.put("userId1", true);
+		assertEquals(Boolean.FALSE, target.get("userId1"));
+		now = 2000L;
+		assertNull(target.get("userId1"));
+		target.put("userId1", true);
+		assertEquals(Boolean.TRUE, target.get("userId1"));
+	}
+
+	@Test
+	public void testDeactivationsNeverEvicted() throws Exception {
+		TtlCache<String, Boolean> deactivations = createTtlCache(Integer.MAX_VALUE);
+		UserValidityCache target = new UserValidityCache(createTtlCache(100), deactivations, 100);
+		target.setDeactivatedTtl(1000L);
+		for (int i = 0; i < 300; i++) {
+			target.deactivateUser("userId" + i);
+		}
+		for (int i = 0; i < 300; i++) {
+			assertEquals(Boolean.FALSE, target.get("userId" + i));
+		}
+		now = 2000L;
+		target.deactivateUser("userId300");
+		assertEquals(1, deactivations.size());
+		assertEquals(Boolean.FALSE, target.get("userId300"));
+		assertNull(target.get("userId0"));
+	}
+
+	private UserValidityCache createCache() {
+		return new UserValidityCache(createTtlCache(100), createTtlCache(Integer.MAX_VALUE), 100);
+	}
+
+	private TtlCache<String, Boolean> createTtlCache(int maxSize) {
+		return new TtlCache<String, Boolean>(maxSize) {
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		};
+	}
+
+}
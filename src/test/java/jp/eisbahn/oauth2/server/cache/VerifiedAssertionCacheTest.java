@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.models.UserData;
+import jp.eisbahn.oauth2.server.saml.SamlAssertion;
+
+public class VerifiedAssertionCacheTest {
+
+	private long now;
+	private VerifiedAssertionCache target;
+
+	@Before
+	public void setUp() {
+		now = 1000000L;
+		target = new VerifiedAssertionCache(new TtlCache<String, UserData>(100) {
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		});
+		target.setMaxTtl(10000L);
+	}
+
+	@Test
+	public void testGet() throws Exception {
+		SamlAssertion assertion = createAssertion("digest1", now + 5000L);
+		target.put("client1", assertion, new UserData("user1"));
+		assertEquals("user1", target.get("client1", assertion).getId());
+		assertNull(target.get("client2", assertion));
+		assertNull(target.get("client1", createAssertion("digest2", now + 5000L)));
+		now += 4999L;
+		assertNotNull(target.get("client1", assertion));
+		now += 1L;
+		assertNull(target.get("client1", assertion));
+	}
+
+	@Test
+	public void testMaxTtl() throws Exception {
+		SamlAssertion assertion = createAssertion("digest1", now + 60000L);
+		target.put("client1", assertion, new UserData("user1"));
+		now += 9999L;
+		assertNotNull(target.get("client1", assertion));
+		now += 1L;
+		assertNull(target.get("client1", assertion));
+
+		SamlAssertion expired = createAssertion("digest2", now);
+		target.put("client1", expired, new UserData("user1"));
+		assertNull(target.get("client1", expired));
+	}
+
+	@Test
+	public void testInvalidationListener() throws Exception {
+		SamlAssertion assertion1 = createAssertion("digest1", now + 5000L);
+		SamlAssertion assertion2 = createAssertion("digest2", now + 5000L);
+		target.put("client1", assertion1, new UserData("user1"));
+		target.put("client2", assertion2, new UserData("user2"));
+		target.clientInvalidated("client1");
+		assertNull(target.get("client1", assertion1));
+		assertNotNull(target.get("client2", assertion2));
+		target.userInvalidated("user2");
+		assertNull(target.get("client2", assertion2));
+		target.put("client1", assertion1, new UserData("user1"));
+		target.allInvalidated();
+		assertNull(target.get("client1", assertion1));
+	}
+
+	private SamlAssertion createAssertion(String digest, long expiresAt) {
+		return new SamlAssertion("_id", "issuer", "user1", Collections.<String>emptyList(),
+				0L, expiresAt, true, digest);
+	}
+
+}
@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.async.HashedWheelTimer;
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.mock.MockDataHandler;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+
+public class DeadlinesTest {
+
+	private HashedWheelTimer timer;
+	private Deadlines target;
+	private List<String> results;
+	private CountDownLatch latch;
+	private Handler<String> handler;
+
+	@Before
+	public void setUp() {
+		timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 64);
+		target = new Deadlines();
+		target.setTimer(timer);
+		results = new CopyOnWriteArrayList<String>();
+		latch = new CountDownLatch(1);
+		handler = new Handler<String>() {
+			@Override
+			public void handle(String event) {
+				results.add(event);
+				latch.countDown();
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		timer.stop();
+	}
+
+	@Test
+	public void testCompletedBeforeDeadline() throws Exception {
+		target.setRequestTimeout(20);
+		Deadlines.Scope<String> scope = target.begin(handler, "timeout");
+		scope.handle("result1");
+		scope.handle("result2");
+		Thread.sleep(60);
+		assertEquals(1, results.size());
+		assertEquals("result1", results.get(0));
+		assertEquals(0, target.getRequestTimeoutCount());
+	}
+
+	@Test
+	public void testRequestTimeout() throws Exception {
+		target.setRequestTimeout(20);
+		target.setCallTimeout(0);
+		Deadlines.Scope<String> scope = target.begin(handler, "timeout");
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertTrue(scope.isDone());
+		scope.handle("late");
+		assertEquals(1, results.size());
+		assertEquals("timeout", results.get(0));
+		assertEquals(1, target.getRequestTimeoutCount());
+		assertTrue(target.getTimeoutCounts().isEmpty());
+	}
+
+	@Test
+	public void testTimeoutPassedByExecutor() throws Exception {
+		final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+		target.setExecutor(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				Thread thread = new Thread(command, "test-executor");
+				threads.add(thread);
+				thread.start();
+			}
+		});
+		final AtomicReference<String> threadName = new AtomicReference<String>();
+		target.setRequestTimeout(20);
+		target.begin(new Handler<String>() {
+			@Override
+			public void handle(String event) {
+				threadName.set(Thread.currentThread().getName());
+				latch.countDown();
+			}
+		}, "timeout");
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals("test-executor", threadName.get());
+		assertEquals(1, threads.size());
+	}
+
+	@Test
+	public void testCallTimeout() throws Exception {
+		target.setRequestTimeout(0);
+		target.setCallTimeout(20);
+		final AtomicReference<Handler<AccessToken>> pending =
+				new AtomicReference<Handler<AccessToken>>();
+		DataHandler dataHandler = new ForwardingDataHandler(new MockDataHandler(null)) {
+			@Override
+			public void getAccessToken(String token, Handler<AccessToken> handler) {
+				pending.set(handler);
+			}
+		};
+		final Deadlines.Scope<String> scope = target.begin(handler, "timeout");
+		scope.wrap(dataHandler).getAccessToken("token1", new Handler<AccessToken>() {
+			@Override
+			public void handle(AccessToken event) {
+				scope.handle("result");
+			}
+		});
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		pending.get().handle(new AccessToken());
+		assertEquals(1, results.size());
+		assertEquals("timeout", results.get(0));
+		assertEquals(1, target.getTimeoutCount("getAccessToken"));
+		assertEquals(0, target.getTimeoutCount("getAuthInfoById"));
+		assertEquals(Long.valueOf(1), target.getTimeoutCounts().get("getAccessToken"));
+		assertEquals(0, target.getRequestTimeoutCount());
+	}
+
+	@Test
+	public void testRequestTimeoutWhileWaitingForCall() throws Exception {
+		target.setRequestTimeout(20);
+		target.setCallTimeout(10000);
+		DataHandler dataHandler = new ForwardingDataHandler(new MockDataHandler(null)) {
+			@Override
+			public void validateClientById(String clientId, Handler<Boolean> handler) {
+			}
+		};
+		Deadlines.Scope<String> scope = target.begin(handler, "timeout");
+		scope.wrap(dataHandler).validateClientById("client1", new Handler<Boolean>() {
+			@Override
+			public void handle(Boolean event) {
+			}
+		});
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(1, target.getRequestTimeoutCount());
+		assertEquals(1, target.getTimeoutCount("validateClientById"));
+	}
+
+	@Test
+	public void testRequestTimeoutWhileWaitingForConcurrentCalls() throws Exception {
+		target.setRequestTimeout(20);
+		target.setCallTimeout(10000);
+		final AtomicReference<Handler<AccessToken>> pending =
+				new AtomicReference<Handler<AccessToken>>();
+		DataHandler dataHandler = new ForwardingDataHandler(new MockDataHandler(null)) {
+			@Override
+			public void validateClientById(String clientId, Handler<Boolean> handler) {
+			}
+			@Override
+			public void getAccessToken(String token, Handler<AccessToken> handler) {
+				pending.set(handler);
+			}
+		};
+		Deadlines.Scope<String> scope = target.begin(handler, "timeout");
+		DataHandler wrapped = scope.wrap(dataHandler);
+		wrapped.validateClientById("client1", new Handler<Boolean>() {
+			@Override
+			public void handle(Boolean event) {
+			}
+		});
+		wrapped.getAccessToken("token1", new Handler<AccessToken>() {
+			@Override
+			public void handle(AccessToken event) {
+			}
+		});
+		pending.get().handle(new AccessToken());
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(1, target.getRequestTimeoutCount());
+		assertEquals(1, target.getTimeoutCount("validateClientById"));
+		assertEquals(0, target.getTimeoutCount("getAccessToken"));
+	}
+
+	@Test
+	public void testCallCompleted() throws Exception {
+		target.setCallTimeout(10);
+		final AccessToken accessToken = new AccessToken();
+		DataHandler dataHandler = new ForwardingDataHandler(new MockDataHandler(null)) {
+			@Override
+			public void getAccessToken(String token, Handler<AccessToken> handler) {
+				handler.handle(accessToken);
+			}
+		};
+		final Deadlines.Scope<String> scope = target.begin(handler, "timeout");
+		final AtomicReference<AccessToken> received = new AtomicReference<AccessToken>();
+		scope.wrap(dataHandler).getAccessToken("token1", new Handler<AccessToken>() {
+			@Override
+			public void handle(AccessToken event) {
+				received.set(event);
+			}
+		});
+		assertSame(accessToken, received.get());
+		Thread.sleep(50);
+		assertTrue(results.isEmpty());
+		scope.handle("result");
+		assertEquals("result", results.get(0));
+		assertTrue(target.getTimeoutCounts().isEmpty());
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		target.setRequestTimeout(10);
+		Deadlines.Scope<String> scope = target.begin(handler, "timeout");
+		scope.cancel();
+		Thread.sleep(50);
+		assertTrue(results.isEmpty());
+		assertEquals(0, target.getRequestTimeoutCount());
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data;
+
+import static org.easymock.EasyMock.createMock;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.mock.MockDataHandler;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.Request;
+
+import org.junit.Test;
+
+public class SharedDataHandlerFactoryTest {
+
+	@Test
+	public void testCreate() throws Exception {
+		final List<Request> requests = new ArrayList<Request>();
+		SharedDataHandler shared = new DataHandlerFactoryAdapter(new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				requests.add(request);
+				return new MockDataHandler(request);
+			}
+		});
+		SharedDataHandlerFactory target = new SharedDataHandlerFactory(shared);
+		assertSame(shared, target.getSharedDataHandler());
+
+		Request request1 = createMock(Request.class);
+		Request request2 = createMock(Request.class);
+		DataHandler dataHandler1 = target.create(request1);
+		DataHandler dataHandler2 = target.create(request2);
+		assertNotSame(dataHandler1, dataHandler2);
+		assertSame(request1, dataHandler1.getRequest());
+		assertSame(request2, dataHandler2.getRequest());
+		assertEquals(2, requests.size());
+
+		final AccessToken[] result = new AccessToken[1];
+		dataHandler1.getAccessToken("accessToken1", new Handler<AccessToken>() {
+			@Override
+			public void handle(AccessToken event) {
+				result[0] = event;
+			}
+		});
+		assertEquals("authId1", result[0].getAuthId());
+		dataHandler1.getAuthInfoById("authId1", new Handler<AuthInfo>() {
+			@Override
+			public void handle(AuthInfo event) {
+				assertEquals("clientId1", event.getClientId());
+			}
+		});
+		final Boolean[] valid = new Boolean[1];
+		dataHandler2.validateUserById("userFailed", new Handler<Boolean>() {
+			@Override
+			public void handle(Boolean event) {
+				valid[0] = event;
+			}
+		});
+		assertEquals(Boolean.FALSE, valid[0]);
+		assertEquals(2, requests.size());
+		assertSame(request1, requests.get(0));
+		assertSame(request2, requests.get(1));
+	}
+
+}
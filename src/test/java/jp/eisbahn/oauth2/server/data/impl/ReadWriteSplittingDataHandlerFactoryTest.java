@@ -0,0 +1,327 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.data.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.mock.MockDataHandler;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.IssuedToken;
+import jp.eisbahn.oauth2.server.models.Request;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReadWriteSplittingDataHandlerFactoryTest {
+
+	private List<String> calls;
+	private Set<String> revoked;
+	private ReadWriteSplittingDataHandlerFactory target;
+
+	@Before
+	public void setUp() {
+		calls = new ArrayList<String>();
+		revoked = new HashSet<String>();
+		target = new ReadWriteSplittingDataHandlerFactory();
+		target.setPrimary(new RecordingFactory("primary", false));
+		target.setReplicas(Arrays.<DataHandlerFactory>asList(
+				new RecordingFactory("replica", true)));
+	}
+
+	@Test
+	public void testReadsGoToReplica() throws Exception {
+		DataHandler dataHandler = target.create(null);
+		dataHandler.getAccessToken("accessToken2", new Handler<AccessToken>() {
+			@Override
+			public void handle(AccessToken event) {
+			}
+		});
+		dataHandler.validateClientById("clientId1", new Handler<Boolean>() {
+			@Override
+			public void handle(Boolean event) {
+			}
+		});
+		dataHandler.validateUserById("userId1", new Handler<Boolean>() {
+			@Override
+			public void handle(Boolean event) {
+			}
+		});
+		assertEquals(Arrays.asList(
+				"replica:getAccessToken",
+				"replica:validateClientById",
+				"replica:validateUserById"), calls);
+	}
+
+	@Test
+	public void testWritesGoToPrimary() throws Exception {
+		DataHandler dataHandler = target.create(null);
+		dataHandler.createOrUpdateAuthInfo("clientId1", "userId1", "scope1", new Handler<AuthInfo>() {
+			@Override
+			public void handle(AuthInfo event) {
+			}
+		});
+		dataHandler.createOrUpdateAccessToken(new AuthInfo(), new Handler<AccessToken>() {
+			@Override
+			public void handle(AccessToken event) {
+			}
+		});
+		assertEquals(Arrays.asList(
+				"primary:createOrUpdateAuthInfo",
+				"primary:createOrUpdateAccessToken"), calls);
+	}
+
+	@Test
+	public void testReadYourWrites() throws Exception {
+		target.create(null).createOrUpdateAccessToken(new AuthInfo(), new Handler<AccessToken>() {
+			@Override
+			public void handle(AccessToken event) {
+			}
+		});
+		calls.clear();
+		final AccessToken[] result = new AccessToken[1];
+		target.create(null).getAccessToken("accessToken1", new Handler<AccessToken>() {
+			@Override
+			public void handle(AccessToken event) {
+				result[0] = event;
+			}
+		});
+		assertNotNull(result[0]);
+		assertEquals(Arrays.asList("primary:getAccessToken"), calls);
+	}
+
+	@Test
+	public void testFallbackToPrimary() throws Exception {
+		final AccessToken[] result = new AccessToken[1];
+		target.create(null).getAccessToken("lagging", new Handler<AccessToken>() {
+			@Override
+			public void handle(AccessToken event) {
+				result[0] = event;
+			}
+		});
+		assertNotNull(result[0]);
+		assertEquals(Arrays.asList(
+				"replica:getAccessToken",
+				"primary:getAccessToken"), calls);
+	}
+
+	@Test
+	public void testWithoutFallback() throws Exception {
+		target.setFallbackToPrimary(false);
+		final boolean[] handled = new boolean[1];
+		target.create(null).getAccessToken("lagging", new Handler<AccessToken>() {
+			@Override
+			public void handle(AccessToken event) {
+				handled[0] = event == null;
+			}
+		});
+		assertTrue(handled[0]);
+		assertEquals(Arrays.asList("replica:getAccessToken"), calls);
+	}
+
+	@Test
+	public void testIssuedTokens() throws Exception {
+		target.create(null).createOrUpdateAccessToken(new AuthInfo(), new Handler<AccessToken>() {
+			@Override
+			public void handle(AccessToken event) {
+			}
+		});
+		calls.clear();
+		final List<Map<String, IssuedToken>> result = new ArrayList<Map<String, IssuedToken>>();
+		target.create(null).getIssuedTokens(Arrays.asList("accessToken1", "accessToken2", "lagging"),
+				new Handler<Map<String, IssuedToken>>() {
+			@Override
+			public void handle(Map<String, IssuedToken> event) {
+				result.add(event);
+			}
+		});
+		assertEquals(1, result.size());
+		assertEquals(new HashSet<String>(Arrays.asList("accessToken1", "accessToken2", "lagging")),
+				result.get(0).keySet());
+		assertEquals(Arrays.asList(
+				"replica:getIssuedTokens[accessToken2, lagging]",
+				"replica:getAccessToken",
+				"replica:getAccessToken",
+				"primary:getIssuedTokens[accessToken1, lagging]",
+				"primary:getAccessToken",
+				"primary:getAccessToken"), calls);
+	}
+
+	@Test
+	public void testRevokedTokenIsReadFromPrimary() throws Exception {
+		target.create(null).deleteTokensByAuthId("authId1");
+		calls.clear();
+		final List<AccessToken> result = new ArrayList<AccessToken>();
+		target.create(null).getAccessToken("accessToken2", new Handler<AccessToken>() {
+			@Override
+			public void handle(AccessToken event) {
+				result.add(event);
+			}
+		});
+		assertEquals(1, result.size());
+		assertNull(result.get(0));
+		assertEquals(Arrays.asList(
+				"replica:getAccessToken",
+				"primary:getAccessToken"), calls);
+
+		calls.clear();
+		final List<Map<String, IssuedToken>> issued = new ArrayList<Map<String, IssuedToken>>();
+		target.create(null).getIssuedTokens(Arrays.asList("accessToken2", "authNullToken"),
+				new Handler<Map<String, IssuedToken>>() {
+			@Override
+			public void handle(Map<String, IssuedToken> event) {
+				issued.add(event);
+			}
+		});
+		assertEquals(1, issued.size());
+		assertTrue(issued.get(0).isEmpty());
+		assertEquals(Arrays.asList(
+				"replica:getIssuedTokens[accessToken2, authNullToken]",
+				"replica:getAccessToken",
+				"replica:getAccessToken",
+				"primary:getIssuedTokens[accessToken2, authNullToken]",
+				"primary:getAccessToken",
+				"primary:getAccessToken"), calls);
+	}
+
+	@Test
+	public void testNoReplica() throws Exception {
+		target.setReplicas(null);
+		target.create(null).validateUserById("userId1", new Handler<Boolean>() {
+			@Override
+			public void handle(Boolean event) {
+			}
+		});
+		assertEquals(Arrays.asList("primary:validateUserById"), calls);
+	}
+
+	@Test
+	public void testPurgeOncePerWindow() throws Exception {
+		final long[] now = new long[] {0L};
+		ReadWriteSplittingDataHandlerFactory factory = new ReadWriteSplittingDataHandlerFactory() {
+			@Override
+			protected long currentTimeMillis() {
+				return now[0];
+			}
+		};
+		factory.setReadYourWritesWindow(1000L);
+		for (int i = 0; i < 10001; i++) {
+			factory.tokenWritten("token" + i);
+		}
+		assertEquals(10001, factory.getRecentWriteCount());
+		now[0] = 1000L;
+		factory.tokenWritten("token10001");
+		assertEquals(1, factory.getRecentWriteCount());
+		for (int i = 0; i < 10001; i++) {
+			factory.tokenWritten("token" + i);
+		}
+		now[0] = 1999L;
+		factory.tokenWritten("token10002");
+		assertEquals(10003, factory.getRecentWriteCount());
+		assertTrue(factory.isRecentToken("token10001"));
+		now[0] = 2000L;
+		factory.tokenWritten("token10003");
+		assertEquals(2, factory.getRecentWriteCount());
+		assertTrue(factory.isRecentToken("token10002"));
+		assertFalse(factory.isRecentToken("token10001"));
+	}
+
+	private class RecordingFactory implements DataHandlerFactory {
+
+		private final String name;
+		private final boolean lagging;
+
+		private RecordingFactory(String name, boolean lagging) {
+			this.name = name;
+			this.lagging = lagging;
+		}
+
+		@Override
+		public DataHandler create(Request request) {
+			return new MockDataHandler(request) {
+
+				@Override
+				public AuthInfo createOrUpdateAuthInfo(String clientId, String userId, String scope) {
+					calls.add(name + ":createOrUpdateAuthInfo");
+					return super.createOrUpdateAuthInfo(clientId, userId, scope);
+				}
+
+				@Override
+				public AccessToken createOrUpdateAccessToken(AuthInfo authInfo) {
+					calls.add(name + ":createOrUpdateAccessToken");
+					return super.createOrUpdateAccessToken(authInfo);
+				}
+
+				@Override
+				public AccessToken getAccessToken(String token) {
+					calls.add(name + ":getAccessToken");
+					if (lagging && ("lagging".equals(token) || "accessToken1".equals(token))) {
+						return null;
+					}
+					AccessToken accessToken = super.getAccessToken(token);
+					if (!lagging && accessToken != null && revoked.contains(accessToken.getAuthId())) {
+						return null;
+					}
+					return accessToken;
+				}
+
+				@Override
+				public void deleteTokensByAuthId(String authId) {
+					calls.add(name + ":deleteTokensByAuthId");
+					revoked.add(authId);
+				}
+
+				@Override
+				public void getIssuedTokens(List<String> tokens, Handler<Map<String, IssuedToken>> handler) {
+					calls.add(name + ":getIssuedTokens" + tokens);
+					super.getIssuedTokens(tokens, handler);
+				}
+
+				@Override
+				public boolean validateClientById(String clientId) {
+					calls.add(name + ":validateClientById");
+					return super.validateClientById(clientId);
+				}
+
+				@Override
+				public boolean validateUserById(String userId) {
+					calls.add(name + ":validateUserById");
+					return super.validateUserById(userId);
+				}
+
+			};
+		}
+
+	}
+
+}
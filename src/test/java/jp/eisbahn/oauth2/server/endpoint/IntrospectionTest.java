@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.endpoint;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.endpoint.Introspection.Response;
+import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcherImpl;
+import jp.eisbahn.oauth2.server.mock.MockDataHandler;
+import jp.eisbahn.oauth2.server.models.IssuedToken;
+import jp.eisbahn.oauth2.server.models.Request;
+
+public class IntrospectionTest {
+
+	private final List<List<String>> batches = new ArrayList<List<String>>();
+	private final List<String> grantTypes = new ArrayList<String>();
+	private final List<String> validatedClients = new ArrayList<String>();
+	private final List<String> validatedUsers = new ArrayList<String>();
+
+	@Test
+	public void testActive() throws Exception {
+		long now = System.currentTimeMillis() / 1000L;
+		Response response = handle(createRequest("accessToken1", null, "clientId1"));
+		assertEquals(200, response.getCode());
+		Map<?, ?> result = new ObjectMapper().readValue(response.getBody(), Map.class);
+		assertEquals(Arrays.asList("active", "scope", "client_id", "sub", "token_type", "iat", "exp"),
+				new ArrayList<Object>(result.keySet()));
+		assertEquals(true, result.get("active"));
+		assertEquals("scope1", result.get("scope"));
+		assertEquals("clientId1", result.get("client_id"));
+		assertEquals("userId1", result.get("sub"));
+		assertEquals("Bearer", result.get("token_type"));
+		long iat = ((Number) result.get("iat")).longValue();
+		assertTrue(Math.abs(iat - now) < 60);
+		assertEquals(iat + 3600, ((Number) result.get("exp")).longValue());
+		assertEquals(Arrays.asList(Arrays.asList("accessToken1")), batches);
+		assertEquals(Arrays.asList(Introspection.GRANT_TYPE), grantTypes);
+	}
+
+	@Test
+	public void testInactive() throws Exception {
+		for (String token : new String[] {"null", "expiredToken", "authNull"}) {
+			Response response = handle(createRequest(token, null, "clientId1"));
+			assertEquals(200, response.getCode());
+			assertEquals("{\"active\":false}", response.getBody());
+		}
+	}
+
+	@Test
+	public void testBatch() throws Exception {
+		Response response = handle(createRequest(null, "accessToken1 null\texpiredToken  accessToken1", "clientId1"));
+		assertEquals(200, response.getCode());
+		List<?> results = new ObjectMapper().readValue(response.getBody(), List.class);
+		assertEquals(4, results.size());
+		assertEquals(true, ((Map<?, ?>) results.get(0)).get("active"));
+		assertEquals("{active=false}", results.get(1).toString());
+		assertEquals("{active=false}", results.get(2).toString());
+		assertEquals(results.get(0), results.get(3));
+		assertEquals(Arrays.asList(Arrays.asList("accessToken1", "null", "expiredToken")), batches);
+	}
+
+	@Test
+	public void testInvalidClientById() throws Exception {
+		Response response = handle(createRequest("clientFailedToken", null, "clientId1"));
+		assertEquals(200, response.getCode());
+		assertEquals("{\"active\":false}", response.getBody());
+		assertEquals(Arrays.asList("clientFailed"), validatedClients);
+	}
+
+	@Test
+	public void testInvalidUserById() throws Exception {
+		Response response = handle(createRequest("userFailedToken", null, "clientId1"));
+		assertEquals(200, response.getCode());
+		assertEquals("{\"active\":false}", response.getBody());
+		assertEquals(Arrays.asList("userFailed"), validatedUsers);
+	}
+
+	@Test
+	public void testBatchValidatesOncePerClientAndUser() throws Exception {
+		Response response = handle(createRequest(null,
+				"accessToken1 userFailedToken accessToken2 clientFailedToken userFailedToken2 expiredToken",
+				"clientId1"));
+		assertEquals(200, response.getCode());
+		List<?> results = new ObjectMapper().readValue(response.getBody(), List.class);
+		assertEquals(6, results.size());
+		assertEquals(true, ((Map<?, ?>) results.get(0)).get("active"));
+		assertEquals("{active=false}", results.get(1).toString());
+		assertEquals(true, ((Map<?, ?>) results.get(2)).get("active"));
+		assertEquals("{active=false}", results.get(3).toString());
+		assertEquals("{active=false}", results.get(4).toString());
+		assertEquals("{active=false}", results.get(5).toString());
+		Collections.sort(validatedClients);
+		Collections.sort(validatedUsers);
+		assertEquals(Arrays.asList("clientFailed", "clientId1", "userFailed"), validatedClients);
+		assertEquals(Arrays.asList("userFailed", "userId1"), validatedUsers);
+	}
+
+	@Test
+	public void testInvalidRequest() throws Exception {
+		Response response = handle(createRequest(null, null, "clientId1"));
+		assertEquals(400, response.getCode());
+		assertEquals("{\"error\":\"invalid_request\","
+				+ "\"error_description\":\"Either 'token' or 'tokens' is required.\"}", response.getBody());
+		response = handle(createRequest("accessToken1", "accessToken2", "clientId1"));
+		assertEquals(400, response.getCode());
+		response = handle(createRequest(null, "t1 t2 t3", "clientId1"), 2);
+		assertEquals(400, response.getCode());
+		assertEquals("{\"error\":\"invalid_request\",\"error_description\":\"Too many tokens.\"}",
+				response.getBody());
+		response = handle(createRequest("accessToken1", null, null));
+		assertEquals(400, response.getCode());
+		assertEquals("{\"error\":\"invalid_request\",\"error_description\":\"'client_id' not found\"}",
+				response.getBody());
+		assertTrue(batches.isEmpty());
+	}
+
+	@Test
+	public void testInvalidClient() throws Exception {
+		Response response = handle(createRequest("accessToken1", null, "false"));
+		assertEquals(401, response.getCode());
+		assertEquals("{\"error\":\"invalid_client\"}", response.getBody());
+		assertTrue(batches.isEmpty());
+	}
+
+	private Response handle(Request request) {
+		return handle(request, 100);
+	}
+
+	private Response handle(Request request, int maxBatchSize) {
+		Introspection target = new Introspection();
+		target.setDataHandlerFactory(new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				return new MockDataHandler(request) {
+					@Override
+					public void validateClient(String clientId, String clientSecret, String grantType,
+							Handler<Boolean> handler) {
+						grantTypes.add(grantType);
+						super.validateClient(clientId, clientSecret, grantType, handler);
+					}
+
+					@Override
+					public void validateClientById(String clientId, Handler<Boolean> handler) {
+						validatedClients.add(clientId);
+						super.validateClientById(clientId, handler);
+					}
+
+					@Override
+					public void validateUserById(String userId, Handler<Boolean> handler) {
+						validatedUsers.add(userId);
+						super.validateUserById(userId, handler);
+					}
+
+					@Override
+					public void getIssuedTokens(List<String> tokens, Handler<Map<String, IssuedToken>> handler) {
+						batches.add(tokens);
+						super.getIssuedTokens(tokens, handler);
+					}
+				};
+			}
+		});
+		target.setClientCredentialFetcher(new ClientCredentialFetcherImpl());
+		target.setMaxBatchSize(maxBatchSize);
+		final AtomicReference<Response> result = new AtomicReference<Response>();
+		target.handleRequest(request, new Handler<Response>() {
+			@Override
+			public void handle(Response response) {
+				result.set(response);
+			}
+		});
+		return result.get();
+	}
+
+	private static Request createRequest(String token, String tokens, String clientId) {
+		Request request = createMock(Request.class);
+		expect(request.getParameter("token")).andStubReturn(token);
+		expect(request.getParameter("tokens")).andStubReturn(tokens);
+		expect(request.getHeader("Authorization")).andStubReturn(null);
+		expect(request.getParameter("client_id")).andStubReturn(clientId);
+		expect(request.getParameter("client_secret")).andStubReturn("secret1");
+		replay(request);
+		return request;
+	}
+
+}
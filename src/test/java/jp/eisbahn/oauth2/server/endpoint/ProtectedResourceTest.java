@@ -26,24 +26,43 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import jp.eisbahn.oauth2.server.admission.CircuitBreaker;
+import jp.eisbahn.oauth2.server.admission.ConcurrencyLimiter;
+import jp.eisbahn.oauth2.server.admission.FixedConcurrencyLimiter;
+import jp.eisbahn.oauth2.server.async.HashedWheelTimer;
 import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.cache.IntrospectionCache;
+import jp.eisbahn.oauth2.server.cache.UserValidityCache;
 import jp.eisbahn.oauth2.server.exceptions.Try;
 import jp.eisbahn.oauth2.server.mock.MockDataHandler;
 import org.junit.Test;
 
+import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.data.DataHandlerSync;
 import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.data.Deadlines;
+import jp.eisbahn.oauth2.server.data.ForwardingDataHandler;
 import jp.eisbahn.oauth2.server.endpoint.ProtectedResource.Response;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcher;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.AccessTokenFetcherProvider;
 import jp.eisbahn.oauth2.server.fetcher.accesstoken.impl.AuthHeader;
+import jp.eisbahn.oauth2.server.fetcher.accesstoken.impl.DefaultAccessTokenFetcherProvider;
 import jp.eisbahn.oauth2.server.models.AccessToken;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.scope.ScopeRegistry;
 
 public class ProtectedResourceTest {
 
@@ -254,4 +273,520 @@ public class ProtectedResourceTest {
 
 	}
 
+	@Test
+	public void testHandleRequestRequiredScopes() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").times(4);
+		DataHandlerSync DataHandlerSync = new MockDataHandler(request);
+		DataHandlerFactory DataHandlerSyncFactory = createMock(DataHandlerFactory.class);
+		expect(DataHandlerSyncFactory.create(request)).andReturn(DataHandlerSync).times(2);
+		replay(request, DataHandlerSyncFactory);
+		ProtectedResource target = new ProtectedResource();
+		AccessTokenFetcherProvider accessTokenFetcherProvider = new AccessTokenFetcherProvider();
+		accessTokenFetcherProvider.setAccessTokenFetchers(new AccessTokenFetcher[]{
+				new AuthHeader()
+		});
+		target.setAccessTokenFetcherProvider(accessTokenFetcherProvider);
+		target.setDataHandlerFactory(DataHandlerSyncFactory);
+		final ScopeRegistry scopeRegistry = new ScopeRegistry();
+		target.setScopeRegistry(scopeRegistry);
+		target.handleRequest(request, scopeRegistry.declare("scope1"), new Handler<Try<OAuthError, Response>>() {
+			@Override
+			public void handle(Try<OAuthError, Response> event) {
+				try {
+					Response response = event.get();
+					assertEquals("scope1", response.getScope());
+					assertEquals(scopeRegistry.parse("scope1"), response.getScopeSet());
+				} catch (OAuthError oAuthError) {
+					fail("OAuthError occurred.");
+				}
+			}
+		});
+		target.handleRequest(request, scopeRegistry.declare("scope1", "scope2"), new Handler<Try<OAuthError, Response>>() {
+			@Override
+			public void handle(Try<OAuthError, Response> event) {
+				try {
+					event.get();
+					fail("OAuthError not occurred.");
+				} catch (OAuthError e) {
+					assertTrue(e instanceof OAuthError.InsufficientScope);
+				}
+			}
+		});
+		verify(request, DataHandlerSyncFactory);
+	}
+
+	@Test
+	public void testHandleRequestUserValidityCache() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").anyTimes();
+		final int[] validateUserCount = new int[1];
+		DataHandlerFactory factory = new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				return new MockDataHandler(request) {
+					@Override
+					public boolean validateUserById(String userId) {
+						validateUserCount[0]++;
+						return super.validateUserById(userId);
+					}
+				};
+			}
+		};
+		replay(request);
+		ProtectedResource target = new ProtectedResource();
+		target.setAccessTokenFetcherProvider(new DefaultAccessTokenFetcherProvider());
+		target.setDataHandlerFactory(factory);
+		UserValidityCache cache = new UserValidityCache();
+		target.setUserValidityCache(cache);
+		final List<Try<OAuthError, Response>> results = new ArrayList<Try<OAuthError, Response>>();
+		Handler<Try<OAuthError, Response>> handler = new Handler<Try<OAuthError, Response>>() {
+			@Override
+			public void handle(Try<OAuthError, Response> event) {
+				results.add(event);
+			}
+		};
+		target.handleRequest(request, handler);
+		target.handleRequest(request, handler);
+		assertEquals(1, validateUserCount[0]);
+		assertEquals("userId1", results.get(0).get().getRemoteUser());
+		assertEquals("userId1", results.get(1).get().getRemoteUser());
+
+		cache.deactivateUser("userId1");
+		target.handleRequest(request, handler);
+		assertEquals(1, validateUserCount[0]);
+		try {
+			results.get(2).get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertTrue(e instanceof OAuthError.InvalidToken);
+		}
+	}
+
+	@Test
+	public void testHandleRequestOverloaded() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").anyTimes();
+		DataHandlerFactory factory = new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				return new MockDataHandler(request);
+			}
+		};
+		replay(request);
+		ProtectedResource target = new ProtectedResource();
+		target.setAccessTokenFetcherProvider(new DefaultAccessTokenFetcherProvider());
+		target.setDataHandlerFactory(factory);
+		FixedConcurrencyLimiter limiter = new FixedConcurrencyLimiter(1);
+		target.setConcurrencyLimiter(limiter);
+		final List<Try<OAuthError, Response>> results = new ArrayList<Try<OAuthError, Response>>();
+		Handler<Try<OAuthError, Response>> handler = new Handler<Try<OAuthError, Response>>() {
+			@Override
+			public void handle(Try<OAuthError, Response> event) {
+				results.add(event);
+			}
+		};
+		target.handleRequest(request, handler);
+		assertEquals("userId1", results.get(0).get().getRemoteUser());
+		assertEquals(0, limiter.getInFlight());
+
+		ConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+		target.handleRequest(request, handler);
+		try {
+			results.get(1).get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertEquals(503, e.getCode());
+			assertEquals("temporarily_unavailable", e.getType());
+		}
+		permit.release();
+		target.handleRequest(request, handler);
+		assertEquals("userId1", results.get(2).get().getRemoteUser());
+	}
+
+	@Test
+	public void testHandleRequestTimedOut() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").anyTimes();
+		final List<Handler<AuthInfo>> pending = new CopyOnWriteArrayList<Handler<AuthInfo>>();
+		DataHandlerFactory factory = new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				return new ForwardingDataHandler(new MockDataHandler(request)) {
+					@Override
+					public void getAuthInfoById(String id, Handler<AuthInfo> handler) {
+						pending.add(handler);
+					}
+				};
+			}
+		};
+		replay(request);
+		HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 64);
+		Deadlines deadlines = new Deadlines();
+		deadlines.setTimer(timer);
+		deadlines.setCallTimeout(20);
+		ProtectedResource target = new ProtectedResource();
+		target.setAccessTokenFetcherProvider(new DefaultAccessTokenFetcherProvider());
+		target.setDataHandlerFactory(factory);
+		FixedConcurrencyLimiter limiter = new FixedConcurrencyLimiter(10);
+		target.setConcurrencyLimiter(limiter);
+		target.setDeadlines(deadlines);
+		final List<Try<OAuthError, Response>> results = new CopyOnWriteArrayList<Try<OAuthError, Response>>();
+		final CountDownLatch latch = new CountDownLatch(1);
+		try {
+			target.handleRequest(request, new Handler<Try<OAuthError, Response>>() {
+				@Override
+				public void handle(Try<OAuthError, Response> event) {
+					results.add(event);
+					latch.countDown();
+				}
+			});
+			assertTrue(latch.await(5, TimeUnit.SECONDS));
+			pending.get(0).handle(new MockDataHandler(request).getAuthInfoById("authId1"));
+			assertEquals(1, results.size());
+			try {
+				results.get(0).get();
+				fail("OAuthError not occurred.");
+			} catch (OAuthError e) {
+				assertEquals(500, e.getCode());
+				assertEquals("server_error", e.getType());
+			}
+			assertEquals(0, limiter.getInFlight());
+			assertEquals(1, deadlines.getTimeoutCount("getAuthInfoById"));
+		} finally {
+			timer.stop();
+		}
+	}
+
+	@Test
+	public void testHandleRequestCircuitOpen() throws Exception {
+		final Request request1 = createMock(Request.class);
+		expect(request1.getHeader("Authorization")).andReturn("Bearer accessToken1").anyTimes();
+		final Request request2 = createMock(Request.class);
+		expect(request2.getHeader("Authorization")).andReturn("Bearer accessToken2").anyTimes();
+		final AtomicBoolean down = new AtomicBoolean();
+		DataHandlerFactory factory = new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				return new ForwardingDataHandler(new MockDataHandler(request)) {
+					@Override
+					public void getAccessToken(String token, Handler<AccessToken> handler) {
+						if (down.get()) {
+							throw new IllegalStateException("Database is down.");
+						}
+						super.getAccessToken(token, handler);
+					}
+				};
+			}
+		};
+		replay(request1, request2);
+		IntrospectionCache cache = new IntrospectionCache();
+		cache.setTtl(0L);
+		CircuitBreaker circuitBreaker = new CircuitBreaker();
+		circuitBreaker.setFailureThreshold(1);
+		ProtectedResource target = new ProtectedResource();
+		target.setAccessTokenFetcherProvider(new DefaultAccessTokenFetcherProvider());
+		target.setDataHandlerFactory(factory);
+		target.setIntrospectionCache(cache);
+		target.setCircuitBreaker(circuitBreaker);
+		final List<Try<OAuthError, Response>> results = new ArrayList<Try<OAuthError, Response>>();
+		Handler<Try<OAuthError, Response>> handler = new Handler<Try<OAuthError, Response>>() {
+			@Override
+			public void handle(Try<OAuthError, Response> event) {
+				results.add(event);
+			}
+		};
+		target.handleRequest(request1, handler);
+		assertEquals("userId1", results.get(0).get().getRemoteUser());
+		assertEquals(1, circuitBreaker.getSuccessCount());
+
+		down.set(true);
+		try {
+			target.handleRequest(request1, handler);
+			fail("IllegalStateException not occurred.");
+		} catch (IllegalStateException e) {
+		}
+		assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+		target.handleRequest(request1, handler);
+		assertEquals("userId1", results.get(1).get().getRemoteUser());
+		assertEquals("clientId1", results.get(1).get().getClientId());
+		target.handleRequest(request2, handler);
+		try {
+			results.get(2).get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertEquals(503, e.getCode());
+			assertEquals("temporarily_unavailable", e.getType());
+		}
+		assertEquals(2, circuitBreaker.getRejectedCount());
+	}
+
+	@Test
+	public void testHandleRequestCircuitOpenByAsyncError() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").anyTimes();
+		DataHandlerFactory factory = new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				return new ForwardingDataHandler(new MockDataHandler(request)) {
+					@Override
+					public void getAccessToken(final String token, final Handler<AccessToken> handler) {
+						final DataHandler delegate = getDelegate();
+						Thread thread = new Thread() {
+							@Override
+							public void run() {
+								delegate.getAccessToken(token, handler);
+							}
+						};
+						thread.start();
+						try {
+							thread.join();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+
+					@Override
+					public void getAuthInfoById(String id, Handler<AuthInfo> handler) {
+						throw new IllegalStateException("Database is down.");
+					}
+				};
+			}
+		};
+		replay(request);
+		CircuitBreaker circuitBreaker = new CircuitBreaker();
+		circuitBreaker.setFailureThreshold(1);
+		ProtectedResource target = new ProtectedResource();
+		target.setAccessTokenFetcherProvider(new DefaultAccessTokenFetcherProvider());
+		target.setDataHandlerFactory(factory);
+		target.setCircuitBreaker(circuitBreaker);
+		final List<Try<OAuthError, Response>> results = new CopyOnWriteArrayList<Try<OAuthError, Response>>();
+		target.handleRequest(request, new Handler<Try<OAuthError, Response>>() {
+			@Override
+			public void handle(Try<OAuthError, Response> event) {
+				results.add(event);
+			}
+		});
+		assertEquals(1, results.size());
+		try {
+			results.get(0).get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertEquals(500, e.getCode());
+			assertEquals("server_error", e.getType());
+		}
+		assertEquals(1, circuitBreaker.getFailureCount());
+		assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+	}
+
+	@Test
+	public void testHandleRequestRefreshAhead() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").anyTimes();
+		final AtomicInteger calls = new AtomicInteger();
+		final AtomicBoolean revoked = new AtomicBoolean();
+		DataHandlerFactory factory = new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				return new ForwardingDataHandler(new MockDataHandler(request)) {
+					@Override
+					public void getAccessToken(String token, Handler<AccessToken> handler) {
+						calls.incrementAndGet();
+						if (revoked.get()) {
+							handler.handle(null);
+						} else {
+							super.getAccessToken(token, handler);
+						}
+					}
+				};
+			}
+		};
+		replay(request);
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		IntrospectionCache cache = new IntrospectionCache();
+		cache.setTtl(60000L);
+		cache.setRefreshThreshold(0.0);
+		ProtectedResource target = new ProtectedResource();
+		target.setAccessTokenFetcherProvider(new DefaultAccessTokenFetcherProvider());
+		target.setDataHandlerFactory(factory);
+		target.setIntrospectionCache(cache);
+		target.setRefreshExecutor(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				tasks.add(command);
+			}
+		});
+		final List<Try<OAuthError, Response>> results = new ArrayList<Try<OAuthError, Response>>();
+		Handler<Try<OAuthError, Response>> handler = new Handler<Try<OAuthError, Response>>() {
+			@Override
+			public void handle(Try<OAuthError, Response> event) {
+				results.add(event);
+			}
+		};
+		target.handleRequest(request, handler);
+		assertEquals(1, calls.get());
+		assertEquals(0, tasks.size());
+
+		target.handleRequest(request, handler);
+		target.handleRequest(request, handler);
+		assertEquals("userId1", results.get(2).get().getRemoteUser());
+		assertEquals(1, calls.get());
+		assertEquals(1, tasks.size());
+		tasks.get(0).run();
+		assertEquals(2, calls.get());
+
+		target.handleRequest(request, handler);
+		assertEquals(2, tasks.size());
+		revoked.set(true);
+		tasks.get(1).run();
+		assertEquals(3, calls.get());
+		assertEquals(null, cache.getStale("accessToken1"));
+		target.handleRequest(request, handler);
+		assertEquals(4, calls.get());
+		try {
+			results.get(4).get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertTrue(e instanceof OAuthError.InvalidToken);
+		}
+	}
+
+	@Test
+	public void testHandleRequestRefreshRevalidatesUser() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").anyTimes();
+		final AtomicBoolean deactivated = new AtomicBoolean();
+		final AtomicInteger userChecks = new AtomicInteger();
+		DataHandlerFactory factory = new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				return new ForwardingDataHandler(new MockDataHandler(request)) {
+					@Override
+					public void validateUserById(String userId, Handler<Boolean> handler) {
+						userChecks.incrementAndGet();
+						handler.handle(!deactivated.get());
+					}
+				};
+			}
+		};
+		replay(request);
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		IntrospectionCache cache = new IntrospectionCache();
+		cache.setTtl(60000L);
+		cache.setRefreshThreshold(0.0);
+		ProtectedResource target = new ProtectedResource();
+		target.setAccessTokenFetcherProvider(new DefaultAccessTokenFetcherProvider());
+		target.setDataHandlerFactory(factory);
+		target.setIntrospectionCache(cache);
+		target.setRefreshExecutor(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				tasks.add(command);
+			}
+		});
+		final List<Try<OAuthError, Response>> results = new ArrayList<Try<OAuthError, Response>>();
+		Handler<Try<OAuthError, Response>> handler = new Handler<Try<OAuthError, Response>>() {
+			@Override
+			public void handle(Try<OAuthError, Response> event) {
+				results.add(event);
+			}
+		};
+		target.handleRequest(request, handler);
+		target.handleRequest(request, handler);
+		assertEquals(1, tasks.size());
+		tasks.get(0).run();
+		assertEquals(2, userChecks.get());
+		assertEquals("userId1", cache.get("accessToken1").getAuthInfo().getUserId());
+
+		target.handleRequest(request, handler);
+		assertEquals(2, tasks.size());
+		deactivated.set(true);
+		tasks.get(1).run();
+		assertEquals(3, userChecks.get());
+		assertEquals(null, cache.getStale("accessToken1"));
+		target.handleRequest(request, handler);
+		try {
+			results.get(3).get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertEquals("Invalid user.", e.getDescription());
+		}
+	}
+
+	@Test
+	public void testHandleRequestCachedDeactivatedUser() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").anyTimes();
+		final AtomicInteger calls = new AtomicInteger();
+		final AtomicBoolean down = new AtomicBoolean();
+		DataHandlerFactory factory = new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				return new ForwardingDataHandler(new MockDataHandler(request)) {
+					@Override
+					public void getAccessToken(String token, Handler<AccessToken> handler) {
+						calls.incrementAndGet();
+						if (down.get()) {
+							throw new IllegalStateException("Database is down.");
+						}
+						super.getAccessToken(token, handler);
+					}
+				};
+			}
+		};
+		replay(request);
+		IntrospectionCache cache = new IntrospectionCache();
+		cache.setTtl(60000L);
+		cache.setRefreshThreshold(1.0);
+		UserValidityCache userValidityCache = new UserValidityCache();
+		CircuitBreaker circuitBreaker = new CircuitBreaker();
+		circuitBreaker.setFailureThreshold(1);
+		ProtectedResource target = new ProtectedResource();
+		target.setAccessTokenFetcherProvider(new DefaultAccessTokenFetcherProvider());
+		target.setDataHandlerFactory(factory);
+		target.setIntrospectionCache(cache);
+		target.setUserValidityCache(userValidityCache);
+		target.setCircuitBreaker(circuitBreaker);
+		final List<Try<OAuthError, Response>> results = new ArrayList<Try<OAuthError, Response>>();
+		Handler<Try<OAuthError, Response>> handler = new Handler<Try<OAuthError, Response>>() {
+			@Override
+			public void handle(Try<OAuthError, Response> event) {
+				results.add(event);
+			}
+		};
+		target.handleRequest(request, handler);
+		assertEquals("userId1", results.get(0).get().getRemoteUser());
+
+		userValidityCache.deactivateUser("userId1");
+		target.handleRequest(request, handler);
+		assertEquals(1, calls.get());
+		try {
+			results.get(1).get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertEquals("Invalid user.", e.getDescription());
+		}
+
+		userValidityCache.invalidate("userId1");
+		cache.setTtl(0L);
+		target.handleRequest(request, handler);
+		assertEquals("userId1", results.get(2).get().getRemoteUser());
+		down.set(true);
+		try {
+			target.handleRequest(request, handler);
+			fail("IllegalStateException not occurred.");
+		} catch (IllegalStateException e) {
+		}
+		assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+		userValidityCache.deactivateUser("userId1");
+		target.handleRequest(request, handler);
+		try {
+			results.get(3).get();
+			fail("OAuthError not occurred.");
+		} catch (OAuthError e) {
+			assertEquals("Invalid user.", e.getDescription());
+		}
+	}
+
 }
@@ -23,9 +23,11 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.HashMap;
 
+import jp.eisbahn.oauth2.server.admission.FixedConcurrencyLimiter;
 import jp.eisbahn.oauth2.server.async.Handler;
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
@@ -40,6 +42,8 @@ import jp.eisbahn.oauth2.server.mock.MockDataHandler;
 import jp.eisbahn.oauth2.server.models.AccessToken;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.ratelimit.RateLimit;
+import jp.eisbahn.oauth2.server.ratelimit.RateLimiter;
 
 import org.junit.Test;
 
@@ -91,7 +95,6 @@ public class TokenTest {
 		expect(request.getParameter("client_id")).andReturn(null);
 		expect(request.getParameter("client_secret")).andReturn(null);
 		final DataHandlerFactory factory = createMock(DataHandlerFactory.class);
-		expect(factory.create(request)).andReturn(null);
 		replay(request, factory);
 		Token target = createToken(factory);
 		target.handleRequest(request, new Handler<Response>() {
@@ -115,7 +118,6 @@ public class TokenTest {
 		expect(request.getParameter("client_id")).andReturn("clientId1");
 		expect(request.getParameter("client_secret")).andReturn(null);
 		final DataHandlerFactory factory = createMock(DataHandlerFactory.class);
-		expect(factory.create(request)).andReturn(null);
 		replay(request, factory);
 		Token target = createToken(factory);
 		target.handleRequest(request, new Handler<Response>() {
@@ -180,6 +182,100 @@ public class TokenTest {
 		});
 	}
 
+	@Test
+	public void testHandleRequestRateLimited() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getParameter("grant_type")).andReturn("refresh_token");
+		expect(request.getHeader("Authorization")).andReturn(null);
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1");
+		final DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		expect(factory.create(request)).andReturn(new MockDataHandler(request));
+		replay(request, factory);
+		Token target = createToken(factory);
+		RateLimiter rateLimiter = new RateLimiter();
+		rateLimiter.setDefaultLimit(new RateLimit(0.5, 1));
+		rateLimiter.tryAcquire("clientId1", "refresh_token");
+		target.setRateLimiter(rateLimiter);
+		target.handleRequest(request, new Handler<Response>() {
+			@Override
+			public void handle(Response response) {
+				assertEquals(429, response.getCode());
+				assertEquals(
+						"{\"error\":\"temporarily_unavailable\","
+								+ "\"error_description\":\"Too many requests.\"}",
+						response.getBody());
+				String retryAfter = response.getHeaders().get("Retry-After");
+				assertTrue("1".equals(retryAfter) || "2".equals(retryAfter));
+				verify(request, factory);
+			}
+		});
+	}
+
+	@Test
+	public void testHandleRequestRateLimitNotChargedByInvalidClient() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getParameter("grant_type")).andReturn("refresh_token");
+		expect(request.getHeader("Authorization")).andReturn(null);
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("secretfalse");
+		final DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		expect(factory.create(request)).andReturn(new MockDataHandler(request));
+		replay(request, factory);
+		Token target = createToken(factory);
+		RateLimiter rateLimiter = new RateLimiter();
+		rateLimiter.setDefaultLimit(new RateLimit(0.5, 1));
+		target.setRateLimiter(rateLimiter);
+		target.handleRequest(request, new Handler<Response>() {
+			@Override
+			public void handle(Response response) {
+				assertEquals(401, response.getCode());
+				verify(request, factory);
+			}
+		});
+		assertEquals(0L, rateLimiter.tryAcquire("clientId1", "refresh_token"));
+	}
+
+	@Test
+	public void testHandleRequestOverloaded() throws Exception {
+		final Request request = createMock(Request.class);
+		final DataHandlerFactory factory = createMock(DataHandlerFactory.class);
+		replay(request, factory);
+		Token target = createToken(factory);
+		FixedConcurrencyLimiter limiter = new FixedConcurrencyLimiter(1);
+		limiter.tryAcquire();
+		target.setConcurrencyLimiter(limiter);
+		target.handleRequest(request, new Handler<Response>() {
+			@Override
+			public void handle(Response response) {
+				assertEquals(503, response.getCode());
+				assertEquals(
+						"{\"error\":\"temporarily_unavailable\","
+								+ "\"error_description\":\"Server is busy.\"}",
+						response.getBody());
+				verify(request, factory);
+			}
+		});
+	}
+
+	@Test
+	public void testHandleRequestPermitReleased() throws Exception {
+		final Request request = createMock(Request.class);
+		expect(request.getParameter("grant_type")).andReturn(null);
+		replay(request);
+		Token target = new Token();
+		final FixedConcurrencyLimiter limiter = new FixedConcurrencyLimiter(1);
+		target.setConcurrencyLimiter(limiter);
+		target.handleRequest(request, new Handler<Response>() {
+			@Override
+			public void handle(Response response) {
+				assertEquals(400, response.getCode());
+				assertEquals(0, limiter.getInFlight());
+			}
+		});
+		assertEquals(1L, limiter.getAcceptedCount());
+	}
+
 	@SuppressWarnings("serial")
 	private Token createToken(DataHandlerFactory factory) {
 		Token token = new Token();
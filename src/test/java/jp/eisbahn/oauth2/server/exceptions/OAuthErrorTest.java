@@ -32,6 +32,8 @@ import jp.eisbahn.oauth2.server.exceptions.OAuthError.InvalidRequest;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError.InvalidScope;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError.InvalidToken;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError.RedirectUriMismatch;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError.ServerError;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError.TemporarilyUnavailable;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError.UnauthorizedClient;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError.UnsupportedGrantType;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError.UnsupportedResponseType;
@@ -163,4 +165,21 @@ public class OAuthErrorTest {
 		assertEquals("insufficient_scope", target.getType());
 	}
 
+	@Test
+	public void testTemporarilyUnavailable() {
+		TemporarilyUnavailable target = new TemporarilyUnavailable(429, "desc1");
+		assertEquals(429, target.getCode());
+		assertEquals("desc1", target.getDescription());
+		assertEquals("temporarily_unavailable", target.getType());
+		assertEquals(0, target.getStackTrace().length);
+	}
+
+	@Test
+	public void testServerError() {
+		ServerError target = new ServerError("desc1");
+		assertEquals(500, target.getCode());
+		assertEquals("desc1", target.getDescription());
+		assertEquals("server_error", target.getType());
+	}
+
 }
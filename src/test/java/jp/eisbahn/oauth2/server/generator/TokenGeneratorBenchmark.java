@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.generator;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The throughput benchmark of the TokenGenerator at 1, 8 and 32 threads,
+ * compared with a SecureRandom shared by all threads. This is not run as a
+ * test; run the main() method with the test classpath. The argument is the
+ * duration of each run in seconds.
+ */
+public class TokenGeneratorBenchmark {
+
+	private static volatile int sink;
+
+	private interface Task {
+		String generate();
+	}
+
+	public static void main(String[] args) throws Exception {
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		final TokenGenerator generator = new TokenGenerator(new TokenFormat("at_", 32, true));
+		final SecureRandom shared = new SecureRandom();
+		Task generatorTask = new Task() {
+			@Override
+			public String generate() {
+				return generator.generate();
+			}
+		};
+		Task sharedTask = new Task() {
+			@Override
+			public String generate() {
+				byte[] bytes = new byte[32];
+				shared.nextBytes(bytes);
+				return "at_" + Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+			}
+		};
+		for (int threads : new int[] {1, 8, 32}) {
+			run("TokenGenerator", generatorTask, threads, seconds);
+			run("shared SecureRandom", sharedTask, threads, seconds);
+		}
+	}
+
+	private static void run(String name, final Task task, int threads, int seconds) throws Exception {
+		final AtomicLong generated = new AtomicLong();
+		final CountDownLatch done = new CountDownLatch(threads);
+		final long deadline = System.nanoTime() + seconds * 1000000000L;
+		for (int i = 0; i < threads; i++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					long count = 0;
+					int length = 0;
+					while (System.nanoTime() < deadline) {
+						for (int j = 0; j < 1000; j++) {
+							length += task.generate().length();
+						}
+						count += 1000;
+					}
+					sink = length;
+					generated.addAndGet(count);
+					done.countDown();
+				}
+			}).start();
+		}
+		done.await();
+		System.out.printf("%s, %d threads: %.0f tokens/sec%n",
+				name, threads, generated.get() / (double) seconds);
+	}
+
+}
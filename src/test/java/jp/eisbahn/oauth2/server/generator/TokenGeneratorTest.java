@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.generator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import org.junit.Test;
+
+public class TokenGeneratorTest {
+
+	@Test
+	public void testGenerate() throws Exception {
+		TokenFormat format = new TokenFormat(null, 32, false);
+		TokenGenerator target = new TokenGenerator(format);
+		Set<String> tokens = new HashSet<String>();
+		for (int i = 0; i < 10000; i++) {
+			String token = target.generate();
+			assertEquals(43, token.length());
+			assertTrue(token, token.matches("[A-Za-z0-9_-]{43}"));
+			assertTrue(format.matches(token));
+			assertEquals(32, Base64.getUrlDecoder().decode(token).length);
+			assertTrue(tokens.add(token));
+		}
+	}
+
+	@Test
+	public void testEncoding() throws Exception {
+		for (int n = 16; n <= 18; n++) {
+			TokenGenerator target = new TokenGenerator(new TokenFormat("", n, false));
+			target.setAlgorithm("SHA1PRNG");
+			String token = target.generate();
+			assertEquals((n * 4 + 2) / 3, token.length());
+			byte[] decoded = Base64.getUrlDecoder().decode(token);
+			assertEquals(n, decoded.length);
+			assertEquals(Base64.getUrlEncoder().withoutPadding().encodeToString(decoded), token);
+		}
+	}
+
+	@Test
+	public void testAcrossBuffer() throws Exception {
+		TokenGenerator target = new TokenGenerator(new TokenFormat("rt_", 20, true));
+		target.setBufferSize(50);
+		for (int i = 0; i < 100; i++) {
+			String token = target.generate();
+			assertTrue(target.getFormat().matches(token));
+			assertEquals(20, Base64.getUrlDecoder().decode(token.substring(3, token.length() - 6)).length);
+		}
+	}
+
+	@Test
+	public void testPrefixAndChecksum() throws Exception {
+		TokenFormat format = new TokenFormat("at_", 32, true);
+		assertEquals(3 + 43 + 6, format.getLength());
+		TokenGenerator target = new TokenGenerator(format);
+		String token = target.generate();
+		assertEquals(format.getLength(), token.length());
+		assertTrue(token.startsWith("at_"));
+		CRC32 crc = new CRC32();
+		crc.update(token.substring(0, token.length() - 6).getBytes("US-ASCII"));
+		assertEquals(encodeChecksum(crc.getValue()), token.substring(token.length() - 6));
+		assertTrue(format.matches(token));
+
+		char[] chars = token.toCharArray();
+		chars[10] = chars[10] == 'A' ? 'B' : 'A';
+		assertFalse(format.matches(new String(chars)));
+		assertFalse(format.matches("rt_" + token.substring(3)));
+		assertFalse(format.matches(token.substring(1)));
+		assertFalse(format.matches(token.substring(0, 20) + "+" + token.substring(21)));
+		assertFalse(format.matches(null));
+		assertTrue(new TokenFormat("at_", 32, false).matches(token.substring(0, token.length() - 6)));
+	}
+
+	@Test
+	public void testReseed() throws Exception {
+		final AtomicInteger seeds = new AtomicInteger();
+		SecureRandom seedSource = new SecureRandom() {
+			private static final long serialVersionUID = 1L;
+			@Override
+			public synchronized void nextBytes(byte[] bytes) {
+				seeds.incrementAndGet();
+				super.nextBytes(bytes);
+			}
+		};
+		TokenGenerator target = new TokenGenerator(new TokenFormat(null, 16, false));
+		target.setSeedSource(seedSource);
+		target.setBufferSize(64);
+		target.setReseedInterval(128);
+		for (int i = 0; i < 4; i++) {
+			target.generate();
+		}
+		assertEquals(1, seeds.get());
+		for (int i = 0; i < 16; i++) {
+			target.generate();
+		}
+		assertEquals(3, seeds.get());
+	}
+
+	@Test
+	public void testThreads() throws Exception {
+		final TokenGenerator target = new TokenGenerator(new TokenFormat(null, 16, true));
+		final Set<String> tokens = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 2000; j++) {
+						tokens.add(target.generate());
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(16000, tokens.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testShortByteLength() throws Exception {
+		new TokenFormat(null, 15, false);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidPrefix() throws Exception {
+		new TokenFormat("at.", 32, false);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownAlgorithm() throws Exception {
+		new TokenGenerator(new TokenFormat(null, 32, false)).setAlgorithm("UNKNOWN");
+	}
+
+	private static String encodeChecksum(long value) {
+		char[] chars = new char[6];
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+		for (int i = 5; i >= 0; i--) {
+			chars[i] = alphabet.charAt((int) (value & 0x3f));
+			value >>>= 6;
+		}
+		return new String(chars);
+	}
+
+}
@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.granttype;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.async.HashedWheelTimer;
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.granttype.GrantHandler.GrantHandlerResult;
+import jp.eisbahn.oauth2.server.mock.MockDataHandler;
+import jp.eisbahn.oauth2.server.models.Request;
+
+public class GrantRequestCoalescerTest {
+
+	private GrantRequestCoalescer target;
+	private PendingGrantHandler grantHandler;
+	private List<Try<OAuthError, GrantHandlerResult>> results;
+
+	@Before
+	public void setUp() {
+		target = new GrantRequestCoalescer();
+		grantHandler = new PendingGrantHandler();
+		results = Collections.synchronizedList(new ArrayList<Try<OAuthError, GrantHandlerResult>>());
+	}
+
+	@Test
+	public void testCoalesce() throws Exception {
+		target.handleRequest("client_credentials", "clientId1", grantHandler,
+				createDataHandler("scope", "scope1"), new ResultHandler());
+		target.handleRequest("client_credentials", "clientId1", grantHandler,
+				createDataHandler("scope", "scope1"), new ResultHandler());
+		target.handleRequest("client_credentials", "clientId1", grantHandler,
+				createDataHandler("scope", "scope1"), new ResultHandler());
+		assertEquals(1, grantHandler.pending.size());
+		assertEquals(1, target.getInFlightCount());
+		assertEquals(2, target.getCoalescedCount());
+		assertEquals(0, results.size());
+
+		GrantHandlerResult result = new GrantHandlerResult("Bearer", "accessToken1");
+		grantHandler.complete(0, new Try<OAuthError, GrantHandlerResult>(result));
+		assertEquals(3, results.size());
+		for (Try<OAuthError, GrantHandlerResult> event : results) {
+			assertSame(result, event.get());
+		}
+		assertEquals(0, target.getInFlightCount());
+
+		target.handleRequest("client_credentials", "clientId1", grantHandler,
+				createDataHandler("scope", "scope1"), new ResultHandler());
+		assertEquals(2, grantHandler.pending.size());
+	}
+
+	@Test
+	public void testCoalesceError() throws Exception {
+		target.handleRequest("refresh_token", "clientId1", grantHandler,
+				createDataHandler("refresh_token", "refreshToken1", "scope", null), new ResultHandler());
+		target.handleRequest("refresh_token", "clientId1", grantHandler,
+				createDataHandler("refresh_token", "refreshToken1", "scope", null), new ResultHandler());
+		grantHandler.complete(0, new Try<OAuthError, GrantHandlerResult>(
+				new OAuthError.InvalidGrant("")));
+		assertEquals(2, results.size());
+		for (Try<OAuthError, GrantHandlerResult> event : results) {
+			try {
+				event.get();
+				fail("Error.InvalidGrant not occurred.");
+			} catch (OAuthError e) {
+				assertEquals("invalid_grant", e.getType());
+			}
+		}
+	}
+
+	@Test
+	public void testDifferentKeys() throws Exception {
+		target.handleRequest("client_credentials", "clientId1", grantHandler,
+				createDataHandler("scope", "scope1"), new ResultHandler());
+		target.handleRequest("client_credentials", "clientId1", grantHandler,
+				createDataHandler("scope", "scope2"), new ResultHandler());
+		target.handleRequest("client_credentials", "clientId2", grantHandler,
+				createDataHandler("scope", "scope1"), new ResultHandler());
+		target.handleRequest("refresh_token", "clientId1", grantHandler,
+				createDataHandler("refresh_token", "refreshToken1", "scope", "scope1"), new ResultHandler());
+		target.handleRequest("refresh_token", "clientId1", grantHandler,
+				createDataHandler("refresh_token", "refreshToken2", "scope", "scope1"), new ResultHandler());
+		assertEquals(5, grantHandler.pending.size());
+		assertEquals(0, target.getCoalescedCount());
+	}
+
+	@Test
+	public void testPasswordNotCoalescedByDefault() throws Exception {
+		target.handleRequest("password", "clientId1", grantHandler,
+				createDataHandler(), new ResultHandler());
+		target.handleRequest("password", "clientId1", grantHandler,
+				createDataHandler(), new ResultHandler());
+		assertEquals(2, grantHandler.pending.size());
+		assertEquals(0, target.getInFlightCount());
+	}
+
+	@Test
+	public void testPasswordEnabled() throws Exception {
+		target.setGrantTypes(Arrays.asList("password"));
+		target.handleRequest("password", "clientId1", grantHandler,
+				createDataHandler("username", "user1", "password", "pass1", "scope", null),
+				new ResultHandler());
+		target.handleRequest("password", "clientId1", grantHandler,
+				createDataHandler("username", "user1", "password", "pass2", "scope", null),
+				new ResultHandler());
+		target.handleRequest("password", "clientId1", grantHandler,
+				createDataHandler("username", "user1", "password", "pass1", "scope", null),
+				new ResultHandler());
+		assertEquals(2, grantHandler.pending.size());
+		assertEquals(1, target.getCoalescedCount());
+		target.handleRequest("client_credentials", "clientId1", grantHandler,
+				createDataHandler(), new ResultHandler());
+		assertEquals(3, grantHandler.pending.size());
+	}
+
+	@Test
+	public void testLeaderFailed() throws Exception {
+		final List<DataHandler> handled = new ArrayList<DataHandler>();
+		GrantHandler failing = new GrantHandler() {
+			@Override
+			public void handleRequest(DataHandler dataHandler,
+					Handler<Try<OAuthError, GrantHandlerResult>> handler) {
+				handled.add(dataHandler);
+				if (handled.size() == 1) {
+					target.handleRequest("client_credentials", "clientId1", this,
+							createDataHandler("scope", "scope1"), new ResultHandler());
+					throw new IllegalStateException();
+				}
+				handler.handle(new Try<OAuthError, GrantHandlerResult>(
+						new GrantHandlerResult("Bearer", "accessToken1")));
+			}
+		};
+		try {
+			target.handleRequest("client_credentials", "clientId1", failing,
+					createDataHandler("scope", "scope1"), new ResultHandler());
+			fail("IllegalStateException not occurred.");
+		} catch (IllegalStateException e) {
+		}
+		assertEquals(2, handled.size());
+		assertEquals(1, results.size());
+		assertEquals("accessToken1", results.get(0).get().getAccessToken());
+		assertEquals(0, target.getInFlightCount());
+	}
+
+	@Test
+	public void testLeaderNeverCallsBack() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 64);
+		try {
+			target.setTimer(timer);
+			target.setFlightTimeout(20L);
+			target.handleRequest("client_credentials", "clientId1", grantHandler,
+					createDataHandler("scope", "scope1"), new ResultHandler());
+			target.handleRequest("client_credentials", "clientId1", grantHandler,
+					createDataHandler("scope", "scope1"), new ResultHandler());
+			long limit = System.currentTimeMillis() + 5000L;
+			while (results.size() < 2 && System.currentTimeMillis() < limit) {
+				Thread.sleep(5);
+			}
+			assertEquals(2, results.size());
+			for (Try<OAuthError, GrantHandlerResult> event : results) {
+				try {
+					event.get();
+					fail("Error.ServerError not occurred.");
+				} catch (OAuthError e) {
+					assertEquals("server_error", e.getType());
+				}
+			}
+			assertEquals(0, target.getInFlightCount());
+
+			grantHandler.complete(0, new Try<OAuthError, GrantHandlerResult>(
+					new GrantHandlerResult("Bearer", "accessToken1")));
+			assertEquals(2, results.size());
+			target.handleRequest("client_credentials", "clientId1", grantHandler,
+					createDataHandler("scope", "scope1"), new ResultHandler());
+			assertEquals(2, grantHandler.pending.size());
+			grantHandler.complete(1, new Try<OAuthError, GrantHandlerResult>(
+					new GrantHandlerResult("Bearer", "accessToken2")));
+			assertEquals("accessToken2", results.get(2).get().getAccessToken());
+		} finally {
+			timer.stop();
+		}
+	}
+
+	private DataHandler createDataHandler(String... parameters) {
+		Request request = createMock(Request.class);
+		for (int i = 0; i < parameters.length; i += 2) {
+			expect(request.getParameter(parameters[i])).andReturn(parameters[i + 1]);
+		}
+		replay(request);
+		return new MockDataHandler(request);
+	}
+
+	private class ResultHandler implements Handler<Try<OAuthError, GrantHandlerResult>> {
+
+		@Override
+		public void handle(Try<OAuthError, GrantHandlerResult> event) {
+			results.add(event);
+		}
+
+	}
+
+	private static class PendingGrantHandler implements GrantHandler {
+
+		private final List<Handler<Try<OAuthError, GrantHandlerResult>>> pending =
+				new ArrayList<Handler<Try<OAuthError, GrantHandlerResult>>>();
+
+		@Override
+		public void handleRequest(DataHandler dataHandler,
+				Handler<Try<OAuthError, GrantHandlerResult>> handler) {
+			pending.add(handler);
+		}
+
+		private void complete(int index, Try<OAuthError, GrantHandlerResult> result) {
+			pending.get(index).handle(result);
+		}
+
+	}
+
+}
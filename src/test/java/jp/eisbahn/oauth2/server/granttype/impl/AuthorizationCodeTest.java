@@ -35,6 +35,7 @@ import org.junit.Test;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcherImpl;
 import jp.eisbahn.oauth2.server.granttype.GrantHandler.GrantHandlerResult;
+import jp.eisbahn.oauth2.server.models.IssuedToken;
 import jp.eisbahn.oauth2.server.models.Request;
 
 public class AuthorizationCodeTest {
@@ -213,6 +214,33 @@ public class AuthorizationCodeTest {
 		});
 	}
 
+	@Test
+	public void testHandleRequestCodeAlreadyUsed() throws Exception {
+		Request request = createRequestMock();
+		expect(request.getParameter("code")).andReturn("code1");
+		expect(request.getParameter("redirect_uri")).andReturn("redirectUri1");
+		DataHandlerSync dataHandler = new MockDataHandler(request) {
+			@Override
+			public void exchangeAuthorizationCode(String code, String clientId,
+					String redirectUri, Handler<Try<OAuthError, IssuedToken>> handler) {
+				handler.handle(new Try<OAuthError, IssuedToken>(
+						new IssuedToken(getAuthInfoByCode(code), null)));
+			}
+		};
+		replay(request);
+		target.handleRequest(dataHandler, new Handler<Try<OAuthError, GrantHandlerResult>>() {
+			@Override
+			public void handle(Try<OAuthError, GrantHandlerResult> event) {
+				try {
+					event.get();
+					fail("Error.InvalidGrant not occurred.");
+				} catch (OAuthError e) {
+					assertEquals("invalid_grant", e.getType());
+				}
+			}
+		});
+	}
+
 	private Request createRequestMock() {
 		Request request = createMock(Request.class);
 		expect(request.getHeader("Authorization")).andReturn(null);
@@ -21,10 +21,15 @@ package jp.eisbahn.oauth2.server.granttype.impl;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.cache.ClientTokenCache;
 import jp.eisbahn.oauth2.server.data.DataHandlerSync;
 import jp.eisbahn.oauth2.server.exceptions.Try;
 import jp.eisbahn.oauth2.server.mock.MockDataHandler;
@@ -35,6 +40,8 @@ import org.junit.Test;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
 import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcherImpl;
 import jp.eisbahn.oauth2.server.granttype.GrantHandler.GrantHandlerResult;
+import jp.eisbahn.oauth2.server.models.AccessToken;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.Request;
 
 public class ClientCredentialsTest {
@@ -138,6 +145,39 @@ public class ClientCredentialsTest {
 		});
 	}
 
+	@Test
+	public void testHandleRequestTokenCache() throws Exception {
+		target.setTokenCache(new ClientTokenCache());
+		final AtomicInteger count = new AtomicInteger();
+		for (int i = 0; i < 2; i++) {
+			Request request = createRequestMock();
+			expect(request.getParameter("scope")).andReturn("scope1");
+			DataHandlerSync dataHandler = new MockDataHandler(request) {
+				@Override
+				public AccessToken createOrUpdateAccessToken(AuthInfo authInfo) {
+					count.incrementAndGet();
+					return super.createOrUpdateAccessToken(authInfo);
+				}
+			};
+			replay(request);
+			target.handleRequest(dataHandler, new Handler<Try<OAuthError, GrantHandlerResult>>() {
+				@Override
+				public void handle(Try<OAuthError, GrantHandlerResult> event) {
+					try {
+						GrantHandlerResult result = event.get();
+						assertEquals("accessToken1", result.getAccessToken());
+						assertTrue(result.getExpiresIn() <= 900L);
+						assertEquals("scope1", result.getScope());
+					} catch (OAuthError oAuthError) {
+						fail(oAuthError.getMessage());
+					}
+				}
+			});
+			verify(request);
+		}
+		assertEquals(1, count.get());
+	}
+
 	private Request createRequestMock() {
 		Request request = createMock(Request.class);
 		expect(request.getHeader("Authorization")).andReturn(null);
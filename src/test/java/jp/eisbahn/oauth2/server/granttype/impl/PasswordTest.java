@@ -36,11 +36,14 @@ import org.junit.Test;
 
 import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError.AccessDenied;
 import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcherImpl;
 import jp.eisbahn.oauth2.server.granttype.GrantHandler.GrantHandlerResult;
 import jp.eisbahn.oauth2.server.models.AccessToken;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.IssuedToken;
 import jp.eisbahn.oauth2.server.models.Request;
+import jp.eisbahn.oauth2.server.ratelimit.InMemoryLoginAttemptTracker;
 
 import java.io.UnsupportedEncodingException;
 
@@ -207,6 +210,84 @@ public class PasswordTest {
 		});
 	}
 
+	@Test
+	public void testHandleRequestIssuedInOneCall() throws Exception {
+		Request request = createRequestMock();
+		expect(request.getParameter("username")).andReturn("username1");
+		expect(request.getParameter("password")).andReturn("password1");
+		expect(request.getParameter("scope")).andReturn("scope1");
+		DataHandlerSync dataHandler = new MockDataHandler(request) {
+			@Override
+			public void createOrUpdateAuthInfoAndAccessToken(String clientId, String userId,
+					String scope, Handler<IssuedToken> handler) {
+				AuthInfo authInfo = new AuthInfo();
+				authInfo.setClientId(clientId);
+				authInfo.setScope(scope);
+				AccessToken accessToken = new AccessToken();
+				accessToken.setToken("accessToken2");
+				handler.handle(new IssuedToken(authInfo, accessToken));
+			}
+			@Override
+			public AuthInfo createOrUpdateAuthInfo(String clientId, String userId,
+					String scope) {
+				throw new UnsupportedOperationException();
+			}
+		};
+		replay(request);
+		target.handleRequest(dataHandler, new Handler<Try<OAuthError, GrantHandlerResult>>() {
+
+			@Override
+			public void handle(Try<OAuthError, GrantHandlerResult> event) {
+				try {
+					GrantHandlerResult result = event.get();
+					assertEquals("accessToken2", result.getAccessToken());
+					assertEquals("scope1", result.getScope());
+				} catch (OAuthError oAuthError) {
+					fail(oAuthError.getMessage());
+				}
+			}
+		});
+	}
+
+	@Test
+	public void testHandleRequestTooManyFailures() throws Exception {
+		InMemoryLoginAttemptTracker tracker = new InMemoryLoginAttemptTracker();
+		tracker.setMaxUserFailures(1);
+		target.setLoginAttemptTracker(tracker);
+		for (int i = 0; i < 2; i++) {
+			Request request = createRequestMock();
+			expect(request.getParameter("username")).andReturn("userNotFound1");
+			expect(request.getParameter("password")).andReturn("password1");
+			final boolean blocked = i > 0;
+			DataHandlerSync dataHandler = new MockDataHandler(request) {
+				@Override
+				public Try<AccessDenied, String> getUserId(String username, String password) {
+					if (blocked) {
+						fail("getUserId must not be called.");
+					}
+					return super.getUserId(username, password);
+				}
+			};
+			replay(request);
+			target.handleRequest(dataHandler, new Handler<Try<OAuthError, GrantHandlerResult>>() {
+				@Override
+				public void handle(Try<OAuthError, GrantHandlerResult> event) {
+					try {
+						event.get();
+						fail("Error not occurred.");
+					} catch (OAuthError e) {
+						if (blocked) {
+							assertEquals("invalid_grant", e.getType());
+							assertEquals("Too many failed attempts.", e.getDescription());
+						} else {
+							assertEquals("access_denied", e.getType());
+						}
+					}
+				}
+			});
+		}
+	}
+
 	private Request createRequestMock() {
 		Request request = createMock(Request.class);
 		try {
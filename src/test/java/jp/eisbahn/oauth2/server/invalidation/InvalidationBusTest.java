@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.invalidation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.data.DataHandler;
+import jp.eisbahn.oauth2.server.data.DataHandlerFactory;
+import jp.eisbahn.oauth2.server.mock.MockDataHandler;
+import jp.eisbahn.oauth2.server.models.Request;
+
+public class InvalidationBusTest {
+
+	private InJvmInvalidationTransport.Group group;
+	private InvalidationBus bus1;
+	private InvalidationBus bus2;
+	private RecordingListener listener1;
+	private RecordingListener listener2;
+	private List<byte[]> sent;
+	private boolean dropping;
+
+	@Before
+	public void setUp() throws Exception {
+		group = new InJvmInvalidationTransport.Group();
+		sent = new ArrayList<byte[]>();
+		bus1 = new InvalidationBus(1L);
+		bus1.setHeartbeatInterval(0);
+		bus1.setMaxDelay(0);
+		bus1.setTransport(new InJvmInvalidationTransport(group) {
+			@Override
+			public void send(byte[] message) {
+				sent.add(message);
+				if (!dropping) {
+					super.send(message);
+				}
+			}
+		});
+		bus2 = new InvalidationBus(2L);
+		bus2.setHeartbeatInterval(0);
+		bus2.setMaxDelay(0);
+		bus2.setTransport(new InJvmInvalidationTransport(group));
+		listener1 = new RecordingListener();
+		listener2 = new RecordingListener();
+		bus1.addListener(listener1);
+		bus2.addListener(listener2);
+	}
+
+	@Test
+	public void testPublish() throws Exception {
+		bus1.invalidateToken("token1");
+		bus1.invalidateAuthInfo("authId1");
+		bus1.invalidateClient("clientId1");
+		bus1.invalidateUser("userId1");
+		bus1.invalidateAll();
+		List<String> expected = Arrays.asList(
+				"token:token1", "auth:authId1", "client:clientId1", "user:userId1", "all");
+		assertEquals(expected, listener1.events);
+		assertEquals(expected, listener2.events);
+		assertEquals(5, bus1.getSentCount());
+		assertEquals(5, bus2.getReceivedCount());
+		assertEquals(0, bus2.getGapCount());
+	}
+
+	@Test
+	public void testBatch() throws Exception {
+		bus1.setMaxDelay(60000L);
+		bus1.setMaxBatchSize(3);
+		bus1.invalidateToken("token1");
+		bus1.invalidateToken("token2");
+		assertEquals(Arrays.asList("token:token1", "token:token2"), listener1.events);
+		assertTrue(listener2.events.isEmpty());
+		bus1.invalidateToken("token3");
+		assertEquals(1, sent.size());
+		assertEquals(Arrays.asList("token:token1", "token:token2", "token:token3"), listener2.events);
+		bus1.invalidateUser("userId1");
+		bus1.flush();
+		assertEquals(2, sent.size());
+		assertEquals("user:userId1", listener2.events.get(3));
+	}
+
+	@Test
+	public void testMaxMessageSize() throws Exception {
+		bus1.setMaxDelay(60000L);
+		bus1.setMaxMessageSize(InvalidationCodec.HEADER_SIZE + 20);
+		bus1.invalidateToken("0123456789");
+		bus1.invalidateToken("0123456789");
+		bus1.invalidateToken("0123456789");
+		bus1.flush();
+		assertEquals(3, sent.size());
+		for (byte[] message : sent) {
+			assertTrue(message.length <= InvalidationCodec.HEADER_SIZE + 20);
+		}
+		assertEquals(3, listener2.events.size());
+	}
+
+	@Test
+	public void testGap() throws Exception {
+		bus1.invalidateToken("token1");
+		dropping = true;
+		bus1.invalidateToken("token2");
+		dropping = false;
+		bus1.invalidateToken("token3");
+		assertEquals(Arrays.asList("token:token1", "all", "token:token3"), listener2.events);
+		assertEquals(1, bus2.getGapCount());
+	}
+
+	@Test
+	public void testHeartbeatGap() throws Exception {
+		bus1.invalidateToken("token1");
+		dropping = true;
+		bus1.invalidateToken("token2");
+		bus2.receive(InvalidationCodec.encode(1L, 2L, new ArrayList<InvalidationCodec.Entry>()));
+		assertEquals(Arrays.asList("token:token1", "all"), listener2.events);
+		bus2.receive(InvalidationCodec.encode(1L, 2L, new ArrayList<InvalidationCodec.Entry>()));
+		assertEquals(1, bus2.getGapCount());
+	}
+
+	@Test
+	public void testDuplicate() throws Exception {
+		bus1.invalidateToken("token1");
+		bus2.receive(sent.get(0));
+		assertEquals(Arrays.asList("token:token1"), listener2.events);
+	}
+
+	@Test
+	public void testUnknownSender() throws Exception {
+		bus2.receive(InvalidationCodec.encode(3L, 5L, Arrays.asList(
+				new InvalidationCodec.Entry(InvalidationCodec.USER, "userId1"))));
+		assertEquals(Arrays.asList("all", "user:userId1"), listener2.events);
+		bus2.receive(InvalidationCodec.encode(4L, 1L, Arrays.asList(
+				new InvalidationCodec.Entry(InvalidationCodec.USER, "userId2"))));
+		assertEquals("user:userId2", listener2.events.get(2));
+		assertEquals(1, bus2.getGapCount());
+	}
+
+	@Test
+	public void testMalformed() throws Exception {
+		bus2.receive(new byte[] {1, 2, 3});
+		assertEquals(1, bus2.getMalformedCount());
+		assertTrue(listener2.events.isEmpty());
+	}
+
+	@Test
+	public void testOwnMessage() throws Exception {
+		bus1.invalidateToken("token1");
+		bus1.receive(sent.get(0));
+		assertEquals(Arrays.asList("token:token1"), listener1.events);
+	}
+
+	@Test
+	public void testSendFailure() throws Exception {
+		InvalidationBus target = new InvalidationBus(3L);
+		target.setHeartbeatInterval(0);
+		target.setMaxDelay(0);
+		target.setTransport(new InvalidationTransport() {
+			@Override
+			public void open(Handler<byte[]> receiver) {
+			}
+			@Override
+			public void send(byte[] message) throws IOException {
+				throw new IOException();
+			}
+			@Override
+			public void close() {
+			}
+		});
+		RecordingListener listener = new RecordingListener();
+		target.addListener(listener);
+		target.invalidateClient("clientId1");
+		assertEquals(Arrays.asList("client:clientId1"), listener.events);
+		assertEquals(1, target.getSendFailureCount());
+	}
+
+	@Test
+	public void testInvalidatingDataHandlerFactory() throws Exception {
+		DataHandlerFactory factory = new InvalidatingDataHandlerFactory(new DataHandlerFactory() {
+			@Override
+			public DataHandler create(Request request) {
+				return new MockDataHandler(request) {
+					@Override
+					public void deleteTokensByAuthId(String authId) {
+					}
+				};
+			}
+		}, bus1);
+		factory.create(null).deleteTokensByAuthId("authId1");
+		assertEquals(Arrays.asList("auth:authId1"), listener1.events);
+		assertEquals(Arrays.asList("auth:authId1"), listener2.events);
+	}
+
+	private static class RecordingListener implements InvalidationListener {
+
+		private final List<String> events = new CopyOnWriteArrayList<String>();
+
+		@Override
+		public void tokenInvalidated(String token) {
+			events.add("token:" + token);
+		}
+
+		@Override
+		public void authInfoInvalidated(String authId) {
+			events.add("auth:" + authId);
+		}
+
+		@Override
+		public void clientInvalidated(String clientId) {
+			events.add("client:" + clientId);
+		}
+
+		@Override
+		public void userInvalidated(String userId) {
+			events.add("user:" + userId);
+		}
+
+		@Override
+		public void allInvalidated() {
+			events.add("all");
+		}
+
+	}
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.invalidation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.invalidation.InvalidationCodec.Entry;
+import jp.eisbahn.oauth2.server.invalidation.InvalidationCodec.Message;
+
+public class InvalidationCodecTest {
+
+	@Test
+	public void testEncodeAndDecode() throws Exception {
+		byte[] data = InvalidationCodec.encode(123L, 456L, Arrays.asList(
+				new Entry(InvalidationCodec.TOKEN, "token1"),
+				new Entry(InvalidationCodec.USER, "ユーザー")));
+		assertEquals(InvalidationCodec.HEADER_SIZE + 9 + 15, data.length);
+		Message message = InvalidationCodec.decode(data);
+		assertEquals(123L, message.nodeId);
+		assertEquals(456L, message.sequence);
+		assertEquals(2, message.entries.size());
+		assertEquals(InvalidationCodec.TOKEN, message.entries.get(0).type);
+		assertEquals("token1", message.entries.get(0).key);
+		assertEquals(InvalidationCodec.USER, message.entries.get(1).type);
+		assertEquals("ユーザー", message.entries.get(1).key);
+		assertEquals(9, message.entries.get(0).getEncodedSize());
+		assertEquals(15, message.entries.get(1).getEncodedSize());
+	}
+
+	@Test
+	public void testDecodeHeartbeat() throws Exception {
+		byte[] data = InvalidationCodec.encode(1L, 2L, Arrays.<Entry>asList());
+		assertEquals(InvalidationCodec.HEADER_SIZE, data.length);
+		assertEquals(0, InvalidationCodec.decode(data).entries.size());
+	}
+
+	@Test
+	public void testDecodeMalformed() throws Exception {
+		byte[] data = InvalidationCodec.encode(1L, 2L, Arrays.asList(
+				new Entry(InvalidationCodec.CLIENT, "clientId1")));
+		assertMalformed(Arrays.copyOf(data, data.length - 1));
+		assertMalformed(Arrays.copyOf(data, data.length + 1));
+		byte[] unknownType = data.clone();
+		unknownType[InvalidationCodec.HEADER_SIZE] = 9;
+		assertMalformed(unknownType);
+		byte[] wrongMagic = data.clone();
+		wrongMagic[0] = 0;
+		assertMalformed(wrongMagic);
+	}
+
+	private void assertMalformed(byte[] data) {
+		try {
+			InvalidationCodec.decode(data);
+			fail("IOException not occurred.");
+		} catch (IOException e) {
+		}
+	}
+
+}
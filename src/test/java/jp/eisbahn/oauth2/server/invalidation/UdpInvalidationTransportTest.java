@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.invalidation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+
+public class UdpInvalidationTransportTest {
+
+	private UdpInvalidationTransport transport1;
+	private UdpInvalidationTransport transport2;
+	private BlockingQueue<byte[]> received;
+
+	@Before
+	public void setUp() throws Exception {
+		InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+		transport1 = new UdpInvalidationTransport(loopback);
+		transport2 = new UdpInvalidationTransport(loopback);
+		received = new LinkedBlockingQueue<byte[]>();
+		transport1.open(new Handler<byte[]>() {
+			@Override
+			public void handle(byte[] event) {
+			}
+		});
+		transport2.open(new Handler<byte[]>() {
+			@Override
+			public void handle(byte[] event) {
+				received.add(event);
+			}
+		});
+		transport1.setPeers(Arrays.asList(transport2.getLocalAddress()));
+		transport2.setPeers(Arrays.asList(transport1.getLocalAddress()));
+	}
+
+	@After
+	public void tearDown() {
+		transport1.close();
+		transport2.close();
+	}
+
+	@Test
+	public void testSend() throws Exception {
+		transport1.send(new byte[] {1, 2, 3});
+		assertArrayEquals(new byte[] {1, 2, 3}, received.poll(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testBus() throws Exception {
+		InvalidationBus bus1 = new InvalidationBus(1L);
+		bus1.setHeartbeatInterval(0);
+		bus1.setMaxDelay(0);
+		InvalidationBus bus2 = new InvalidationBus(2L);
+		bus2.setHeartbeatInterval(0);
+		final CountDownLatch latch = new CountDownLatch(2);
+		final StringBuilder events = new StringBuilder();
+		bus2.addListener(new InvalidationListener() {
+			@Override
+			public void tokenInvalidated(String token) {
+				events.append("token:").append(token).append(' ');
+				latch.countDown();
+			}
+			@Override
+			public void authInfoInvalidated(String authId) {
+				events.append("auth:").append(authId).append(' ');
+				latch.countDown();
+			}
+			@Override
+			public void clientInvalidated(String clientId) {
+			}
+			@Override
+			public void userInvalidated(String userId) {
+			}
+			@Override
+			public void allInvalidated() {
+			}
+		});
+		InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+		UdpInvalidationTransport sender = new UdpInvalidationTransport(loopback);
+		UdpInvalidationTransport receiver = new UdpInvalidationTransport(loopback);
+		bus1.setTransport(sender);
+		bus2.setTransport(receiver);
+		sender.setPeers(Arrays.asList(receiver.getLocalAddress()));
+		try {
+			bus1.invalidateToken("token1");
+			bus1.invalidateAuthInfo("authId1");
+			assertTrue(latch.await(5, TimeUnit.SECONDS));
+			assertEquals("token:token1 auth:authId1 ", events.toString());
+		} finally {
+			bus1.close();
+			bus2.close();
+		}
+	}
+
+}
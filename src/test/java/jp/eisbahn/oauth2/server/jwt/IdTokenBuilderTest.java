@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.jwt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.models.AuthInfo;
+import jp.eisbahn.oauth2.server.models.JwtClaims;
+
+public class IdTokenBuilderTest {
+
+	private static KeyPair rsaKeyPair;
+	private static KeyPair ecKeyPair;
+
+	private IdTokenBuilder target;
+	private AuthInfo authInfo;
+
+	@Before
+	public void setUp() throws Exception {
+		if (rsaKeyPair == null) {
+			KeyPairGenerator rsa = KeyPairGenerator.getInstance("RSA");
+			rsa.initialize(2048);
+			rsaKeyPair = rsa.generateKeyPair();
+			KeyPairGenerator ec = KeyPairGenerator.getInstance("EC");
+			ec.initialize(256);
+			ecKeyPair = ec.generateKeyPair();
+		}
+		target = new IdTokenBuilder();
+		target.setIssuer("https://server");
+		target.setKeySet(new SigningKeySet(new SigningKey("rsa1", "RS256", rsaKeyPair.getPrivate())));
+		authInfo = new AuthInfo();
+		authInfo.setUserId("user1");
+		authInfo.setClientId("client1");
+		authInfo.setNonce("nonce1");
+	}
+
+	@Test
+	public void testBuildRs256() throws Exception {
+		long now = System.currentTimeMillis() / 1000L;
+		for (int i = 0; i < 3; i++) {
+			String token = target.build(authInfo);
+			String[] parts = token.split("\\.");
+			assertEquals(3, parts.length);
+			assertEquals("{\"alg\":\"RS256\",\"typ\":\"JWT\",\"kid\":\"rsa1\"}", decode(parts[0]));
+			Map<?, ?> claims = new ObjectMapper().readValue(decode(parts[1]), Map.class);
+			assertEquals("https://server", claims.get("iss"));
+			assertEquals("user1", claims.get("sub"));
+			assertEquals("client1", claims.get("aud"));
+			assertEquals("nonce1", claims.get("nonce"));
+			long iat = ((Number) claims.get("iat")).longValue();
+			assertTrue(Math.abs(iat - now) < 60);
+			assertEquals(iat + 3600, ((Number) claims.get("exp")).longValue());
+
+			Signature verifier = Signature.getInstance("SHA256withRSA");
+			verifier.initVerify(rsaKeyPair.getPublic());
+			verifier.update((parts[0] + "." + parts[1]).getBytes(StandardCharsets.US_ASCII));
+			assertTrue(verifier.verify(Base64.getUrlDecoder().decode(parts[2])));
+		}
+	}
+
+	@Test
+	public void testBuildEs256() throws Exception {
+		target.setKeySet(new SigningKeySet(new SigningKey("ec1", "ES256", ecKeyPair.getPrivate())));
+		target.setExpiresIn(300L);
+		for (int i = 0; i < 20; i++) {
+			String token = target.build(authInfo);
+			assertEquals(64, Base64.getUrlDecoder().decode(token.substring(token.lastIndexOf('.') + 1)).length);
+			JwtClaims claims = verify(token, ecKeyPair.getPublic());
+			assertEquals("user1", claims.getSubject());
+			assertEquals(claims.getIssuedAt() + 300, claims.getExpirationTime());
+		}
+	}
+
+	@Test
+	public void testAdditionalClaims() throws Exception {
+		authInfo.setNonce(null);
+		Map<String, Object> additional = new LinkedHashMap<String, Object>();
+		additional.put("auth_time", 1500000000L);
+		additional.put("amr", Arrays.asList("pwd", "otp"));
+		additional.put("name", "あ\"");
+		String token = target.build(authInfo, additional);
+		String claims = decode(token.split("\\.")[1]);
+		assertFalse(claims.contains("nonce"));
+		assertTrue(claims, claims.endsWith(",\"auth_time\":1500000000,\"amr\":[\"pwd\",\"otp\"],"
+				+ "\"name\":\"あ\\\"\"}"));
+		assertEquals("user1", verify(token, rsaKeyPair.getPublic()).getSubject());
+	}
+
+	@Test
+	public void testReservedClaims() throws Exception {
+		for (String name : new String[] {"iss", "sub", "aud", "iat", "exp", "nonce"}) {
+			try {
+				target.build(authInfo, Collections.singletonMap(name, "forged"));
+				fail("IllegalArgumentException not occurred: " + name);
+			} catch (IllegalArgumentException e) {
+				assertEquals("The claim '" + name + "' is reserved.", e.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void testRotation() throws Exception {
+		SigningKey oldKey = target.getKeySet().getActiveKey();
+		SigningKey newKey = new SigningKey("ec1", "ES256", ecKeyPair.getPrivate());
+		SigningKeySet rotated = new SigningKeySet(newKey, oldKey);
+		target.setKeySet(rotated);
+		assertSame(rotated, target.getKeySet());
+		assertEquals(Arrays.asList(newKey, oldKey), rotated.getKeys());
+		assertSame(oldKey, rotated.getKey("rsa1"));
+		assertNull(rotated.getKey("unknown"));
+		String token = target.build(authInfo);
+		assertEquals("{\"alg\":\"ES256\",\"typ\":\"JWT\",\"kid\":\"ec1\"}", decode(token.split("\\.")[0]));
+		assertEquals("user1", verify(token, ecKeyPair.getPublic()).getSubject());
+	}
+
+	@Test
+	public void testNoKeyId() throws Exception {
+		target.setKeySet(new SigningKeySet(new SigningKey(null, "RS512", rsaKeyPair.getPrivate())));
+		String token = target.build(authInfo);
+		assertEquals("{\"alg\":\"RS512\",\"typ\":\"JWT\"}", decode(token.split("\\.")[0]));
+		assertEquals("user1", verify(token, rsaKeyPair.getPublic()).getSubject());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsupportedAlgorithm() throws Exception {
+		new SigningKey("k", "HS256", rsaKeyPair.getPrivate());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testKeyMismatch() throws Exception {
+		new SigningKey("k", "ES256", rsaKeyPair.getPrivate());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testNoKeySet() throws Exception {
+		target.setKeySet(null);
+		target.build(authInfo);
+	}
+
+	private static String decode(String segment) {
+		return new String(Base64.getUrlDecoder().decode(segment), StandardCharsets.UTF_8);
+	}
+
+	private static JwtClaims verify(String token, final PublicKey publicKey) throws OAuthError {
+		JwtBearerVerifier verifier = new JwtBearerVerifier();
+		verifier.setAudiences(Collections.singletonList("client1"));
+		verifier.setKeyResolver(new JwtKeyResolver() {
+			@Override
+			public void resolveKey(String clientId, String issuer, String keyId, Handler<PublicKey> handler) {
+				handler.handle(publicKey);
+			}
+		});
+		final AtomicReference<Try<OAuthError, JwtClaims>> result = new AtomicReference<Try<OAuthError, JwtClaims>>();
+		verifier.verify("client1", token, new Handler<Try<OAuthError, JwtClaims>>() {
+			@Override
+			public void handle(Try<OAuthError, JwtClaims> event) {
+				result.set(event);
+			}
+		});
+		return result.get().get();
+	}
+
+}
@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.jwt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.cache.TtlCache;
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+import jp.eisbahn.oauth2.server.exceptions.Try;
+import jp.eisbahn.oauth2.server.models.JwtClaims;
+
+public class JwtBearerVerifierTest {
+
+	private static final long NOW = 1500000000L;
+
+	private KeyPair rsaKeyPair;
+	private KeyPair ecKeyPair;
+	private AtomicInteger resolveCount;
+	private JwtBearerVerifier target;
+
+	@Before
+	public void setUp() throws Exception {
+		KeyPairGenerator rsa = KeyPairGenerator.getInstance("RSA");
+		rsa.initialize(2048);
+		rsaKeyPair = rsa.generateKeyPair();
+		KeyPairGenerator ec = KeyPairGenerator.getInstance("EC");
+		ec.initialize(256);
+		ecKeyPair = ec.generateKeyPair();
+		resolveCount = new AtomicInteger();
+		target = new JwtBearerVerifier() {
+			@Override
+			protected long currentTimeMillis() {
+				return NOW * 1000L;
+			}
+		};
+		target.setAudiences(Arrays.asList("https://server/token"));
+		target.setKeyResolver(new JwtKeyResolver() {
+			@Override
+			public void resolveKey(String clientId, String issuer, String keyId, Handler<PublicKey> handler) {
+				resolveCount.incrementAndGet();
+				if (!"issuer1".equals(issuer)) {
+					handler.handle(null);
+				} else if ("ec".equals(keyId)) {
+					handler.handle(ecKeyPair.getPublic());
+				} else {
+					handler.handle(rsaKeyPair.getPublic());
+				}
+			}
+		});
+	}
+
+	@Test
+	public void testVerifyRs256() throws Exception {
+		String jwt = sign("RS256", "rsa", rsaKeyPair.getPrivate(), "SHA256withRSA",
+				"{\"iss\":\"issuer1\",\"sub\":\"user1\",\"aud\":\"https://server/token\","
+				+ "\"exp\":" + (NOW + 300) + ",\"iat\":" + NOW + ",\"ext\":{\"a\":[1,2]}}");
+		JwtClaims claims = verify(jwt).get();
+		assertEquals("issuer1", claims.getIssuer());
+		assertEquals("user1", claims.getSubject());
+		assertEquals(Arrays.asList("https://server/token"), claims.getAudience());
+		assertEquals(NOW + 300, claims.getExpirationTime());
+		assertEquals(NOW, claims.getIssuedAt());
+		assertNotNull(verify(jwt).get());
+		assertEquals(1, resolveCount.get());
+	}
+
+	@Test
+	public void testVerifyEs256() throws Exception {
+		String jwt = sign("ES256", "ec", ecKeyPair.getPrivate(), "SHA256withECDSA",
+				"{\"iss\":\"issuer1\",\"sub\":\"user1\",\"aud\":[\"other\",\"https://server/token\"],"
+				+ "\"exp\":" + (NOW + 300) + "}");
+		assertEquals("user1", verify(jwt).get().getSubject());
+	}
+
+	@Test
+	public void testInvalidSignature() throws Exception {
+		String jwt = sign("RS256", "rsa", rsaKeyPair.getPrivate(), "SHA256withRSA",
+				"{\"iss\":\"issuer1\",\"sub\":\"user1\",\"aud\":\"https://server/token\","
+				+ "\"exp\":" + (NOW + 300) + "}");
+		assertError("Invalid signature.", jwt.substring(0, jwt.length() - 4) + "AAAA");
+		assertError("Invalid signature.", jwt.replace("\"rsa\"", "\"ec\"").replaceFirst("^[^.]+",
+				encode("{\"alg\":\"RS256\",\"kid\":\"ec\"}")));
+	}
+
+	@Test
+	public void testUnsupportedAlgorithm() throws Exception {
+		String claims = encode("{\"iss\":\"issuer1\",\"sub\":\"user1\",\"exp\":" + (NOW + 300) + "}");
+		assertError("Unsupported algorithm.", encode("{\"alg\":\"none\"}") + "." + claims + ".");
+		assertError("Unsupported algorithm.", encode("{\"alg\":\"HS256\"}") + "." + claims + ".AAAA");
+		assertError("Unsupported critical header.",
+				encode("{\"alg\":\"RS256\",\"crit\":[\"x\"]}") + "." + claims + ".AAAA");
+		assertError("Malformed JWT.", "abc");
+		assertError("Malformed JWT.", "a.b.c.d");
+		assertError("Malformed JWT.", encode("[]") + "." + claims + ".AAAA");
+	}
+
+	@Test
+	public void testUnknownIssuer() throws Exception {
+		String jwt = sign("RS256", "rsa", rsaKeyPair.getPrivate(), "SHA256withRSA",
+				"{\"iss\":\"issuer2\",\"sub\":\"user1\",\"aud\":\"https://server/token\","
+				+ "\"exp\":" + (NOW + 300) + "}");
+		assertError("Unknown signing key.", jwt);
+	}
+
+	@Test
+	public void testTimeClaims() throws Exception {
+		assertError("'exp' not found.", signClaims("\"aud\":\"https://server/token\""));
+		assertError("JWT has expired.", signClaims("\"aud\":\"https://server/token\",\"exp\":" + (NOW - 60)));
+		assertNotNull(verify(signClaims("\"aud\":\"https://server/token\",\"exp\":" + (NOW - 59))).get());
+		assertError("JWT is not valid yet.", signClaims("\"aud\":\"https://server/token\",\"exp\":"
+				+ (NOW + 300) + ",\"nbf\":" + (NOW + 61)));
+		assertNotNull(verify(signClaims("\"aud\":\"https://server/token\",\"exp\":"
+				+ (NOW + 300) + ",\"nbf\":" + (NOW + 60))).get());
+	}
+
+	@Test
+	public void testAudience() throws Exception {
+		assertError("Invalid audience.", signClaims("\"exp\":" + (NOW + 300)));
+		assertError("Invalid audience.", signClaims("\"aud\":\"other\",\"exp\":" + (NOW + 300)));
+	}
+
+	@Test
+	public void testReplay() throws Exception {
+		String jwt = signClaims("\"aud\":\"https://server/token\",\"exp\":" + (NOW + 300) + ",\"jti\":\"id1\"");
+		assertEquals("id1", verify(jwt).get().getJwtId());
+		assertError("JWT was already used.", jwt);
+		assertNotNull(verify(signClaims("\"aud\":\"https://server/token\",\"exp\":"
+				+ (NOW + 300) + ",\"jti\":\"id2\"")).get());
+	}
+
+	@Test
+	public void testMaxLifetime() throws Exception {
+		target.setMaxLifetime(600L);
+		assertNotNull(verify(signClaims("\"aud\":\"https://server/token\",\"exp\":" + (NOW + 660))).get());
+		assertError("JWT lifetime is too long.",
+				signClaims("\"aud\":\"https://server/token\",\"exp\":" + (NOW + 661)));
+	}
+
+	@Test
+	public void testReplayCacheFull() throws Exception {
+		JwtBearerVerifier full = new JwtBearerVerifier(new TtlCache<String, JwtBearerVerifier.VerificationKey>(10),
+				new TtlCache<String, Boolean>(2)) {
+			@Override
+			protected long currentTimeMillis() {
+				return NOW * 1000L;
+			}
+		};
+		full.setAudiences(Arrays.asList("https://server/token"));
+		full.setKeyResolver(new JwtKeyResolver() {
+			@Override
+			public void resolveKey(String clientId, String issuer, String keyId, Handler<PublicKey> handler) {
+				handler.handle(rsaKeyPair.getPublic());
+			}
+		});
+		target = full;
+		String jwt1 = signClaims("\"aud\":\"https://server/token\",\"exp\":" + (NOW + 300) + ",\"jti\":\"id1\"");
+		assertNotNull(verify(jwt1).get());
+		assertNotNull(verify(signClaims("\"aud\":\"https://server/token\",\"exp\":"
+				+ (NOW + 300) + ",\"jti\":\"id2\"")).get());
+		assertError("Too many assertions.", signClaims("\"aud\":\"https://server/token\",\"exp\":"
+				+ (NOW + 300) + ",\"jti\":\"id3\""));
+		assertError("JWT was already used.", jwt1);
+	}
+
+	@Test
+	public void testJtiRequired() throws Exception {
+		target.setJtiRequired(true);
+		assertError("'jti' not found.", signClaims("\"aud\":\"https://server/token\",\"exp\":" + (NOW + 300)));
+	}
+
+	@Test
+	public void testInvalidateKeys() throws Exception {
+		String jwt = signClaims("\"aud\":\"https://server/token\",\"exp\":" + (NOW + 300));
+		verify(jwt).get();
+		verify(jwt).get();
+		assertEquals(1, resolveCount.get());
+		target.invalidateKeys();
+		verify(jwt).get();
+		assertEquals(2, resolveCount.get());
+	}
+
+	private String signClaims(String claims) throws Exception {
+		return sign("RS256", "rsa", rsaKeyPair.getPrivate(), "SHA256withRSA",
+				"{\"iss\":\"issuer1\",\"sub\":\"user1\"," + claims + "}");
+	}
+
+	private Try<OAuthError, JwtClaims> verify(String jwt) {
+		@SuppressWarnings("unchecked")
+		final Try<OAuthError, JwtClaims>[] result = new Try[1];
+		target.verify("client1", jwt, new Handler<Try<OAuthError, JwtClaims>>() {
+			@Override
+			public void handle(Try<OAuthError, JwtClaims> event) {
+				result[0] = event;
+			}
+		});
+		return result[0];
+	}
+
+	private void assertError(String description, String jwt) {
+		try {
+			verify(jwt).get();
+			fail("Error not occurred.");
+		} catch (OAuthError e) {
+			assertEquals(description, e.getDescription());
+		}
+	}
+
+	private static String sign(String alg, String kid, PrivateKey key, String javaAlg, String claims)
+			throws Exception {
+		String input = encode("{\"alg\":\"" + alg + "\",\"kid\":\"" + kid + "\"}") + "." + encode(claims);
+		Signature signature = Signature.getInstance(javaAlg);
+		signature.initSign(key);
+		signature.update(input.getBytes(StandardCharsets.US_ASCII));
+		byte[] signed = signature.sign();
+		if (alg.startsWith("ES")) {
+			signed = toJose(signed, 32);
+		}
+		return input + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(signed);
+	}
+
+	private static String encode(String json) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static byte[] toJose(byte[] der, int size) {
+		byte[] jose = new byte[size * 2];
+		int offset = der[1] == (byte) 0x81 ? 3 : 2;
+		int rLength = der[offset + 1];
+		int rStart = offset + 2;
+		copyInteger(der, rStart, rLength, jose, 0, size);
+		int sLength = der[rStart + rLength + 1];
+		copyInteger(der, rStart + rLength + 2, sLength, jose, size, size);
+		return jose;
+	}
+
+	private static void copyInteger(byte[] src, int start, int length, byte[] dest, int offset, int size) {
+		if (length > size) {
+			start += length - size;
+			length = size;
+		}
+		System.arraycopy(src, start, dest, offset + size - length, length);
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.ratelimit;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+
+public class InMemoryLoginAttemptTrackerTest {
+
+	private long now;
+	private InMemoryLoginAttemptTracker target;
+
+	@Before
+	public void setUp() {
+		now = 1000000L;
+		target = createTarget(100000);
+		target.setWindow(60000L);
+		target.setMaxUserFailures(3);
+		target.setMaxClientFailures(10);
+		target.setBaseBackoff(1000L);
+		target.setMaxBackoff(10000L);
+	}
+
+	@Test
+	public void testUserBackoff() throws Exception {
+		target.recordFailure("clientId1", "user1");
+		target.recordFailure("clientId1", "user1");
+		assertEquals(0L, check("clientId1", "user1"));
+		target.recordFailure("clientId1", "user1");
+		assertEquals(1000L, check("clientId1", "user1"));
+		assertEquals(1000L, check("clientId2", "user1"));
+		assertEquals(0L, check("clientId1", "user2"));
+		target.recordFailure("clientId1", "user1");
+		assertEquals(2000L, check("clientId1", "user1"));
+		target.recordFailure("clientId1", "user1");
+		assertEquals(4000L, check("clientId1", "user1"));
+		for (int i = 0; i < 3; i++) {
+			target.recordFailure("clientId2", "user1");
+		}
+		assertEquals(10000L, check("clientId1", "user1"));
+		now += 10000L;
+		assertEquals(0L, check("clientId1", "user1"));
+	}
+
+	@Test
+	public void testSuccessClearsUser() throws Exception {
+		target.recordFailure("clientId1", "user1");
+		target.recordFailure("clientId1", "user1");
+		target.recordSuccess("clientId1", "user1");
+		target.recordFailure("clientId1", "user1");
+		target.recordFailure("clientId1", "user1");
+		assertEquals(0L, check("clientId1", "user1"));
+	}
+
+	@Test
+	public void testConcurrentAttemptsReserved() throws Exception {
+		target.recordFailure("clientId1", "user1");
+		assertEquals(0L, check("clientId1", "user1"));
+		assertEquals(0L, check("clientId1", "user1"));
+		assertEquals(1000L, check("clientId1", "user1"));
+		target.recordFailure("clientId1", "user1");
+		assertEquals(1000L, check("clientId1", "user1"));
+		now += 1000L;
+		target.recordSuccess("clientId1", "user1");
+		assertEquals(0L, check("clientId1", "user1"));
+		assertEquals(0L, check("clientId1", "user1"));
+		assertEquals(0L, check("clientId1", "user1"));
+		assertEquals(1000L, check("clientId1", "user1"));
+		now += 30000L;
+		assertEquals(0L, check("clientId1", "user1"));
+	}
+
+	@Test
+	public void testClientBackoff() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			target.recordFailure("clientId1", "user" + i);
+		}
+		assertEquals(1000L, check("clientId1", "user100"));
+		assertEquals(0L, check("clientId2", "user100"));
+	}
+
+	@Test
+	public void testSlidingWindow() throws Exception {
+		target.recordFailure("clientId1", "user1");
+		target.recordFailure("clientId1", "user1");
+		now += 90000L;
+		// The estimated count is 2 * 0.5 + 1.
+		target.recordFailure("clientId1", "user1");
+		assertEquals(0L, check("clientId1", "user1"));
+		target.recordFailure("clientId1", "user1");
+		assertEquals(1000L, check("clientId1", "user1"));
+		now += 120000L;
+		target.recordFailure("clientId1", "user1");
+		now += 1000L;
+		assertEquals(0L, check("clientId1", "user1"));
+	}
+
+	@Test
+	public void testEvict() throws Exception {
+		target = createTarget(64);
+		target.setWindow(60000L);
+		for (int i = 0; i < 32; i++) {
+			target.recordFailure("clientId1", "user" + i);
+		}
+		assertEquals(33, target.size());
+		now += 120000L;
+		for (int i = 0; i < 32; i++) {
+			target.recordFailure("clientId2", "user" + (i + 100));
+		}
+		assertEquals(33, target.size());
+	}
+
+	@Test
+	public void testFullStripeKeepsBlockedCounters() throws Exception {
+		target = createTarget(64);
+		target.setWindow(60000L);
+		target.setMaxUserFailures(1);
+		target.setBaseBackoff(1000L);
+		for (int i = 0; i < 63; i++) {
+			target.recordFailure("clientId1", "user" + i);
+		}
+		assertEquals(64, target.size());
+		target.recordFailure("clientId1", "user100");
+		assertEquals(64, target.size());
+		assertEquals(1000L, check("clientId1", "user0"));
+		assertEquals(1000L, check("clientId1", "user100"));
+		now += 1000L;
+		assertEquals(0L, check("clientId1", "user0"));
+		assertEquals(1000L, check("clientId1", "user100"));
+		now += 120000L;
+		assertEquals(0L, check("clientId1", "user100"));
+		// Only the counters reserving the permitted attempt remain.
+		assertEquals(2, target.size());
+	}
+
+	private long check(String clientId, String username) {
+		final long[] result = new long[1];
+		target.check(clientId, username, new Handler<Long>() {
+			@Override
+			public void handle(Long wait) {
+				result[0] = wait;
+			}
+		});
+		return result[0];
+	}
+
+	private InMemoryLoginAttemptTracker createTarget(int maxCounters) {
+		return new InMemoryLoginAttemptTracker(maxCounters) {
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.ratelimit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+	private long now;
+	private RateLimiter target;
+
+	@Before
+	public void setUp() {
+		now = 0L;
+		target = createTarget(100000);
+	}
+
+	@Test
+	public void testNoLimit() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			assertEquals(0L, target.tryAcquire("clientId1", "password"));
+		}
+		assertEquals(0, target.size());
+	}
+
+	@Test
+	public void testBurstAndRate() throws Exception {
+		target.setDefaultLimit(new RateLimit(10, 3));
+		assertEquals(0L, target.tryAcquire("clientId1", "password"));
+		assertEquals(0L, target.tryAcquire("clientId1", "password"));
+		assertEquals(0L, target.tryAcquire("clientId1", "password"));
+		assertEquals(100L, target.tryAcquire("clientId1", "password"));
+		assertEquals(0L, target.tryAcquire("clientId2", "password"));
+		now += 50000000L;
+		assertEquals(50L, target.tryAcquire("clientId1", "password"));
+		now += 50000000L;
+		assertEquals(0L, target.tryAcquire("clientId1", "password"));
+		assertEquals(100L, target.tryAcquire("clientId1", "password"));
+		now += 1000000000L;
+		assertEquals(0L, target.tryAcquire("clientId1", "password"));
+		assertEquals(0L, target.tryAcquire("clientId1", "password"));
+		assertEquals(0L, target.tryAcquire("clientId1", "password"));
+		assertTrue(target.tryAcquire("clientId1", "password") > 0L);
+	}
+
+	@Test
+	public void testLimitOrder() throws Exception {
+		target.setDefaultLimit(new RateLimit(1, 1));
+		target.setGrantTypeLimits(Collections.singletonMap("client_credentials", new RateLimit(1, 2)));
+		target.setClientLimits(Collections.singletonMap("clientId1", new RateLimit(1, 3)));
+		for (int i = 0; i < 3; i++) {
+			assertEquals(0L, target.tryAcquire("clientId1", "client_credentials"));
+		}
+		assertTrue(target.tryAcquire("clientId1", "client_credentials") > 0L);
+		for (int i = 0; i < 2; i++) {
+			assertEquals(0L, target.tryAcquire("clientId2", "client_credentials"));
+		}
+		assertTrue(target.tryAcquire("clientId2", "client_credentials") > 0L);
+		assertEquals(0L, target.tryAcquire("clientId2", "password"));
+		assertTrue(target.tryAcquire("clientId2", "password") > 0L);
+	}
+
+	@Test
+	public void testEvictIdleBuckets() throws Exception {
+		target = createTarget(64);
+		target.setDefaultLimit(new RateLimit(1, 1));
+		for (int i = 0; i < 64; i++) {
+			target.tryAcquire("clientId" + i, "password");
+		}
+		assertEquals(64, target.size());
+		now += 2000000000L;
+		target.tryAcquire("clientId64", "password");
+		assertEquals(1, target.size());
+		assertTrue(target.tryAcquire("clientId64", "password") > 0L);
+	}
+
+	@Test
+	public void testFullStripeKeepsActiveBuckets() throws Exception {
+		target = createTarget(64);
+		target.setDefaultLimit(new RateLimit(1, 1));
+		for (int i = 0; i < 64; i++) {
+			target.tryAcquire("clientId" + i, "password");
+		}
+		now += 500000000L;
+		assertEquals(500L, target.tryAcquire("clientId64", "password"));
+		assertEquals(500L, target.tryAcquire("clientId64", "password"));
+		assertEquals(64, target.size());
+		for (int i = 0; i < 64; i++) {
+			assertTrue(target.tryAcquire("clientId" + i, "password") > 0L);
+		}
+		now += 500000000L;
+		target.tryAcquire("clientId64", "password");
+		assertEquals(1, target.size());
+		assertTrue(target.tryAcquire("clientId64", "password") > 0L);
+	}
+
+	@Test
+	public void testConcurrently() throws Exception {
+		target.setDefaultLimit(new RateLimit(0.001, 100));
+		final AtomicInteger permitted = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(8);
+		for (int t = 0; t < 8; t++) {
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < 1000; i++) {
+							if (target.tryAcquire("clientId1", "password") == 0L) {
+								permitted.incrementAndGet();
+							}
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		start.countDown();
+		done.await();
+		assertEquals(100, permitted.get());
+	}
+
+	private RateLimiter createTarget(int maxBuckets) {
+		return new RateLimiter(maxBuckets) {
+			@Override
+			protected long nanoTime() {
+				return now;
+			}
+		};
+	}
+
+}
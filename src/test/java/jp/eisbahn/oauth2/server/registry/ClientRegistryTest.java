@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package jp.eisbahn.oauth2.server.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jp.eisbahn.oauth2.server.async.Handler;
+import jp.eisbahn.oauth2.server.invalidation.InJvmInvalidationTransport;
+import jp.eisbahn.oauth2.server.invalidation.InvalidationBus;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClientRegistryTest {
+
+	private List<Long> requestedVersions;
+	private List<ClientChanges> changes;
+	private ClientRegistry target;
+
+	@Before
+	public void setUp() {
+		requestedVersions = new ArrayList<Long>();
+		changes = new ArrayList<ClientChanges>();
+		target = new ClientRegistry();
+		target.setSource(new ClientSource() {
+			@Override
+			public void fetchChanges(long sinceVersion, Handler<ClientChanges> handler) {
+				requestedVersions.add(sinceVersion);
+				handler.handle(changes.remove(0));
+			}
+		});
+	}
+
+	@Test
+	public void testNotLoaded() throws Exception {
+		assertEquals(-1L, target.getVersion());
+		assertFalse(target.validateClientById("clientId1"));
+		assertFalse(target.validateClient("clientId1", "secret1", "password"));
+	}
+
+	@Test
+	public void testValidate() throws Exception {
+		changes.add(ClientChanges.full(1L, Arrays.asList(
+				client("clientId1", "secret1", true, "password", "refresh_token"),
+				client("clientId2", "secret2", false, "password"))));
+		target.refresh();
+		assertEquals(1L, target.getVersion());
+		assertEquals(2, target.size());
+
+		assertTrue(target.validateClient("clientId1", "secret1", "password"));
+		assertFalse(target.validateClient("clientId1", "secret2", "password"));
+		assertFalse(target.validateClient("clientId1", "secret1", "client_credentials"));
+		assertFalse(target.validateClient("clientId2", "secret2", "password"));
+		assertFalse(target.validateClient("unknown", "secret1", "password"));
+		assertFalse(target.validateClient(null, null, null));
+
+		assertTrue(target.validateClientById("clientId1"));
+		assertFalse(target.validateClientById("clientId2"));
+		assertFalse(target.validateClientById("unknown"));
+	}
+
+	@Test
+	public void testIncrementalRefresh() throws Exception {
+		changes.add(ClientChanges.full(1L, Arrays.asList(
+				client("clientId1", "secret1", true, "password"),
+				client("clientId2", "secret2", true, "password"))));
+		changes.add(new ClientChanges(2L, false,
+				Arrays.asList(client("clientId3", "secret3", true, "password")),
+				Arrays.asList("clientId1")));
+		changes.add(ClientChanges.none(2L));
+		changes.add(null);
+
+		target.refresh();
+		RegisteredClient client2 = target.getClient("clientId2");
+		final Boolean[] published = new Boolean[1];
+		target.refresh(new Handler<Boolean>() {
+			@Override
+			public void handle(Boolean event) {
+				published[0] = event;
+			}
+		});
+		assertTrue(published[0]);
+		assertEquals(2L, target.getVersion());
+		assertNull(target.getClient("clientId1"));
+		assertEquals(client2, target.getClient("clientId2"));
+		assertTrue(target.validateClientById("clientId3"));
+
+		target.refresh();
+		assertEquals(2, target.size());
+
+		target.refresh(new Handler<Boolean>() {
+			@Override
+			public void handle(Boolean event) {
+				published[0] = event;
+			}
+		});
+		assertFalse(published[0]);
+		assertEquals(2L, target.getVersion());
+		assertEquals(2, target.size());
+		assertEquals(Arrays.asList(-1L, 1L, 2L, 2L), requestedVersions);
+	}
+
+	@Test
+	public void testRefreshAfterSourceThrows() throws Exception {
+		target.setSource(new ClientSource() {
+			@Override
+			public void fetchChanges(long sinceVersion, Handler<ClientChanges> handler) {
+				requestedVersions.add(sinceVersion);
+				if (changes.isEmpty()) {
+					throw new IllegalStateException("Unavailable.");
+				}
+				handler.handle(changes.remove(0));
+			}
+		});
+		try {
+			target.refresh();
+			fail("IllegalStateException not occurred.");
+		} catch (IllegalStateException e) {
+			// Expected.
+		}
+		changes.add(ClientChanges.full(1L, Arrays.asList(client("clientId1", "secret1", true, "password"))));
+		target.refresh();
+		assertEquals(1L, target.getVersion());
+		assertEquals(Arrays.asList(-1L, -1L), requestedVersions);
+	}
+
+	@Test
+	public void testRefreshTimeout() throws Exception {
+		final long[] now = new long[] {1000L};
+		final List<Handler<ClientChanges>> pending = new ArrayList<Handler<ClientChanges>>();
+		target = new ClientRegistry() {
+			@Override
+			protected long currentTimeMillis() {
+				return now[0];
+			}
+		};
+		target.setRefreshTimeout(5000L);
+		target.setSource(new ClientSource() {
+			@Override
+			public void fetchChanges(long sinceVersion, Handler<ClientChanges> handler) {
+				requestedVersions.add(sinceVersion);
+				pending.add(handler);
+			}
+		});
+		final List<Boolean> published = new ArrayList<Boolean>();
+		Handler<Boolean> handler = new Handler<Boolean>() {
+			@Override
+			public void handle(Boolean event) {
+				published.add(event);
+			}
+		};
+		target.refresh(handler);
+		now[0] += 4999L;
+		target.refresh(handler);
+		assertEquals(Arrays.asList(false), published);
+		assertEquals(1, pending.size());
+
+		now[0] += 1L;
+		target.refresh(handler);
+		assertEquals(2, pending.size());
+		pending.get(0).handle(ClientChanges.full(1L, Arrays.asList(client("clientId1", "secret1", true, "password"))));
+		assertEquals(Arrays.asList(false, false), published);
+		assertEquals(-1L, target.getVersion());
+		pending.get(1).handle(ClientChanges.full(2L, Arrays.asList(client("clientId2", "secret2", true, "password"))));
+		assertEquals(Arrays.asList(false, false, true), published);
+		assertEquals(2L, target.getVersion());
+		assertTrue(target.validateClientById("clientId2"));
+	}
+
+	@Test
+	public void testClientInvalidatedOnOtherNode() throws Exception {
+		final List<RegisteredClient> database = new ArrayList<RegisteredClient>(Arrays.asList(
+				client("clientId1", "secret1", true, "password"),
+				client("clientId2", "secret2", true, "password")));
+		final long[] version = new long[] {1L};
+		ClientSource source = new ClientSource() {
+			@Override
+			public void fetchChanges(long sinceVersion, Handler<ClientChanges> handler) {
+				requestedVersions.add(sinceVersion);
+				handler.handle(sinceVersion == version[0] ? ClientChanges.none(version[0])
+						: ClientChanges.full(version[0], new ArrayList<RegisteredClient>(database)));
+			}
+		};
+		InJvmInvalidationTransport.Group group = new InJvmInvalidationTransport.Group();
+		InvalidationBus bus1 = new InvalidationBus(1L);
+		bus1.setHeartbeatInterval(0);
+		bus1.setMaxDelay(0);
+		bus1.setTransport(new InJvmInvalidationTransport(group));
+		InvalidationBus bus2 = new InvalidationBus(2L);
+		bus2.setHeartbeatInterval(0);
+		bus2.setMaxDelay(0);
+		bus2.setTransport(new InJvmInvalidationTransport(group));
+		ClientRegistry registry1 = new ClientRegistry();
+		registry1.setSource(source);
+		bus1.addListener(registry1);
+		ClientRegistry registry2 = new ClientRegistry();
+		registry2.setSource(source);
+		bus2.addListener(registry2);
+		registry1.refresh();
+		registry2.refresh();
+		assertTrue(registry2.validateClientById("clientId1"));
+
+		database.set(0, client("clientId1", "secret1", false, "password"));
+		version[0] = 2L;
+		bus1.invalidateClient("clientId1");
+		assertFalse(registry1.validateClientById("clientId1"));
+		assertFalse(registry2.validateClientById("clientId1"));
+		assertTrue(registry2.validateClientById("clientId2"));
+		assertEquals(2L, registry2.getVersion());
+		assertEquals(Arrays.asList(-1L, -1L, -1L, -1L), requestedVersions);
+		bus1.close();
+		bus2.close();
+	}
+
+	@Test
+	public void testClientInvalidatedDuringRefresh() throws Exception {
+		final List<Handler<ClientChanges>> pending = new ArrayList<Handler<ClientChanges>>();
+		target.setSource(new ClientSource() {
+			@Override
+			public void fetchChanges(long sinceVersion, Handler<ClientChanges> handler) {
+				requestedVersions.add(sinceVersion);
+				pending.add(handler);
+			}
+		});
+		target.refresh();
+		pending.get(0).handle(ClientChanges.full(1L, Arrays.asList(
+				client("clientId1", "secret1", true, "password"))));
+		target.refresh();
+		target.clientInvalidated("clientId1");
+		assertFalse(target.validateClientById("clientId1"));
+		assertEquals(2, pending.size());
+		pending.get(1).handle(new ClientChanges(2L, false,
+				Arrays.asList(client("clientId2", "secret2", true, "password")),
+				new ArrayList<String>()));
+		assertFalse(target.validateClientById("clientId1"));
+		assertFalse(target.validateClientById("clientId2"));
+		assertEquals(3, pending.size());
+		pending.get(2).handle(ClientChanges.full(3L, Arrays.asList(
+				client("clientId1", "secret1", false, "password"),
+				client("clientId2", "secret2", true, "password"))));
+		assertEquals(3L, target.getVersion());
+		assertFalse(target.validateClientById("clientId1"));
+		assertTrue(target.validateClientById("clientId2"));
+		assertEquals(Arrays.asList(-1L, 1L, -1L), requestedVersions);
+	}
+
+	private RegisteredClient client(String clientId, String secret,
+			boolean active, String... grantTypes) {
+		return new RegisteredClient(clientId, RegisteredClient.hashSecret(secret),
+				Arrays.asList(grantTypes), active);
+	}
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.saml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.exceptions.OAuthError;
+
+public class SamlAssertionValidatorTest {
+
+	private static final long NOW = 1500000000000L;
+
+	private SamlAssertionValidator target;
+
+	@Before
+	public void setUp() {
+		target = new SamlAssertionValidator() {
+			@Override
+			protected long currentTimeMillis() {
+				return NOW;
+			}
+		};
+		target.setAudiences(Arrays.asList("https://server/token"));
+	}
+
+	@Test
+	public void testValidate() throws Exception {
+		String xml = createAssertion(NOW - 10000L, NOW + 300000L, NOW + 200000L, "https://server/token", true);
+		SamlAssertion result = target.validate(Base64.encodeBase64URLSafeString(xml.getBytes(StandardCharsets.UTF_8)));
+		assertEquals("_id1", result.getId());
+		assertEquals("https://idp.example.com", result.getIssuer());
+		assertEquals("user1", result.getSubject());
+		assertEquals(Arrays.asList("other", "https://server/token"), result.getAudiences());
+		assertEquals(NOW - 10000L, result.getNotBefore());
+		assertEquals(NOW + 200000L, result.getExpiresAt());
+		assertTrue(result.isSigned());
+
+		SamlAssertion standard = target.validate(Base64.encodeBase64String(xml.getBytes(StandardCharsets.UTF_8)));
+		assertEquals(result.getDigest(), standard.getDigest());
+		String other = createAssertion(NOW - 10000L, NOW + 300000L, NOW + 200001L, "https://server/token", true);
+		assertNotEquals(result.getDigest(), target.validate(encode(other)).getDigest());
+	}
+
+	@Test
+	public void testTimeBounds() throws Exception {
+		assertError("Assertion has expired.",
+				createAssertion(0L, NOW - 60000L, 0L, "https://server/token", true));
+		target.validate(encode(createAssertion(0L, NOW - 59999L, 0L, "https://server/token", true)));
+		assertError("Assertion has expired.",
+				createAssertion(0L, NOW + 300000L, NOW - 60000L, "https://server/token", true));
+		assertError("Assertion is not valid yet.",
+				createAssertion(NOW + 60001L, NOW + 300000L, 0L, "https://server/token", true));
+		assertError("NotOnOrAfter not found.",
+				createAssertion(0L, 0L, 0L, "https://server/token", true));
+	}
+
+	@Test
+	public void testAudience() throws Exception {
+		assertError("Invalid audience.", createAssertion(0L, NOW + 300000L, 0L, "https://other/token", true));
+		target.setAudiences(Arrays.<String>asList());
+		assertError("Invalid audience.", createAssertion(0L, NOW + 300000L, 0L, "https://other/token", true));
+		assertError("Invalid audience.", createAssertion(0L, NOW + 300000L, 0L, "https://server/token", true));
+	}
+
+	@Test
+	public void testSignature() throws Exception {
+		assertError("Assertion is not signed.", createAssertion(0L, NOW + 300000L, 0L, "https://server/token", false));
+		target.setSignatureRequired(false);
+		assertFalse(target.validate(encode(
+				createAssertion(0L, NOW + 300000L, 0L, "https://server/token", false))).isSigned());
+	}
+
+	@Test
+	public void testMalformed() throws Exception {
+		assertError("Malformed assertion.", "<saml:Assertion");
+		assertError("Assertion not found.", "<Response/>");
+		assertError("DTD is not allowed.", "<?xml version=\"1.0\"?><!DOCTYPE foo [<!ENTITY xxe SYSTEM"
+				+ " \"file:///etc/passwd\">]><saml:Assertion xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\">"
+				+ "&xxe;</saml:Assertion>");
+		target.setMaxAssertionSize(100);
+		assertError("Assertion is too large.", createAssertion(0L, NOW + 300000L, 0L, "https://server/token", true));
+		try {
+			target.validate(null);
+			fail("Error not occurred.");
+		} catch (OAuthError.InvalidRequest e) {
+		}
+	}
+
+	private void assertError(String description, String xml) {
+		try {
+			target.validate(encode(xml));
+			fail("Error not occurred.");
+		} catch (OAuthError e) {
+			assertEquals(description, e.getDescription());
+		}
+	}
+
+	private static String encode(String xml) {
+		return Base64.encodeBase64URLSafeString(xml.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String createAssertion(long notBefore, long notOnOrAfter, long confirmationNotOnOrAfter,
+			String audience, boolean signed) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		sb.append("<saml:Assertion xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\"");
+		sb.append(" ID=\"_id1\" Version=\"2.0\" IssueInstant=\"2017-07-14T02:40:00Z\">");
+		sb.append("<saml:Issuer>https://idp.example.com</saml:Issuer>");
+		if (signed) {
+			sb.append("<ds:Signature xmlns:ds=\"http://www.w3.org/2000/09/xmldsig#\">");
+			sb.append("<ds:SignedInfo><saml:Issuer>ignored</saml:Issuer></ds:SignedInfo>");
+			sb.append("<ds:SignatureValue>AAAA</ds:SignatureValue></ds:Signature>");
+		}
+		sb.append("<saml:Subject><saml:NameID> user1 </saml:NameID>");
+		sb.append("<saml:SubjectConfirmation Method=\"urn:oasis:names:tc:SAML:2.0:cm:bearer\">");
+		sb.append("<saml:SubjectConfirmationData");
+		if (confirmationNotOnOrAfter != 0L) {
+			sb.append(" NotOnOrAfter=\"").append(Instant.ofEpochMilli(confirmationNotOnOrAfter)).append("\"");
+		}
+		sb.append("/></saml:SubjectConfirmation></saml:Subject>");
+		sb.append("<saml:Conditions");
+		if (notBefore != 0L) {
+			sb.append(" NotBefore=\"").append(Instant.ofEpochMilli(notBefore)).append("\"");
+		}
+		if (notOnOrAfter != 0L) {
+			sb.append(" NotOnOrAfter=\"").append(Instant.ofEpochMilli(notOnOrAfter)).append("\"");
+		}
+		sb.append("><saml:AudienceRestriction><saml:Audience>other</saml:Audience>");
+		sb.append("<saml:Audience>").append(audience).append("</saml:Audience>");
+		sb.append("</saml:AudienceRestriction></saml:Conditions>");
+		sb.append("<saml:AttributeStatement><saml:Attribute Name=\"mail\"><saml:AttributeValue>");
+		sb.append("user1@example.com</saml:AttributeValue></saml:Attribute></saml:AttributeStatement>");
+		sb.append("</saml:Assertion>");
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.scope;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ScopeRegistryTest {
+
+	@Test
+	public void testRegister() throws Exception {
+		ScopeRegistry target = new ScopeRegistry(Arrays.asList("read", "write"));
+		assertEquals(0, target.indexOf("read"));
+		assertEquals(1, target.indexOf("write"));
+		assertEquals(-1, target.indexOf("admin"));
+		assertEquals(2, target.register("admin"));
+		assertEquals(2, target.register("admin"));
+		assertEquals("admin", target.getName(2));
+		target.setMaxScopes(3);
+		assertEquals(-1, target.register("other"));
+	}
+
+	@Test
+	public void testParse() throws Exception {
+		ScopeRegistry target = new ScopeRegistry(Arrays.asList("read", "write"));
+		ScopeSet granted = target.parse("read  write admin");
+		assertEquals(2, granted.size());
+		assertTrue(granted.contains(0));
+		assertTrue(granted.contains(1));
+		assertTrue(granted.hasUnknown());
+		assertEquals(-1, target.indexOf("admin"));
+		assertSame(granted, target.parse("read  write admin"));
+		assertEquals(granted, target.parse("admin read write"));
+		assertSame(ScopeSet.EMPTY, target.parse(null));
+		assertSame(ScopeSet.EMPTY, target.parse(" "));
+		assertEquals("read write", target.toString(target.parse("admin write read")));
+	}
+
+	@Test
+	public void testContainsAll() throws Exception {
+		ScopeRegistry target = new ScopeRegistry();
+		for (int i = 0; i < 100; i++) {
+			target.register("scope" + i);
+		}
+		ScopeSet granted = target.parse("scope1 scope70");
+		assertTrue(granted.containsAll(target.parse("scope1")));
+		assertTrue(granted.containsAll(target.parse("scope70 scope1")));
+		assertTrue(granted.containsAll(ScopeSet.EMPTY));
+		assertFalse(granted.containsAll(target.parse("scope1 scope2")));
+		assertFalse(granted.containsAll(target.parse("scope99")));
+		assertFalse(target.parse("scope1").containsAll(granted));
+		assertTrue(ScopeSet.EMPTY.isEmpty());
+		assertFalse(ScopeSet.EMPTY.containsAll(granted));
+	}
+
+	@Test
+	public void testDeclare() throws Exception {
+		ScopeRegistry target = new ScopeRegistry(Arrays.asList("read"));
+		ScopeSet granted = target.parse("read admin");
+		assertFalse(granted.containsAll(target.of("admin")));
+		ScopeSet required = target.declare("admin");
+		assertEquals(1, target.indexOf("admin"));
+		assertFalse(granted.containsAll(required));
+		assertTrue(target.parse("read admin").containsAll(required));
+		for (int i = 0; i < 1000; i++) {
+			target.parse("token" + i);
+		}
+		assertEquals(-1, target.indexOf("token0"));
+		target.setMaxScopes(2);
+		try {
+			target.declare("write");
+			fail("IllegalArgumentException not occurred.");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testMaxScopes() throws Exception {
+		ScopeRegistry target = new ScopeRegistry(Arrays.asList("read"));
+		target.setMaxScopes(1);
+		ScopeSet granted = target.parse("read unknown");
+		assertEquals(1, granted.size());
+		assertFalse(granted.containsAll(target.parse("unknown")));
+		assertTrue(granted.hasUnknown());
+		assertFalse(target.parse("unknown").isEmpty());
+		assertTrue(granted.containsAll(target.parse("read")));
+	}
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.nio;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl;
+
+/**
+ * The loopback benchmark of the EmbeddedServer. This is not run as a test;
+ * run the main() method with the test classpath. The arguments are the
+ * number of the selector threads, the number of the client connections,
+ * the number of the pipelined requests per write and the duration in
+ * seconds.
+ */
+public class EmbeddedServerBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int selectorCount = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+		int connections = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		int pipeline = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+		int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+		long started = System.nanoTime();
+		EmbeddedServer server = EmbeddedServer.builder(new DummyDataHandlerFactoryImpl())
+				.host("127.0.0.1")
+				.port(0)
+				.selectorCount(selectorCount)
+				.build();
+		server.start();
+		System.out.printf("startup: %.2f ms%n", (System.nanoTime() - started) / 1e6);
+		try {
+			run(server.getLocalAddress(), "token", EmbeddedServerTest.createTokenRequest(),
+					connections, pipeline, seconds);
+			run(server.getLocalAddress(), "introspect",
+					"GET /introspect HTTP/1.1\r\nAuthorization: Bearer accessToken1\r\n\r\n",
+					connections, pipeline, seconds);
+		} finally {
+			server.stop();
+		}
+	}
+
+	private static void run(final InetSocketAddress address, String name, String request,
+			int connections, final int pipeline, int seconds) throws Exception {
+		StringBuilder batch = new StringBuilder();
+		for (int i = 0; i < pipeline; i++) {
+			batch.append(request);
+		}
+		final String requests = batch.toString();
+		final AtomicLong completed = new AtomicLong();
+		final CountDownLatch done = new CountDownLatch(connections);
+		final long deadline = System.nanoTime() + seconds * 1000000000L;
+		for (int i = 0; i < connections; i++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						LoopbackClient client = new LoopbackClient(address);
+						try {
+							while (System.nanoTime() < deadline) {
+								client.write(requests);
+								for (int j = 0; j < pipeline; j++) {
+									if (client.readStatus() != 200) {
+										throw new IllegalStateException(client.getHeader());
+									}
+									client.readBody();
+								}
+								completed.addAndGet(pipeline);
+							}
+						} finally {
+							client.close();
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					} finally {
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		done.await();
+		System.out.printf("%s: %d requests, %.0f requests/sec%n",
+				name, completed.get(), completed.get() / (double) seconds);
+	}
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl;
+
+public class EmbeddedServerTest {
+
+	private static final String TOKEN_BODY = "grant_type=authorization_code&client_id=clientId1"
+			+ "&client_secret=clientSecret1&code=code1&redirect_uri=redirectUri1";
+
+	private EmbeddedServer target;
+
+	@Before
+	public void setUp() throws Exception {
+		target = EmbeddedServer.builder(new DummyDataHandlerFactoryImpl())
+				.host("127.0.0.1")
+				.port(0)
+				.selectorCount(3)
+				.build();
+		target.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		target.stop();
+	}
+
+	@Test
+	public void testToken() throws Exception {
+		LoopbackClient client = new LoopbackClient(target.getLocalAddress());
+		try {
+			client.write(createTokenRequest());
+			assertEquals(200, client.readStatus());
+			assertEquals("{\"token_type\":\"Bearer\",\"access_token\":\"accessToken1\","
+					+ "\"refresh_token\":\"refreshToken1\",\"expires_in\":900,\"scope\":\"scope1\"}",
+					client.readBody());
+		} finally {
+			client.close();
+		}
+	}
+
+	@Test
+	public void testIntrospection() throws Exception {
+		LoopbackClient client = new LoopbackClient(target.getLocalAddress());
+		try {
+			client.write("GET /introspect HTTP/1.1\r\nAuthorization: Bearer accessToken1\r\n\r\n"
+					+ "GET /introspect HTTP/1.1\r\n\r\n"
+					+ "DELETE /introspect HTTP/1.1\r\n\r\n"
+					+ "GET /unknown HTTP/1.1\r\nConnection: close\r\n\r\n");
+			assertEquals(200, client.readStatus());
+			assertEquals("{\"active\":true,\"client_id\":\"clientId1\",\"sub\":\"userId1\",\"scope\":\"scope1\"}",
+					client.readBody());
+			assertEquals(400, client.readStatus());
+			assertTrue(client.getHeader(), client.getHeader().contains(
+					"WWW-Authenticate: Bearer error=\"invalid_request\", "
+					+ "error_description=\"Access token was not specified.\"\r\n"));
+			assertEquals("{\"error\":\"invalid_request\",\"error_description\":\"Access token was not specified.\"}",
+					client.readBody());
+			assertEquals(405, client.readStatus());
+			client.readBody();
+			assertEquals(404, client.readStatus());
+			client.readBody();
+			assertTrue(client.isClosedByPeer());
+		} finally {
+			client.close();
+		}
+	}
+
+	@Test
+	public void testSelectorThreads() throws Exception {
+		LoopbackClient[] clients = new LoopbackClient[6];
+		try {
+			for (int i = 0; i < clients.length; i++) {
+				clients[i] = new LoopbackClient(target.getLocalAddress());
+			}
+			for (int round = 0; round < 3; round++) {
+				for (LoopbackClient client : clients) {
+					client.write(createTokenRequest() + createTokenRequest());
+				}
+				for (LoopbackClient client : clients) {
+					for (int i = 0; i < 2; i++) {
+						assertEquals(200, client.readStatus());
+						assertTrue(client.readBody().contains("accessToken1"));
+					}
+				}
+			}
+		} finally {
+			for (LoopbackClient client : clients) {
+				if (client != null) {
+					client.close();
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testIdleTimeout() throws Exception {
+		EmbeddedServer server = EmbeddedServer.builder(new DummyDataHandlerFactoryImpl())
+				.host("127.0.0.1")
+				.port(0)
+				.idleTimeout(200L)
+				.build();
+		server.start();
+		LoopbackClient idle = null;
+		LoopbackClient partial = null;
+		try {
+			idle = new LoopbackClient(server.getLocalAddress());
+			idle.write(createTokenRequest());
+			assertEquals(200, idle.readStatus());
+			idle.readBody();
+			partial = new LoopbackClient(server.getLocalAddress());
+			partial.write("POST /token HTTP/1.1\r\n");
+			long start = System.nanoTime();
+			assertTrue(idle.isClosedByPeer());
+			assertTrue(partial.isClosedByPeer());
+			assertTrue(System.nanoTime() - start < 4000000000L);
+		} finally {
+			if (idle != null) {
+				idle.close();
+			}
+			if (partial != null) {
+				partial.close();
+			}
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testMaxConnections() throws Exception {
+		EmbeddedServer server = EmbeddedServer.builder(new DummyDataHandlerFactoryImpl())
+				.host("127.0.0.1")
+				.port(0)
+				.maxConnections(1)
+				.build();
+		server.start();
+		LoopbackClient first = null;
+		LoopbackClient second = null;
+		try {
+			first = new LoopbackClient(server.getLocalAddress());
+			first.write(createTokenRequest());
+			assertEquals(200, first.readStatus());
+			first.readBody();
+			second = new LoopbackClient(server.getLocalAddress());
+			assertTrue(second.isClosedByPeer());
+			first.write(createTokenRequest());
+			assertEquals(200, first.readStatus());
+			first.readBody();
+		} finally {
+			if (first != null) {
+				first.close();
+			}
+			if (second != null) {
+				second.close();
+			}
+			server.stop();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBuilderWithoutDataHandlerFactory() throws Exception {
+		EmbeddedServer.builder(null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBuilderWithInvalidSelectorCount() throws Exception {
+		EmbeddedServer.builder(new DummyDataHandlerFactoryImpl()).selectorCount(0).build();
+	}
+
+	static String createTokenRequest() {
+		return "POST /token HTTP/1.1\r\nHost: localhost\r\n"
+				+ "Content-Type: application/x-www-form-urlencoded\r\n"
+				+ "Content-Length: " + TOKEN_BODY.length() + "\r\n\r\n" + TOKEN_BODY;
+	}
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class FormParametersTest {
+
+	@Test
+	public void testGet() throws Exception {
+		FormParameters target = create("grant_type=password&username=user%401&password=p+w%2B%E3%81%82&&empty=&flag");
+		assertEquals(5, target.size());
+		assertEquals("password", target.get("grant_type"));
+		assertEquals("user@1", target.get("username"));
+		assertEquals("p w+あ", target.get("password"));
+		assertEquals("", target.get("empty"));
+		assertEquals("", target.get("flag"));
+		assertNull(target.get("scope"));
+		assertNull(target.get("grant"));
+	}
+
+	@Test
+	public void testEncodedName() throws Exception {
+		FormParameters target = create("client%5Fid=client1&a+b=c&client_id=client2");
+		assertEquals("client1", target.get("client_id"));
+		assertEquals("c", target.get("a b"));
+	}
+
+	@Test
+	public void testMalformedPercent() throws Exception {
+		FormParameters target = create("a=%zz&b=%4&c=%");
+		assertEquals("%zz", target.get("a"));
+		assertEquals("%4", target.get("b"));
+		assertEquals("%", target.get("c"));
+	}
+
+	@Test
+	public void testAsMap() throws Exception {
+		Map<String, String> map = create("k1=v1&k2=v%202&k1=v3").asMap();
+		assertEquals(2, map.size());
+		assertEquals("v1", map.get("k1"));
+		assertEquals("v 2", map.get("k2"));
+		assertEquals(0, FormParameters.EMPTY.size());
+		assertEquals(0, FormParameters.EMPTY.asMap().size());
+	}
+
+	@Test
+	public void testOffset() throws Exception {
+		byte[] bytes = "xxk1=v1&k2=v2yy".getBytes(StandardCharsets.US_ASCII);
+		FormParameters target = new FormParameters(bytes, 2, bytes.length - 4);
+		assertEquals("v1", target.get("k1"));
+		assertEquals("v2", target.get("k2"));
+	}
+
+	private static FormParameters create(String source) {
+		byte[] bytes = source.getBytes(StandardCharsets.US_ASCII);
+		return new FormParameters(bytes, 0, bytes.length);
+	}
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class HttpRequestDecoderTest {
+
+	private final HttpRequestDecoder target = new HttpRequestDecoder();
+
+	@Test
+	public void testDecodePipelined() throws Exception {
+		String body = "grant_type=client_credentials&scope=a%20b";
+		String first = "POST /token?x=1&scope=q HTTP/1.1\r\nHost: localhost\r\n"
+				+ "Content-Type: application/x-www-form-urlencoded; charset=UTF-8\r\n"
+				+ "Authorization:  Basic abc \r\nContent-Length: " + body.length() + "\r\n\r\n" + body;
+		String second = "GET /health HTTP/1.1\r\nConnection: close\r\n\r\n";
+		ByteBuffer buffer = ByteBuffer.wrap((first + second).getBytes(StandardCharsets.US_ASCII));
+
+		NioRequest request = target.decode(buffer);
+		assertEquals("POST", request.getMethod());
+		assertEquals("/token", request.getPath());
+		assertEquals("Basic abc", request.getHeader("authorization"));
+		assertEquals("localhost", request.getHeader("HOST"));
+		assertEquals("client_credentials", request.getParameter("grant_type"));
+		assertEquals("q", request.getParameter("scope"));
+		assertEquals("1", request.getParameter("x"));
+		assertEquals(3, request.getParameterMap().size());
+		assertEquals("q", request.getParameterMap().get("scope"));
+		assertTrue(request.isKeepAlive());
+		assertEquals(first.length(), buffer.position());
+
+		request = target.decode(buffer);
+		assertEquals("GET", request.getMethod());
+		assertEquals("/health", request.getPath());
+		assertFalse(request.isKeepAlive());
+		assertNull(request.getParameter("x"));
+		assertFalse(buffer.hasRemaining());
+	}
+
+	@Test
+	public void testDecodeIncomplete() throws Exception {
+		String request = "POST /token HTTP/1.0\r\nConnection: keep-alive\r\n"
+				+ "Content-Type: application/x-www-form-urlencoded\r\nContent-Length: 5\r\n\r\na=b&c";
+		for (int i = 0; i < request.length(); i++) {
+			ByteBuffer buffer = ByteBuffer.wrap(request.substring(0, i).getBytes(StandardCharsets.US_ASCII));
+			assertNull(target.decode(buffer));
+			assertEquals(0, buffer.position());
+		}
+		NioRequest decoded = target.decode(ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII)));
+		assertEquals("b", decoded.getParameter("a"));
+		assertTrue(decoded.isKeepAlive());
+		decoded = target.decode(ByteBuffer.wrap("GET / HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII)));
+		assertFalse(decoded.isKeepAlive());
+	}
+
+	@Test
+	public void testNotForm() throws Exception {
+		String request = "POST /token HTTP/1.1\r\nContent-Type: application/json\r\nContent-Length: 7\r\n\r\n{\"a\":1}";
+		NioRequest decoded = target.decode(ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII)));
+		assertNull(decoded.getParameter("a"));
+		assertTrue(decoded.getParameterMap().isEmpty());
+	}
+
+	@Test
+	public void testInvalid() throws Exception {
+		assertError(400, "GET /\r\n\r\n");
+		assertError(505, "GET / HTTP/2.0\r\n\r\n");
+		assertError(400, "GET / HTTP/1.1\r\nNoColon\r\n\r\n");
+		assertError(400, "GET / HTTP/1.1\r\nA: b\r\n c\r\n\r\n");
+		assertError(400, "POST / HTTP/1.1\r\nContent-Length: x\r\n\r\n");
+		assertError(400, "POST / HTTP/1.1\r\nContent-Length: -1\r\n\r\n");
+		assertError(501, "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n");
+		target.setMaxBodySize(10);
+		assertError(413, "POST / HTTP/1.1\r\nContent-Length: 11\r\n\r\n");
+		target.setMaxHeaderCount(1);
+		assertError(431, "GET / HTTP/1.1\r\nA: 1\r\nB: 2\r\n\r\n");
+		target.setMaxHeaderSize(16);
+		assertError(431, "GET / HTTP/1.1\r\nHost: localhost");
+	}
+
+	@Test
+	public void testMultipleContentLength() throws Exception {
+		assertError(400, "POST / HTTP/1.1\r\nContent-Length: 3\r\nContent-Length: 3\r\n\r\na=b");
+		assertError(400, "POST / HTTP/1.1\r\nContent-Length: 0\r\ncontent-length: 3\r\n\r\na=b");
+		assertError(400, "POST / HTTP/1.1\r\nContent-Length: 3, 3\r\n\r\na=b");
+		assertError(400, "POST / HTTP/1.1\r\nContent-Length: +3\r\n\r\na=b");
+	}
+
+	private void assertError(int status, String request) {
+		try {
+			target.decode(ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII)));
+			fail("DecodeException not occurred.");
+		} catch (HttpRequestDecoder.DecodeException e) {
+			assertEquals(status, e.getStatus());
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.nio;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+class LoopbackClient implements Closeable {
+
+	private final Socket socket;
+	private final InputStream in;
+	private final OutputStream out;
+	private String header;
+
+	LoopbackClient(InetSocketAddress address) throws IOException {
+		socket = new Socket();
+		socket.connect(address, 5000);
+		socket.setSoTimeout(5000);
+		socket.setTcpNoDelay(true);
+		in = new BufferedInputStream(socket.getInputStream());
+		out = socket.getOutputStream();
+	}
+
+	void write(String request) throws IOException {
+		out.write(request.getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+	}
+
+	int readStatus() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int state = 0;
+		while (state < 4) {
+			int b = in.read();
+			if (b < 0) {
+				throw new IOException("Unexpected end of stream.");
+			}
+			bytes.write(b);
+			state = (b == '\r' && (state == 0 || state == 2)) || (b == '\n' && (state == 1 || state == 3))
+					? state + 1 : 0;
+		}
+		header = new String(bytes.toByteArray(), StandardCharsets.US_ASCII);
+		return Integer.parseInt(header.substring(9, 12));
+	}
+
+	String getHeader() {
+		return header;
+	}
+
+	String readBody() throws IOException {
+		int start = header.indexOf("Content-Length: ") + 16;
+		int length = Integer.parseInt(header.substring(start, header.indexOf('\r', start)));
+		byte[] body = new byte[length];
+		int read = 0;
+		while (read < length) {
+			int n = in.read(body, read, length - read);
+			if (n < 0) {
+				throw new IOException("Unexpected end of stream.");
+			}
+			read += n;
+		}
+		return new String(body, StandardCharsets.UTF_8);
+	}
+
+	boolean isClosedByPeer() throws IOException {
+		return in.read() < 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+
+}
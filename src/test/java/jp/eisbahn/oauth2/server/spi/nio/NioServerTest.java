@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.endpoint.Token;
+import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcherImpl;
+import jp.eisbahn.oauth2.server.granttype.impl.DefaultGrantHandlerProvider;
+import jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl;
+
+public class NioServerTest {
+
+	private NioServer target;
+
+	@After
+	public void tearDown() throws Exception {
+		if (target != null) {
+			target.stop();
+		}
+	}
+
+	@Test
+	public void testToken() throws Exception {
+		Token token = new Token();
+		token.setDataHandlerFactory(new DummyDataHandlerFactoryImpl());
+		token.setGrantHandlerProvider(new DefaultGrantHandlerProvider());
+		token.setClientCredentialFetcher(new ClientCredentialFetcherImpl());
+		target = new NioServer(new InetSocketAddress("127.0.0.1", 0), new TokenRequestHandler(token));
+		target.start();
+
+		String body = "grant_type=authorization_code&client_id=clientId1&client_secret=clientSecret1"
+				+ "&code=code1&redirect_uri=redirectUri1";
+		String request = "POST /token HTTP/1.1\r\nHost: localhost\r\n"
+				+ "Authorization: Bearer accessToken1\r\n"
+				+ "Content-Type: application/x-www-form-urlencoded\r\n"
+				+ "Content-Length: " + body.length() + "\r\n\r\n" + body;
+		String expected = "{\"token_type\":\"Bearer\",\"access_token\":\"accessToken1\","
+				+ "\"refresh_token\":\"refreshToken1\",\"expires_in\":900,\"scope\":\"scope1\"}";
+		Socket socket = connect();
+		try {
+			OutputStream out = socket.getOutputStream();
+			out.write((request + request).getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			InputStream in = socket.getInputStream();
+			for (int i = 0; i < 2; i++) {
+				String header = readHeader(in);
+				assertTrue(header, header.startsWith("HTTP/1.1 200 OK\r\n"));
+				assertTrue(header.contains("Cache-Control: no-store\r\n"));
+				assertTrue(header.contains("Connection: keep-alive\r\n"));
+				assertEquals(expected, readBody(in, header));
+			}
+			out.write("GET /token HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			String header = readHeader(in);
+			assertTrue(header, header.startsWith("HTTP/1.1 405 Method Not Allowed\r\n"));
+			assertTrue(header.contains("Allow: POST\r\n"));
+			assertTrue(header.contains("Connection: close\r\n"));
+			assertEquals(-1, in.read());
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void testAsyncResponseOrder() throws Exception {
+		target = new NioServer(new InetSocketAddress("127.0.0.1", 0), new RequestHandler() {
+			@Override
+			public void handle(final NioRequest request, final ResponseChannel channel) {
+				new Thread(new Runnable() {
+					@Override
+					public void run() {
+						channel.send(200, null, "{\"path\":\"" + request.getPath() + "\"}");
+					}
+				}).start();
+			}
+		});
+		target.setBufferPool(new BufferPool(64, 4));
+		target.start();
+		Socket socket = connect();
+		try {
+			StringBuilder requests = new StringBuilder();
+			for (int i = 0; i < 10; i++) {
+				requests.append("GET /").append(i).append(" HTTP/1.1\r\n\r\n");
+			}
+			OutputStream out = socket.getOutputStream();
+			out.write(requests.toString().getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			InputStream in = socket.getInputStream();
+			for (int i = 0; i < 10; i++) {
+				String header = readHeader(in);
+				assertEquals("{\"path\":\"/" + i + "\"}", readBody(in, header));
+			}
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void testBadRequest() throws Exception {
+		target = new NioServer(new InetSocketAddress("127.0.0.1", 0), new RequestHandler() {
+			@Override
+			public void handle(NioRequest request, ResponseChannel channel) {
+				throw new IllegalStateException();
+			}
+		});
+		target.start();
+		Socket socket = connect();
+		try {
+			OutputStream out = socket.getOutputStream();
+			out.write("GET / HTTP/1.1\r\n\r\nBROKEN\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			InputStream in = socket.getInputStream();
+			String header = readHeader(in);
+			assertTrue(header, header.startsWith("HTTP/1.1 500 "));
+			readBody(in, header);
+			header = readHeader(in);
+			assertTrue(header, header.startsWith("HTTP/1.1 400 "));
+			assertTrue(readBody(in, header).contains("invalid_request"));
+			assertEquals(-1, in.read());
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void testEncoder() throws Exception {
+		BufferPool pool = new BufferPool(256, 1);
+		HttpResponseEncoder encoder = new HttpResponseEncoder(pool);
+		ByteBuffer buffer = encoder.encode(429, Collections.singletonMap("Retry-After", "3"),
+				"{\"a\":\"あ\"}", true);
+		assertTrue(buffer.isDirect());
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		String response = new String(bytes, StandardCharsets.UTF_8);
+		assertTrue(response, response.startsWith("HTTP/1.1 429 Too Many Requests\r\n"));
+		assertTrue(response.contains("Content-Length: 11\r\n"));
+		assertTrue(response.contains("Retry-After: 3\r\n"));
+		assertTrue(response.endsWith("\r\n\r\n{\"a\":\"あ\"}"));
+		encoder.release(buffer);
+		assertEquals(1, pool.getPooledCount());
+		ByteBuffer large = encoder.encode(200, null, new String(new char[300]).replace('\0', 'x'), false);
+		assertTrue(!large.isDirect());
+		encoder.release(large);
+		assertEquals(1, pool.getPooledCount());
+	}
+
+	private Socket connect() throws IOException {
+		Socket socket = new Socket();
+		socket.connect(target.getLocalAddress(), 5000);
+		socket.setSoTimeout(5000);
+		return socket;
+	}
+
+	private static String readHeader(InputStream in) throws IOException {
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		int state = 0;
+		while (state < 4) {
+			int b = in.read();
+			if (b < 0) {
+				throw new IOException("Unexpected end of stream.");
+			}
+			header.write(b);
+			state = (b == '\r' && (state == 0 || state == 2)) || (b == '\n' && (state == 1 || state == 3))
+					? state + 1 : 0;
+		}
+		return new String(header.toByteArray(), StandardCharsets.US_ASCII);
+	}
+
+	private static String readBody(InputStream in, String header) throws IOException {
+		int start = header.indexOf("Content-Length: ") + 16;
+		int length = Integer.parseInt(header.substring(start, header.indexOf('\r', start)));
+		byte[] body = new byte[length];
+		int read = 0;
+		while (read < length) {
+			int n = in.read(body, read, length - read);
+			if (n < 0) {
+				throw new IOException("Unexpected end of stream.");
+			}
+			read += n;
+		}
+		return new String(body, StandardCharsets.UTF_8);
+	}
+
+}
@@ -54,4 +54,21 @@ public class HttpServletRequestAdapterTest {
 		verify(request);
 	}
 
+	@Test
+	public void testParameterMapOfArrays() {
+		HttpServletRequest request = createMock(HttpServletRequest.class);
+		Map<String, String[]> map = new HashMap<String, String[]>();
+		map.put("k1", new String[]{"v1", "v3"});
+		map.put("k2", new String[]{"v2"});
+		expect(request.getParameterMap()).andReturn(map);
+		replay(request);
+		HttpServletRequestAdapter target = new HttpServletRequestAdapter(request);
+		Map<String, String> parameterMap = target.getParameterMap();
+		assertEquals(2, parameterMap.size());
+		assertEquals("v1", parameterMap.get("k1"));
+		assertEquals("v2", parameterMap.get("k2"));
+		assertSame(parameterMap, target.getParameterMap());
+		verify(request);
+	}
+
 }
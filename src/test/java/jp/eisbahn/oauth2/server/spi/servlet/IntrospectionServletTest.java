@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+public class IntrospectionServletTest {
+
+	@Test
+	public void testBatch() throws Exception {
+		HttpServletRequest request = createMock(HttpServletRequest.class);
+		expect(request.getParameter("token")).andReturn(null);
+		expect(request.getParameter("tokens")).andReturn("accessToken1 accessToken2");
+		expect(request.getHeader("Authorization")).andReturn(null);
+		expect(request.getParameter("client_id")).andReturn("clientId1");
+		expect(request.getParameter("client_secret")).andReturn("clientSecret1");
+		StringWriter body = new StringWriter();
+		HttpServletResponse response = createMock(HttpServletResponse.class);
+		response.setStatus(200);
+		response.setHeader("Cache-Control", "no-store");
+		response.setContentType("application/json; charset=UTF-8");
+		expect(response.getWriter()).andReturn(new PrintWriter(body));
+		ServletConfig config = createConfig("5");
+		replay(request, response, config);
+
+		IntrospectionServlet target = new IntrospectionServlet();
+		target.init(config);
+		target.doPost(request, response);
+
+		verify(request, response, config);
+		assertTrue(body.toString(), body.toString().matches(
+				"\\[(\\{\"active\":true,\"scope\":\"scope1\",\"client_id\":\"clientId1\",\"sub\":\"userId1\","
+				+ "\"token_type\":\"Bearer\",\"iat\":\\d+,\"exp\":\\d+\\},?){2}\\]"));
+	}
+
+	@Test(expected = ServletException.class)
+	public void testInvalidMaxBatchSize() throws Exception {
+		ServletConfig config = createConfig("many");
+		replay(config);
+		new IntrospectionServlet().init(config);
+	}
+
+	private static ServletConfig createConfig(String maxBatchSize) {
+		ServletConfig config = createMock(ServletConfig.class);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
+		expect(config.getInitParameter("clientCredentialFetcher")).andReturn(null);
+		expect(config.getInitParameter("maxBatchSize")).andReturn(maxBatchSize);
+		return config;
+	}
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.spi.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import jp.eisbahn.oauth2.server.scope.ScopeRegistry;
+
+public class PathPolicyTrieTest {
+
+	@Test
+	public void testMatch() throws Exception {
+		ScopeRegistry scopeRegistry = new ScopeRegistry();
+		PathPolicyTrie target = PathPolicyTrie.parse(
+				"/api/public public\n\n  /api/admin   token admin write \r\n/api token\n", scopeRegistry);
+		assertSame(PathPolicy.PUBLIC, target.match("/api/public"));
+		assertSame(PathPolicy.PUBLIC, target.match("/api/public/"));
+		assertSame(PathPolicy.PUBLIC, target.match("/api//public/img/logo.png"));
+		PathPolicy admin = target.match("/api/admin/users");
+		assertEquals(scopeRegistry.parse("admin write"), admin.getRequiredScopes());
+		PathPolicy api = target.match("/api/publicity");
+		assertTrue(api.getRequiredScopes().isEmpty());
+		assertSame(api, target.match("/api"));
+		assertNull(target.match("/other"));
+		assertNull(target.match("/"));
+		assertNull(target.match(null));
+	}
+
+	@Test
+	public void testTraversal() throws Exception {
+		PathPolicyTrie target = PathPolicyTrie.parse("/public public\n/ token", new ScopeRegistry());
+		assertSame(PathPolicy.PUBLIC, target.match("/public/a"));
+		assertNull(target.match("/public/../admin"));
+		assertNull(target.match("/public/./a"));
+		assertNull(target.match("/public;x/a"));
+		assertEquals(false, target.match("/admin").isPublic());
+	}
+
+	@Test
+	public void testPut() throws Exception {
+		PathPolicyTrie target = new PathPolicyTrie();
+		target.put("/a", PathPolicy.PUBLIC);
+		PathPolicy policy = PathPolicy.tokenRequired(new ScopeRegistry().parse("s"));
+		target.put("/a/", policy);
+		assertSame(policy, target.match("/a/b"));
+	}
+
+	@Test
+	public void testParseInvalid() throws Exception {
+		try {
+			PathPolicyTrie.parse("/a", new ScopeRegistry());
+			fail("IllegalArgumentException not occurred.");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			PathPolicyTrie.parse("/a public x", new ScopeRegistry());
+			fail("IllegalArgumentException not occurred.");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+}
@@ -54,6 +54,8 @@ public class ProtectedResourceFilterTest {
 		expect(config.getInitParameter("dataHandlerFactory"))
 			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
 		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(null);
+		expect(config.getInitParameter("requiredScope")).andReturn(null);
+		expect(config.getInitParameter("pathPolicy")).andReturn(null);
 		replay(request, response, config, chain);
 		ProtectedResourceFilter target = new ProtectedResourceFilter();
 		target.init(config);
@@ -77,6 +79,8 @@ public class ProtectedResourceFilterTest {
 			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
 		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(
 			"jp.eisbahn.oauth2.server.fetcher.accesstoken.impl.DefaultAccessTokenFetcherProvider");
+		expect(config.getInitParameter("requiredScope")).andReturn(null);
+		expect(config.getInitParameter("pathPolicy")).andReturn(null);
 		replay(request, response, config, chain);
 		ProtectedResourceFilter target = new ProtectedResourceFilter();
 		target.init(config);
@@ -101,6 +105,8 @@ public class ProtectedResourceFilterTest {
 		expect(config.getInitParameter("dataHandlerFactory"))
 			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
 		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(null);
+		expect(config.getInitParameter("requiredScope")).andReturn(null);
+		expect(config.getInitParameter("pathPolicy")).andReturn(null);
 		replay(request, response, config, chain);
 		ProtectedResourceFilter target = new ProtectedResourceFilter();
 		target.init(config);
@@ -109,6 +115,99 @@ public class ProtectedResourceFilterTest {
 		verify(request, response, config, chain);
 	}
 
+	@Test
+	public void testInsufficientScope() throws Exception {
+		HttpServletRequest request = createMock(HttpServletRequest.class);
+		expect(request.getHeader("Authorization")).andReturn("Bearer accessToken1").times(4);
+		request.setAttribute("client_id", "clientId1");
+		request.setAttribute("remote_user", "userId1");
+		request.setAttribute("scope", "scope1");
+		HttpServletResponse response = createMock(HttpServletResponse.class);
+		response.setStatus(401);
+		response.setHeader("WWW-Authenticate",
+				"Bearer error=\"insufficient_scope\", "
+				+ "error_description=\"Insufficient scope.\"");
+		FilterConfig config = createMock(FilterConfig.class);
+		FilterChain chain = createMock(FilterChain.class);
+		chain.doFilter(request, response);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl").times(2);
+		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(null).times(2);
+		expect(config.getInitParameter("requiredScope")).andReturn("scope1");
+		expect(config.getInitParameter("requiredScope")).andReturn("scope1 scope2");
+		expect(config.getInitParameter("pathPolicy")).andReturn(null).times(2);
+		replay(request, response, config, chain);
+		ProtectedResourceFilter target = new ProtectedResourceFilter();
+		target.init(config);
+		target.doFilter(request, response, chain);
+		target.destroy();
+		target = new ProtectedResourceFilter();
+		target.init(config);
+		target.doFilter(request, response, chain);
+		target.destroy();
+		verify(request, response, config, chain);
+	}
+
+	@Test
+	public void testPathPolicy() throws Exception {
+		HttpServletRequest publicRequest = createMock(HttpServletRequest.class);
+		expect(publicRequest.getServletPath()).andReturn("/api");
+		expect(publicRequest.getPathInfo()).andReturn("/health/live");
+		HttpServletRequest adminRequest = createMock(HttpServletRequest.class);
+		expect(adminRequest.getServletPath()).andReturn("/api");
+		expect(adminRequest.getPathInfo()).andReturn("/admin/users");
+		expect(adminRequest.getHeader("Authorization")).andReturn("Bearer accessToken1").times(2);
+		HttpServletRequest otherRequest = createMock(HttpServletRequest.class);
+		expect(otherRequest.getServletPath()).andReturn("/api");
+		expect(otherRequest.getPathInfo()).andReturn("/health/../admin");
+		expect(otherRequest.getHeader("Authorization")).andReturn("Bearer accessToken1").times(2);
+		otherRequest.setAttribute("client_id", "clientId1");
+		otherRequest.setAttribute("remote_user", "userId1");
+		otherRequest.setAttribute("scope", "scope1");
+		HttpServletResponse response = createMock(HttpServletResponse.class);
+		response.setStatus(401);
+		response.setHeader("WWW-Authenticate",
+				"Bearer error=\"insufficient_scope\", "
+				+ "error_description=\"Insufficient scope.\"");
+		FilterConfig config = createMock(FilterConfig.class);
+		FilterChain chain = createMock(FilterChain.class);
+		chain.doFilter(publicRequest, response);
+		chain.doFilter(otherRequest, response);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
+		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(null);
+		expect(config.getInitParameter("requiredScope")).andReturn("scope1");
+		expect(config.getInitParameter("pathPolicy")).andReturn(
+				"/api/health public\n/api/admin token admin\n");
+		replay(publicRequest, adminRequest, otherRequest, response, config, chain);
+		ProtectedResourceFilter target = new ProtectedResourceFilter();
+		target.init(config);
+		target.doFilter(publicRequest, response, chain);
+		target.doFilter(adminRequest, response, chain);
+		target.doFilter(otherRequest, response, chain);
+		target.destroy();
+		verify(publicRequest, adminRequest, otherRequest, response, config, chain);
+	}
+
+	@Test
+	public void testInvalidPathPolicy() throws Exception {
+		FilterConfig config = createMock(FilterConfig.class);
+		expect(config.getInitParameter("dataHandlerFactory"))
+			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
+		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(null);
+		expect(config.getInitParameter("requiredScope")).andReturn(null);
+		expect(config.getInitParameter("pathPolicy")).andReturn("/api/health open");
+		replay(config);
+
+		ProtectedResourceFilter target = new ProtectedResourceFilter();
+		try {
+			target.init(config);
+			fail("ServletException not occurred.");
+		} catch (ServletException e) {
+		}
+		verify(config);
+	}
+
 	@Test
 	public void testClassNotFound() throws Exception {
 		FilterConfig config = createMock(FilterConfig.class);
@@ -178,6 +277,8 @@ public class ProtectedResourceFilterTest {
 		expect(config.getInitParameter("dataHandlerFactory"))
 			.andReturn("jp.eisbahn.oauth2.server.spi.servlet.DummyDataHandlerFactoryImpl");
 		expect(config.getInitParameter("accessTokenFetcherProvider")).andReturn(null);
+		expect(config.getInitParameter("requiredScope")).andReturn(null);
+		expect(config.getInitParameter("pathPolicy")).andReturn(null);
 		replay(request, response, config, chain);
 		ProtectedResourceFilter target = new ProtectedResourceFilter();
 		target.init(config);
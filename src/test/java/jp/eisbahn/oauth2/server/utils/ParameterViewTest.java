@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package jp.eisbahn.oauth2.server.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ParameterViewTest {
+
+	@Test
+	public void testArrayValues() throws Exception {
+		Map<String, String[]> source = new HashMap<String, String[]>();
+		source.put("k1", new String[]{"v1", "v2"});
+		source.put("k2", new String[0]);
+		source.put("access_token", new String[]{"token1"});
+		ParameterView target = new ParameterView(source, "access_token");
+		assertEquals(2, target.size());
+		assertEquals("v1", target.get("k1"));
+		assertNull(target.get("k2"));
+		assertTrue(target.containsKey("k2"));
+		assertNull(target.get("access_token"));
+		assertFalse(target.containsKey("access_token"));
+		Map<String, String> expected = new HashMap<String, String>();
+		expected.put("k1", "v1");
+		expected.put("k2", null);
+		assertEquals(expected, target);
+		assertEquals(expected, new HashMap<String, String>(target));
+	}
+
+	@Test
+	public void testLazy() throws Exception {
+		Map<String, String> source = new HashMap<String, String>();
+		ParameterView target = new ParameterView(source, "access_token", "oauth_token");
+		assertTrue(target.isEmpty());
+		source.put("access_token", "token1");
+		assertTrue(target.isEmpty());
+		source.put("k1", "v1");
+		assertEquals(1, target.size());
+		assertEquals("v1", target.get("k1"));
+	}
+
+	@Test
+	public void testReadOnly() throws Exception {
+		Map<String, String> source = new HashMap<String, String>();
+		source.put("k1", "v1");
+		ParameterView target = new ParameterView(source);
+		try {
+			target.put("k2", "v2");
+			fail("UnsupportedOperationException not occurred.");
+		} catch (UnsupportedOperationException e) {
+		}
+		Iterator<Map.Entry<String, String>> i = target.entrySet().iterator();
+		i.next();
+		try {
+			i.remove();
+			fail("UnsupportedOperationException not occurred.");
+		} catch (UnsupportedOperationException e) {
+		}
+		try {
+			target.entrySet().iterator().next().setValue("v2");
+			fail("UnsupportedOperationException not occurred.");
+		} catch (UnsupportedOperationException e) {
+		}
+		assertFalse(i.hasNext());
+		assertEquals("v1", source.get("k1"));
+	}
+
+}